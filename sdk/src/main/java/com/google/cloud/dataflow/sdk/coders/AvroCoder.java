@@ -19,12 +19,16 @@ package com.google.cloud.dataflow.sdk.coders;
 import static com.google.cloud.dataflow.sdk.util.Structs.addString;
 
 import com.google.cloud.dataflow.sdk.util.CloudObject;
+import com.google.cloud.dataflow.sdk.util.VarInt;
 import com.google.cloud.dataflow.sdk.values.TypeDescriptor;
+import com.google.common.io.ByteStreams;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import org.apache.avro.AvroRuntimeException;
 import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
 import org.apache.avro.generic.GenericDatumReader;
 import org.apache.avro.generic.GenericDatumWriter;
 import org.apache.avro.generic.GenericRecord;
@@ -43,14 +47,19 @@ import org.apache.avro.reflect.ReflectDatumReader;
 import org.apache.avro.reflect.ReflectDatumWriter;
 import org.apache.avro.reflect.Union;
 import org.apache.avro.specific.SpecificData;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.apache.avro.specific.SpecificRecord;
 import org.apache.avro.util.ClassUtils;
 import org.apache.avro.util.Utf8;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
 import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
@@ -101,6 +110,9 @@ import javax.annotation.Nullable;
  * Schema provided or generated by Avro. Only coders that are deterministic can be used in
  * {@link com.google.cloud.dataflow.sdk.transforms.GroupByKey} operations.
  *
+ * <p>If {@code T} is a generated {@link SpecificRecord} class, values are read and written
+ * using Avro's generated code rather than reflection.
+ *
  * @param <T> the type of elements handled by this coder
  */
 public class AvroCoder<T> extends StandardCoder<T> {
@@ -120,6 +132,10 @@ public class AvroCoder<T> extends StandardCoder<T> {
    * @param <T> the element type
    */
   public static <T> AvroCoder<T> of(Class<T> clazz) {
+    if (SpecificRecord.class.isAssignableFrom(clazz)) {
+      // Use the schema the generated code was generated from.
+      return new AvroCoder<>(clazz, new SpecificData(clazz.getClassLoader()).getSchema(clazz));
+    }
     return new AvroCoder<>(clazz, ReflectData.get().getSchema(clazz));
   }
 
@@ -176,6 +192,23 @@ public class AvroCoder<T> extends StandardCoder<T> {
   private final EncoderFactory encoderFactory = new EncoderFactory();
   private final DecoderFactory decoderFactory = new DecoderFactory();
 
+  /**
+   * A stream with no content which encoders and decoders are pointed at between uses, so that
+   * they do not retain the streams they were last used with.
+   */
+  private static final OutputStream NULL_OUTPUT_STREAM = ByteStreams.nullOutputStream();
+  private static final InputStream EMPTY_INPUT_STREAM = new ByteArrayInputStream(new byte[0]);
+
+  /**
+   * Each thread's encoder, reconfigured for each value rather than allocated afresh.
+   */
+  private final ThreadLocal<BinaryEncoder> encoders = new ThreadLocal<>();
+
+  /**
+   * Each thread's decoder, reconfigured for each value rather than allocated afresh.
+   */
+  private final ThreadLocal<BinaryDecoder> decoders = new ThreadLocal<>();
+
   protected AvroCoder(Class<T> type, Schema schema) {
     this.type = type;
     this.schema = schema;
@@ -235,15 +268,141 @@ public class AvroCoder<T> extends StandardCoder<T> {
   @Override
   public void encode(T value, OutputStream outStream, Context context)
       throws IOException {
-    BinaryEncoder encoder = encoderFactory.directBinaryEncoder(outStream, null);
+    BinaryEncoder encoder = encoderFactory.directBinaryEncoder(outStream, encoders.get());
+    // Clear the thread's encoder while it is in use, in case encoding is reentrant.
+    encoders.set(null);
     writer.write(value, encoder);
     encoder.flush();
+    encoders.set(encoderFactory.directBinaryEncoder(NULL_OUTPUT_STREAM, encoder));
   }
 
   @Override
   public T decode(InputStream inStream, Context context) throws IOException {
-    BinaryDecoder decoder = decoderFactory.directBinaryDecoder(inStream, null);
-    return reader.read(null, decoder);
+    BinaryDecoder decoder = decoderFactory.directBinaryDecoder(inStream, decoders.get());
+    // Clear the thread's decoder while it is in use, in case decoding is reentrant.
+    decoders.set(null);
+    T result = reader.read(null, decoder);
+    decoders.set(decoderFactory.directBinaryDecoder(EMPTY_INPUT_STREAM, decoder));
+    return result;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @return {@code true} for generic and specific records, whose encoded size is computed
+   * by walking the record along the schema rather than by encoding it.
+   */
+  @Override
+  public boolean isRegisterByteSizeObserverCheap(T value, Context context) {
+    return value instanceof IndexedRecord && !(writer instanceof ReflectDatumWriter);
+  }
+
+  @Override
+  protected long getEncodedElementByteSize(T value, Context context) throws Exception {
+    if (isRegisterByteSizeObserverCheap(value, context)) {
+      return encodedSize(((GenericDatumWriter<T>) writer).getData(), schema, value);
+    }
+    return super.getEncodedElementByteSize(value, context);
+  }
+
+  /**
+   * Returns the number of bytes the {@link GenericDatumWriter} for the given data model writes
+   * for {@code datum} with the {@code directBinaryEncoder}.
+   */
+  private static long encodedSize(GenericData data, Schema schema, Object datum) {
+    switch (schema.getType()) {
+      case RECORD: {
+        long size = 0;
+        for (Schema.Field field : schema.getFields()) {
+          size += encodedSize(
+              data, field.schema(), data.getField(datum, field.name(), field.pos()));
+        }
+        return size;
+      }
+      case UNION: {
+        int index = data.resolveUnion(schema, datum);
+        return zigZagLength(index) + encodedSize(data, schema.getTypes().get(index), datum);
+      }
+      case ENUM:
+        return zigZagLength(schema.getEnumOrdinal(datum.toString()));
+      case ARRAY: {
+        Collection<?> items = (Collection<?>) datum;
+        long size = 1;  // The terminating empty block.
+        if (!items.isEmpty()) {
+          size += zigZagLength(items.size());
+          for (Object item : items) {
+            size += encodedSize(data, schema.getElementType(), item);
+          }
+        }
+        return size;
+      }
+      case MAP: {
+        Map<?, ?> map = (Map<?, ?>) datum;
+        long size = 1;  // The terminating empty block.
+        if (!map.isEmpty()) {
+          size += zigZagLength(map.size());
+          for (Map.Entry<?, ?> entry : map.entrySet()) {
+            size += stringSize((CharSequence) entry.getKey());
+            size += encodedSize(data, schema.getValueType(), entry.getValue());
+          }
+        }
+        return size;
+      }
+      case STRING:
+        return stringSize((CharSequence) datum);
+      case BYTES: {
+        int length = ((ByteBuffer) datum).remaining();
+        return zigZagLength(length) + length;
+      }
+      case FIXED:
+        return schema.getFixedSize();
+      case INT:
+        return zigZagLength(((Number) datum).intValue());
+      case LONG:
+        return zigZagLength(((Number) datum).longValue());
+      case FLOAT:
+        return 4;
+      case DOUBLE:
+        return 8;
+      case BOOLEAN:
+        return 1;
+      case NULL:
+        return 0;
+      default:
+        throw new AvroRuntimeException("Unknown schema type " + schema.getType());
+    }
+  }
+
+  private static long stringSize(CharSequence string) {
+    long length;
+    if (string instanceof Utf8) {
+      length = ((Utf8) string).getByteLength();
+    } else {
+      // Strings are encoded with String.getBytes, which replaces unpaired surrogates by a
+      // single byte.
+      length = 0;
+      for (int i = 0; i < string.length(); i++) {
+        char c = string.charAt(i);
+        if (c < 0x80) {
+          length += 1;
+        } else if (c < 0x800) {
+          length += 2;
+        } else if (Character.isHighSurrogate(c) && i + 1 < string.length()
+            && Character.isLowSurrogate(string.charAt(i + 1))) {
+          length += 4;
+          i++;
+        } else if (Character.isSurrogate(c)) {
+          length += 1;
+        } else {
+          length += 3;
+        }
+      }
+    }
+    return zigZagLength(length) + length;
+  }
+
+  private static int zigZagLength(long value) {
+    return VarInt.getLength((value << 1) ^ (value >> 63));
   }
 
   @Override
@@ -282,6 +441,8 @@ public class AvroCoder<T> extends StandardCoder<T> {
   public DatumReader<T> createDatumReader() {
     if (type.equals(GenericRecord.class)) {
       return new GenericDatumReader<>(schema);
+    } else if (SpecificRecord.class.isAssignableFrom(type)) {
+      return new SpecificDatumReader<>(schema, schema, new SpecificData(type.getClassLoader()));
     } else {
       return new ReflectDatumReader<>(schema);
     }
@@ -297,6 +458,8 @@ public class AvroCoder<T> extends StandardCoder<T> {
   public DatumWriter<T> createDatumWriter() {
     if (type.equals(GenericRecord.class)) {
       return new GenericDatumWriter<>(schema);
+    } else if (SpecificRecord.class.isAssignableFrom(type)) {
+      return new SpecificDatumWriter<>(schema, new SpecificData(type.getClassLoader()));
     } else {
       return new ReflectDatumWriter<>(schema);
     }
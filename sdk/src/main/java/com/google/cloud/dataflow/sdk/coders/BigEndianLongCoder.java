@@ -25,11 +25,13 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
 
 /**
  * A {@link BigEndianLongCoder} encodes {@link Long}s in 8 bytes, big-endian.
  */
-public class BigEndianLongCoder extends AtomicCoder<Long> {
+public class BigEndianLongCoder extends AtomicCoder<Long>
+    implements PositionalCoder<Long> {
 
   @JsonCreator
   public static BigEndianLongCoder of() {
@@ -63,6 +65,23 @@ public class BigEndianLongCoder extends AtomicCoder<Long> {
     }
   }
 
+  @Override
+  public void encodePositional(Long value, PositionalOutput out, Context context)
+      throws CoderException {
+    if (value == null) {
+      throw new CoderException("cannot encode a null Long");
+    }
+    out.writeBigEndianLong(value);
+  }
+
+  @Override
+  public Long decodePositional(ByteBuffer in, Context context) throws CoderException {
+    if (in.remaining() < 8) {
+      throw new CoderException(new EOFException());
+    }
+    return in.getLong();
+  }
+
   /**
    * {@inheritDoc}
    *
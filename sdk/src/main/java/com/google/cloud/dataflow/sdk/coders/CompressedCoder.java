@@ -0,0 +1,346 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.coders;
+
+import static com.google.cloud.dataflow.sdk.util.Structs.addLong;
+
+import com.google.cloud.dataflow.sdk.util.CloudObject;
+import com.google.cloud.dataflow.sdk.util.CoderUtils;
+import com.google.cloud.dataflow.sdk.util.PropertyNames;
+import com.google.cloud.dataflow.sdk.util.VarInt;
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A {@link Coder} that wraps another {@link Coder} and compresses encodings that are at least
+ * a threshold number of bytes long.
+ *
+ * <p>Each value is encoded with the wrapped {@link Coder}, and the encoding is compressed with
+ * Deflate at its fastest level. The compressed form is written only if it is smaller than the
+ * original; otherwise the original encoding is written as is. This saves shuffle and state
+ * bytes for large values such as JSON {@code TableRow TableRows}, and costs a single byte for
+ * values that do not compress.
+ *
+ * <p>The encoding of a value is a flag byte, followed by either the uncompressed encoding
+ * ({@code 0}), or the length of the uncompressed encoding as a {@link VarInt} and the raw
+ * Deflate stream ({@code 1}). In a nested {@link Coder.Context} the flag byte is preceded by
+ * the length of the rest of the encoding as a {@link VarInt}.
+ *
+ * <p>{@link CompressedCoder} is not deterministic, since the output of Deflate is not
+ * guaranteed to be identical across zlib and JDK versions.
+ *
+ * <p>Each {@link CompressedCoder} instance counts the bytes it encodes before and after
+ * compression, see {@link #getCompressionRatio}. The worker reports these as counters for the
+ * shuffles it writes.
+ *
+ * @param <T> the type of the values being transcoded
+ */
+public class CompressedCoder<T> extends StandardCoder<T> {
+
+  /**
+   * The default minimum size, in bytes, of the encodings that are compressed.
+   */
+  public static final int DEFAULT_THRESHOLD = 1024;
+
+  /**
+   * Returns a {@link CompressedCoder} that compresses encodings of the given {@link Coder} that
+   * are at least {@link #DEFAULT_THRESHOLD} bytes long.
+   */
+  public static <T> CompressedCoder<T> of(Coder<T> valueCoder) {
+    return of(valueCoder, DEFAULT_THRESHOLD);
+  }
+
+  /**
+   * Returns a {@link CompressedCoder} that compresses encodings of the given {@link Coder} that
+   * are at least {@code threshold} bytes long.
+   */
+  public static <T> CompressedCoder<T> of(Coder<T> valueCoder, int threshold) {
+    return new CompressedCoder<>(valueCoder, threshold);
+  }
+
+  @JsonCreator
+  public static CompressedCoder<?> of(
+      @JsonProperty(PropertyNames.COMPONENT_ENCODINGS)
+      List<Coder<?>> components,
+      @JsonProperty(PropertyNames.COMPRESSION_THRESHOLD) int threshold) {
+    Preconditions.checkArgument(components.size() == 1,
+        "Expecting 1 component, got " + components.size());
+    return of(components.get(0), threshold);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+
+  private static final int UNCOMPRESSED = 0;
+  private static final int COMPRESSED = 1;
+
+  // Deflate cannot compress data by more than this factor, so a larger uncompressed length
+  // indicates a corrupt value.
+  private static final int MAX_DEFLATE_RATIO = 1032;
+
+  // Deflaters and Inflaters hold native memory, so they are reused by each thread. They are
+  // only used after the wrapped coder has returned, so reentrant use is not possible.
+  private static final ThreadLocal<Deflater> DEFLATER = new ThreadLocal<Deflater>() {
+    @Override
+    protected Deflater initialValue() {
+      return new Deflater(Deflater.BEST_SPEED, true);
+    }
+  };
+  private static final ThreadLocal<Inflater> INFLATER = new ThreadLocal<Inflater>() {
+    @Override
+    protected Inflater initialValue() {
+      return new Inflater(true);
+    }
+  };
+
+  private final Coder<T> valueCoder;
+  private final int threshold;
+
+  private final transient AtomicLong uncompressedBytes = new AtomicLong();
+  private final transient AtomicLong encodedBytes = new AtomicLong();
+
+  private CompressedCoder(Coder<T> valueCoder, int threshold) {
+    Preconditions.checkArgument(threshold >= 0, "threshold must be non-negative, got %s",
+        threshold);
+    this.valueCoder = Preconditions.checkNotNull(valueCoder);
+    this.threshold = threshold;
+  }
+
+  public Coder<T> getValueCoder() {
+    return valueCoder;
+  }
+
+  /**
+   * Returns the minimum size, in bytes, of the encodings that are compressed.
+   */
+  public int getThreshold() {
+    return threshold;
+  }
+
+  /**
+   * Returns the number of bytes the wrapped {@link Coder} produced for the values encoded by
+   * this instance.
+   */
+  public long getUncompressedBytes() {
+    return uncompressedBytes.get();
+  }
+
+  /**
+   * Returns the number of bytes written for the values encoded by this instance, not counting
+   * the length prefixes of nested encodings.
+   */
+  public long getEncodedBytes() {
+    return encodedBytes.get();
+  }
+
+  /**
+   * Returns the ratio of {@link #getEncodedBytes} to {@link #getUncompressedBytes}, or
+   * {@code 1.0} if nothing was encoded yet.
+   */
+  public double getCompressionRatio() {
+    long uncompressed = uncompressedBytes.get();
+    return uncompressed == 0 ? 1.0 : (double) encodedBytes.get() / uncompressed;
+  }
+
+  @Override
+  public void encode(T value, OutputStream outStream, Context context)
+      throws IOException, CoderException {
+    byte[] encoded = CoderUtils.encodeToByteArray(valueCoder, value);
+    int lengthSize = VarInt.getLength(encoded.length);
+
+    byte[] compressed = null;
+    int compressedSize = 0;
+    // Compressing is only worthwhile if the compressed form and the original length together
+    // are smaller than the original encoding.
+    int maxCompressedSize = encoded.length - lengthSize - 1;
+    if (encoded.length >= threshold && maxCompressedSize > 0) {
+      compressed = new byte[maxCompressedSize];
+      compressedSize = deflate(encoded, compressed);
+    }
+
+    int payloadSize;
+    if (compressedSize > 0) {
+      payloadSize = 1 + lengthSize + compressedSize;
+      if (!context.isWholeStream) {
+        VarInt.encode(payloadSize, outStream);
+      }
+      outStream.write(COMPRESSED);
+      VarInt.encode(encoded.length, outStream);
+      outStream.write(compressed, 0, compressedSize);
+    } else {
+      payloadSize = 1 + encoded.length;
+      if (!context.isWholeStream) {
+        VarInt.encode(payloadSize, outStream);
+      }
+      outStream.write(UNCOMPRESSED);
+      outStream.write(encoded);
+    }
+    uncompressedBytes.addAndGet(encoded.length);
+    encodedBytes.addAndGet(payloadSize);
+  }
+
+  @Override
+  public T decode(InputStream inStream, Context context) throws IOException, CoderException {
+    byte[] payload;
+    if (context.isWholeStream) {
+      payload = ByteStreams.toByteArray(inStream);
+    } else {
+      int payloadSize = VarInt.decodeInt(inStream);
+      if (payloadSize < 1) {
+        throw new CoderException("Invalid compressed value length: " + payloadSize);
+      }
+      payload = new byte[payloadSize];
+      ByteStreams.readFully(inStream, payload);
+    }
+    if (payload.length == 0) {
+      throw new CoderException("Missing compression flag");
+    }
+
+    byte[] encoded;
+    switch (payload[0]) {
+      case UNCOMPRESSED:
+        encoded = Arrays.copyOfRange(payload, 1, payload.length);
+        break;
+      case COMPRESSED:
+        ByteArrayInputStream in = new ByteArrayInputStream(payload, 1, payload.length - 1);
+        int encodedSize = VarInt.decodeInt(in);
+        int offset = payload.length - in.available();
+        encoded = inflate(payload, offset, payload.length - offset, encodedSize);
+        break;
+      default:
+        throw new CoderException("Unknown compression flag: " + payload[0]);
+    }
+    return CoderUtils.decodeFromByteArray(valueCoder, encoded);
+  }
+
+  /**
+   * Compresses {@code input} into {@code output} and returns the compressed size, or
+   * {@code 0} if the compressed form does not fit in {@code output}.
+   */
+  private static int deflate(byte[] input, byte[] output) {
+    Deflater deflater = DEFLATER.get();
+    deflater.reset();
+    deflater.setInput(input);
+    deflater.finish();
+    int size = 0;
+    while (!deflater.finished() && size < output.length) {
+      size += deflater.deflate(output, size, output.length - size);
+    }
+    return deflater.finished() ? size : 0;
+  }
+
+  private static byte[] inflate(byte[] input, int offset, int length, int inflatedSize)
+      throws CoderException {
+    if (inflatedSize < 0 || inflatedSize > (long) length * MAX_DEFLATE_RATIO) {
+      throw new CoderException("Invalid uncompressed value length: " + inflatedSize);
+    }
+    Inflater inflater = INFLATER.get();
+    inflater.reset();
+    inflater.setInput(input, offset, length);
+    byte[] output = new byte[inflatedSize];
+    try {
+      int size = 0;
+      while (size < inflatedSize && !inflater.finished()) {
+        int inflated = inflater.inflate(output, size, inflatedSize - size);
+        if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          break;
+        }
+        size += inflated;
+      }
+      if (size != inflatedSize || inflater.getRemaining() > 0) {
+        throw new CoderException("Corrupt compressed value: expected " + inflatedSize
+            + " bytes, inflated " + size);
+      }
+    } catch (DataFormatException e) {
+      throw new CoderException("Corrupt compressed value", e);
+    }
+    return output;
+  }
+
+  @Override
+  public List<? extends Coder<?>> getCoderArguments() {
+    return Arrays.asList(valueCoder);
+  }
+
+  @Override
+  public CloudObject asCloudObject() {
+    CloudObject result = super.asCloudObject();
+    addLong(result, PropertyNames.COMPRESSION_THRESHOLD, threshold);
+    return result;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws NonDeterministicException always. The compressed encoding of a value may differ
+   *         between zlib and JDK versions.
+   */
+  @Override
+  public void verifyDeterministic() throws NonDeterministicException {
+    throw new NonDeterministicException(this,
+        "Deflate output is not guaranteed to be identical across zlib and JDK versions.");
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @return {@code false}. Equal values may have different compressed encodings.
+   */
+  @Override
+  public boolean consistentWithEquals() {
+    return false;
+  }
+
+  @Override
+  public Object structuralValue(T value) throws Exception {
+    return valueCoder.structuralValue(value);
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    return super.equals(other) && threshold == ((CompressedCoder<?>) other).threshold;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(super.hashCode(), threshold);
+  }
+
+  @Override
+  public String toString() {
+    return "CompressedCoder(" + valueCoder + ", " + threshold + ")";
+  }
+
+  // Gives deserialized instances their own counters.
+  private Object readResolve() {
+    return new CompressedCoder<>(valueCoder, threshold);
+  }
+}
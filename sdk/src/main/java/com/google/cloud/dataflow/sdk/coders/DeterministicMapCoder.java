@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.google.cloud.dataflow.sdk.coders;
+
+import com.google.cloud.dataflow.sdk.util.PropertyNames;
+import com.google.common.base.Preconditions;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * A {@link MapCoder} that writes the entries of a {@link Map} in the order of their encoded
+ * keys, so that equal maps have equal encodings whenever the key and value coders are
+ * deterministic. This makes maps usable as keys of a {@code GroupByKey}.
+ *
+ * <p>The encoding is otherwise the same as that of {@link MapCoder}. Each key is encoded once
+ * into a shared buffer, the buffered encodings are sorted in place, and the sorted key bytes
+ * are copied to the output followed by their values.
+ *
+ * @param <K> the type of the keys of the KVs being transcoded
+ * @param <V> the type of the values of the KVs being transcoded
+ */
+public class DeterministicMapCoder<K, V> extends MapCoder<K, V> {
+  /**
+   * Produces a DeterministicMapCoder with the given keyCoder and valueCoder.
+   */
+  public static <K, V> DeterministicMapCoder<K, V> of(
+      Coder<K> keyCoder,
+      Coder<V> valueCoder) {
+    return new DeterministicMapCoder<>(keyCoder, valueCoder);
+  }
+
+  @JsonCreator
+  public static DeterministicMapCoder<?, ?> of(
+      @JsonProperty(PropertyNames.COMPONENT_ENCODINGS)
+      List<Coder<?>> components) {
+    Preconditions.checkArgument(components.size() == 2,
+        "Expecting 2 components, got " + components.size());
+    return of((Coder<?>) components.get(0), (Coder<?>) components.get(1));
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+
+  DeterministicMapCoder(Coder<K> keyCoder, Coder<V> valueCoder) {
+    super(keyCoder, valueCoder);
+  }
+
+  @Override
+  public void encode(
+      Map<K, V> map,
+      OutputStream outStream,
+      Context context)
+      throws IOException, CoderException  {
+    if (map == null) {
+      throw new CoderException("cannot encode a null Map");
+    }
+    Context nestedContext = context.nested();
+    EncodedElementBuffer keys = new EncodedElementBuffer(map.size());
+    List<V> values = new ArrayList<>(map.size());
+    for (Entry<K, V> entry : map.entrySet()) {
+      keys.markElementStart();
+      keyCoder.encode(entry.getKey(), keys, nestedContext);
+      values.add(entry.getValue());
+    }
+
+    DataOutputStream dataOutStream = new DataOutputStream(outStream);
+    dataOutStream.writeInt(keys.getElementCount());
+    dataOutStream.flush();
+    for (int index : keys.sortedOrder()) {
+      keys.writeElementTo(index, outStream);
+      valueCoder.encode(values.get(index), outStream, nestedContext);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws NonDeterministicException if the key or value coder is not deterministic.
+   */
+  @Override
+  public void verifyDeterministic() throws NonDeterministicException {
+    verifyDeterministic("Key coder must be deterministic", keyCoder);
+    verifyDeterministic("Value coder must be deterministic", valueCoder);
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.google.cloud.dataflow.sdk.coders;
+
+import com.google.cloud.dataflow.sdk.util.PropertyNames;
+import com.google.common.base.Preconditions;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A {@link SetCoder} that writes the elements of a {@link Set} in the order of their
+ * encodings, so that equal sets have equal encodings whenever the element coder is
+ * deterministic. This makes sets usable as keys of a {@code GroupByKey}.
+ *
+ * <p>The encoding is otherwise the same as that of {@link SetCoder} for a {@link Set} of known
+ * size. The elements are encoded once into a shared buffer, the buffered encodings are sorted
+ * in place, and the sorted bytes are copied to the output.
+ *
+ * @param <T> the type of the elements of the set
+ */
+public class DeterministicSetCoder<T> extends SetCoder<T> {
+
+  /**
+   * Produces a {@link DeterministicSetCoder} with the given {@code elementCoder}.
+   */
+  public static <T> DeterministicSetCoder<T> of(Coder<T> elementCoder) {
+    return new DeterministicSetCoder<>(elementCoder);
+  }
+
+  /**
+   * Dynamically typed constructor for JSON deserialization.
+   */
+  @JsonCreator
+  public static DeterministicSetCoder<?> of(
+      @JsonProperty(PropertyNames.COMPONENT_ENCODINGS)
+      List<Object> components) {
+    Preconditions.checkArgument(components.size() == 1,
+        "Expecting 1 component, got " + components.size());
+    return of((Coder<?>) components.get(0));
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // Internal operations below here.
+
+  protected DeterministicSetCoder(Coder<T> elemCoder) {
+    super(elemCoder);
+  }
+
+  @Override
+  public void encode(Set<T> set, OutputStream outStream, Context context)
+      throws IOException, CoderException {
+    EncodedElementBuffer elements = encodeElements(set, context);
+    DataOutputStream dataOutStream = new DataOutputStream(outStream);
+    dataOutStream.writeInt(elements.getElementCount());
+    dataOutStream.flush();
+    for (int index : elements.sortedOrder()) {
+      elements.writeElementTo(index, outStream);
+    }
+  }
+
+  @Override
+  public void encodePositional(Set<T> set, PositionalOutput out, Context context)
+      throws IOException, CoderException {
+    EncodedElementBuffer elements = encodeElements(set, context);
+    out.writeBigEndianInt(elements.getElementCount());
+    for (int index : elements.sortedOrder()) {
+      elements.writeElementTo(index, out);
+    }
+  }
+
+  private EncodedElementBuffer encodeElements(Set<T> set, Context context)
+      throws IOException, CoderException {
+    if (set == null) {
+      throw new CoderException("cannot encode a null Set");
+    }
+    Context nestedContext = context.nested();
+    Coder<T> elemCoder = getElemCoder();
+    EncodedElementBuffer elements = new EncodedElementBuffer(set.size());
+    for (T elem : set) {
+      elements.markElementStart();
+      elemCoder.encode(elem, elements, nestedContext);
+    }
+    return elements;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws NonDeterministicException if the element coder is not deterministic.
+   */
+  @Override
+  public void verifyDeterministic() throws NonDeterministicException {
+    verifyDeterministic("Element coder must be deterministic", getElemCoder());
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.google.cloud.dataflow.sdk.coders;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A buffer holding the encodings of several elements back to back, which can order the
+ * elements by their encoded bytes without copying them out of the buffer.
+ *
+ * <p>Used by {@link DeterministicMapCoder} and {@link DeterministicSetCoder}.
+ */
+final class EncodedElementBuffer extends ByteArrayOutputStream {
+  /** Below this many elements, ranges are sorted by insertion sort. */
+  private static final int INSERTION_SORT_THRESHOLD = 8;
+
+  private int[] starts;
+  private int elementCount;
+
+  EncodedElementBuffer(int expectedElements) {
+    super(Math.max(32, expectedElements * 8));
+    this.starts = new int[Math.max(1, expectedElements)];
+  }
+
+  /**
+   * Marks the start of a new element. Everything written after this call and before the next
+   * call belongs to the new element.
+   */
+  void markElementStart() {
+    if (elementCount == starts.length) {
+      starts = Arrays.copyOf(starts, starts.length * 2);
+    }
+    starts[elementCount++] = count;
+  }
+
+  int getElementCount() {
+    return elementCount;
+  }
+
+  /**
+   * Returns the indices of the elements, ordered by the unsigned lexicographic order of their
+   * encodings. The sort is stable, so elements with identical encodings keep the order in which
+   * they were written.
+   */
+  int[] sortedOrder() {
+    int[] order = new int[elementCount];
+    for (int i = 0; i < elementCount; i++) {
+      order[i] = i;
+    }
+    mergeSort(order, new int[elementCount], 0, elementCount);
+    return order;
+  }
+
+  /**
+   * Writes the encoding of the element with the given index to {@code out}.
+   */
+  void writeElementTo(int index, OutputStream out) throws IOException {
+    int start = starts[index];
+    out.write(buf, start, end(index) - start);
+  }
+
+  private int end(int index) {
+    return index + 1 < elementCount ? starts[index + 1] : count;
+  }
+
+  private int compareElements(int a, int b) {
+    int aPos = starts[a];
+    int aEnd = end(a);
+    int bPos = starts[b];
+    int bEnd = end(b);
+    while (aPos < aEnd && bPos < bEnd) {
+      int diff = (buf[aPos++] & 0xff) - (buf[bPos++] & 0xff);
+      if (diff != 0) {
+        return diff;
+      }
+    }
+    return (aEnd - aPos) - (bEnd - bPos);
+  }
+
+  private void mergeSort(int[] order, int[] scratch, int from, int to) {
+    if (to - from <= INSERTION_SORT_THRESHOLD) {
+      for (int i = from + 1; i < to; i++) {
+        int element = order[i];
+        int j = i;
+        while (j > from && compareElements(order[j - 1], element) > 0) {
+          order[j] = order[j - 1];
+          j--;
+        }
+        order[j] = element;
+      }
+      return;
+    }
+    int mid = (from + to) >>> 1;
+    mergeSort(order, scratch, from, mid);
+    mergeSort(order, scratch, mid, to);
+    if (compareElements(order[mid - 1], order[mid]) <= 0) {
+      // Already in order.
+      return;
+    }
+    System.arraycopy(order, from, scratch, from, to - from);
+    int left = from;
+    int right = mid;
+    for (int i = from; i < to; i++) {
+      if (right >= to || (left < mid && compareElements(scratch[left], scratch[right]) <= 0)) {
+        order[i] = scratch[left++];
+      } else {
+        order[i] = scratch[right++];
+      }
+    }
+  }
+}
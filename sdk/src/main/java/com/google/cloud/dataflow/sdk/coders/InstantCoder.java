@@ -26,12 +26,14 @@ import org.joda.time.Instant;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 /**
  * A {@link Coder} for joda {@link Instant} that encodes it as a big endian {@link Long}
  * shifted such that lexicographic ordering of the bytes corresponds to chronological order.
  */
-public class InstantCoder extends AtomicCoder<Instant> {
+public class InstantCoder extends AtomicCoder<Instant>
+    implements PositionalCoder<Instant> {
 
   @JsonCreator
   public static InstantCoder of() {
@@ -83,6 +85,20 @@ public class InstantCoder extends AtomicCoder<Instant> {
     return ORDER_PRESERVING_CONVERTER.reverse().convert(longCoder.decode(inStream, context));
   }
 
+  @Override
+  public void encodePositional(Instant value, PositionalOutput out, Context context)
+      throws CoderException {
+    if (value == null) {
+      throw new CoderException("cannot encode a null Instant");
+    }
+    longCoder.encodePositional(ORDER_PRESERVING_CONVERTER.convert(value), out, context);
+  }
+
+  @Override
+  public Instant decodePositional(ByteBuffer in, Context context) throws CoderException {
+    return ORDER_PRESERVING_CONVERTER.reverse().convert(longCoder.decodePositional(in, context));
+  }
+
   /**
    * {@inheritDoc}
    *
@@ -24,9 +24,11 @@ import com.google.common.base.Preconditions;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -57,7 +59,7 @@ import java.util.Observer;
  * @param <IterableT> the type of the Iterables being transcoded
  */
 public abstract class IterableLikeCoder<T, IterableT extends Iterable<T>>
-    extends StandardCoder<IterableT> {
+    extends StandardCoder<IterableT> implements PositionalCoder<IterableT> {
   public Coder<T> getElemCoder() {
     return elementCoder;
   }
@@ -74,6 +76,13 @@ public abstract class IterableLikeCoder<T, IterableT extends Iterable<T>>
   private final Coder<T> elementCoder;
   private final String iterableName;
 
+  /**
+   * Largest collection whose elements {@link #isRegisterByteSizeObserverCheap} checks one by
+   * one, so that the check takes constant time. Collections of windows, which every windowed
+   * value carries, usually hold a single window.
+   */
+  private static final int MAX_CHECKED_ELEMENTS = 8;
+
   /**
    * Returns the first element in the iterable-like {@code exampleValue} if it is non-empty,
    * otherwise returns {@code null}.
@@ -156,6 +165,59 @@ public abstract class IterableLikeCoder<T, IterableT extends Iterable<T>>
     }
   }
 
+  @Override
+  public void encodePositional(IterableT iterable, PositionalOutput out, Context context)
+      throws IOException, CoderException {
+    if (iterable == null) {
+      throw new CoderException("cannot encode a null " + iterableName);
+    }
+    Context nestedContext = context.nested();
+    if (iterable instanceof Collection) {
+      Collection<T> collection = (Collection<T>) iterable;
+      out.writeBigEndianInt(collection.size());
+      for (T elem : collection) {
+        PositionalCoders.encode(elementCoder, elem, out, nestedContext);
+      }
+    } else {
+      // Use the same blocks as the stream encoding, so the bytes are identical.
+      out.writeBigEndianInt(-1);
+      BufferedElementCountingOutputStream countingOutputStream =
+          new BufferedElementCountingOutputStream(out);
+      for (T elem : iterable) {
+        countingOutputStream.markElementStart();
+        elementCoder.encode(elem, countingOutputStream, nestedContext);
+      }
+      countingOutputStream.finish();
+    }
+  }
+
+  @Override
+  public IterableT decodePositional(ByteBuffer in, Context context)
+      throws IOException, CoderException {
+    Context nestedContext = context.nested();
+    if (in.remaining() < 4) {
+      throw new CoderException(new EOFException());
+    }
+    int size = in.getInt();
+    if (size >= 0) {
+      List<T> elements = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) {
+        elements.add(PositionalCoders.decode(elementCoder, in, nestedContext));
+      }
+      return decodeToIterable(elements);
+    } else {
+      List<T> elements = new ArrayList<>();
+      long count;
+      while ((count = VarInt.decodeLong(in)) > 0) {
+        while (count > 0) {
+          elements.add(PositionalCoders.decode(elementCoder, in, nestedContext));
+          count -= 1;
+        }
+      }
+      return decodeToIterable(elements);
+    }
+  }
+
   @Override
   public List<? extends Coder<?>> getCoderArguments() {
     return Arrays.asList(elementCoder);
@@ -179,12 +241,26 @@ public abstract class IterableLikeCoder<T, IterableT extends Iterable<T>>
    * {@inheritDoc}
    *
    * @return {@code true} if the iterable is of a known class that supports lazy counting
-   * of byte size, since that requires minimal extra computation.
+   * of byte size, since that requires minimal extra computation, or if it is a small
+   * collection of elements that are all cheap to observe.
    */
   @Override
   public boolean isRegisterByteSizeObserverCheap(
       IterableT iterable, Context context) {
-    return iterable instanceof ElementByteSizeObservableIterable;
+    if (iterable instanceof ElementByteSizeObservableIterable) {
+      return true;
+    }
+    if (!(iterable instanceof Collection)
+        || ((Collection<?>) iterable).size() > MAX_CHECKED_ELEMENTS) {
+      return false;
+    }
+    Context nestedContext = context.nested();
+    for (T elem : iterable) {
+      if (!elementCoder.isRegisterByteSizeObserverCheap(elem, nestedContext)) {
+        return false;
+      }
+    }
+    return true;
   }
 
   @Override
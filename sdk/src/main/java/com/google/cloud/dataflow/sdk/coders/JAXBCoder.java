@@ -15,6 +15,7 @@
 package com.google.cloud.dataflow.sdk.coders;
 
 import com.google.cloud.dataflow.sdk.util.CloudObject;
+import com.google.cloud.dataflow.sdk.util.JAXBUtils;
 import com.google.cloud.dataflow.sdk.util.Structs;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
@@ -26,22 +27,20 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
-import javax.xml.bind.Marshaller;
-import javax.xml.bind.Unmarshaller;
 
 /**
  * A coder for JAXB annotated objects. This coder uses JAXB marshalling/unmarshalling mechanisms
  * to encode/decode the objects. Users must provide the {@code Class} of the JAXB annotated object.
  *
+ * <p>The JAXB context of the class is shared by all coders, and each thread marshals and
+ * unmarshals with its own marshaller and unmarshaller, so a coder may be used concurrently.
+ *
  * @param <T> type of JAXB annotated objects that will be serialized.
  */
 public class JAXBCoder<T> extends AtomicCoder<T> {
 
   private final Class<T> jaxbClass;
-  private transient Marshaller jaxbMarshaller = null;
-  private transient Unmarshaller jaxbUnmarshaller = null;
 
   public Class<T> getJAXBClass() {
     return jaxbClass;
@@ -64,12 +63,7 @@ public class JAXBCoder<T> extends AtomicCoder<T> {
   public void encode(T value, OutputStream outStream, Context context)
       throws CoderException, IOException {
     try {
-      if (jaxbMarshaller == null) {
-        JAXBContext jaxbContext = JAXBContext.newInstance(jaxbClass);
-        jaxbMarshaller = jaxbContext.createMarshaller();
-      }
-
-      jaxbMarshaller.marshal(value, new FilterOutputStream(outStream) {
+      JAXBUtils.getMarshaller(jaxbClass).marshal(value, new FilterOutputStream(outStream) {
         // JAXB closes the underyling stream so we must filter out those calls.
         @Override
         public void close() throws IOException {
@@ -83,13 +77,8 @@ public class JAXBCoder<T> extends AtomicCoder<T> {
   @Override
   public T decode(InputStream inStream, Context context) throws CoderException, IOException {
     try {
-      if (jaxbUnmarshaller == null) {
-        JAXBContext jaxbContext = JAXBContext.newInstance(jaxbClass);
-        jaxbUnmarshaller = jaxbContext.createUnmarshaller();
-      }
-
       @SuppressWarnings("unchecked")
-      T obj = (T) jaxbUnmarshaller.unmarshal(new FilterInputStream(inStream) {
+      T obj = (T) JAXBUtils.getUnmarshaller(jaxbClass).unmarshal(new FilterInputStream(inStream) {
         // JAXB closes the underyling stream so we must filter out those calls.
         @Override
         public void close() throws IOException {
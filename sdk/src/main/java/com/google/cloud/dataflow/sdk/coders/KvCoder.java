@@ -30,6 +30,7 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
 
@@ -39,7 +40,8 @@ import java.util.List;
  * @param <K> the type of the keys of the KVs being transcoded
  * @param <V> the type of the values of the KVs being transcoded
  */
-public class KvCoder<K, V> extends KvCoderBase<KV<K, V>> {
+public class KvCoder<K, V> extends KvCoderBase<KV<K, V>>
+    implements PositionalCoder<KV<K, V>> {
   public static <K, V> KvCoder<K, V> of(Coder<K> keyCoder,
                                         Coder<V> valueCoder) {
     return new KvCoder<>(keyCoder, valueCoder);
@@ -99,6 +101,26 @@ public class KvCoder<K, V> extends KvCoderBase<KV<K, V>> {
     return KV.of(key, value);
   }
 
+  @Override
+  public void encodePositional(KV<K, V> kv, PositionalOutput out, Context context)
+      throws IOException, CoderException {
+    if (kv == null) {
+      throw new CoderException("cannot encode a null KV");
+    }
+    Context nestedContext = context.nested();
+    PositionalCoders.encode(keyCoder, kv.getKey(), out, nestedContext);
+    PositionalCoders.encode(valueCoder, kv.getValue(), out, nestedContext);
+  }
+
+  @Override
+  public KV<K, V> decodePositional(ByteBuffer in, Context context)
+      throws IOException, CoderException {
+    Context nestedContext = context.nested();
+    K key = PositionalCoders.decode(keyCoder, in, nestedContext);
+    V value = PositionalCoders.decode(valueCoder, in, nestedContext);
+    return KV.of(key, value);
+  }
+
   @Override
   public List<? extends Coder<?>> getCoderArguments() {
     return Arrays.asList(keyCoder, valueCoder);
@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.google.cloud.dataflow.sdk.coders;
+
+import com.google.cloud.dataflow.sdk.util.CoderUtils;
+import com.google.cloud.dataflow.sdk.util.PropertyNames;
+import com.google.cloud.dataflow.sdk.util.StreamUtils;
+import com.google.cloud.dataflow.sdk.util.VarInt;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterables;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A {@link Coder} for {@link Iterable Iterables} which decodes lazily. Decoding only reads the
+ * encoded bytes of the iterable, and each element is decoded as it is reached during iteration,
+ * so consumers which only look at some of the elements (or only check whether there are any)
+ * don't pay to deserialize and hold all of them.
+ *
+ * <p>The encoding is that of {@link IterableCoder}, which in a nested context is preceded by
+ * its length in bytes, encoded as by {@link VarIntCoder}, so that it can be skipped without
+ * decoding the elements. This differs from the {@link IterableCoder} encoding, so the two
+ * coders cannot be used interchangeably.
+ *
+ * <p>Re-encoding an {@link Iterable} decoded by an equal coder copies its encoded bytes
+ * without decoding any elements.
+ *
+ * @param <T> the type of the elements of the iterables being transcoded
+ */
+public class LazyIterableCoder<T> extends StandardCoder<Iterable<T>>
+    implements PositionalCoder<Iterable<T>> {
+
+  public static <T> LazyIterableCoder<T> of(Coder<T> elemCoder) {
+    return new LazyIterableCoder<>(elemCoder);
+  }
+
+  @JsonCreator
+  public static LazyIterableCoder<?> of(
+      @JsonProperty(PropertyNames.COMPONENT_ENCODINGS)
+      List<Coder<?>> components) {
+    Preconditions.checkArgument(components.size() == 1,
+        "Expecting 1 component, got " + components.size());
+    return of(components.get(0));
+  }
+
+  /**
+   * Returns the first element in this iterable if it is non-empty,
+   * otherwise returns {@code null}.
+   */
+  public static <T> List<Object> getInstanceComponents(Iterable<T> exampleValue) {
+    return IterableLikeCoder.getInstanceComponentsHelper(exampleValue);
+  }
+
+  public Coder<T> getElemCoder() {
+    return elemCoder;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // Internal operations below here.
+
+  private final Coder<T> elemCoder;
+  private final IterableCoder<T> iterableCoder;
+
+  private LazyIterableCoder(Coder<T> elemCoder) {
+    this.elemCoder = elemCoder;
+    this.iterableCoder = IterableCoder.of(elemCoder);
+  }
+
+  @Override
+  public void encode(Iterable<T> iterable, OutputStream outStream, Context context)
+      throws IOException, CoderException {
+    LazyIterable<T> encoded = encodeToLazyIterable(iterable);
+    if (!context.isWholeStream) {
+      VarInt.encode(encoded.length, outStream);
+    }
+    outStream.write(encoded.bytes, encoded.offset, encoded.length);
+  }
+
+  @Override
+  public Iterable<T> decode(InputStream inStream, Context context)
+      throws IOException, CoderException {
+    byte[] bytes;
+    if (context.isWholeStream) {
+      bytes = StreamUtils.getBytes(inStream);
+    } else {
+      try {
+        int length = VarInt.decodeInt(inStream);
+        if (length < 0) {
+          throw new CoderException("Invalid encoded iterable length: " + length);
+        }
+        bytes = new byte[length];
+        new DataInputStream(inStream).readFully(bytes);
+      } catch (EOFException exn) {
+        throw new CoderException(exn);
+      }
+    }
+    return new LazyIterable<>(elemCoder, bytes, 0, bytes.length);
+  }
+
+  @Override
+  public void encodePositional(Iterable<T> iterable, PositionalOutput out, Context context)
+      throws IOException, CoderException {
+    LazyIterable<T> encoded = encodeToLazyIterable(iterable);
+    if (!context.isWholeStream) {
+      out.writeVarInt(encoded.length);
+    }
+    out.write(encoded.bytes, encoded.offset, encoded.length);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The returned {@link Iterable} decodes from a copy of the encoded elements, so it is not
+   * affected if the caller later reuses {@code in}.
+   */
+  @Override
+  public Iterable<T> decodePositional(ByteBuffer in, Context context)
+      throws IOException, CoderException {
+    int length;
+    if (context.isWholeStream) {
+      length = in.remaining();
+    } else {
+      try {
+        length = VarInt.decodeInt(in);
+      } catch (EOFException exn) {
+        throw new CoderException(exn);
+      }
+      if (length < 0 || length > in.remaining()) {
+        throw new CoderException("Invalid encoded iterable length: " + length);
+      }
+    }
+    return new LazyIterable<>(elemCoder, PositionalCoders.readBytes(in, length), 0, length);
+  }
+
+  /**
+   * Returns {@code iterable} as a {@link LazyIterable}, reusing its bytes if it was
+   * decoded with the same element coder.
+   */
+  private LazyIterable<T> encodeToLazyIterable(Iterable<T> iterable) throws CoderException {
+    if (iterable == null) {
+      throw new CoderException("cannot encode a null Iterable");
+    }
+    if (iterable instanceof LazyIterable
+        && ((LazyIterable<?>) iterable).elemCoder.equals(elemCoder)) {
+      @SuppressWarnings("unchecked")
+      LazyIterable<T> lazyIterable = (LazyIterable<T>) iterable;
+      return lazyIterable;
+    }
+    byte[] bytes = CoderUtils.encodeToByteArray(iterableCoder, iterable);
+    return new LazyIterable<>(elemCoder, bytes, 0, bytes.length);
+  }
+
+  @Override
+  public List<? extends Coder<?>> getCoderArguments() {
+    return Arrays.asList(elemCoder);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws NonDeterministicException always, for the same reasons as
+   * {@link IterableLikeCoder#verifyDeterministic}.
+   */
+  @Override
+  public void verifyDeterministic() throws NonDeterministicException {
+    throw new NonDeterministicException(this,
+        "LazyIterableCoder can not guarantee deterministic ordering.");
+  }
+
+  /**
+   * An {@link Iterable} over elements encoded as by {@link IterableCoder} in a region of a
+   * byte array, decoding each element as it is reached. Each call to {@link #iterator}
+   * decodes the elements afresh.
+   */
+  private static class LazyIterable<T> implements Iterable<T> {
+    private final Coder<T> elemCoder;
+    private final byte[] bytes;
+    private final int offset;
+    private final int length;
+
+    private LazyIterable(Coder<T> elemCoder, byte[] bytes, int offset, int length) {
+      this.elemCoder = elemCoder;
+      this.bytes = bytes;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+      return new LazyIterator<>(elemCoder, ByteBuffer.wrap(bytes, offset, length).slice());
+    }
+
+    @Override
+    public String toString() {
+      return Iterables.toString(this);
+    }
+  }
+
+  /**
+   * Decodes the elements of a {@link LazyIterable}. Elements are counted down within each
+   * block of the {@link IterableLikeCoder} encoding; an encoding with a leading size is a
+   * single block.
+   */
+  private static class LazyIterator<T> implements Iterator<T> {
+    private final Coder<T> elemCoder;
+    private final ByteBuffer buffer;
+    private final boolean blocked;
+    private long remainingInBlock;
+
+    private LazyIterator(Coder<T> elemCoder, ByteBuffer buffer) {
+      this.elemCoder = elemCoder;
+      this.buffer = buffer;
+      int size = buffer.getInt();
+      this.blocked = size < 0;
+      this.remainingInBlock = blocked ? readBlockSize() : size;
+    }
+
+    private long readBlockSize() {
+      try {
+        return VarInt.decodeLong(buffer);
+      } catch (IOException e) {
+        throw new RuntimeException("Unable to read encoded iterable", e);
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return remainingInBlock > 0;
+    }
+
+    @Override
+    public T next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      T result;
+      try {
+        result = PositionalCoders.decode(elemCoder, buffer, Context.NESTED);
+      } catch (IOException e) {
+        throw new RuntimeException("Unable to decode element of iterable", e);
+      }
+      remainingInBlock--;
+      if (remainingInBlock == 0 && blocked) {
+        remainingInBlock = readBlockSize();
+      }
+      return result;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.google.cloud.dataflow.sdk.coders;
+
+import com.google.cloud.dataflow.sdk.util.PropertyNames;
+import com.google.cloud.dataflow.sdk.util.VarInt;
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * A {@link Coder} for Protocol Buffers messages that are parsed only when they are accessed.
+ *
+ * <p>Each {@link LazyMessage} keeps the serialized {@link ByteString} of its message, and parses
+ * it with the given {@link Proto2Coder} on the first call to {@link LazyMessage#get}. A message
+ * that is decoded and encoded again without being accessed is copied as bytes, without being
+ * parsed or serialized. This suits pipelines that route or group messages by other fields.
+ *
+ * <p>The encoding is the same as that of the {@link Proto2Coder}, so the two coders can read
+ * each other's output.
+ *
+ * @param <T> the type of the messages, must extend {@code Message}
+ */
+public class LazyProto2Coder<T extends Message>
+    extends StandardCoder<LazyProto2Coder.LazyMessage<T>>
+    implements PositionalCoder<LazyProto2Coder.LazyMessage<T>> {
+
+  /**
+   * Returns a {@link LazyProto2Coder} that parses messages with the given {@link Proto2Coder}.
+   */
+  public static <T extends Message> LazyProto2Coder<T> of(Proto2Coder<T> protoCoder) {
+    return new LazyProto2Coder<>(protoCoder);
+  }
+
+  @JsonCreator
+  public static LazyProto2Coder<?> of(
+      @JsonProperty(PropertyNames.COMPONENT_ENCODINGS)
+      List<Coder<?>> components) {
+    Preconditions.checkArgument(components.size() == 1,
+        "Expecting 1 components, got " + components.size());
+    return of((Proto2Coder<?>) components.get(0));
+  }
+
+  /**
+   * A Protocol Buffers message that is held as its serialized bytes and parsed on first access.
+   *
+   * <p>Two {@link LazyMessage LazyMessages} are equal if their serialized bytes are equal.
+   * Instances are not thread-safe.
+   *
+   * @param <T> the type of the message
+   */
+  public static final class LazyMessage<T extends Message> {
+    @Nullable private final Proto2Coder<T> protoCoder;
+    @Nullable private ByteString bytes;
+    @Nullable private T message;
+
+    private LazyMessage(
+        @Nullable Proto2Coder<T> protoCoder, @Nullable ByteString bytes, @Nullable T message) {
+      this.protoCoder = protoCoder;
+      this.bytes = bytes;
+      this.message = message;
+    }
+
+    /**
+     * Returns a {@link LazyMessage} holding an already parsed message.
+     */
+    public static <T extends Message> LazyMessage<T> of(T message) {
+      return new LazyMessage<>(null, null, Preconditions.checkNotNull(message));
+    }
+
+    /**
+     * Returns the message, parsing it if this is the first access.
+     */
+    public T get() throws InvalidProtocolBufferException {
+      if (message == null) {
+        message = protoCoder.parse(bytes);
+      }
+      return message;
+    }
+
+    /**
+     * Returns the serialized message, serializing it if it was never serialized.
+     */
+    public ByteString getBytes() {
+      if (bytes == null) {
+        bytes = message.toByteString();
+      }
+      return bytes;
+    }
+
+    /**
+     * Returns whether the message has been parsed or was never serialized.
+     */
+    public boolean isParsed() {
+      return message != null;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (this == other) {
+        return true;
+      }
+      if (!(other instanceof LazyMessage)) {
+        return false;
+      }
+      return getBytes().equals(((LazyMessage<?>) other).getBytes());
+    }
+
+    @Override
+    public int hashCode() {
+      return getBytes().hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return isParsed() ? "LazyMessage{" + message + "}" : "LazyMessage{" + bytes + "}";
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+
+  private final Proto2Coder<T> protoCoder;
+
+  private LazyProto2Coder(Proto2Coder<T> protoCoder) {
+    this.protoCoder = protoCoder;
+  }
+
+  public Proto2Coder<T> getProtoCoder() {
+    return protoCoder;
+  }
+
+  @Override
+  public void encode(LazyMessage<T> value, OutputStream outStream, Context context)
+      throws IOException, CoderException {
+    if (value == null) {
+      throw new CoderException("cannot encode a null LazyMessage");
+    }
+    ByteString bytes = value.getBytes();
+    if (!context.isWholeStream) {
+      VarInt.encode(bytes.size(), outStream);
+    }
+    bytes.writeTo(outStream);
+  }
+
+  @Override
+  public LazyMessage<T> decode(InputStream inStream, Context context)
+      throws IOException, CoderException {
+    ByteString bytes;
+    if (context.isWholeStream) {
+      bytes = ByteString.readFrom(inStream);
+    } else {
+      byte[] array = new byte[Proto2Coder.readLength(inStream)];
+      ByteStreams.readFully(inStream, array);
+      bytes = ByteString.copyFrom(array);
+    }
+    return new LazyMessage<>(protoCoder, bytes, null);
+  }
+
+  @Override
+  public void encodePositional(LazyMessage<T> value, PositionalOutput out, Context context)
+      throws IOException, CoderException {
+    encode(value, out, context);
+  }
+
+  @Override
+  public LazyMessage<T> decodePositional(ByteBuffer in, Context context)
+      throws IOException, CoderException {
+    int length = context.isWholeStream ? in.remaining() : VarInt.decodeInt(in);
+    if (length < 0 || length > in.remaining()) {
+      throw new CoderException("Invalid encoded message length: " + length);
+    }
+    ByteBuffer slice = in.slice();
+    slice.limit(length);
+    in.position(in.position() + length);
+    return new LazyMessage<>(protoCoder, ByteString.copyFrom(slice), null);
+  }
+
+  @Override
+  public List<? extends Coder<?>> getCoderArguments() {
+    return Arrays.asList(protoCoder);
+  }
+
+  @Override
+  public void verifyDeterministic() throws NonDeterministicException {
+    verifyDeterministic("Proto2Coder must be deterministic", protoCoder);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @return {@code true}. {@link LazyMessage LazyMessages} are equal exactly when their
+   * encodings are.
+   */
+  @Override
+  public boolean consistentWithEquals() {
+    return true;
+  }
+
+  @Override
+  public boolean isRegisterByteSizeObserverCheap(LazyMessage<T> value, Context context) {
+    return true;
+  }
+
+  @Override
+  protected long getEncodedElementByteSize(LazyMessage<T> value, Context context)
+      throws Exception {
+    if (value == null) {
+      throw new CoderException("cannot encode a null LazyMessage");
+    }
+    int size = value.getBytes().size();
+    return context.isWholeStream ? size : VarInt.getLength(size) + size;
+  }
+}
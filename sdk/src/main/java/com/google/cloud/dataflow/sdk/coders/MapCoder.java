@@ -138,6 +138,7 @@ public class MapCoder<K, V> extends MapCoderBase<Map<K, V>> {
    * @throws NonDeterministicException always. Not all maps have a deterministic encoding.
    * For example, {@code HashMap} comparison does not depend on element order, so
    * two {@code HashMap} instances may be equal but produce different encodings.
+   * Use {@link DeterministicMapCoder} for a deterministic encoding.
    */
   @Override
   public void verifyDeterministic() throws NonDeterministicException {
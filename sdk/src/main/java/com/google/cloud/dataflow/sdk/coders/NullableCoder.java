@@ -164,12 +164,13 @@ public class NullableCoder<T> extends StandardCoder<T> {
   }
 
   /**
-   * {@code NullableCoder} is cheap if {@code valueCoder} is cheap.
+   * {@code NullableCoder} is cheap if {@code value} is {@code null} or if {@code valueCoder} is
+   * cheap.
    *
    * {@inheritDoc}
    */
   @Override
   public boolean isRegisterByteSizeObserverCheap(@Nullable T value, Context context) {
-    return valueCoder.isRegisterByteSizeObserverCheap(value, context.nested());
+    return value == null || valueCoder.isRegisterByteSizeObserverCheap(value, context.nested());
   }
 }
@@ -0,0 +1,940 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.google.cloud.dataflow.sdk.coders;
+
+import com.google.cloud.dataflow.sdk.util.CloudObject;
+import com.google.cloud.dataflow.sdk.util.VarInt;
+import com.google.cloud.dataflow.sdk.values.TypeDescriptor;
+import com.google.common.base.Throwables;
+import com.google.common.io.ByteStreams;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A {@link Coder} for plain Java objects that encodes their fields directly, without going
+ * through Java serialization or a schema.
+ *
+ * <p>A class is supported if it is a concrete top-level or static nested class with a
+ * zero-argument constructor (of any visibility) whose non-static, non-transient fields,
+ * including inherited ones, are all non-final and of one of the following types:
+ * <ul>
+ *   <li>a primitive type or its boxed counterpart,
+ *   <li>{@link String},
+ *   <li>{@link List} or {@link ArrayList} of a supported reference type,
+ *   <li>another supported class (including the class itself).
+ * </ul>
+ *
+ * <p>Fields are read and written through {@link MethodHandle MethodHandles} that are resolved
+ * once when the coder is constructed, and primitive fields are accessed without boxing.
+ * Fields are encoded in a fixed order: superclass fields first, then by name. Reference
+ * fields and list elements may be {@code null}; decoded lists are {@link ArrayList ArrayLists}.
+ *
+ * <p>Every object is encoded with the codec of its declared class, so encoding an instance of
+ * a subclass of the declared class fails with a {@link CoderException} rather than silently
+ * dropping the subclass fields. Objects are encoded as trees: an object that is referenced
+ * more than once is encoded once per reference and decoded as separate copies, and encoding an
+ * object that (transitively) refers to itself fails with a {@link CoderException}.
+ *
+ * <p>To use, annotate the class with {@code @DefaultCoder(PojoCoder.class)}, set the coder
+ * explicitly, or add {@link #PROVIDER} to the {@link CoderRegistry} fallback providers:
+ * <pre>
+ * {@code
+ *   PCollection<MyRecord> records =
+ *       foo.apply(...).setCoder(PojoCoder.of(MyRecord.class));
+ * }
+ * </pre>
+ *
+ * <p>The encoding is deterministic unless the class (transitively) has a {@code float} or
+ * {@code double} field, because floating point encodings are not guaranteed to be
+ * deterministic.
+ *
+ * @param <T> the type of elements handled by this coder
+ */
+public class PojoCoder<T> extends AtomicCoder<T> {
+
+  /**
+   * Returns a {@link PojoCoder} instance for the provided element type.
+   *
+   * @throws IllegalArgumentException if the type is not supported by {@link PojoCoder}
+   * @param <T> the element type
+   */
+  public static <T> PojoCoder<T> of(TypeDescriptor<T> type) {
+    @SuppressWarnings("unchecked")
+    Class<T> clazz = (Class<T>) type.getRawType();
+    return of(clazz);
+  }
+
+  /**
+   * Returns a {@link PojoCoder} instance for the provided element class.
+   *
+   * @throws IllegalArgumentException if the class is not supported by {@link PojoCoder}
+   * @param <T> the element type
+   */
+  public static <T> PojoCoder<T> of(Class<T> clazz) {
+    return new PojoCoder<>(clazz);
+  }
+
+  @JsonCreator
+  public static PojoCoder<?> of(@JsonProperty("type") String classType)
+      throws ClassNotFoundException {
+    return of(Class.forName(classType));
+  }
+
+  /**
+   * A {@link CoderProvider} that constructs a {@link PojoCoder} for any class that
+   * {@link PojoCoder} supports.
+   */
+  public static final CoderProvider PROVIDER = new CoderProvider() {
+    @Override
+    public <T> Coder<T> getCoder(TypeDescriptor<T> typeDescriptor)
+        throws CannotProvideCoderException {
+      try {
+        return PojoCoder.of(typeDescriptor);
+      } catch (IllegalArgumentException e) {
+        throw new CannotProvideCoderException(
+            "Cannot provide PojoCoder for " + typeDescriptor + ": " + e.getMessage(), e);
+      }
+    }
+  };
+
+  private final Class<T> type;
+  private final ObjectCodec codec;
+  private final List<String> nonDeterministicReasons;
+
+  protected PojoCoder(Class<T> type) {
+    this.type = type;
+    Set<String> reasons = new LinkedHashSet<>();
+    this.codec = ObjectCodec.forClass(type, new HashMap<Class<?>, ObjectCodec>(), reasons);
+    this.nonDeterministicReasons = new ArrayList<>(reasons);
+  }
+
+  public Class<T> getRecordType() {
+    return type;
+  }
+
+  private Object writeReplace() {
+    // When serialized by Java, instances of PojoCoder should be replaced by
+    // a SerializedPojoCoderProxy, since method handles are not serializable.
+    return new SerializedPojoCoderProxy<>(type);
+  }
+
+  @Override
+  public void encode(T value, OutputStream outStream, Context context)
+      throws IOException, CoderException {
+    if (value == null) {
+      throw new CoderException("cannot encode a null " + type.getSimpleName());
+    }
+    codec.encodeFields(value, outStream);
+  }
+
+  @Override
+  public T decode(InputStream inStream, Context context)
+      throws IOException, CoderException {
+    return type.cast(codec.decodeFields(inStream));
+  }
+
+  @Override
+  public String getEncodingId() {
+    return type.getName();
+  }
+
+  @Override
+  public CloudObject asCloudObject() {
+    CloudObject result = super.asCloudObject();
+    result.put("type", type.getName());
+    return result;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws NonDeterministicException if the class (transitively) contains a floating point
+   *         field.
+   */
+  @Override
+  public void verifyDeterministic() throws NonDeterministicException {
+    if (!nonDeterministicReasons.isEmpty()) {
+      throw new NonDeterministicException(this, nonDeterministicReasons);
+    }
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (other == null || getClass() != other.getClass()) {
+      return false;
+    }
+    return type == ((PojoCoder<?>) other).type;
+  }
+
+  @Override
+  public int hashCode() {
+    return type.hashCode();
+  }
+
+  /**
+   * Proxy to use in place of serializing the {@link PojoCoder}. This allows the fields
+   * to remain final.
+   */
+  private static class SerializedPojoCoderProxy<T> implements Serializable {
+    private final Class<T> type;
+
+    public SerializedPojoCoderProxy(Class<T> type) {
+      this.type = type;
+    }
+
+    private Object readResolve() {
+      // When deserialized, instances of this object should be replaced by
+      // constructing a PojoCoder.
+      return new PojoCoder<T>(type);
+    }
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+
+  private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+  private static final String FLOATING_POINT_REASON =
+      "Floating point encodings are not guaranteed to be deterministic.";
+
+  /** Orders superclass fields before subclass fields, then fields by name. */
+  private static final Comparator<Field> FIELD_ORDER = new Comparator<Field>() {
+    @Override
+    public int compare(Field a, Field b) {
+      int depthA = depth(a.getDeclaringClass());
+      int depthB = depth(b.getDeclaringClass());
+      if (depthA != depthB) {
+        return depthA < depthB ? -1 : 1;
+      }
+      return a.getName().compareTo(b.getName());
+    }
+
+    private int depth(Class<?> clazz) {
+      int depth = 0;
+      for (Class<?> c = clazz; c != null; c = c.getSuperclass()) {
+        depth++;
+      }
+      return depth;
+    }
+  };
+
+  /** Encodes and decodes a possibly-{@code null} value of a reference type. */
+  private abstract static class ValueCodec {
+    abstract void encode(Object value, OutputStream out) throws IOException;
+    abstract Object decode(InputStream in) throws IOException;
+
+    void encodeNullable(Object value, OutputStream out) throws IOException {
+      if (value == null) {
+        out.write(0);
+      } else {
+        out.write(1);
+        encode(value, out);
+      }
+    }
+
+    Object decodeNullable(InputStream in) throws IOException {
+      return readByte(in) == 0 ? null : decode(in);
+    }
+
+    static ValueCodec forType(
+        Type type, String location, Map<Class<?>, ObjectCodec> codecs, Set<String> reasons) {
+      if (type == String.class) {
+        return STRING;
+      } else if (type == Boolean.class) {
+        return BOOLEAN;
+      } else if (type == Byte.class) {
+        return BYTE;
+      } else if (type == Short.class) {
+        return SHORT;
+      } else if (type == Character.class) {
+        return CHARACTER;
+      } else if (type == Integer.class) {
+        return INTEGER;
+      } else if (type == Long.class) {
+        return LONG;
+      } else if (type == Float.class || type == Double.class) {
+        reasons.add(location + ": " + FLOATING_POINT_REASON);
+        return type == Float.class ? FLOAT : DOUBLE;
+      } else if (type instanceof ParameterizedType) {
+        ParameterizedType parameterized = (ParameterizedType) type;
+        Type raw = parameterized.getRawType();
+        if (raw == List.class || raw == ArrayList.class) {
+          return new ListCodec(forType(
+              parameterized.getActualTypeArguments()[0], location + "[]", codecs, reasons));
+        }
+      } else if (type instanceof Class) {
+        Class<?> clazz = (Class<?>) type;
+        if (clazz != List.class && clazz != ArrayList.class) {
+          try {
+            return ObjectCodec.forClass(clazz, codecs, reasons);
+          } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(
+                "unsupported type " + type + " at " + location + ": " + e.getMessage(), e);
+          }
+        }
+      }
+      throw new IllegalArgumentException(
+          "unsupported type " + type + " at " + location);
+    }
+  }
+
+  private static final ValueCodec STRING = new ValueCodec() {
+    @Override
+    void encode(Object value, OutputStream out) throws IOException {
+      byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+      VarInt.encode(bytes.length, out);
+      out.write(bytes);
+    }
+
+    @Override
+    Object decode(InputStream in) throws IOException {
+      int length = VarInt.decodeInt(in);
+      if (length < 0) {
+        throw new CoderException("invalid length " + length);
+      }
+      byte[] bytes = new byte[length];
+      ByteStreams.readFully(in, bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+  };
+
+  private static final ValueCodec BOOLEAN = new ValueCodec() {
+    @Override
+    void encode(Object value, OutputStream out) throws IOException {
+      out.write((Boolean) value ? 1 : 0);
+    }
+
+    @Override
+    Object decode(InputStream in) throws IOException {
+      return readByte(in) != 0;
+    }
+  };
+
+  private static final ValueCodec BYTE = new ValueCodec() {
+    @Override
+    void encode(Object value, OutputStream out) throws IOException {
+      out.write((Byte) value);
+    }
+
+    @Override
+    Object decode(InputStream in) throws IOException {
+      return (byte) readByte(in);
+    }
+  };
+
+  private static final ValueCodec SHORT = new ValueCodec() {
+    @Override
+    void encode(Object value, OutputStream out) throws IOException {
+      writeShort((Short) value, out);
+    }
+
+    @Override
+    Object decode(InputStream in) throws IOException {
+      return readShort(in);
+    }
+  };
+
+  private static final ValueCodec CHARACTER = new ValueCodec() {
+    @Override
+    void encode(Object value, OutputStream out) throws IOException {
+      writeShort((short) ((Character) value).charValue(), out);
+    }
+
+    @Override
+    Object decode(InputStream in) throws IOException {
+      return (char) readShort(in);
+    }
+  };
+
+  private static final ValueCodec INTEGER = new ValueCodec() {
+    @Override
+    void encode(Object value, OutputStream out) throws IOException {
+      VarInt.encode((Integer) value, out);
+    }
+
+    @Override
+    Object decode(InputStream in) throws IOException {
+      return VarInt.decodeInt(in);
+    }
+  };
+
+  private static final ValueCodec LONG = new ValueCodec() {
+    @Override
+    void encode(Object value, OutputStream out) throws IOException {
+      VarInt.encode((Long) value, out);
+    }
+
+    @Override
+    Object decode(InputStream in) throws IOException {
+      return VarInt.decodeLong(in);
+    }
+  };
+
+  private static final ValueCodec FLOAT = new ValueCodec() {
+    @Override
+    void encode(Object value, OutputStream out) throws IOException {
+      writeInt(Float.floatToIntBits((Float) value), out);
+    }
+
+    @Override
+    Object decode(InputStream in) throws IOException {
+      return Float.intBitsToFloat(readInt(in));
+    }
+  };
+
+  private static final ValueCodec DOUBLE = new ValueCodec() {
+    @Override
+    void encode(Object value, OutputStream out) throws IOException {
+      writeLong(Double.doubleToLongBits((Double) value), out);
+    }
+
+    @Override
+    Object decode(InputStream in) throws IOException {
+      return Double.longBitsToDouble(readLong(in));
+    }
+  };
+
+  /** Encodes a list as its size followed by its possibly-{@code null} elements. */
+  private static class ListCodec extends ValueCodec {
+    private final ValueCodec elementCodec;
+
+    ListCodec(ValueCodec elementCodec) {
+      this.elementCodec = elementCodec;
+    }
+
+    @Override
+    void encode(Object value, OutputStream out) throws IOException {
+      List<?> list = (List<?>) value;
+      VarInt.encode(list.size(), out);
+      for (Object element : list) {
+        elementCodec.encodeNullable(element, out);
+      }
+    }
+
+    @Override
+    Object decode(InputStream in) throws IOException {
+      int size = VarInt.decodeInt(in);
+      if (size < 0) {
+        throw new CoderException("invalid list size " + size);
+      }
+      List<Object> list = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) {
+        list.add(elementCodec.decodeNullable(in));
+      }
+      return list;
+    }
+  }
+
+  /**
+   * The objects of recursive classes that are currently being encoded on this thread, used to
+   * detect cyclic references.
+   */
+  private static final ThreadLocal<Set<Object>> ENCODING_PATH = new ThreadLocal<Set<Object>>() {
+    @Override
+    protected Set<Object> initialValue() {
+      return Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+    }
+  };
+
+  /**
+   * Encodes an object as the concatenation of its fields. The fields are resolved after the
+   * codec is registered, so that recursive classes refer back to the same codec.
+   *
+   * <p>A codec that is reached again while its fields are still being resolved belongs to a
+   * class that can (transitively) refer to itself. Only objects of such classes can be part of
+   * a cycle, so only those codecs track the objects on the encoding path.
+   */
+  private static class ObjectCodec extends ValueCodec {
+    private final Class<?> clazz;
+    private final MethodHandle constructor;
+    private FieldCodec[] fields;
+    private boolean recursive;
+
+    private ObjectCodec(Class<?> clazz, MethodHandle constructor) {
+      this.clazz = clazz;
+      this.constructor = constructor;
+    }
+
+    static ObjectCodec forClass(
+        Class<?> clazz, Map<Class<?>, ObjectCodec> codecs, Set<String> reasons) {
+      ObjectCodec codec = codecs.get(clazz);
+      if (codec != null) {
+        if (codec.fields == null) {
+          codec.recursive = true;
+        }
+        return codec;
+      }
+      if (clazz.isPrimitive() || clazz.isArray() || clazz.isInterface() || clazz.isEnum()
+          || Modifier.isAbstract(clazz.getModifiers())
+          || clazz.getName().startsWith("java.")) {
+        throw new IllegalArgumentException(clazz + " is not a supported POJO class");
+      }
+      if (clazz.getEnclosingClass() != null && !Modifier.isStatic(clazz.getModifiers())) {
+        throw new IllegalArgumentException(clazz + " is an inner class");
+      }
+
+      MethodHandle constructor;
+      try {
+        Constructor<?> ctor = clazz.getDeclaredConstructor();
+        ctor.setAccessible(true);
+        constructor = LOOKUP.unreflectConstructor(ctor)
+            .asType(MethodType.methodType(Object.class));
+      } catch (NoSuchMethodException | IllegalAccessException | SecurityException e) {
+        throw new IllegalArgumentException(
+            clazz + " does not have an accessible zero-argument constructor", e);
+      }
+      codec = new ObjectCodec(clazz, constructor);
+      codecs.put(clazz, codec);
+
+      List<Field> declared = new ArrayList<>();
+      for (Class<?> c = clazz; c != Object.class; c = c.getSuperclass()) {
+        declared.addAll(Arrays.asList(c.getDeclaredFields()));
+      }
+      Collections.sort(declared, FIELD_ORDER);
+      List<FieldCodec> fields = new ArrayList<>();
+      for (Field field : declared) {
+        int modifiers = field.getModifiers();
+        if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)
+            || field.isSynthetic()) {
+          continue;
+        }
+        String location = clazz.getName() + "#" + field.getName();
+        if (Modifier.isFinal(modifiers)) {
+          throw new IllegalArgumentException("field " + location + " is final");
+        }
+        fields.add(FieldCodec.forField(field, location, codecs, reasons));
+      }
+      codec.fields = fields.toArray(new FieldCodec[fields.size()]);
+      return codec;
+    }
+
+    void encodeFields(Object value, OutputStream out) throws IOException {
+      if (value.getClass() != clazz) {
+        throw new CoderException("cannot encode a " + value.getClass().getName()
+            + " as a " + clazz.getName() + ": subclasses are not supported");
+      }
+      if (!recursive) {
+        for (FieldCodec field : fields) {
+          field.encode(value, out);
+        }
+        return;
+      }
+      Set<Object> path = ENCODING_PATH.get();
+      if (!path.add(value)) {
+        throw new CoderException(
+            "cannot encode a " + clazz.getName() + " that refers to itself");
+      }
+      try {
+        for (FieldCodec field : fields) {
+          field.encode(value, out);
+        }
+      } finally {
+        path.remove(value);
+      }
+    }
+
+    Object decodeFields(InputStream in) throws IOException {
+      Object value;
+      try {
+        value = (Object) constructor.invokeExact();
+      } catch (Throwable t) {
+        throw Throwables.propagate(t);
+      }
+      for (FieldCodec field : fields) {
+        field.decode(value, in);
+      }
+      return value;
+    }
+
+    @Override
+    void encode(Object value, OutputStream out) throws IOException {
+      encodeFields(value, out);
+    }
+
+    @Override
+    Object decode(InputStream in) throws IOException {
+      return decodeFields(in);
+    }
+  }
+
+  /**
+   * Reads a single field from an object and encodes it, or decodes it and stores it into an
+   * object. The getter and setter handles are adapted to take the object as {@link Object}
+   * and, for primitive fields, to return or accept the primitive type, so that they can be
+   * invoked exactly.
+   */
+  private abstract static class FieldCodec {
+    final MethodHandle getter;
+    final MethodHandle setter;
+
+    FieldCodec(MethodHandle getter, MethodHandle setter) {
+      this.getter = getter;
+      this.setter = setter;
+    }
+
+    abstract void encode(Object pojo, OutputStream out) throws IOException;
+    abstract void decode(Object pojo, InputStream in) throws IOException;
+
+    static FieldCodec forField(
+        Field field, String location, Map<Class<?>, ObjectCodec> codecs, Set<String> reasons) {
+      Class<?> fieldType = field.getType();
+      Class<?> accessType = fieldType.isPrimitive() ? fieldType : Object.class;
+      MethodHandle getter;
+      MethodHandle setter;
+      try {
+        field.setAccessible(true);
+        getter = LOOKUP.unreflectGetter(field)
+            .asType(MethodType.methodType(accessType, Object.class));
+        setter = LOOKUP.unreflectSetter(field)
+            .asType(MethodType.methodType(void.class, Object.class, accessType));
+      } catch (IllegalAccessException | SecurityException e) {
+        throw new IllegalArgumentException("field " + location + " is not accessible", e);
+      }
+
+      if (fieldType == boolean.class) {
+        return new BooleanFieldCodec(getter, setter);
+      } else if (fieldType == byte.class) {
+        return new ByteFieldCodec(getter, setter);
+      } else if (fieldType == short.class) {
+        return new ShortFieldCodec(getter, setter);
+      } else if (fieldType == char.class) {
+        return new CharFieldCodec(getter, setter);
+      } else if (fieldType == int.class) {
+        return new IntFieldCodec(getter, setter);
+      } else if (fieldType == long.class) {
+        return new LongFieldCodec(getter, setter);
+      } else if (fieldType == float.class || fieldType == double.class) {
+        reasons.add(location + ": " + FLOATING_POINT_REASON);
+        return fieldType == float.class
+            ? new FloatFieldCodec(getter, setter)
+            : new DoubleFieldCodec(getter, setter);
+      } else {
+        return new ReferenceFieldCodec(getter, setter,
+            ValueCodec.forType(field.getGenericType(), location, codecs, reasons));
+      }
+    }
+  }
+
+  private static class ReferenceFieldCodec extends FieldCodec {
+    private final ValueCodec valueCodec;
+
+    ReferenceFieldCodec(MethodHandle getter, MethodHandle setter, ValueCodec valueCodec) {
+      super(getter, setter);
+      this.valueCodec = valueCodec;
+    }
+
+    @Override
+    void encode(Object pojo, OutputStream out) throws IOException {
+      Object value;
+      try {
+        value = (Object) getter.invokeExact(pojo);
+      } catch (Throwable t) {
+        throw Throwables.propagate(t);
+      }
+      valueCodec.encodeNullable(value, out);
+    }
+
+    @Override
+    void decode(Object pojo, InputStream in) throws IOException {
+      Object value = valueCodec.decodeNullable(in);
+      try {
+        setter.invokeExact(pojo, value);
+      } catch (Throwable t) {
+        throw Throwables.propagate(t);
+      }
+    }
+  }
+
+  private static class BooleanFieldCodec extends FieldCodec {
+    BooleanFieldCodec(MethodHandle getter, MethodHandle setter) {
+      super(getter, setter);
+    }
+
+    @Override
+    void encode(Object pojo, OutputStream out) throws IOException {
+      boolean value;
+      try {
+        value = (boolean) getter.invokeExact(pojo);
+      } catch (Throwable t) {
+        throw Throwables.propagate(t);
+      }
+      out.write(value ? 1 : 0);
+    }
+
+    @Override
+    void decode(Object pojo, InputStream in) throws IOException {
+      boolean value = readByte(in) != 0;
+      try {
+        setter.invokeExact(pojo, value);
+      } catch (Throwable t) {
+        throw Throwables.propagate(t);
+      }
+    }
+  }
+
+  private static class ByteFieldCodec extends FieldCodec {
+    ByteFieldCodec(MethodHandle getter, MethodHandle setter) {
+      super(getter, setter);
+    }
+
+    @Override
+    void encode(Object pojo, OutputStream out) throws IOException {
+      byte value;
+      try {
+        value = (byte) getter.invokeExact(pojo);
+      } catch (Throwable t) {
+        throw Throwables.propagate(t);
+      }
+      out.write(value);
+    }
+
+    @Override
+    void decode(Object pojo, InputStream in) throws IOException {
+      byte value = (byte) readByte(in);
+      try {
+        setter.invokeExact(pojo, value);
+      } catch (Throwable t) {
+        throw Throwables.propagate(t);
+      }
+    }
+  }
+
+  private static class ShortFieldCodec extends FieldCodec {
+    ShortFieldCodec(MethodHandle getter, MethodHandle setter) {
+      super(getter, setter);
+    }
+
+    @Override
+    void encode(Object pojo, OutputStream out) throws IOException {
+      short value;
+      try {
+        value = (short) getter.invokeExact(pojo);
+      } catch (Throwable t) {
+        throw Throwables.propagate(t);
+      }
+      writeShort(value, out);
+    }
+
+    @Override
+    void decode(Object pojo, InputStream in) throws IOException {
+      short value = readShort(in);
+      try {
+        setter.invokeExact(pojo, value);
+      } catch (Throwable t) {
+        throw Throwables.propagate(t);
+      }
+    }
+  }
+
+  private static class CharFieldCodec extends FieldCodec {
+    CharFieldCodec(MethodHandle getter, MethodHandle setter) {
+      super(getter, setter);
+    }
+
+    @Override
+    void encode(Object pojo, OutputStream out) throws IOException {
+      char value;
+      try {
+        value = (char) getter.invokeExact(pojo);
+      } catch (Throwable t) {
+        throw Throwables.propagate(t);
+      }
+      writeShort((short) value, out);
+    }
+
+    @Override
+    void decode(Object pojo, InputStream in) throws IOException {
+      char value = (char) readShort(in);
+      try {
+        setter.invokeExact(pojo, value);
+      } catch (Throwable t) {
+        throw Throwables.propagate(t);
+      }
+    }
+  }
+
+  private static class IntFieldCodec extends FieldCodec {
+    IntFieldCodec(MethodHandle getter, MethodHandle setter) {
+      super(getter, setter);
+    }
+
+    @Override
+    void encode(Object pojo, OutputStream out) throws IOException {
+      int value;
+      try {
+        value = (int) getter.invokeExact(pojo);
+      } catch (Throwable t) {
+        throw Throwables.propagate(t);
+      }
+      VarInt.encode(value, out);
+    }
+
+    @Override
+    void decode(Object pojo, InputStream in) throws IOException {
+      int value = VarInt.decodeInt(in);
+      try {
+        setter.invokeExact(pojo, value);
+      } catch (Throwable t) {
+        throw Throwables.propagate(t);
+      }
+    }
+  }
+
+  private static class LongFieldCodec extends FieldCodec {
+    LongFieldCodec(MethodHandle getter, MethodHandle setter) {
+      super(getter, setter);
+    }
+
+    @Override
+    void encode(Object pojo, OutputStream out) throws IOException {
+      long value;
+      try {
+        value = (long) getter.invokeExact(pojo);
+      } catch (Throwable t) {
+        throw Throwables.propagate(t);
+      }
+      VarInt.encode(value, out);
+    }
+
+    @Override
+    void decode(Object pojo, InputStream in) throws IOException {
+      long value = VarInt.decodeLong(in);
+      try {
+        setter.invokeExact(pojo, value);
+      } catch (Throwable t) {
+        throw Throwables.propagate(t);
+      }
+    }
+  }
+
+  private static class FloatFieldCodec extends FieldCodec {
+    FloatFieldCodec(MethodHandle getter, MethodHandle setter) {
+      super(getter, setter);
+    }
+
+    @Override
+    void encode(Object pojo, OutputStream out) throws IOException {
+      float value;
+      try {
+        value = (float) getter.invokeExact(pojo);
+      } catch (Throwable t) {
+        throw Throwables.propagate(t);
+      }
+      writeInt(Float.floatToIntBits(value), out);
+    }
+
+    @Override
+    void decode(Object pojo, InputStream in) throws IOException {
+      float value = Float.intBitsToFloat(readInt(in));
+      try {
+        setter.invokeExact(pojo, value);
+      } catch (Throwable t) {
+        throw Throwables.propagate(t);
+      }
+    }
+  }
+
+  private static class DoubleFieldCodec extends FieldCodec {
+    DoubleFieldCodec(MethodHandle getter, MethodHandle setter) {
+      super(getter, setter);
+    }
+
+    @Override
+    void encode(Object pojo, OutputStream out) throws IOException {
+      double value;
+      try {
+        value = (double) getter.invokeExact(pojo);
+      } catch (Throwable t) {
+        throw Throwables.propagate(t);
+      }
+      writeLong(Double.doubleToLongBits(value), out);
+    }
+
+    @Override
+    void decode(Object pojo, InputStream in) throws IOException {
+      double value = Double.longBitsToDouble(readLong(in));
+      try {
+        setter.invokeExact(pojo, value);
+      } catch (Throwable t) {
+        throw Throwables.propagate(t);
+      }
+    }
+  }
+
+  private static int readByte(InputStream in) throws IOException {
+    int b = in.read();
+    if (b < 0) {
+      throw new EOFException();
+    }
+    return b;
+  }
+
+  private static void writeShort(short value, OutputStream out) throws IOException {
+    out.write(value >>> 8);
+    out.write(value);
+  }
+
+  private static short readShort(InputStream in) throws IOException {
+    return (short) ((readByte(in) << 8) | readByte(in));
+  }
+
+  private static void writeInt(int value, OutputStream out) throws IOException {
+    out.write(value >>> 24);
+    out.write(value >>> 16);
+    out.write(value >>> 8);
+    out.write(value);
+  }
+
+  private static int readInt(InputStream in) throws IOException {
+    return (readByte(in) << 24) | (readByte(in) << 16) | (readByte(in) << 8) | readByte(in);
+  }
+
+  private static void writeLong(long value, OutputStream out) throws IOException {
+    writeInt((int) (value >>> 32), out);
+    writeInt((int) value, out);
+  }
+
+  private static long readLong(InputStream in) throws IOException {
+    return ((long) readInt(in) << 32) | (readInt(in) & 0xffffffffL);
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.google.cloud.dataflow.sdk.coders;
+
+import com.google.cloud.dataflow.sdk.coders.Coder.Context;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An optional interface for a {@link Coder} which can encode values directly into a
+ * {@link PositionalOutput} and decode them directly from a {@link ByteBuffer}, avoiding the
+ * per-value cost of dispatching through, and wrapping, {@link OutputStream OutputStreams} and
+ * {@link InputStream InputStreams}.
+ *
+ * <p>The bytes written by {@link #encodePositional} must be identical to those written by
+ * {@link Coder#encode}, and {@link #decodePositional} must accept anything accepted by
+ * {@link Coder#decode}. Decoding in an outer context consumes all the remaining bytes of
+ * the buffer. Decoding in a nested context consumes exactly the bytes of one encoded value,
+ * leaving the buffer positioned after them.
+ *
+ * <p>Coders for composite values should use {@link PositionalCoders} to encode and decode
+ * their components, which falls back to the stream methods for component coders which do
+ * not implement this interface.
+ *
+ * <p>A subclass of a coder implementing this interface which overrides {@link Coder#encode}
+ * or {@link Coder#decode} should override the corresponding method here as well. Otherwise
+ * {@link PositionalCoders} and {@link com.google.cloud.dataflow.sdk.util.CoderUtils} use the
+ * overriding stream method instead.
+ *
+ * @param <T> the type of the values being transcoded
+ */
+public interface PositionalCoder<T> {
+  /**
+   * Encodes the given value of type {@code T} onto the given output, in the given context.
+   *
+   * @throws CoderException if the value could not be encoded for some reason
+   */
+  void encodePositional(T value, PositionalOutput out, Context context)
+      throws CoderException, IOException;
+
+  /**
+   * Decodes a value of type {@code T} from the given buffer, in the given context, advancing
+   * the position of the buffer past the bytes consumed.
+   *
+   * @throws CoderException if the value could not be decoded for some reason
+   * @throws java.nio.BufferUnderflowException if the buffer ends before the encoded value
+   */
+  T decodePositional(ByteBuffer in, Context context) throws CoderException, IOException;
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.google.cloud.dataflow.sdk.coders;
+
+import com.google.cloud.dataflow.sdk.coders.Coder.Context;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+
+/**
+ * Static utility methods for encoding and decoding with any {@link Coder} using the
+ * {@link PositionalCoder} interface, falling back to the stream methods of coders which do
+ * not implement it.
+ *
+ * <p>The stream methods are also used for a subclass of a {@link PositionalCoder} which
+ * overrides {@link Coder#encode} or {@link Coder#decode}, but not the corresponding positional
+ * method, since the positional method it inherits does not know about the override.
+ */
+public final class PositionalCoders {
+  private PositionalCoders() {}  // Non-instantiable
+
+  // Whether each PositionalCoder class declares its positional methods no higher in its class
+  // hierarchy than the corresponding stream methods.
+  private static final ClassValue<Boolean> ENCODES_POSITIONALLY = new ClassValue<Boolean>() {
+    @Override
+    protected Boolean computeValue(Class<?> type) {
+      return overridesTogether(type, "encodePositional", PositionalOutput.class,
+          "encode", OutputStream.class);
+    }
+  };
+  private static final ClassValue<Boolean> DECODES_POSITIONALLY = new ClassValue<Boolean>() {
+    @Override
+    protected Boolean computeValue(Class<?> type) {
+      return overridesTogether(type, "decodePositional", ByteBuffer.class,
+          "decode", InputStream.class);
+    }
+  };
+
+  /**
+   * Returns true if values may be encoded with {@code coder} using
+   * {@link PositionalCoder#encodePositional} in place of {@link Coder#encode}.
+   */
+  public static boolean encodesPositionally(Coder<?> coder) {
+    return coder instanceof PositionalCoder && ENCODES_POSITIONALLY.get(coder.getClass());
+  }
+
+  /**
+   * Returns true if values may be decoded with {@code coder} using
+   * {@link PositionalCoder#decodePositional} in place of {@link Coder#decode}.
+   */
+  public static boolean decodesPositionally(Coder<?> coder) {
+    return coder instanceof PositionalCoder && DECODES_POSITIONALLY.get(coder.getClass());
+  }
+
+  /**
+   * Returns true if the class that declares the positional method nearest to {@code type} is
+   * {@code type} or a subclass of the class that declares the stream method nearest to it.
+   * Either method is recognized by its name and the type of its output or input parameter.
+   */
+  private static boolean overridesTogether(Class<?> type, String positionalName,
+      Class<?> positionalParameter, String streamName, Class<?> streamParameter) {
+    Class<?> positional = findDeclaringClass(type, positionalName, positionalParameter);
+    Class<?> stream = findDeclaringClass(type, streamName, streamParameter);
+    return positional != null && stream != null && stream.isAssignableFrom(positional);
+  }
+
+  @Nullable
+  private static Class<?> findDeclaringClass(Class<?> type, String name, Class<?> parameter) {
+    for (Class<?> clazz = type; clazz != null; clazz = clazz.getSuperclass()) {
+      for (Method method : clazz.getDeclaredMethods()) {
+        if (method.getName().equals(name)
+            && Arrays.asList(method.getParameterTypes()).contains(parameter)) {
+          return clazz;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Encodes {@code value} onto {@code out} with {@code coder}, directly if the coder is a
+   * {@link PositionalCoder} and otherwise using {@link Coder#encode}.
+   */
+  public static <T> void encode(Coder<T> coder, T value, PositionalOutput out, Context context)
+      throws CoderException, IOException {
+    if (encodesPositionally(coder)) {
+      @SuppressWarnings("unchecked")
+      PositionalCoder<T> positionalCoder = (PositionalCoder<T>) coder;
+      positionalCoder.encodePositional(value, out, context);
+    } else {
+      coder.encode(value, out, context);
+    }
+  }
+
+  /**
+   * Decodes a value from {@code in} with {@code coder}, directly if the coder is a
+   * {@link PositionalCoder} and otherwise using {@link Coder#decode} on a stream reading
+   * from, and advancing, the buffer.
+   */
+  public static <T> T decode(Coder<T> coder, ByteBuffer in, Context context)
+      throws CoderException, IOException {
+    if (decodesPositionally(coder)) {
+      @SuppressWarnings("unchecked")
+      PositionalCoder<T> positionalCoder = (PositionalCoder<T>) coder;
+      return positionalCoder.decodePositional(in, context);
+    } else {
+      return coder.decode(new ByteBufferInputStream(in), context);
+    }
+  }
+
+  /**
+   * Returns {@code length} bytes read from {@code in}, which must have that many remaining.
+   */
+  static byte[] readBytes(ByteBuffer in, int length) throws CoderException {
+    if (length < 0 || length > in.remaining()) {
+      throw new CoderException("Invalid encoded length " + length + " with only "
+          + in.remaining() + " bytes remaining");
+    }
+    byte[] bytes = new byte[length];
+    in.get(bytes);
+    return bytes;
+  }
+
+  /**
+   * An {@link InputStream} reading from a {@link ByteBuffer}. Reads advance the position
+   * of the buffer, so a nested decode leaves it positioned after the decoded value.
+   */
+  private static class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    private ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      int count = Math.min(len, buffer.remaining());
+      buffer.get(b, off, count);
+      return count;
+    }
+
+    @Override
+    public long skip(long n) {
+      int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+      buffer.position(buffer.position() + count);
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.google.cloud.dataflow.sdk.coders;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A growable, unsynchronized in-memory byte array which a {@link PositionalCoder} encodes into.
+ *
+ * <p>It is also an {@link OutputStream}, so that coders which do not implement
+ * {@link PositionalCoder} may encode into it using {@link Coder#encode}. Writes never throw
+ * {@link java.io.IOException}.
+ */
+public final class PositionalOutput extends OutputStream {
+  private static final int DEFAULT_INITIAL_CAPACITY = 64;
+
+  private byte[] buffer;
+  private int position;
+
+  /**
+   * The buffer in use before {@link #writeAndOwn} replaced it, or {@code null} if
+   * {@code buffer} is not an array handed to {@link #writeAndOwn}.
+   */
+  private byte[] savedBuffer;
+
+  public PositionalOutput() {
+    this(DEFAULT_INITIAL_CAPACITY);
+  }
+
+  public PositionalOutput(int initialCapacity) {
+    buffer = new byte[initialCapacity];
+  }
+
+  @Override
+  public void write(int b) {
+    ensureCapacity(1);
+    buffer[position++] = (byte) b;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) {
+    ensureCapacity(len);
+    System.arraycopy(b, off, buffer, position, len);
+    position += len;
+  }
+
+  /**
+   * Writes {@code b}, taking ownership of it to avoid a copy if nothing has been written yet.
+   * The caller must not modify {@code b} afterwards.
+   */
+  public void writeAndOwn(byte[] b) {
+    if (position == 0 && savedBuffer == null) {
+      savedBuffer = buffer;
+      buffer = b;
+      position = b.length;
+    } else {
+      write(b, 0, b.length);
+    }
+  }
+
+  /**
+   * Writes {@code v} in the encoding of {@link com.google.cloud.dataflow.sdk.util.VarInt}.
+   */
+  public void writeVarInt(int v) {
+    writeVarLong(v & 0xFFFFFFFFL);
+  }
+
+  /**
+   * Writes {@code v} in the encoding of {@link com.google.cloud.dataflow.sdk.util.VarInt}.
+   */
+  public void writeVarLong(long v) {
+    ensureCapacity(10);
+    do {
+      // Encode next 7 bits + terminator bit
+      long bits = v & 0x7F;
+      v >>>= 7;
+      buffer[position++] = (byte) (bits | ((v != 0) ? 0x80 : 0));
+    } while (v != 0);
+  }
+
+  /**
+   * Writes {@code v} in 4 bytes, big-endian, as {@link java.io.DataOutput#writeInt} does.
+   */
+  public void writeBigEndianInt(int v) {
+    ensureCapacity(4);
+    buffer[position] = (byte) (v >>> 24);
+    buffer[position + 1] = (byte) (v >>> 16);
+    buffer[position + 2] = (byte) (v >>> 8);
+    buffer[position + 3] = (byte) v;
+    position += 4;
+  }
+
+  /**
+   * Writes {@code v} in 8 bytes, big-endian, as {@link java.io.DataOutput#writeLong} does.
+   */
+  public void writeBigEndianLong(long v) {
+    writeBigEndianInt((int) (v >>> 32));
+    writeBigEndianInt((int) v);
+  }
+
+  /**
+   * Returns the number of bytes written since construction or the last {@link #reset}.
+   */
+  public int size() {
+    return position;
+  }
+
+  /**
+   * Discards everything written so far, retaining the allocated buffer for reuse.
+   */
+  public void reset() {
+    if (savedBuffer != null) {
+      buffer = savedBuffer;
+      savedBuffer = null;
+    }
+    position = 0;
+  }
+
+  /**
+   * Returns the bytes written so far. If they are exactly an array passed to
+   * {@link #writeAndOwn} then that array is returned without copying.
+   */
+  public byte[] toByteArray() {
+    if (savedBuffer != null && position == buffer.length) {
+      return buffer;
+    }
+    return Arrays.copyOf(buffer, position);
+  }
+
+  private void ensureCapacity(int extra) {
+    int required = position + extra;
+    if (required > buffer.length || savedBuffer != null) {
+      byte[] newBuffer;
+      if (savedBuffer != null && required <= savedBuffer.length) {
+        // Copy the owned array back into our own buffer rather than writing into it.
+        newBuffer = savedBuffer;
+      } else {
+        newBuffer = new byte[Math.max(required, buffer.length * 2)];
+      }
+      System.arraycopy(buffer, 0, newBuffer, 0, position);
+      buffer = newBuffer;
+      savedBuffer = null;
+    }
+  }
+}
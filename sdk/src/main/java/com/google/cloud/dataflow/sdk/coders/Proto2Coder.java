@@ -17,12 +17,16 @@ package com.google.cloud.dataflow.sdk.coders;
 
 import com.google.cloud.dataflow.sdk.util.CloudObject;
 import com.google.cloud.dataflow.sdk.util.Structs;
+import com.google.cloud.dataflow.sdk.util.VarInt;
 import com.google.cloud.dataflow.sdk.values.TypeDescriptor;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+import com.google.protobuf.ByteString;
 import com.google.protobuf.ExtensionRegistry;
+import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.Message;
 import com.google.protobuf.Parser;
 
@@ -35,6 +39,7 @@ import java.io.OutputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
@@ -69,9 +74,15 @@ import javax.annotation.Nullable;
  * }
  * </pre>
  *
+ * <p>Messages in a nested context are read into a byte array and parsed from it directly, and
+ * when decoding from a {@link ByteBuffer} with a backing array they are parsed in place. The
+ * {@link Parser} and {@link ExtensionRegistry} are looked up once per coder instance. To defer
+ * parsing until a message is actually used, see {@link LazyProto2Coder}.
+ *
  * @param <T> the type of elements handled by this coder, must extend {@code Message}
  */
-public class Proto2Coder<T extends Message> extends AtomicCoder<T> {
+public class Proto2Coder<T extends Message> extends AtomicCoder<T>
+    implements PositionalCoder<T> {
 
   /** The class of Protobuf message to be encoded. */
   private final Class<T> protoMessageClass;
@@ -195,6 +206,7 @@ public class Proto2Coder<T extends Message> extends AtomicCoder<T> {
       }
       extensionHostClasses.add(extensionHost);
     }
+    memoizedExtensionRegistry = null;
     return this;
   }
 
@@ -215,8 +227,63 @@ public class Proto2Coder<T extends Message> extends AtomicCoder<T> {
     if (context.isWholeStream) {
       return getParser().parseFrom(inStream, getExtensionRegistry());
     } else {
-      return getParser().parseDelimitedFrom(inStream, getExtensionRegistry());
+      // Reading the delimited message into an array and parsing it from there avoids the
+      // buffered CodedInputStream that parseDelimitedFrom allocates for every message.
+      int length = readLength(inStream);
+      byte[] bytes = new byte[length];
+      ByteStreams.readFully(inStream, bytes);
+      return getParser().parseFrom(bytes, getExtensionRegistry());
+    }
+  }
+
+  @Override
+  public void encodePositional(T value, PositionalOutput out, Context context)
+      throws IOException, CoderException {
+    if (value == null) {
+      throw new CoderException("cannot encode a null " + protoMessageClass.getSimpleName());
+    }
+    if (!context.isWholeStream) {
+      out.writeVarInt(value.getSerializedSize());
+    }
+    value.writeTo(out);
+  }
+
+  @Override
+  public T decodePositional(ByteBuffer in, Context context)
+      throws IOException, CoderException {
+    int length = context.isWholeStream ? in.remaining() : VarInt.decodeInt(in);
+    if (length < 0 || length > in.remaining()) {
+      throw new CoderException("Invalid encoded message length: " + length);
+    }
+    T message;
+    if (in.hasArray()) {
+      // Parses through a CodedInputStream over the backing array, without copying.
+      message = getParser().parseFrom(
+          in.array(), in.arrayOffset() + in.position(), length, getExtensionRegistry());
+      in.position(in.position() + length);
+    } else {
+      message = getParser().parseFrom(
+          PositionalCoders.readBytes(in, length), getExtensionRegistry());
+    }
+    return message;
+  }
+
+  /**
+   * Parses a message from its encoding in the whole-stream context.
+   */
+  T parse(ByteString bytes) throws InvalidProtocolBufferException {
+    return getParser().parseFrom(bytes, getExtensionRegistry());
+  }
+
+  /**
+   * Reads the length prefix of a message in the nested context.
+   */
+  static int readLength(InputStream inStream) throws IOException {
+    int length = VarInt.decodeInt(inStream);
+    if (length < 0) {
+      throw new CoderException("Invalid encoded message length: " + length);
     }
+    return length;
   }
 
   @Override
@@ -271,7 +338,7 @@ public class Proto2Coder<T extends Message> extends AtomicCoder<T> {
     return protoMessageClass.getName();
   }
 
-  private transient Parser<T> memoizedParser;
+  private transient volatile Parser<T> memoizedParser;
 
   private Parser<T> getParser() {
     if (memoizedParser == null) {
@@ -291,22 +358,24 @@ public class Proto2Coder<T extends Message> extends AtomicCoder<T> {
     return memoizedParser;
   }
 
-  private transient ExtensionRegistry memoizedExtensionRegistry;
+  private transient volatile ExtensionRegistry memoizedExtensionRegistry;
 
   private ExtensionRegistry getExtensionRegistry() {
     if (memoizedExtensionRegistry == null) {
-      memoizedExtensionRegistry = ExtensionRegistry.newInstance();
+      // Populate the registry before publishing it, since decoding may happen concurrently.
+      ExtensionRegistry registry = ExtensionRegistry.newInstance();
       for (Class<?> extensionHost : extensionHostClasses) {
         try {
           extensionHost
               .getDeclaredMethod("registerAllExtensions", ExtensionRegistry.class)
-              .invoke(null, memoizedExtensionRegistry);
+              .invoke(null, registry);
         } catch (IllegalAccessException
             | InvocationTargetException
             | NoSuchMethodException e) {
           throw new IllegalStateException(e);
         }
       }
+      memoizedExtensionRegistry = registry.getUnmodifiable();
     }
     return memoizedExtensionRegistry;
   }
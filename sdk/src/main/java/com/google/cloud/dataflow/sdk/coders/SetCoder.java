@@ -58,6 +58,7 @@ public class SetCoder<T> extends IterableLikeCoder<T, Set<T>> {
    *
    * @throws NonDeterministicException always. Sets are not ordered, but
    *         they are encoded in the order of an arbitrary iteration.
+   *         Use {@link DeterministicSetCoder} for a deterministic encoding.
    */
   @Override
   public void verifyDeterministic() throws NonDeterministicException {
@@ -32,6 +32,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 
 /**
@@ -39,7 +40,8 @@ import java.nio.charset.StandardCharsets;
  * If in a nested context, prefixes the string with an integer length field,
  * encoded via a {@link VarIntCoder}.
  */
-public class StringUtf8Coder extends AtomicCoder<String> {
+public class StringUtf8Coder extends AtomicCoder<String>
+    implements PositionalCoder<String> {
 
   @JsonCreator
   public static StringUtf8Coder of() {
@@ -104,6 +106,53 @@ public class StringUtf8Coder extends AtomicCoder<String> {
     }
   }
 
+  @Override
+  public void encodePositional(String value, PositionalOutput out, Context context)
+      throws CoderException {
+    if (value == null) {
+      throw new CoderException("cannot encode a null String");
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    if (context.isWholeStream) {
+      out.writeAndOwn(bytes);
+    } else {
+      out.writeVarInt(bytes.length);
+      out.write(bytes, 0, bytes.length);
+    }
+  }
+
+  @Override
+  public String decodePositional(ByteBuffer in, Context context)
+      throws IOException, CoderException {
+    int len;
+    if (context.isWholeStream) {
+      len = in.remaining();
+    } else {
+      try {
+        len = VarInt.decodeInt(in);
+      } catch (EOFException exn) {
+        throw new CoderException(exn);
+      }
+      if (len < 0 || len > in.remaining()) {
+        throw new CoderException("Invalid encoded string length: " + len);
+      }
+    }
+    String value;
+    if (in.hasArray()) {
+      // Decode straight from the backing array rather than copying the bytes out first.
+      value = new String(in.array(), in.arrayOffset() + in.position(), len, StandardCharsets.UTF_8);
+      in.position(in.position() + len);
+    } else {
+      // Decode straight from a direct or mapped buffer; malformed input is replaced, as it is
+      // by the String constructor above.
+      ByteBuffer bytes = in.duplicate();
+      bytes.limit(bytes.position() + len);
+      value = StandardCharsets.UTF_8.decode(bytes).toString();
+      in.position(in.position() + len);
+    }
+    return value;
+  }
+
   /**
    * {@inheritDoc}
    *
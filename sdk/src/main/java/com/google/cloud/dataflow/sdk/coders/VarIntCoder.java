@@ -25,13 +25,15 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
 
 /**
  * A {@link Coder} that encodes {@link Integer Integers} using between 1 and 5 bytes. Negative
  * numbers always take 5 bytes, so {@link BigEndianIntegerCoder} may be preferable for
  * integers that are known to often be large or negative.
  */
-public class VarIntCoder extends AtomicCoder<Integer> {
+public class VarIntCoder extends AtomicCoder<Integer>
+    implements PositionalCoder<Integer> {
 
   @JsonCreator
   public static VarIntCoder of() {
@@ -66,6 +68,25 @@ public class VarIntCoder extends AtomicCoder<Integer> {
     }
   }
 
+  @Override
+  public void encodePositional(Integer value, PositionalOutput out, Context context)
+      throws CoderException {
+    if (value == null) {
+      throw new CoderException("cannot encode a null Integer");
+    }
+    out.writeVarInt(value.intValue());
+  }
+
+  @Override
+  public Integer decodePositional(ByteBuffer in, Context context)
+      throws IOException, CoderException {
+    try {
+      return VarInt.decodeInt(in);
+    } catch (EOFException exn) {
+      throw new CoderException(exn);
+    }
+  }
+
   /**
    * {@inheritDoc}
    *
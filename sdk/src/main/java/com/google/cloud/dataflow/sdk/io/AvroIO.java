@@ -25,6 +25,7 @@ import com.google.cloud.dataflow.sdk.runners.PipelineRunner;
 import com.google.cloud.dataflow.sdk.runners.worker.AvroReader;
 import com.google.cloud.dataflow.sdk.runners.worker.AvroSink;
 import com.google.cloud.dataflow.sdk.transforms.PTransform;
+import com.google.cloud.dataflow.sdk.util.AvroUtils;
 import com.google.cloud.dataflow.sdk.util.ReaderUtils;
 import com.google.cloud.dataflow.sdk.util.WindowedValue;
 import com.google.cloud.dataflow.sdk.util.WindowingStrategy;
@@ -36,6 +37,7 @@ import com.google.cloud.dataflow.sdk.values.PInput;
 import com.google.common.base.Preconditions;
 
 import org.apache.avro.Schema;
+import org.apache.avro.SchemaCompatibility;
 import org.apache.avro.generic.GenericRecord;
 import org.apache.avro.reflect.ReflectData;
 
@@ -82,6 +84,17 @@ import javax.annotation.Nullable;
  *                        .withSchema(schema));
  * } </pre>
  *
+ * <p>To decode only some of the fields of wide records, use
+ * {@link AvroIO.Read.Bound#withProjection} after specifying the schema:
+ * the other fields are skipped while decoding, and the resulting
+ * {@link GenericRecord GenericRecords} only contain the projected fields.
+ * <pre> {@code
+ * PCollection<GenericRecord> names =
+ *     p.apply(AvroIO.Read.from("gs://my_bucket/path/to/records-*.avro")
+ *                        .withSchema(schema)
+ *                        .withProjection("name", "id"));
+ * } </pre>
+ *
  * <p>To write a {@link PCollection} to one or more Avro files, use
  * {@link AvroIO.Write}, specifying {@link AvroIO.Write#to} to specify
  * the path of the file to write to (e.g., a local filename or sharded
@@ -276,6 +289,49 @@ public class AvroIO {
         return withSchema((new Schema.Parser()).parse(schema));
       }
 
+      /**
+       * Returns a new {@link PTransform} that's like this one but
+       * that only decodes the given top-level fields of each record,
+       * producing {@link GenericRecord}s of the projection of the
+       * schema to those fields. The other fields are skipped while
+       * decoding, which saves CPU and memory when only a few fields of
+       * wide records are used.
+       *
+       * <p>The schema must have been set by {@link #withSchema}.
+       *
+       * <p>Does not modify this object.
+       */
+      public Bound<GenericRecord> withProjection(String... fieldNames) {
+        Preconditions.checkState(schema != null,
+            "need to set the schema of an AvroIO.Read transform before projecting it");
+        return new Bound<>(name, filepattern, GenericRecord.class,
+            AvroUtils.projectSchema(schema, fieldNames), validate);
+      }
+
+      /**
+       * Returns a new {@link PTransform} that's like this one but
+       * that decodes each record with the given reader schema,
+       * producing {@link GenericRecord}s of that schema. Fields of
+       * the files that are not in the reader schema are skipped while
+       * decoding.
+       *
+       * <p>If a schema has been set by {@link #withSchema}, the reader
+       * schema must be able to read data written with it.
+       *
+       * <p>Does not modify this object.
+       */
+      public Bound<GenericRecord> withProjection(Schema readerSchema) {
+        if (schema != null) {
+          SchemaCompatibility.SchemaPairCompatibility compatibility =
+              SchemaCompatibility.checkReaderWriterCompatibility(readerSchema, schema);
+          Preconditions.checkArgument(
+              compatibility.getType() == SchemaCompatibility.SchemaCompatibilityType.COMPATIBLE,
+              "Projection %s cannot read records of schema %s: %s",
+              readerSchema, schema, compatibility.getDescription());
+        }
+        return new Bound<>(name, filepattern, GenericRecord.class, readerSchema, validate);
+      }
+
       /**
        * Returns a new {@link PTransform} that's like this one but
        * that has GCS input path validation on pipeline creation disabled.
@@ -24,6 +24,11 @@ import com.google.cloud.dataflow.sdk.util.AvroUtils;
 import com.google.cloud.dataflow.sdk.util.AvroUtils.AvroMetadata;
 import com.google.cloud.dataflow.sdk.values.PCollection;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 import org.apache.avro.Schema;
 import org.apache.avro.file.CodecFactory;
@@ -39,17 +44,28 @@ import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
 import org.apache.commons.compress.compressors.snappy.SnappyCompressorInputStream;
 import org.apache.commons.compress.compressors.xz.XZCompressorInputStream;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.PushbackInputStream;
-import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
 
+import javax.annotation.Nullable;
+
 // CHECKSTYLE.OFF: JavadocStyle
 /**
  * A {@link FileBasedSource} for reading Avro files.
@@ -96,6 +112,11 @@ import java.util.zip.InflaterInputStream;
  * the start offset of the block is greater than or equal to the start offset of the source and less
  * than the end offset of the source.
  *
+ * <p>By default, blocks are read, decompressed and decoded on the reading thread. When decoding
+ * is fast compared to reading and decompressing, {@link AvroSource#withBlockReadAhead} lets the
+ * reader read the next blocks on a background thread and decompress them in parallel while the
+ * current block is decoded.
+ *
  * <p>To use XZ-encoded Avro files, please include an explicit dependency on {@code xz-1.5.jar},
  * which has been marked as optional in the Maven {@code sdk/pom.xml} for Google Cloud Dataflow:
  *
@@ -132,6 +153,10 @@ public class AvroSource<T> extends BlockBasedSource<T> {
   // The type of the records contained in the file.
   private final Class<T> type;
 
+  // The number of blocks to read and decompress ahead of the block being decoded, or 0 to read
+  // blocks only when they are needed.
+  private final int blockReadAhead;
+
   // The following metadata fields are not user-configurable. They are extracted from the object
   // container file header upon subsource creation.
 
@@ -157,7 +182,7 @@ public class AvroSource<T> extends BlockBasedSource<T> {
    */
   public static <T> Read.Bounded<T> readFromFileWithClass(String filePattern, Class<T> clazz) {
     return Read.from(new AvroSource<T>(filePattern, DEFAULT_MIN_BUNDLE_SIZE,
-        ReflectData.get().getSchema(clazz).toString(), clazz, null, null));
+        ReflectData.get().getSchema(clazz).toString(), clazz, null, null, 0));
   }
 
   /**
@@ -167,7 +192,7 @@ public class AvroSource<T> extends BlockBasedSource<T> {
    */
   public static AvroSource<GenericRecord> from(String fileNameOrPattern) {
     return new AvroSource<>(
-        fileNameOrPattern, DEFAULT_MIN_BUNDLE_SIZE, null, GenericRecord.class, null, null);
+        fileNameOrPattern, DEFAULT_MIN_BUNDLE_SIZE, null, GenericRecord.class, null, null, 0);
   }
 
   /**
@@ -177,8 +202,8 @@ public class AvroSource<T> extends BlockBasedSource<T> {
    * <p>Does not modify this object.
    */
   public AvroSource<GenericRecord> withSchema(String schema) {
-    return new AvroSource<>(
-        getFileOrPatternSpec(), getMinBundleSize(), schema, GenericRecord.class, codec, syncMarker);
+    return new AvroSource<>(getFileOrPatternSpec(), getMinBundleSize(), schema,
+        GenericRecord.class, codec, syncMarker, blockReadAhead);
   }
 
   /**
@@ -189,7 +214,7 @@ public class AvroSource<T> extends BlockBasedSource<T> {
    */
   public AvroSource<GenericRecord> withSchema(Schema schema) {
     return new AvroSource<>(getFileOrPatternSpec(), getMinBundleSize(), schema.toString(),
-        GenericRecord.class, codec, syncMarker);
+        GenericRecord.class, codec, syncMarker, blockReadAhead);
   }
 
   /**
@@ -200,7 +225,25 @@ public class AvroSource<T> extends BlockBasedSource<T> {
    */
   public <X> AvroSource<X> withSchema(Class<X> clazz) {
     return new AvroSource<X>(getFileOrPatternSpec(), getMinBundleSize(),
-        ReflectData.get().getSchema(clazz).toString(), clazz, codec, syncMarker);
+        ReflectData.get().getSchema(clazz).toString(), clazz, codec, syncMarker, blockReadAhead);
+  }
+
+  /**
+   * Returns an {@link AvroSource} that's like this one but only decodes the given top-level fields
+   * of each record, producing {@link GenericRecord GenericRecords} of the projection of the read
+   * schema to those fields. Avro schema resolution skips the other fields while decoding.
+   *
+   * <p>The read schema must have been set by {@link #withSchema}.
+   *
+   * <p>Does not modify this object.
+   */
+  public AvroSource<GenericRecord> withProjection(String... fieldNames) {
+    Schema readSchema = getReadSchema();
+    Preconditions.checkState(readSchema != null,
+        "The schema of source %s must be set before projecting it", this);
+    return new AvroSource<>(getFileOrPatternSpec(), getMinBundleSize(),
+        AvroUtils.projectSchema(readSchema, fieldNames).toString(), GenericRecord.class, codec,
+        syncMarker, blockReadAhead);
   }
 
   /**
@@ -210,28 +253,46 @@ public class AvroSource<T> extends BlockBasedSource<T> {
    * <p>Does not modify this object.
    */
   public AvroSource<T> withMinBundleSize(long minBundleSize) {
-    return new AvroSource<T>(
-        getFileOrPatternSpec(), minBundleSize, readSchemaString, type, codec, syncMarker);
+    return new AvroSource<T>(getFileOrPatternSpec(), minBundleSize, readSchemaString, type,
+        codec, syncMarker, blockReadAhead);
+  }
+
+  /**
+   * Returns an {@link AvroSource} that's like this one but reads up to {@code numBlocks} blocks
+   * ahead of the block being decoded. The blocks are read on a background thread and decompressed
+   * in parallel, so that reading and decompressing overlap with decoding. At most
+   * {@code numBlocks} decompressed blocks are held in memory per reader. 0 disables read-ahead.
+   *
+   * <p>Does not modify this object.
+   */
+  public AvroSource<T> withBlockReadAhead(int numBlocks) {
+    Preconditions.checkArgument(numBlocks >= 0, "numBlocks must be non-negative, not %s",
+        numBlocks);
+    return new AvroSource<T>(getFileOrPatternSpec(), getMinBundleSize(), readSchemaString, type,
+        codec, syncMarker, numBlocks);
   }
 
   private AvroSource(String fileNameOrPattern, long minBundleSize, String schema, Class<T> type,
-      String codec, byte[] syncMarker) {
+      String codec, byte[] syncMarker, int blockReadAhead) {
     super(fileNameOrPattern, minBundleSize);
     this.readSchemaString = schema;
     this.codec = codec;
     this.syncMarker = syncMarker;
     this.type = type;
     this.fileSchemaString = null;
+    this.blockReadAhead = blockReadAhead;
   }
 
   private AvroSource(String fileName, long minBundleSize, long startOffset, long endOffset,
-      String schema, Class<T> type, String codec, byte[] syncMarker, String fileSchema) {
+      String schema, Class<T> type, String codec, byte[] syncMarker, String fileSchema,
+      int blockReadAhead) {
     super(fileName, minBundleSize, startOffset, endOffset);
     this.readSchemaString = schema;
     this.codec = codec;
     this.syncMarker = syncMarker;
     this.type = type;
     this.fileSchemaString = fileSchema;
+    this.blockReadAhead = blockReadAhead;
   }
 
   @Override
@@ -270,7 +331,7 @@ public class AvroSource<T> extends BlockBasedSource<T> {
       }
     }
     return new AvroSource<T>(fileName, getMinBundleSize(), start, end, readSchemaString, type,
-        codec, syncMarker, fileSchemaString);
+        codec, syncMarker, fileSchemaString, blockReadAhead);
   }
 
   @Override
@@ -296,6 +357,15 @@ public class AvroSource<T> extends BlockBasedSource<T> {
     return readSchemaString;
   }
 
+  /**
+   * Returns the number of blocks read ahead of the block being decoded.
+   *
+   * @see #withBlockReadAhead
+   */
+  public int getBlockReadAhead() {
+    return blockReadAhead;
+  }
+
   private Schema getReadSchema() {
     if (readSchemaString == null) {
       return null;
@@ -360,10 +430,10 @@ public class AvroSource<T> extends BlockBasedSource<T> {
     // The index of the current record in the block.
     private long currentRecordIndex = 0;
 
-    // A DatumReader to read records from the block.
+    // A DatumReader to read records from the block, shared by the blocks of a reader.
     private final DatumReader<T> reader;
 
-    // A BinaryDecoder used by the reader to decode records.
+    // A BinaryDecoder of the decompressed block used by the reader to decode records.
     private final BinaryDecoder decoder;
 
     /**
@@ -401,11 +471,26 @@ public class AvroSource<T> extends BlockBasedSource<T> {
       }
     }
 
-    AvroBlock(byte[] data, long numRecords, AvroSource<T> source) throws IOException {
+    /**
+     * Decompresses a byte array encoded with the given codec.
+     */
+    private static byte[] decompress(byte[] data, String codec) throws IOException {
+      if (DataFileConstants.NULL_CODEC.equals(codec)) {
+        return data;
+      }
+      try (InputStream stream = decodeAsInputStream(data, codec)) {
+        return ByteStreams.toByteArray(stream);
+      }
+    }
+
+    /**
+     * Creates a block of {@code numRecords} records, read by {@code reader} from the
+     * decompressed data of {@code decoder}.
+     */
+    AvroBlock(long numRecords, DatumReader<T> reader, BinaryDecoder decoder) {
       this.numRecords = numRecords;
-      this.reader = source.createDatumReader();
-      this.decoder =
-          DecoderFactory.get().binaryDecoder(decodeAsInputStream(data, source.getCodec()), null);
+      this.reader = reader;
+      this.decoder = decoder;
     }
 
     @Override
@@ -445,6 +530,30 @@ public class AvroSource<T> extends BlockBasedSource<T> {
    */
   @Experimental(Experimental.Kind.SOURCE_SINK)
   public static class AvroReader<T> extends BlockBasedReader<T> {
+    // Reads blocks ahead for readers of sources with read-ahead. Each such reader has one task,
+    // which is mostly blocked on its queue of blocks, so a bounded pool could starve readers.
+    private static final ExecutorService READ_AHEAD_EXECUTOR = Executors.newCachedThreadPool(
+        new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat("AvroBlockReadAhead-%d")
+            .build());
+
+    // Decompresses blocks read ahead. Decompression is CPU-bound, so it is limited to the number
+    // of processors across all readers.
+    private static final ExecutorService DECOMPRESS_EXECUTOR = Executors.newFixedThreadPool(
+        Runtime.getRuntime().availableProcessors(),
+        new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat("AvroBlockDecompress-%d")
+            .build());
+
+    // Marks the end of the blocks read ahead.
+    private static final Future<RawBlock> END_OF_BLOCKS = Futures.immediateFuture(null);
+
+    // Size of the buffer between the channel and the stream used to parse blocks, so that small
+    // reads of sync markers and block headers do not each read from the channel.
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
     // The current block.
     private AvroBlock<T> currentBlock;
 
@@ -468,6 +577,19 @@ public class AvroSource<T> extends BlockBasedSource<T> {
     // Decoder to decode binary-encoded values from the buffer.
     private BinaryDecoder decoder;
 
+    // Reads the records of every block, created when reading starts.
+    private DatumReader<T> datumReader;
+
+    // Decoder of the records of the current block, reused for the records of the next block.
+    private BinaryDecoder recordDecoder;
+
+    // Blocks read and being decompressed ahead of the current block, followed by
+    // END_OF_BLOCKS or the failure that ended reading. Null if the source does not read ahead.
+    private BlockingQueue<Future<RawBlock>> readAheadBlocks;
+
+    // The task reading blocks ahead, if any.
+    private ReadAheadTask readAheadTask;
+
     /**
      * Reads Avro records of type {@code T} from the specified source.
      */
@@ -482,18 +604,45 @@ public class AvroSource<T> extends BlockBasedSource<T> {
 
     @Override
     public boolean readNextBlock() throws IOException {
+      RawBlock block;
+      if (readAheadBlocks == null) {
+        block = readRawBlock();
+        if (block == null) {
+          return false;
+        }
+        recordDecoder = DecoderFactory.get().binaryDecoder(
+            AvroBlock.decodeAsInputStream(block.data, getCurrentSource().getCodec()),
+            recordDecoder);
+      } else {
+        block = takeReadAheadBlock();
+        if (block == null) {
+          return false;
+        }
+        recordDecoder = DecoderFactory.get().binaryDecoder(block.data, recordDecoder);
+      }
+      currentBlock = new AvroBlock<>(block.numRecords, datumReader, recordDecoder);
+      currentBlockOffset = block.offset;
+      currentBlockSizeBytes = block.size;
+      return true;
+    }
+
+    /**
+     * Reads the next block from the stream without decompressing it, or returns null if there
+     * are no more blocks.
+     */
+    private RawBlock readRawBlock() throws IOException {
       // The next block in the file is after the first sync marker that can be read starting from
       // the current offset. First, we seek past the next sync marker, if it exists. After a sync
       // marker is the start of a block. A block begins with the number of records contained in
       // the block, encoded as a long, followed by the size of the block in bytes, encoded as a
       // long. The currentOffset after this method should be last byte after this block, and the
-      // currentBlockOffset should be the start of the sync marker before this block.
+      // offset of the block should be the start of the sync marker before this block.
 
       // Seek to the next sync marker, if one exists.
       currentOffset += advancePastNextSyncMarker(stream, getCurrentSource().getSyncMarker());
 
       // The offset of the current block includes its preceding sync marker.
-      currentBlockOffset = currentOffset - getCurrentSource().getSyncMarker().length;
+      long blockOffset = currentOffset - getCurrentSource().getSyncMarker().length;
 
       // Read a small buffer to parse the block header.
       // We cannot use a BinaryDecoder to do this directly from the stream because a BinaryDecoder
@@ -501,31 +650,88 @@ public class AvroSource<T> extends BlockBasedSource<T> {
       // of the header. Though BinaryDecoder#InputStream returns an input stream that is aware of
       // its internal buffering, we would have to re-wrap this input stream to seek for the next
       // block in the file.
-      int read = stream.read(readBuffer);
+      int read = ByteStreams.read(stream, readBuffer, 0, readBuffer.length);
       // We reached the last sync marker in the file.
       if (read <= 0) {
-        return false;
+        return null;
       }
-      decoder = DecoderFactory.get().binaryDecoder(readBuffer, decoder);
+      decoder = DecoderFactory.get().binaryDecoder(readBuffer, 0, read, decoder);
       long numRecords = decoder.readLong();
       long blockSize = decoder.readLong();
 
       // The decoder buffers data internally, but since we know the size of the stream the
       // decoder has constructed from the readBuffer, the number of bytes available in the
       // input stream is equal to the number of unconsumed bytes.
-      int headerSize = readBuffer.length - decoder.inputStream().available();
+      int headerSize = read - decoder.inputStream().available();
       stream.unread(readBuffer, headerSize, read - headerSize);
 
-      // Create the current block by reading blockSize bytes. Block sizes permitted by the Avro
-      // specification are [32, 2^30], so this narrowing is ok.
+      // Read the block's blockSize bytes. Block sizes permitted by the Avro specification are
+      // [32, 2^30], so this narrowing is ok.
       byte[] data = new byte[(int) blockSize];
-      stream.read(data);
-      currentBlock = new AvroBlock<>(data, numRecords, getCurrentSource());
-      currentBlockSizeBytes = blockSize;
+      ByteStreams.readFully(stream, data);
 
       // Update current offset with the number of bytes we read to get the next block.
       currentOffset += headerSize + blockSize;
-      return true;
+      return new RawBlock(blockOffset, blockSize, numRecords, data);
+    }
+
+    /**
+     * Reads blocks ahead of the reader until the end of the file, or until the first block
+     * starting at or after {@code endOffset}, which the reader would not return.
+     */
+    private void readAhead(long endOffset) {
+      final String codec = getCurrentSource().getCodec();
+      try {
+        RawBlock block;
+        do {
+          block = readRawBlock();
+          if (block == null || block.offset >= endOffset) {
+            readAheadBlocks.put(END_OF_BLOCKS);
+            return;
+          }
+          final RawBlock compressed = block;
+          readAheadBlocks.put(DECOMPRESS_EXECUTOR.submit(new Callable<RawBlock>() {
+            @Override
+            public RawBlock call() throws IOException {
+              return new RawBlock(compressed.offset, compressed.size, compressed.numRecords,
+                  AvroBlock.decompress(compressed.data, codec));
+            }
+          }));
+        } while (!Thread.currentThread().isInterrupted());
+      } catch (InterruptedException e) {
+        // The reader was closed.
+      } catch (IOException | RuntimeException e) {
+        try {
+          readAheadBlocks.put(Futures.<RawBlock>immediateFailedFuture(e));
+        } catch (InterruptedException closed) {
+          // The reader was closed.
+        }
+      }
+    }
+
+    /**
+     * Returns the next decompressed block read ahead, or null if there are no more blocks.
+     */
+    private RawBlock takeReadAheadBlock() throws IOException {
+      Future<RawBlock> next;
+      try {
+        next = readAheadBlocks.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for the next block");
+      }
+      try {
+        RawBlock block = Uninterruptibles.getUninterruptibly(next);
+        if (block == null) {
+          // Reading has stopped, so there is room to keep the end for later calls.
+          readAheadBlocks.offer(next);
+        }
+        return block;
+      } catch (ExecutionException e) {
+        readAheadBlocks.offer(next);
+        Throwables.propagateIfPossible(e.getCause(), IOException.class);
+        throw new IOException(e.getCause());
+      }
     }
 
     @Override
@@ -549,7 +755,7 @@ public class AvroSource<T> extends BlockBasedSource<T> {
      */
     private PushbackInputStream createStream(ReadableByteChannel channel) {
       return new PushbackInputStream(
-          Channels.newInputStream(channel),
+          new BufferedInputStream(Channels.newInputStream(channel), STREAM_BUFFER_SIZE),
           getCurrentSource().getSyncMarker().length + readBuffer.length);
     }
 
@@ -561,6 +767,86 @@ public class AvroSource<T> extends BlockBasedSource<T> {
     protected void startReading(ReadableByteChannel channel) throws IOException {
       stream = createStream(channel);
       currentOffset = getCurrentSource().getStartOffset();
+      datumReader = getCurrentSource().createDatumReader();
+      int blockReadAhead = getCurrentSource().getBlockReadAhead();
+      if (blockReadAhead > 0) {
+        readAheadBlocks = new ArrayBlockingQueue<>(blockReadAhead);
+        final long endOffset = getCurrentSource().getEndOffset();
+        readAheadTask = new ReadAheadTask(endOffset);
+        READ_AHEAD_EXECUTOR.execute(readAheadTask);
+      }
+    }
+
+    /**
+     * Stops reading ahead, if the source reads ahead, and closes the channel once the blocks are
+     * no longer being read from it.
+     */
+    @Override
+    public void close() throws IOException {
+      try {
+        if (readAheadTask != null) {
+          readAheadTask.stopAndAwait();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while stopping the read-ahead of blocks");
+      } finally {
+        if (readAheadBlocks != null) {
+          readAheadBlocks.clear();
+        }
+        super.close();
+      }
+    }
+
+    /**
+     * Runs {@link #readAhead} on a background thread, unless the reader is closed before the
+     * thread starts, and lets {@link #close} interrupt it and wait for it to finish.
+     */
+    private class ReadAheadTask implements Runnable {
+      private final long endOffset;
+      // Guarded by this.
+      @Nullable private Thread thread;
+      private boolean stopped;
+      private boolean finished;
+
+      ReadAheadTask(long endOffset) {
+        this.endOffset = endOffset;
+      }
+
+      @Override
+      public void run() {
+        synchronized (this) {
+          if (stopped) {
+            finish();
+            return;
+          }
+          thread = Thread.currentThread();
+        }
+        try {
+          readAhead(endOffset);
+        } finally {
+          synchronized (this) {
+            thread = null;
+            finish();
+          }
+        }
+      }
+
+      synchronized void stopAndAwait() throws InterruptedException {
+        stopped = true;
+        if (thread != null) {
+          thread.interrupt();
+        }
+        while (!finished) {
+          wait();
+        }
+      }
+
+      // Called with the lock held.
+      private void finish() {
+        finished = true;
+        notifyAll();
+      }
     }
 
     /**
@@ -596,6 +882,30 @@ public class AvroSource<T> extends BlockBasedSource<T> {
       return totalBytesConsumed;
     }
 
+    /**
+     * The undecoded contents of a block, and its position in the file.
+     */
+    private static class RawBlock {
+      // Offset of the sync marker preceding the block.
+      final long offset;
+
+      // Size of the block's data in the file.
+      final long size;
+
+      // The number of records in the block.
+      final long numRecords;
+
+      // The block's data, compressed or decompressed.
+      final byte[] data;
+
+      RawBlock(long offset, long size, long numRecords, byte[] data) {
+        this.offset = offset;
+        this.size = size;
+        this.numRecords = numRecords;
+        this.data = data;
+      }
+    }
+
     /**
      * A {@link Seeker} looks for a given marker within a byte buffer. Uses naive string matching
      * with a sliding window, as sync markers are small and random.
@@ -634,8 +944,7 @@ public class AvroSource<T> extends BlockBasedSource<T> {
           System.arraycopy(searchBuffer, 1, searchBuffer, 0, searchBuffer.length - 1);
           searchBuffer[searchBuffer.length - 1] = buffer[i];
           available = Math.min(available + 1, searchBuffer.length);
-          if (ByteBuffer.wrap(searchBuffer, searchBuffer.length - available, available)
-                  .equals(ByteBuffer.wrap(marker))) {
+          if (available == marker.length && Arrays.equals(searchBuffer, marker)) {
             available = 0;
             return i;
           }
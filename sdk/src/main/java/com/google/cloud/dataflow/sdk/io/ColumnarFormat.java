@@ -0,0 +1,626 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.io;
+
+import com.google.cloud.dataflow.sdk.util.IOChannelUtils;
+import com.google.common.base.Preconditions;
+
+import org.apache.avro.Schema;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.Decoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.Encoder;
+import org.apache.avro.io.EncoderFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * The encoding of the columnar files written by {@link ColumnarSink} and read by
+ * {@link ColumnarSource}.
+ *
+ * <p>Records are flat Avro records whose fields are booleans, ints, longs, floats, doubles or
+ * strings, each optionally in a union with null. A file consists of a header followed by row
+ * groups, each of which is followed by the file's 16-byte sync marker:
+ *
+ * <pre>{@code
+ * file          := MAGIC schemaLength:int32 schema:utf8 SYNC (rowGroup SYNC)*
+ * rowGroup      := headerLength:int32 rowGroupHeader columnChunk*
+ * rowGroupHeader := rowCount:long columnCount:int columnHeader*
+ * columnHeader  := encoding:int nullCount:long hasStatistics:boolean [min max] chunkLength:long
+ * columnChunk   := [presence:bytes] (PLAIN: value* | DICTIONARY: size:int value* indices:bytes)
+ * }</pre>
+ *
+ * <p>The int32 lengths are big-endian; everything else uses the Avro binary encoding. Row group
+ * headers list the columns in the order of the fields of the schema, followed by their chunks in
+ * the same order. The presence of the values of nullable columns, and the dictionary indices of
+ * dictionary-encoded columns, are encoded with a hybrid of run-length encoding and bit-packing.
+ *
+ * <p>As in Avro files, the sync markers allow a reader starting at an arbitrary offset to find the
+ * next row group, and the offset of a row group is the offset of the sync marker preceding it.
+ */
+final class ColumnarFormat {
+  static final byte[] MAGIC = {'D', 'F', 'C', 1};
+  static final int SYNC_SIZE = 16;
+
+  // Chunks use a dictionary only if it has at most this many values, and at most half as many
+  // values as the chunk.
+  static final int MAX_DICTIONARY_SIZE = 1 << 16;
+
+  // Repeated values are run-length encoded once there are at least this many of them.
+  private static final int MIN_RUN_LENGTH = 8;
+
+  private ColumnarFormat() {}
+
+  /**
+   * The encodings of column chunks.
+   */
+  enum Encoding {
+    /** Each present value in turn. */
+    PLAIN,
+    /** The distinct values, followed by the index of each present value among them. */
+    DICTIONARY
+  }
+
+  /**
+   * The statistics of a column in a row group.
+   */
+  static class ColumnStatistics {
+    final long rowCount;
+    final long nullCount;
+    // The smallest and largest values in the column, or null if it has no non-null values.
+    @Nullable final Object min;
+    @Nullable final Object max;
+
+    ColumnStatistics(long rowCount, long nullCount, @Nullable Object min, @Nullable Object max) {
+      this.rowCount = rowCount;
+      this.nullCount = nullCount;
+      this.min = min;
+      this.max = max;
+    }
+  }
+
+  /**
+   * An encoded column of a row group.
+   */
+  static class ColumnChunk {
+    final Encoding encoding;
+    final ColumnStatistics statistics;
+    final byte[] data;
+
+    ColumnChunk(Encoding encoding, ColumnStatistics statistics, byte[] data) {
+      this.encoding = encoding;
+      this.statistics = statistics;
+      this.data = data;
+    }
+  }
+
+  /**
+   * The decoded header of a row group.
+   */
+  static class RowGroupHeader {
+    final long rowCount;
+    final Encoding[] encodings;
+    final ColumnStatistics[] statistics;
+    final long[] chunkLengths;
+
+    RowGroupHeader(long rowCount, Encoding[] encodings, ColumnStatistics[] statistics,
+        long[] chunkLengths) {
+      this.rowCount = rowCount;
+      this.encodings = encodings;
+      this.statistics = statistics;
+      this.chunkLengths = chunkLengths;
+    }
+  }
+
+  /**
+   * The decoded header of a file.
+   */
+  static class FileHeader {
+    final String schemaString;
+    final byte[] syncMarker;
+
+    FileHeader(String schemaString, byte[] syncMarker) {
+      this.schemaString = schemaString;
+      this.syncMarker = syncMarker;
+    }
+  }
+
+  /**
+   * Checks that records of the given schema can be stored in columnar files.
+   *
+   * @throws IllegalArgumentException if they cannot.
+   */
+  static void checkSchema(Schema schema) {
+    Preconditions.checkArgument(schema.getType() == Schema.Type.RECORD,
+        "Columnar files store records, not %s", schema);
+    for (Schema.Field field : schema.getFields()) {
+      getValueType(field);
+    }
+  }
+
+  /**
+   * Returns the type of the non-null values of a field.
+   *
+   * @throws IllegalArgumentException if the field cannot be stored in columnar files.
+   */
+  static Schema.Type getValueType(Schema.Field field) {
+    Schema schema = field.schema();
+    if (schema.getType() == Schema.Type.UNION && schema.getTypes().size() == 2) {
+      Schema first = schema.getTypes().get(0);
+      Schema second = schema.getTypes().get(1);
+      if (first.getType() == Schema.Type.NULL) {
+        schema = second;
+      } else if (second.getType() == Schema.Type.NULL) {
+        schema = first;
+      }
+    }
+    switch (schema.getType()) {
+      case BOOLEAN:
+      case INT:
+      case LONG:
+      case FLOAT:
+      case DOUBLE:
+      case STRING:
+        return schema.getType();
+      default:
+        throw new IllegalArgumentException(String.format(
+            "Field %s of type %s cannot be stored in a columnar file; only booleans, ints, "
+            + "longs, floats, doubles and strings, optionally in a union with null, can",
+            field.name(), field.schema()));
+    }
+  }
+
+  /**
+   * Returns true if a field may be null.
+   */
+  static boolean isNullable(Schema.Field field) {
+    return field.schema().getType() == Schema.Type.UNION;
+  }
+
+  /**
+   * Returns true if the given value can be compared with the values of a column of the given
+   * type by {@link #compareValues}.
+   */
+  static boolean isComparable(Schema.Type type, Object value) {
+    switch (type) {
+      case BOOLEAN:
+        return value instanceof Boolean;
+      case STRING:
+        return value instanceof CharSequence;
+      default:
+        return value instanceof Number;
+    }
+  }
+
+  /**
+   * Compares two values of the same column, or a value of a column with a value given for it.
+   * Numbers are compared by value regardless of their types, and strings by their contents.
+   */
+  static int compareValues(Object a, Object b) {
+    if (a instanceof Number && b instanceof Number) {
+      if (a instanceof Double || a instanceof Float || b instanceof Double || b instanceof Float) {
+        return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+      }
+      return Long.compare(((Number) a).longValue(), ((Number) b).longValue());
+    }
+    if (a instanceof CharSequence && b instanceof CharSequence) {
+      return a.toString().compareTo(b.toString());
+    }
+    if (a instanceof Boolean && b instanceof Boolean) {
+      return Boolean.compare((Boolean) a, (Boolean) b);
+    }
+    throw new IllegalArgumentException(String.format("Cannot compare %s of %s with %s of %s",
+        a, a.getClass().getName(), b, b.getClass().getName()));
+  }
+
+  static void writeFileHeader(OutputStream out, String schemaString, byte[] syncMarker)
+      throws IOException {
+    DataOutputStream data = new DataOutputStream(out);
+    byte[] schema = schemaString.getBytes(StandardCharsets.UTF_8);
+    data.write(MAGIC);
+    data.writeInt(schema.length);
+    data.write(schema);
+    data.write(syncMarker);
+    data.flush();
+  }
+
+  /**
+   * Reads the header of a columnar file.
+   *
+   * @throws IOException if the file cannot be read or is not a columnar file.
+   */
+  static FileHeader readFileHeader(String fileName) throws IOException {
+    try (DataInputStream in = new DataInputStream(
+        Channels.newInputStream(IOChannelUtils.getFactory(fileName).open(fileName)))) {
+      byte[] magic = new byte[MAGIC.length];
+      in.readFully(magic);
+      if (!Arrays.equals(magic, MAGIC)) {
+        throw new IOException("Missing columnar file signature: " + fileName);
+      }
+      byte[] schema = new byte[in.readInt()];
+      in.readFully(schema);
+      byte[] syncMarker = new byte[SYNC_SIZE];
+      in.readFully(syncMarker);
+      return new FileHeader(new String(schema, StandardCharsets.UTF_8), syncMarker);
+    }
+  }
+
+  static byte[] encodeRowGroupHeader(long rowCount, List<ColumnChunk> chunks, Schema schema)
+      throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    BinaryEncoder encoder = EncoderFactory.get().directBinaryEncoder(bytes, null);
+    encoder.writeLong(rowCount);
+    encoder.writeInt(chunks.size());
+    for (int i = 0; i < chunks.size(); i++) {
+      ColumnChunk chunk = chunks.get(i);
+      Schema.Type type = getValueType(schema.getFields().get(i));
+      encoder.writeInt(chunk.encoding.ordinal());
+      encoder.writeLong(chunk.statistics.nullCount);
+      boolean hasStatistics = chunk.statistics.min != null;
+      encoder.writeBoolean(hasStatistics);
+      if (hasStatistics) {
+        writeValue(encoder, type, chunk.statistics.min);
+        writeValue(encoder, type, chunk.statistics.max);
+      }
+      encoder.writeLong(chunk.data.length);
+    }
+    encoder.flush();
+    return bytes.toByteArray();
+  }
+
+  static RowGroupHeader decodeRowGroupHeader(byte[] header, Schema schema) throws IOException {
+    BinaryDecoder decoder = DecoderFactory.get().binaryDecoder(header, null);
+    long rowCount = decoder.readLong();
+    int columnCount = decoder.readInt();
+    if (columnCount != schema.getFields().size()) {
+      throw new IOException(String.format("Row group has %d columns, but its schema has %d fields",
+          columnCount, schema.getFields().size()));
+    }
+    Encoding[] encodings = new Encoding[columnCount];
+    ColumnStatistics[] statistics = new ColumnStatistics[columnCount];
+    long[] chunkLengths = new long[columnCount];
+    for (int i = 0; i < columnCount; i++) {
+      Schema.Type type = getValueType(schema.getFields().get(i));
+      encodings[i] = Encoding.values()[decoder.readInt()];
+      long nullCount = decoder.readLong();
+      Object min = null;
+      Object max = null;
+      if (decoder.readBoolean()) {
+        min = readValue(decoder, type);
+        max = readValue(decoder, type);
+      }
+      statistics[i] = new ColumnStatistics(rowCount, nullCount, min, max);
+      chunkLengths[i] = decoder.readLong();
+    }
+    return new RowGroupHeader(rowCount, encodings, statistics, chunkLengths);
+  }
+
+  /**
+   * Encodes the values of a column of a row group, using a dictionary if the column has few
+   * distinct values.
+   */
+  static ColumnChunk encodeColumn(List<Object> values, Schema.Field field) throws IOException {
+    Schema.Type type = getValueType(field);
+    boolean nullable = isNullable(field);
+    int rowCount = values.size();
+    int[] presence = new int[rowCount];
+    List<Object> present = new ArrayList<>(rowCount);
+    Object min = null;
+    Object max = null;
+    for (int i = 0; i < rowCount; i++) {
+      Object value = values.get(i);
+      if (value == null) {
+        Preconditions.checkArgument(nullable, "Null value for non-nullable field %s",
+            field.name());
+        continue;
+      }
+      presence[i] = 1;
+      present.add(value);
+      if (min == null || compareValues(value, min) < 0) {
+        min = value;
+      }
+      if (max == null || compareValues(value, max) > 0) {
+        max = value;
+      }
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    BinaryEncoder encoder = EncoderFactory.get().directBinaryEncoder(bytes, null);
+    if (nullable) {
+      encoder.writeBytes(encodeRunLengthBitPacked(presence, rowCount, 1));
+    }
+    Map<Object, Integer> dictionary = buildDictionary(present);
+    Encoding encoding;
+    if (dictionary != null) {
+      encoding = Encoding.DICTIONARY;
+      encoder.writeInt(dictionary.size());
+      for (Object value : dictionary.keySet()) {
+        writeValue(encoder, type, value);
+      }
+      int[] indices = new int[present.size()];
+      for (int i = 0; i < indices.length; i++) {
+        indices[i] = dictionary.get(present.get(i));
+      }
+      encoder.writeBytes(
+          encodeRunLengthBitPacked(indices, indices.length, bitWidth(dictionary.size() - 1)));
+    } else {
+      encoding = Encoding.PLAIN;
+      for (Object value : present) {
+        writeValue(encoder, type, value);
+      }
+    }
+    encoder.flush();
+    return new ColumnChunk(encoding,
+        new ColumnStatistics(rowCount, rowCount - present.size(), min, max), bytes.toByteArray());
+  }
+
+  /**
+   * Decodes the values of a column of a row group, with nulls for absent values.
+   */
+  static Object[] decodeColumn(byte[] data, Encoding encoding, Schema.Field field, int rowCount)
+      throws IOException {
+    Schema.Type type = getValueType(field);
+    BinaryDecoder decoder = DecoderFactory.get().binaryDecoder(data, null);
+    int[] presence = null;
+    int presentCount = rowCount;
+    if (isNullable(field)) {
+      presence = decodeRunLengthBitPacked(readBytes(decoder), rowCount, 1);
+      presentCount = 0;
+      for (int bit : presence) {
+        presentCount += bit;
+      }
+    }
+
+    Object[] present = new Object[presentCount];
+    switch (encoding) {
+      case PLAIN:
+        for (int i = 0; i < presentCount; i++) {
+          present[i] = readValue(decoder, type);
+        }
+        break;
+      case DICTIONARY:
+        Object[] dictionary = new Object[decoder.readInt()];
+        for (int i = 0; i < dictionary.length; i++) {
+          dictionary[i] = readValue(decoder, type);
+        }
+        int[] indices = decodeRunLengthBitPacked(
+            readBytes(decoder), presentCount, bitWidth(dictionary.length - 1));
+        for (int i = 0; i < presentCount; i++) {
+          present[i] = dictionary[indices[i]];
+        }
+        break;
+      default:
+        throw new IOException("Unknown encoding " + encoding);
+    }
+
+    if (presence == null) {
+      return present;
+    }
+    Object[] values = new Object[rowCount];
+    for (int i = 0, next = 0; i < rowCount; i++) {
+      if (presence[i] != 0) {
+        values[i] = present[next++];
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Returns the index of each distinct value, or null if a dictionary would not make the values
+   * smaller.
+   */
+  @Nullable
+  private static Map<Object, Integer> buildDictionary(List<Object> values) {
+    Map<Object, Integer> dictionary = new LinkedHashMap<>();
+    for (Object value : values) {
+      if (!dictionary.containsKey(value)) {
+        if (dictionary.size() == MAX_DICTIONARY_SIZE) {
+          return null;
+        }
+        dictionary.put(value, dictionary.size());
+      }
+    }
+    return dictionary.size() > 0 && dictionary.size() <= values.size() / 2 ? dictionary : null;
+  }
+
+  private static void writeValue(Encoder encoder, Schema.Type type, Object value)
+      throws IOException {
+    switch (type) {
+      case BOOLEAN:
+        encoder.writeBoolean((Boolean) value);
+        break;
+      case INT:
+        encoder.writeInt((Integer) value);
+        break;
+      case LONG:
+        encoder.writeLong((Long) value);
+        break;
+      case FLOAT:
+        encoder.writeFloat((Float) value);
+        break;
+      case DOUBLE:
+        encoder.writeDouble((Double) value);
+        break;
+      case STRING:
+        encoder.writeString(value.toString());
+        break;
+      default:
+        throw new IllegalArgumentException("Unsupported column type " + type);
+    }
+  }
+
+  private static Object readValue(Decoder decoder, Schema.Type type) throws IOException {
+    switch (type) {
+      case BOOLEAN:
+        return decoder.readBoolean();
+      case INT:
+        return decoder.readInt();
+      case LONG:
+        return decoder.readLong();
+      case FLOAT:
+        return decoder.readFloat();
+      case DOUBLE:
+        return decoder.readDouble();
+      case STRING:
+        return decoder.readString();
+      default:
+        throw new IllegalArgumentException("Unsupported column type " + type);
+    }
+  }
+
+  private static byte[] readBytes(Decoder decoder) throws IOException {
+    ByteBuffer buffer = decoder.readBytes(null);
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+    return bytes;
+  }
+
+  /**
+   * Returns the number of bits needed to store values from 0 to {@code maxValue}.
+   */
+  static int bitWidth(int maxValue) {
+    return 32 - Integer.numberOfLeadingZeros(maxValue);
+  }
+
+  /**
+   * Encodes the first {@code count} of the given non-negative values of at most {@code bitWidth}
+   * bits.
+   *
+   * <p>The encoding is a sequence of runs, each starting with a varint header. A header with its
+   * lowest bit clear is followed by a value stored in the fewest whole bytes that fit
+   * {@code bitWidth} bits, repeated (header >> 1) times. A header with its lowest bit set is
+   * followed by (header >> 1) groups of 8 values, each packed into {@code bitWidth} bits from the
+   * least significant bit; the last group is padded with zeros.
+   */
+  static byte[] encodeRunLengthBitPacked(int[] values, int count, int bitWidth) {
+    int byteWidth = (bitWidth + 7) / 8;
+    // runLengths[i] is the number of consecutive values equal to values[i] starting at i.
+    int[] runLengths = new int[count];
+    for (int i = count - 1; i >= 0; i--) {
+      runLengths[i] = i + 1 < count && values[i] == values[i + 1] ? runLengths[i + 1] + 1 : 1;
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    int i = 0;
+    while (i < count) {
+      if (runLengths[i] >= MIN_RUN_LENGTH) {
+        writeUnsignedVarInt(out, runLengths[i] << 1);
+        for (int b = 0; b < byteWidth; b++) {
+          out.write(values[i] >>> (8 * b));
+        }
+        i += runLengths[i];
+      } else {
+        // Bit-pack whole groups of values up to the next long run, or the end of the values.
+        int end = i;
+        while (end < count && runLengths[end] < MIN_RUN_LENGTH) {
+          end++;
+        }
+        int groups = (end - i + MIN_RUN_LENGTH - 1) / MIN_RUN_LENGTH;
+        end = Math.min(i + groups * MIN_RUN_LENGTH, count);
+        writeUnsignedVarInt(out, (groups << 1) | 1);
+        long buffer = 0;
+        int bits = 0;
+        for (int k = i; k < i + groups * MIN_RUN_LENGTH; k++) {
+          long value = k < end ? values[k] & 0xffffffffL : 0;
+          buffer |= value << bits;
+          bits += bitWidth;
+          while (bits >= 8) {
+            out.write((int) buffer);
+            buffer >>>= 8;
+            bits -= 8;
+          }
+        }
+        i = end;
+      }
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Decodes {@code count} values of {@code bitWidth} bits encoded by
+   * {@link #encodeRunLengthBitPacked}.
+   */
+  static int[] decodeRunLengthBitPacked(byte[] data, int count, int bitWidth) throws IOException {
+    int byteWidth = (bitWidth + 7) / 8;
+    long mask = (1L << bitWidth) - 1;
+    ByteBuffer in = ByteBuffer.wrap(data);
+    int[] values = new int[count];
+    int i = 0;
+    while (i < count) {
+      int header = readUnsignedVarInt(in);
+      if ((header & 1) == 0) {
+        int value = 0;
+        for (int b = 0; b < byteWidth; b++) {
+          value |= (in.get() & 0xff) << (8 * b);
+        }
+        int end = Math.min(i + (header >>> 1), count);
+        Arrays.fill(values, i, end, value);
+        i = end;
+      } else {
+        int length = (header >>> 1) * MIN_RUN_LENGTH;
+        long buffer = 0;
+        int bits = 0;
+        for (int k = 0; k < length; k++) {
+          while (bits < bitWidth) {
+            buffer |= (in.get() & 0xffL) << bits;
+            bits += 8;
+          }
+          if (i < count) {
+            values[i++] = (int) (buffer & mask);
+          }
+          buffer >>>= bitWidth;
+          bits -= bitWidth;
+        }
+      }
+    }
+    return values;
+  }
+
+  private static void writeUnsignedVarInt(ByteArrayOutputStream out, int value) {
+    while ((value & ~0x7f) != 0) {
+      out.write((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    out.write(value);
+  }
+
+  private static int readUnsignedVarInt(ByteBuffer in) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      int b = in.get() & 0xff;
+      value |= (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed varint");
+  }
+}
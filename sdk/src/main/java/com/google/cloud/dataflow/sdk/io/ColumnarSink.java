@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.io;
+
+import com.google.cloud.dataflow.sdk.annotations.Experimental;
+import com.google.cloud.dataflow.sdk.io.ColumnarFormat.ColumnChunk;
+import com.google.cloud.dataflow.sdk.io.FileBasedSink.FileBasedWriteOperation;
+import com.google.cloud.dataflow.sdk.io.FileBasedSink.FileBasedWriter;
+import com.google.cloud.dataflow.sdk.options.PipelineOptions;
+import com.google.cloud.dataflow.sdk.util.MimeTypes;
+import com.google.common.base.Preconditions;
+import com.google.common.primitives.Ints;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+// CHECKSTYLE.OFF: JavadocStyle
+/**
+ * A {@link FileBasedSink} that writes {@link GenericRecord GenericRecords} to columnar files,
+ * which can be read by {@link ColumnarSource}.
+ *
+ * <p>Records are buffered and written in row groups of {@link #withRowGroupSize} records. Within
+ * a row group, the values of each field are written together as a column, using a dictionary of
+ * the distinct values if there are few of them, and with the smallest and largest value of the
+ * column, so that readers can skip the columns and row groups that they do not need. Larger row
+ * groups compress and skip better, at the cost of buffering more records while writing.
+ *
+ * <p>The fields of the records must be booleans, ints, longs, floats, doubles or strings, each
+ * optionally in a union with null:
+ *
+ * <pre>{@code
+ * records.apply(Write.to(ColumnarSink.to("gs://my_bucket/path/to/records", schema)));
+ * }</pre>
+ */
+// CHECKSTYLE.ON: JavadocStyle
+@Experimental(Experimental.Kind.SOURCE_SINK)
+public class ColumnarSink extends FileBasedSink<GenericRecord> {
+  protected static final String COLUMNAR_EXTENSION = "col";
+
+  /** The default number of records in each row group. */
+  public static final int DEFAULT_ROW_GROUP_SIZE = 100000;
+
+  private final String schemaString;
+  private final int rowGroupSize;
+
+  private transient Schema schema;
+
+  /**
+   * Returns a {@link ColumnarSink} that writes records of the given schema to files with the
+   * given prefix.
+   *
+   * @throws IllegalArgumentException if records of the schema cannot be stored in columnar files.
+   */
+  public static ColumnarSink to(String baseOutputFilename, Schema schema) {
+    ColumnarFormat.checkSchema(schema);
+    return new ColumnarSink(baseOutputFilename, schema.toString(), DEFAULT_ROW_GROUP_SIZE);
+  }
+
+  private ColumnarSink(String baseOutputFilename, String schemaString, int rowGroupSize) {
+    super(baseOutputFilename, COLUMNAR_EXTENSION);
+    this.schemaString = schemaString;
+    this.rowGroupSize = rowGroupSize;
+  }
+
+  /**
+   * Returns a {@link ColumnarSink} that's like this one but writes row groups of the given number
+   * of records.
+   *
+   * <p>Does not modify this object.
+   */
+  public ColumnarSink withRowGroupSize(int rowGroupSize) {
+    Preconditions.checkArgument(rowGroupSize > 0, "rowGroupSize must be positive, not %s",
+        rowGroupSize);
+    return new ColumnarSink(baseOutputFilename, schemaString, rowGroupSize);
+  }
+
+  /**
+   * Returns the schema of the records written by this sink.
+   */
+  public Schema getSchema() {
+    if (schema == null) {
+      schema = new Schema.Parser().parse(schemaString);
+    }
+    return schema;
+  }
+
+  /**
+   * Returns the number of records in each row group.
+   */
+  public int getRowGroupSize() {
+    return rowGroupSize;
+  }
+
+  /**
+   * Creates a {@link ColumnarWriteOperation}.
+   */
+  @Override
+  public ColumnarWriteOperation createWriteOperation(PipelineOptions options) {
+    return new ColumnarWriteOperation(this);
+  }
+
+  /**
+   * {@link Sink.WriteOperation} for {@link ColumnarSink}.
+   */
+  protected static final class ColumnarWriteOperation
+      extends FileBasedWriteOperation<GenericRecord> {
+    public ColumnarWriteOperation(ColumnarSink sink) {
+      super(sink);
+    }
+
+    @Override
+    public ColumnarWriter createWriter(PipelineOptions options) throws Exception {
+      return new ColumnarWriter(this);
+    }
+
+    /**
+     * Return the ColumnarSink for this write operation.
+     */
+    @Override
+    public ColumnarSink getSink() {
+      return (ColumnarSink) super.getSink();
+    }
+  }
+
+  /**
+   * A {@link Sink.Writer} that buffers records and writes them as row groups.
+   */
+  protected static final class ColumnarWriter extends FileBasedWriter<GenericRecord> {
+    private final Schema schema;
+    private final int rowGroupSize;
+    private final byte[] syncMarker;
+
+    // The buffered values of each field, in the order of the fields of the schema.
+    private final List<List<Object>> columns;
+
+    private int bufferedRows = 0;
+
+    private OutputStream os = null;
+
+    public ColumnarWriter(ColumnarWriteOperation writeOperation) {
+      super(writeOperation);
+      this.mimeType = MimeTypes.BINARY;
+      this.schema = writeOperation.getSink().getSchema();
+      this.rowGroupSize = writeOperation.getSink().getRowGroupSize();
+      UUID uuid = UUID.randomUUID();
+      this.syncMarker = ByteBuffer.allocate(ColumnarFormat.SYNC_SIZE)
+          .putLong(uuid.getMostSignificantBits())
+          .putLong(uuid.getLeastSignificantBits())
+          .array();
+      this.columns = new ArrayList<>(schema.getFields().size());
+      for (int i = 0; i < schema.getFields().size(); i++) {
+        columns.add(new ArrayList<>());
+      }
+    }
+
+    /**
+     * Creates the output stream that row groups will be written to.
+     */
+    @Override
+    protected void prepareWrite(WritableByteChannel channel) throws Exception {
+      os = Channels.newOutputStream(channel);
+    }
+
+    /**
+     * Writes the file header, which holds the schema and the sync marker.
+     */
+    @Override
+    protected void writeHeader() throws Exception {
+      ColumnarFormat.writeFileHeader(os, schema.toString(), syncMarker);
+    }
+
+    /**
+     * Writes the buffered records.
+     */
+    @Override
+    protected void writeFooter() throws Exception {
+      writeRowGroup();
+    }
+
+    /**
+     * Buffers the values of a record, and writes a row group if enough records are buffered.
+     */
+    @Override
+    public void write(GenericRecord value) throws Exception {
+      List<Schema.Field> fields = schema.getFields();
+      for (int i = 0; i < fields.size(); i++) {
+        Object fieldValue = value.get(fields.get(i).name());
+        // Avro strings may be Utf8, which is mutable; keep an immutable copy.
+        columns.get(i).add(fieldValue instanceof CharSequence ? fieldValue.toString() : fieldValue);
+      }
+      if (++bufferedRows == rowGroupSize) {
+        writeRowGroup();
+      }
+    }
+
+    private void writeRowGroup() throws Exception {
+      if (bufferedRows == 0) {
+        return;
+      }
+      List<Schema.Field> fields = schema.getFields();
+      List<ColumnChunk> chunks = new ArrayList<>(fields.size());
+      for (int i = 0; i < fields.size(); i++) {
+        chunks.add(ColumnarFormat.encodeColumn(columns.get(i), fields.get(i)));
+        columns.get(i).clear();
+      }
+      byte[] header = ColumnarFormat.encodeRowGroupHeader(bufferedRows, chunks, schema);
+      os.write(Ints.toByteArray(header.length));
+      os.write(header);
+      for (ColumnChunk chunk : chunks) {
+        os.write(chunk.data);
+      }
+      os.write(syncMarker);
+      bufferedRows = 0;
+    }
+
+    /**
+     * Return the ColumnarWriteOperation this write belongs to.
+     */
+    @Override
+    public ColumnarWriteOperation getWriteOperation() {
+      return (ColumnarWriteOperation) super.getWriteOperation();
+    }
+  }
+}
@@ -0,0 +1,769 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.io;
+
+import com.google.cloud.dataflow.sdk.annotations.Experimental;
+import com.google.cloud.dataflow.sdk.coders.AvroCoder;
+import com.google.cloud.dataflow.sdk.io.ColumnarFormat.ColumnStatistics;
+import com.google.cloud.dataflow.sdk.io.ColumnarFormat.FileHeader;
+import com.google.cloud.dataflow.sdk.io.ColumnarFormat.RowGroupHeader;
+import com.google.cloud.dataflow.sdk.options.PipelineOptions;
+import com.google.cloud.dataflow.sdk.util.AvroUtils;
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
+import com.google.common.primitives.Ints;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.io.Serializable;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+// CHECKSTYLE.OFF: JavadocStyle
+/**
+ * A {@link FileBasedSource} for reading the columnar files written by {@link ColumnarSink}.
+ *
+ * <p>Columnar files store flat Avro records column by column in row groups. Each column of a row
+ * group is encoded on its own, with a dictionary if it has few distinct values, and the row group
+ * records the smallest and largest value of each column. This lets a source decode only the
+ * columns that it needs, and skip row groups that cannot contain matching records without
+ * decoding them:
+ *
+ * <pre>{@code
+ * PCollection<GenericRecord> records = p.apply(Read.from(
+ *     ColumnarSource.from("gs://my_bucket/path/to/records-*.col", schema)
+ *         .withColumns("user", "latency")
+ *         .withPredicate(ColumnarSource.Predicate.inRange("latency", 1000L, null))));
+ * }</pre>
+ *
+ * <p>Records are read as {@link GenericRecord GenericRecords} of the given schema, or of its
+ * projection to the selected columns. The fields of the schema are matched with the columns of
+ * each file by name.
+ *
+ * <p>Like Avro files, columnar files can be split at any offset: a source for a range of a file
+ * reads the row groups that start in that range.
+ */
+// CHECKSTYLE.ON: JavadocStyle
+@Experimental(Experimental.Kind.SOURCE_SINK)
+public class ColumnarSource extends BlockBasedSource<GenericRecord> {
+  private static final Logger LOG = LoggerFactory.getLogger(ColumnarSource.class);
+
+  // Default minimum bundle size, chosen as a fraction of the typical size of a row group.
+  static final long DEFAULT_MIN_BUNDLE_SIZE = 1024 * 1024;
+
+  // The schema of the records in the files.
+  private final String schemaString;
+
+  // The columns to read, or null to read all of them.
+  @Nullable private final ImmutableList<String> columns;
+
+  // Only records matching the predicate are read, if there is one.
+  @Nullable private final Predicate predicate;
+
+  // The schema and sync marker of the file, which are read from the file when a source for a
+  // subrange of a single file is created.
+  @Nullable private final String fileSchemaString;
+  @Nullable private final byte[] syncMarker;
+
+  private transient Schema schema;
+
+  private transient Schema outputSchema;
+
+  /**
+   * Creates a {@link ColumnarSource} that reads from the given file name or pattern ("glob"),
+   * producing records of the given schema.
+   *
+   * @throws IllegalArgumentException if records of the schema cannot be stored in columnar files.
+   */
+  public static ColumnarSource from(String fileNameOrPattern, Schema schema) {
+    ColumnarFormat.checkSchema(schema);
+    return new ColumnarSource(fileNameOrPattern, DEFAULT_MIN_BUNDLE_SIZE, schema.toString(),
+        null, null);
+  }
+
+  /**
+   * Returns a {@link ColumnarSource} that's like this one but only reads the given columns,
+   * producing records of the projection of the schema to those fields. The other columns are
+   * skipped without being decoded.
+   *
+   * <p>Does not modify this object.
+   */
+  public ColumnarSource withColumns(String... columns) {
+    AvroUtils.projectSchema(getSchema(), columns);
+    return new ColumnarSource(getFileOrPatternSpec(), getMinBundleSize(), schemaString,
+        ImmutableList.copyOf(columns), predicate);
+  }
+
+  /**
+   * Returns a {@link ColumnarSource} that's like this one but only reads records that match the
+   * given predicate. The predicate may refer to columns that are not read. Row groups whose
+   * statistics show that none of their records match are skipped.
+   *
+   * <p>Does not modify this object.
+   *
+   * @throws IllegalArgumentException if the predicate refers to a column that is not in the
+   *     schema, or compares a column with a value of another type.
+   */
+  public ColumnarSource withPredicate(Predicate predicate) {
+    Preconditions.checkNotNull(predicate, "predicate");
+    predicate.checkSchema(getSchema());
+    return new ColumnarSource(getFileOrPatternSpec(), getMinBundleSize(), schemaString, columns,
+        predicate);
+  }
+
+  /**
+   * Returns a {@link ColumnarSource} that's like this one but uses the supplied minimum bundle
+   * size. Refer to {@link OffsetBasedSource} for a description of {@code minBundleSize} and its
+   * use.
+   *
+   * <p>Does not modify this object.
+   */
+  public ColumnarSource withMinBundleSize(long minBundleSize) {
+    return new ColumnarSource(getFileOrPatternSpec(), minBundleSize, schemaString, columns,
+        predicate);
+  }
+
+  private ColumnarSource(String fileNameOrPattern, long minBundleSize, String schemaString,
+      @Nullable ImmutableList<String> columns, @Nullable Predicate predicate) {
+    super(fileNameOrPattern, minBundleSize);
+    this.schemaString = schemaString;
+    this.columns = columns;
+    this.predicate = predicate;
+    this.fileSchemaString = null;
+    this.syncMarker = null;
+  }
+
+  private ColumnarSource(String fileName, long minBundleSize, long startOffset, long endOffset,
+      String schemaString, @Nullable ImmutableList<String> columns,
+      @Nullable Predicate predicate, String fileSchemaString, byte[] syncMarker) {
+    super(fileName, minBundleSize, startOffset, endOffset);
+    this.schemaString = schemaString;
+    this.columns = columns;
+    this.predicate = predicate;
+    this.fileSchemaString = fileSchemaString;
+    this.syncMarker = syncMarker;
+  }
+
+  @Override
+  public ColumnarSource createForSubrangeOfFile(String fileName, long start, long end) {
+    String fileSchemaString = this.fileSchemaString;
+    byte[] syncMarker = this.syncMarker;
+    // The file schema and sync marker differ across input files, so they are read from the file
+    // when a source for a subrange of it is created. When the resulting source is further split,
+    // they do not need to be read again.
+    if (fileSchemaString == null || syncMarker == null) {
+      FileHeader header;
+      try {
+        header = ColumnarFormat.readFileHeader(fileName);
+      } catch (IOException e) {
+        throw new RuntimeException("Error reading header from file " + fileName, e);
+      }
+      fileSchemaString = header.schemaString;
+      syncMarker = header.syncMarker;
+    }
+    return new ColumnarSource(fileName, getMinBundleSize(), start, end, schemaString, columns,
+        predicate, fileSchemaString, syncMarker);
+  }
+
+  @Override
+  public ColumnarReader createSingleFileReader(PipelineOptions options) {
+    return new ColumnarReader(this);
+  }
+
+  @Override
+  public boolean producesSortedKeys(PipelineOptions options) throws Exception {
+    return false;
+  }
+
+  @Override
+  public AvroCoder<GenericRecord> getDefaultOutputCoder() {
+    return AvroCoder.of(GenericRecord.class, getOutputSchema());
+  }
+
+  /**
+   * Returns the schema of the records in the files.
+   */
+  public Schema getSchema() {
+    if (schema == null) {
+      schema = new Schema.Parser().parse(schemaString);
+    }
+    return schema;
+  }
+
+  /**
+   * Returns the schema of the records produced by this source.
+   */
+  public Schema getOutputSchema() {
+    if (outputSchema == null) {
+      outputSchema = columns == null
+          ? getSchema()
+          : AvroUtils.projectSchema(getSchema(), columns.toArray(new String[columns.size()]));
+    }
+    return outputSchema;
+  }
+
+  /**
+   * Returns the predicate that records must match, or null if all records are read.
+   */
+  @Nullable
+  public Predicate getPredicate() {
+    return predicate;
+  }
+
+  private Schema getFileSchema() {
+    Preconditions.checkNotNull(
+        fileSchemaString, "No file schema has been initialized for source %s", this);
+    return new Schema.Parser().parse(fileSchemaString);
+  }
+
+  private byte[] getSyncMarker() {
+    return syncMarker;
+  }
+
+  /**
+   * A condition on the values of the columns of a record, used to skip row groups and filter
+   * records when reading columnar files.
+   *
+   * <p>Values given for a column are compared with its values as in Avro: numbers by value,
+   * regardless of their types, and strings by their contents. Null matches only null.
+   */
+  public abstract static class Predicate implements Serializable {
+    private static final long serialVersionUID = 0;
+
+    // Predicates are only created by the factory methods below.
+    Predicate() {}
+
+    /**
+     * Returns the names of the columns the predicate depends on.
+     */
+    abstract Set<String> getColumns();
+
+    /**
+     * Throws an {@link IllegalArgumentException} if the predicate refers to a column that is not
+     * in the given schema, or compares a column with a value of another type.
+     */
+    abstract void checkSchema(Schema schema);
+
+    /**
+     * Returns false if no record of a row group with the given column statistics can match.
+     */
+    abstract boolean mightMatch(Map<String, ColumnStatistics> statistics);
+
+    /**
+     * Returns true if the given record matches.
+     */
+    abstract boolean matches(ColumnValues record);
+
+    /**
+     * Returns a predicate that matches records whose value of the given column is equal to the
+     * given value.
+     */
+    public static Predicate equalTo(String column, @Nullable Object value) {
+      return new InRange(column, value, value, true);
+    }
+
+    /**
+     * Returns a predicate that matches records whose value of the given column is at least
+     * {@code lowerBound}, if it is not null, and at most {@code upperBound}, if it is not null.
+     * Records whose value is null never match.
+     */
+    public static Predicate inRange(
+        String column, @Nullable Object lowerBound, @Nullable Object upperBound) {
+      return new InRange(column, lowerBound, upperBound, false);
+    }
+
+    /**
+     * Returns a predicate that matches records that match all of the given predicates.
+     */
+    public static Predicate and(Predicate... predicates) {
+      return new Conjunction(true, predicates);
+    }
+
+    /**
+     * Returns a predicate that matches records that match any of the given predicates.
+     */
+    public static Predicate or(Predicate... predicates) {
+      return new Conjunction(false, predicates);
+    }
+  }
+
+  /**
+   * The values of the columns of a record being read.
+   */
+  static final class ColumnValues {
+    private final Map<String, Object[]> columns = new HashMap<>();
+    private int row;
+
+    @Nullable
+    Object get(String column) {
+      return columns.get(column)[row];
+    }
+  }
+
+  /**
+   * Matches values between two bounds, or equal to a possibly null value.
+   */
+  private static class InRange extends Predicate {
+    private static final long serialVersionUID = 0;
+
+    private final String column;
+    @Nullable private final Object lowerBound;
+    @Nullable private final Object upperBound;
+    // If true, the bounds are equal and null bounds match null values.
+    private final boolean equality;
+
+    InRange(String column, @Nullable Object lowerBound, @Nullable Object upperBound,
+        boolean equality) {
+      Preconditions.checkNotNull(column, "column");
+      Preconditions.checkArgument(lowerBound == null || lowerBound instanceof Serializable,
+          "Value %s is not serializable", lowerBound);
+      Preconditions.checkArgument(upperBound == null || upperBound instanceof Serializable,
+          "Value %s is not serializable", upperBound);
+      this.column = column;
+      this.lowerBound = lowerBound;
+      this.upperBound = upperBound;
+      this.equality = equality;
+    }
+
+    @Override
+    Set<String> getColumns() {
+      return ImmutableSet.of(column);
+    }
+
+    @Override
+    void checkSchema(Schema schema) {
+      Schema.Field field = schema.getField(column);
+      Preconditions.checkArgument(field != null, "Schema %s has no field named %s", schema,
+          column);
+      Schema.Type type = ColumnarFormat.getValueType(field);
+      for (Object bound : new Object[] {lowerBound, upperBound}) {
+        Preconditions.checkArgument(bound == null || ColumnarFormat.isComparable(type, bound),
+            "Value %s of %s cannot be compared with field %s of type %s", bound,
+            bound == null ? null : bound.getClass().getName(), column, type);
+      }
+    }
+
+    @Override
+    boolean mightMatch(Map<String, ColumnStatistics> statistics) {
+      ColumnStatistics column = statistics.get(this.column);
+      if (equality && lowerBound == null) {
+        return column.nullCount > 0;
+      }
+      return column.min != null
+          && (lowerBound == null || ColumnarFormat.compareValues(column.max, lowerBound) >= 0)
+          && (upperBound == null || ColumnarFormat.compareValues(column.min, upperBound) <= 0);
+    }
+
+    @Override
+    boolean matches(ColumnValues record) {
+      Object value = record.get(column);
+      if (equality && lowerBound == null) {
+        return value == null;
+      }
+      return value != null
+          && (lowerBound == null || ColumnarFormat.compareValues(value, lowerBound) >= 0)
+          && (upperBound == null || ColumnarFormat.compareValues(value, upperBound) <= 0);
+    }
+
+    @Override
+    public String toString() {
+      return equality
+          ? column + " == " + lowerBound
+          : lowerBound + " <= " + column + " <= " + upperBound;
+    }
+  }
+
+  /**
+   * Matches records that match all, or any, of a list of predicates.
+   */
+  private static class Conjunction extends Predicate {
+    private static final long serialVersionUID = 0;
+
+    private final boolean all;
+    private final ImmutableList<Predicate> predicates;
+
+    Conjunction(boolean all, Predicate... predicates) {
+      Preconditions.checkArgument(predicates.length > 0, "No predicates given");
+      this.all = all;
+      this.predicates = ImmutableList.copyOf(predicates);
+    }
+
+    @Override
+    Set<String> getColumns() {
+      ImmutableSet.Builder<String> columns = ImmutableSet.builder();
+      for (Predicate predicate : predicates) {
+        columns.addAll(predicate.getColumns());
+      }
+      return columns.build();
+    }
+
+    @Override
+    void checkSchema(Schema schema) {
+      for (Predicate predicate : predicates) {
+        predicate.checkSchema(schema);
+      }
+    }
+
+    @Override
+    boolean mightMatch(Map<String, ColumnStatistics> statistics) {
+      for (Predicate predicate : predicates) {
+        if (predicate.mightMatch(statistics) != all) {
+          return !all;
+        }
+      }
+      return all;
+    }
+
+    @Override
+    boolean matches(ColumnValues record) {
+      for (Predicate predicate : predicates) {
+        if (predicate.matches(record) != all) {
+          return !all;
+        }
+      }
+      return all;
+    }
+
+    @Override
+    public String toString() {
+      return "(" + Joiner.on(all ? " AND " : " OR ").join(predicates) + ")";
+    }
+  }
+
+  /**
+   * A {@link BlockBasedSource.Block} of the matching records of a row group.
+   */
+  @Experimental(Experimental.Kind.SOURCE_SINK)
+  static class ColumnarBlock extends Block<GenericRecord> {
+    private final Schema outputSchema;
+
+    // The values of the output fields, in the order of the fields.
+    private final Object[][] outputColumns;
+
+    // Whether each row matches, or null if they all do.
+    @Nullable private final boolean[] matches;
+
+    private final int rowCount;
+
+    private int currentRow = -1;
+
+    private GenericRecord currentRecord;
+
+    ColumnarBlock(Schema outputSchema, Object[][] outputColumns, @Nullable boolean[] matches,
+        int rowCount) {
+      this.outputSchema = outputSchema;
+      this.outputColumns = outputColumns;
+      this.matches = matches;
+      this.rowCount = rowCount;
+    }
+
+    @Override
+    public GenericRecord getCurrentRecord() {
+      return currentRecord;
+    }
+
+    @Override
+    public boolean readNextRecord() {
+      do {
+        currentRow++;
+      } while (currentRow < rowCount && matches != null && !matches[currentRow]);
+      if (currentRow >= rowCount) {
+        return false;
+      }
+      GenericData.Record record = new GenericData.Record(outputSchema);
+      for (int i = 0; i < outputColumns.length; i++) {
+        record.put(i, outputColumns[i][currentRow]);
+      }
+      currentRecord = record;
+      return true;
+    }
+
+    @Override
+    public double getFractionOfBlockConsumed() {
+      return rowCount == 0 ? 1.0 : Math.min(currentRow, rowCount) / (double) rowCount;
+    }
+  }
+
+  /**
+   * A {@link BlockBasedSource.BlockBasedReader} for reading blocks from columnar files.
+   *
+   * <p>Each row group is read as one block. Only the chunks of the columns read by the source or
+   * used by its predicate are decoded; the chunks of the predicate's columns are decoded first,
+   * and the other chunks only if some record of the row group matches. When the file is read
+   * from a {@link SeekableByteChannel}, the chunks that are not decoded are skipped by seeking
+   * past them rather than reading them.
+   */
+  @Experimental(Experimental.Kind.SOURCE_SINK)
+  public static class ColumnarReader extends BlockBasedReader<GenericRecord> {
+    // The buffer size of the stream that the file is read from.
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    private ColumnarBlock currentBlock;
+
+    private long currentBlockOffset = 0;
+
+    private long currentBlockSizeBytes = 0;
+
+    // Offset of the byte following the last read row group.
+    private long currentOffset = 0;
+
+    private PushbackInputStream stream;
+
+    private final byte[] lengthBuffer = new byte[4];
+
+    private Schema fileSchema;
+
+    private Schema outputSchema;
+
+    // The index in the file schema of each output field.
+    private int[] outputColumns;
+
+    // The indices in the file schema of the predicate's columns.
+    private int[] predicateColumns;
+
+    // Whether each column of the file is read.
+    private boolean[] columnsRead;
+
+    private long rowGroupsRead = 0;
+
+    private long rowGroupsSkipped = 0;
+
+    /**
+     * Reads records from the specified source.
+     */
+    public ColumnarReader(ColumnarSource source) {
+      super(source);
+    }
+
+    @Override
+    public synchronized ColumnarSource getCurrentSource() {
+      return (ColumnarSource) super.getCurrentSource();
+    }
+
+    @Override
+    protected void startReading(ReadableByteChannel channel) throws IOException {
+      ColumnarSource source = getCurrentSource();
+      InputStream channelStream = channel instanceof SeekableByteChannel
+          ? new SeekingInputStream((SeekableByteChannel) channel)
+          : Channels.newInputStream(channel);
+      stream = new PushbackInputStream(
+          new BufferedInputStream(channelStream, STREAM_BUFFER_SIZE),
+          source.getSyncMarker().length);
+      currentOffset = source.getStartOffset();
+      fileSchema = source.getFileSchema();
+      outputSchema = source.getOutputSchema();
+      columnsRead = new boolean[fileSchema.getFields().size()];
+
+      List<Schema.Field> outputFields = outputSchema.getFields();
+      outputColumns = new int[outputFields.size()];
+      for (int i = 0; i < outputColumns.length; i++) {
+        outputColumns[i] = getFileColumn(outputFields.get(i));
+        columnsRead[outputColumns[i]] = true;
+      }
+      Predicate predicate = source.getPredicate();
+      if (predicate != null) {
+        Schema schema = source.getSchema();
+        predicateColumns = new int[predicate.getColumns().size()];
+        int i = 0;
+        for (String column : predicate.getColumns()) {
+          predicateColumns[i] = getFileColumn(schema.getField(column));
+          columnsRead[predicateColumns[i]] = true;
+          i++;
+        }
+      }
+    }
+
+    private int getFileColumn(Schema.Field field) throws IOException {
+      Schema.Field fileField = fileSchema.getField(field.name());
+      if (fileField == null
+          || ColumnarFormat.getValueType(fileField) != ColumnarFormat.getValueType(field)
+          || (ColumnarFormat.isNullable(fileField) && !ColumnarFormat.isNullable(field))) {
+        throw new IOException(String.format("Field %s of schema %s cannot be read from file %s "
+            + "of schema %s", field, getCurrentSource().getSchema(),
+            getCurrentSource().getFileOrPatternSpec(), fileSchema));
+      }
+      return fileField.pos();
+    }
+
+    @Override
+    public boolean readNextBlock() throws IOException {
+      ColumnarSource source = getCurrentSource();
+      byte[] syncMarker = source.getSyncMarker();
+      currentOffset += AvroSource.AvroReader.advancePastNextSyncMarker(stream, syncMarker);
+      long blockOffset = currentOffset - syncMarker.length;
+      if (blockOffset >= source.getEndOffset()) {
+        return false;
+      }
+      int read = ByteStreams.read(stream, lengthBuffer, 0, lengthBuffer.length);
+      if (read == 0) {
+        return false;
+      } else if (read < lengthBuffer.length) {
+        throw new EOFException("Truncated row group at offset " + blockOffset);
+      }
+      byte[] headerBytes = new byte[Ints.fromByteArray(lengthBuffer)];
+      ByteStreams.readFully(stream, headerBytes);
+      RowGroupHeader header = ColumnarFormat.decodeRowGroupHeader(headerBytes, fileSchema);
+      int rowCount = Ints.checkedCast(header.rowCount);
+      long size = lengthBuffer.length + headerBytes.length;
+
+      List<Schema.Field> fields = fileSchema.getFields();
+      Predicate predicate = source.getPredicate();
+      boolean mightMatch = true;
+      if (predicate != null) {
+        Map<String, ColumnStatistics> statistics = new HashMap<>();
+        for (int column : predicateColumns) {
+          statistics.put(fields.get(column).name(), header.statistics[column]);
+        }
+        mightMatch = predicate.mightMatch(statistics);
+      }
+
+      byte[][] chunks = new byte[fields.size()][];
+      for (int i = 0; i < chunks.length; i++) {
+        long chunkLength = header.chunkLengths[i];
+        if (mightMatch && columnsRead[i]) {
+          chunks[i] = new byte[Ints.checkedCast(chunkLength)];
+          ByteStreams.readFully(stream, chunks[i]);
+        } else {
+          ByteStreams.skipFully(stream, chunkLength);
+        }
+        size += chunkLength;
+      }
+      currentOffset += size;
+      currentBlockOffset = blockOffset;
+      currentBlockSizeBytes = size;
+
+      Object[][] columns = new Object[fields.size()][];
+      boolean[] matches = null;
+      if (mightMatch && predicate != null) {
+        ColumnValues values = new ColumnValues();
+        for (int column : predicateColumns) {
+          columns[column] = ColumnarFormat.decodeColumn(
+              chunks[column], header.encodings[column], fields.get(column), rowCount);
+          values.columns.put(fields.get(column).name(), columns[column]);
+        }
+        matches = new boolean[rowCount];
+        mightMatch = false;
+        for (values.row = 0; values.row < rowCount; values.row++) {
+          matches[values.row] = predicate.matches(values);
+          mightMatch |= matches[values.row];
+        }
+      }
+      if (!mightMatch) {
+        rowGroupsSkipped++;
+        currentBlock = new ColumnarBlock(outputSchema, new Object[0][], null, 0);
+        return true;
+      }
+
+      rowGroupsRead++;
+      Object[][] outputValues = new Object[outputColumns.length][];
+      for (int i = 0; i < outputColumns.length; i++) {
+        int column = outputColumns[i];
+        if (columns[column] == null) {
+          columns[column] = ColumnarFormat.decodeColumn(
+              chunks[column], header.encodings[column], fields.get(column), rowCount);
+        }
+        outputValues[i] = columns[column];
+      }
+      currentBlock = new ColumnarBlock(outputSchema, outputValues, matches, rowCount);
+      return true;
+    }
+
+    @Override
+    public ColumnarBlock getCurrentBlock() {
+      return currentBlock;
+    }
+
+    @Override
+    public long getCurrentBlockOffset() {
+      return currentBlockOffset;
+    }
+
+    @Override
+    public long getCurrentBlockSize() {
+      return currentBlockSizeBytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+      LOG.debug("Read {} and skipped {} row groups of {} with predicate {}", rowGroupsRead,
+          rowGroupsSkipped, getCurrentSource(), getCurrentSource().getPredicate());
+      super.close();
+    }
+
+    /**
+     * Returns the number of row groups whose records were read.
+     */
+    long getRowGroupsRead() {
+      return rowGroupsRead;
+    }
+
+    /**
+     * Returns the number of row groups that were skipped because none of their records matched
+     * the predicate.
+     */
+    long getRowGroupsSkipped() {
+      return rowGroupsSkipped;
+    }
+  }
+
+  /**
+   * An {@link InputStream} over a {@link SeekableByteChannel} that skips bytes by moving the
+   * position of the channel, rather than by reading them.
+   *
+   * <p>A {@link BufferedInputStream} skips its buffered bytes first, and only then skips the rest
+   * in the stream it wraps, so wrapping this stream in one keeps large skips cheap.
+   */
+  private static class SeekingInputStream extends FilterInputStream {
+    private final SeekableByteChannel channel;
+
+    SeekingInputStream(SeekableByteChannel channel) {
+      super(Channels.newInputStream(channel));
+      this.channel = channel;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      if (n <= 0) {
+        return 0;
+      }
+      long position = channel.position();
+      long skipped = Math.min(n, Math.max(0, channel.size() - position));
+      channel.position(position + skipped);
+      return skipped;
+    }
+  }
+}
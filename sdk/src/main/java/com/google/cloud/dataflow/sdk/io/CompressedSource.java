@@ -20,16 +20,34 @@ import com.google.cloud.dataflow.sdk.annotations.Experimental;
 import com.google.cloud.dataflow.sdk.coders.Coder;
 import com.google.cloud.dataflow.sdk.io.FileBasedSource.FileBasedReader;
 import com.google.cloud.dataflow.sdk.options.PipelineOptions;
+import com.google.cloud.dataflow.sdk.util.PipelinedDecompressingInputStream;
+import com.google.cloud.dataflow.sdk.util.PipelinedDecompressingInputStream.Stage;
 import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
 
 import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
 import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
 
 /**
  * A Source that reads from compressed files. A {@code CompressedSources} wraps a delegate
@@ -47,10 +65,17 @@ import java.util.NoSuchElementException;
  * <p>Default compression modes are {@link CompressionMode#GZIP} and {@link CompressionMode#BZIP2}.
  * User-defined compression types are supported by implementing {@link DecompressingChannelFactory}.
  *
+ * <p>A compressed file is read as a whole by a single reader, unless it is decompressed with a
+ * {@link SplittableDecompressingChannelFactory} such as those of {@link SplittableCompressionMode}.
+ * Such files consist of independently compressed members, and are split into bundles at member
+ * boundaries.
+ *
  * @param <T> The type to read from the compressed file.
  */
 @Experimental(Experimental.Kind.SOURCE_SINK)
 public class CompressedSource<T> extends FileBasedSource<T> {
+  private static final Logger LOG = LoggerFactory.getLogger(CompressedSource.class);
+
   /**
    * Factory interface for creating channels that decompress the content of an underlying channel.
    */
@@ -89,8 +114,193 @@ public class CompressedSource<T> extends FileBasedSource<T> {
         throws IOException;
   }
 
+  /**
+   * The number of bytes that a {@link SplittableDecompressingChannelFactory} may push back onto
+   * the stream given to {@link SplittableDecompressingChannelFactory#createMemberInputStream}.
+   */
+  public static final int MEMBER_PUSHBACK_BYTES = 8192;
+
+  /**
+   * A {@link DecompressingChannelFactory} for files that consist of a sequence of independently
+   * compressed members, such as concatenated gzip files, which can therefore be read starting at
+   * any member.
+   *
+   * <p>A {@link CompressedSource} using such a factory is split at member boundaries, so every
+   * member must start at a record boundary of the delegate source: a record belongs to the range
+   * that contains the start of its member. Files whose members split records, such as BGZF
+   * files, must not be read with such a factory.
+   */
+  public static interface SplittableDecompressingChannelFactory
+      extends DecompressingChannelFactory {
+    /**
+     * Returns the offset of the first member of the given channel that starts at or after
+     * {@code position} and before {@code limit}, or {@code limit} if there is none. The position
+     * of the channel is unspecified afterwards.
+     */
+    public long findMemberStart(SeekableByteChannel channel, long position, long limit)
+        throws IOException;
+
+    /**
+     * Returns a stream of the decompressed contents of the single member at the start of the
+     * given stream.
+     *
+     * <p>When the returned stream reaches its end, the given stream must be positioned just after
+     * the member. Bytes read past the member may be pushed back onto the given stream, up to
+     * {@link CompressedSource#MEMBER_PUSHBACK_BYTES} at a time.
+     *
+     * <p>The returned stream is closed if reading stops before its end. Closing it must release
+     * its resources, and may also close the given stream.
+     */
+    public InputStream createMemberInputStream(PushbackInputStream stream) throws IOException;
+  }
+
+  /**
+   * Compression types whose files are split at member boundaries by {@code CompressedSource}.
+   */
+  public enum SplittableCompressionMode implements SplittableDecompressingChannelFactory {
+    /**
+     * Concatenated gzip members, each of which must start at a record boundary.
+     *
+     * <p>Candidate member headers found when splitting are confirmed by decompressing the start
+     * of the member, and by checking its CRC-32 and length if the member is short.
+     */
+    GZIP {
+      @Override
+      public ReadableByteChannel createDecompressingChannel(ReadableByteChannel channel)
+          throws IOException {
+        return Channels.newChannel(
+            new GzipCompressorInputStream(Channels.newInputStream(channel), true));
+      }
+
+      @Override
+      public long findMemberStart(SeekableByteChannel channel, long position, long limit)
+          throws IOException {
+        return findSignature(channel, position, limit, GZIP_SIGNATURE);
+      }
+
+      @Override
+      protected boolean isMemberStart(SeekableByteChannel channel, long offset, byte[] header)
+          throws IOException {
+        // Reserved flag bits must be unset.
+        if ((header[3] & 0xe0) != 0) {
+          return false;
+        }
+        // Data that merely looks like a header fails to decompress almost at once, so only the
+        // start of a long member is decompressed.
+        channel.position(offset);
+        try (InputStream member = createMemberInputStream(new PushbackInputStream(
+            Channels.newInputStream(channel), MEMBER_PUSHBACK_BYTES))) {
+          ByteStreams.copy(ByteStreams.limit(member, GZIP_CHECKED_BYTES),
+              ByteStreams.nullOutputStream());
+          return true;
+        } catch (IOException e) {
+          return false;
+        }
+      }
+
+      @Override
+      public InputStream createMemberInputStream(PushbackInputStream stream) throws IOException {
+        return new GzipMemberInputStream(stream);
+      }
+    },
+
+    /**
+     * Concatenated bzip2 streams, such as the output of parallel bzip2 compressors.
+     *
+     * <p>Streams are found by their header and the magic number of their first block.
+     */
+    BZIP2 {
+      @Override
+      public ReadableByteChannel createDecompressingChannel(ReadableByteChannel channel)
+          throws IOException {
+        return Channels.newChannel(
+            new BZip2CompressorInputStream(Channels.newInputStream(channel), true));
+      }
+
+      @Override
+      public long findMemberStart(SeekableByteChannel channel, long position, long limit)
+          throws IOException {
+        return findSignature(channel, position, limit, BZIP2_SIGNATURE);
+      }
+
+      @Override
+      protected boolean isMemberStart(SeekableByteChannel channel, long offset, byte[] header) {
+        // The stream header is followed by the magic number of a block or of the end of stream.
+        return header[3] >= '1' && header[3] <= '9'
+            && (matches(header, 4, BZIP2_BLOCK_MAGIC) || matches(header, 4, BZIP2_END_MAGIC));
+      }
+
+      @Override
+      public InputStream createMemberInputStream(PushbackInputStream stream) throws IOException {
+        // The decompressor reads its input a byte at a time, so it stops at the end of a stream.
+        return new BZip2CompressorInputStream(stream, false);
+      }
+    };
+
+    private static final byte[] GZIP_SIGNATURE = {0x1f, (byte) 0x8b, 8};
+    private static final byte[] BZIP2_SIGNATURE = {'B', 'Z', 'h'};
+    private static final byte[] BZIP2_BLOCK_MAGIC = {0x31, 0x41, 0x59, 0x26, 0x53, 0x59};
+    private static final byte[] BZIP2_END_MAGIC = {0x17, 0x72, 0x45, 0x38, 0x50, (byte) 0x90};
+    private static final int HEADER_BYTES = 10;
+    private static final int SCAN_BUFFER_BYTES = 64 * 1024;
+    private static final int GZIP_CHECKED_BYTES = 64 * 1024;
+
+    /**
+     * Returns whether a member starts at the given offset, given the first bytes from there.
+     */
+    protected abstract boolean isMemberStart(
+        SeekableByteChannel channel, long offset, byte[] header) throws IOException;
+
+    /**
+     * Scans the channel from the given position up to the given limit for a member, by looking
+     * for the given signature and checking each occurrence with {@link #isMemberStart}.
+     */
+    long findSignature(SeekableByteChannel channel, long position, long limit, byte[] signature)
+        throws IOException {
+      if (position == 0 || position >= limit) {
+        // Files always start with a member, and an empty range contains none.
+        return Math.min(position, limit);
+      }
+      long end = Math.min(limit, channel.size());
+      ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_BYTES);
+      byte[] header = new byte[HEADER_BYTES];
+      for (long bufferStart = position; bufferStart < end; ) {
+        channel.position(bufferStart);
+        buffer.clear();
+        int read;
+        do {
+          read = channel.read(buffer);
+        } while (read > 0 && buffer.hasRemaining());
+        buffer.flip();
+        int length = buffer.limit();
+        if (length < HEADER_BYTES) {
+          break;
+        }
+        // Only look at offsets whose header is entirely in the buffer; the rest are scanned
+        // again from the start of the next buffer.
+        for (int i = 0; i + HEADER_BYTES <= length && bufferStart + i < end; i++) {
+          if (buffer.get(i) == signature[0] && buffer.get(i + 1) == signature[1]
+              && buffer.get(i + 2) == signature[2]) {
+            buffer.position(i);
+            buffer.get(header);
+            if (isMemberStart(channel, bufferStart + i, header)) {
+              return bufferStart + i;
+            }
+          }
+        }
+        bufferStart += length - HEADER_BYTES + 1;
+      }
+      return limit;
+    }
+
+    private static boolean matches(byte[] bytes, int offset, byte[] expected) {
+      return Arrays.equals(Arrays.copyOfRange(bytes, offset, offset + expected.length), expected);
+    }
+  }
+
   private final FileBasedSource<T> sourceDelegate;
   private final DecompressingChannelFactory channelFactory;
+  private final boolean pipelinedDecompression;
 
   /**
    * Creates a {@link Read} transform that reads from that reads from the underlying
@@ -99,7 +309,7 @@ public class CompressedSource<T> extends FileBasedSource<T> {
    */
   public static <T> Read.Bounded<T> readFromSource(
       FileBasedSource<T> sourceDelegate, DecompressingChannelFactory channelFactory) {
-    return Read.from(new CompressedSource<>(sourceDelegate, channelFactory));
+    return Read.from(new CompressedSource<>(sourceDelegate, channelFactory, false));
   }
 
   /**
@@ -107,7 +317,7 @@ public class CompressedSource<T> extends FileBasedSource<T> {
    * further configured with {@link CompressedSource#withDecompression}.
    */
   public static <T> CompressedSource<T> from(FileBasedSource<T> sourceDelegate) {
-    return new CompressedSource<>(sourceDelegate, null);
+    return new CompressedSource<>(sourceDelegate, null, false);
   }
 
   /**
@@ -115,18 +325,29 @@ public class CompressedSource<T> extends FileBasedSource<T> {
    * with the given {@link DecompressingChannelFactory}.
    */
   public CompressedSource<T> withDecompression(DecompressingChannelFactory channelFactory) {
-    return new CompressedSource<>(this.sourceDelegate, channelFactory);
+    return new CompressedSource<>(this.sourceDelegate, channelFactory, pipelinedDecompression);
+  }
+
+  /**
+   * Return a {@code CompressedSource} that is like this one but reads and decompresses its
+   * underlying file on background threads, ahead of the delegate reader, so that reading,
+   * decompressing and parsing records overlap. This uses about four 64KB buffers each of
+   * compressed and decompressed data per reader, and two threads per open reader.
+   */
+  public CompressedSource<T> withPipelinedDecompression() {
+    return new CompressedSource<>(this.sourceDelegate, channelFactory, true);
   }
 
   /**
    * Creates a {@code CompressedSource} from a delegate file based source and a decompressing
    * channel factory.
    */
-  private CompressedSource(
-      FileBasedSource<T> sourceDelegate, DecompressingChannelFactory channelFactory) {
-    super(sourceDelegate.getFileOrPatternSpec(), Long.MAX_VALUE);
+  private CompressedSource(FileBasedSource<T> sourceDelegate,
+      DecompressingChannelFactory channelFactory, boolean pipelinedDecompression) {
+    super(sourceDelegate.getFileOrPatternSpec(), minBundleSize(sourceDelegate, channelFactory));
     this.sourceDelegate = sourceDelegate;
     this.channelFactory = channelFactory;
+    this.pipelinedDecompression = pipelinedDecompression;
   }
 
   /**
@@ -134,14 +355,25 @@ public class CompressedSource<T> extends FileBasedSource<T> {
    * CompressedSource#createForSubrangeOfFile}.
    */
   private CompressedSource(FileBasedSource<T> sourceDelegate,
-      DecompressingChannelFactory channelFactory, String filePatternOrSpec, long minBundleSize,
-      long startOffset, long endOffset) {
+      DecompressingChannelFactory channelFactory, boolean pipelinedDecompression,
+      String filePatternOrSpec, long minBundleSize, long startOffset, long endOffset) {
     super(filePatternOrSpec, minBundleSize, startOffset, endOffset);
     Preconditions.checkArgument(
-        startOffset == 0,
+        startOffset == 0 || channelFactory instanceof SplittableDecompressingChannelFactory,
         "CompressedSources must start reading at offset 0. Requested offset: " + startOffset);
     this.sourceDelegate = sourceDelegate;
     this.channelFactory = channelFactory;
+    this.pipelinedDecompression = pipelinedDecompression;
+  }
+
+  /**
+   * Compressed files are only split if they can be split at member boundaries, in which case the
+   * delegate source decides the minimum size of a bundle.
+   */
+  private static long minBundleSize(
+      FileBasedSource<?> sourceDelegate, DecompressingChannelFactory channelFactory) {
+    return channelFactory instanceof SplittableDecompressingChannelFactory
+        ? sourceDelegate.getMinBundleSize() : Long.MAX_VALUE;
   }
 
   /**
@@ -161,17 +393,25 @@ public class CompressedSource<T> extends FileBasedSource<T> {
    */
   @Override
   public CompressedSource<T> createForSubrangeOfFile(String fileName, long start, long end) {
+    if (channelFactory instanceof SplittableDecompressingChannelFactory) {
+      // The delegate reads the decompressed members from their start, whatever the range.
+      return new CompressedSource<>(
+          sourceDelegate.createForSubrangeOfFile(fileName, 0, Long.MAX_VALUE), channelFactory,
+          pipelinedDecompression, fileName, getMinBundleSize(), start, end);
+    }
     return new CompressedSource<>(sourceDelegate.createForSubrangeOfFile(fileName, start, end),
-        channelFactory, fileName, Long.MAX_VALUE, start, end);
+        channelFactory, pipelinedDecompression, fileName, Long.MAX_VALUE, start, end);
   }
 
   /**
-   * Determines whether a single file represented by this source is splittable. Returns false:
-   * compressed sources are not splittable.
+   * Determines whether a single file represented by this source is splittable. Returns true only
+   * if the file is decompressed with a {@link SplittableDecompressingChannelFactory} and can be
+   * seeked efficiently.
    */
   @Override
   protected final boolean isSplittable() throws Exception {
-    return false;
+    return channelFactory instanceof SplittableDecompressingChannelFactory
+        && super.isSplittable();
   }
 
   /**
@@ -205,9 +445,22 @@ public class CompressedSource<T> extends FileBasedSource<T> {
     return channelFactory;
   }
 
+  /**
+   * Returns whether the file is read and decompressed on background threads.
+   */
+  public final boolean isPipelinedDecompression() {
+    return pipelinedDecompression;
+  }
+
   /**
    * Reader for a {@link CompressedSource}. Decompresses its input and uses a delegate
    * reader to read elements from the decompressed input.
+   *
+   * <p>If the source uses a {@link SplittableDecompressingChannelFactory}, the reader starts at
+   * the first member at or after the start of its range, and the offset of each record is that of
+   * the member it starts in. Otherwise the whole file is read, and the offsets of records are those
+   * reported by the delegate reader.
+   *
    * @param <T> The type of records read from the source.
    */
   public static class CompressedReader<T> extends FileBasedReader<T> {
@@ -216,6 +469,17 @@ public class CompressedSource<T> extends FileBasedSource<T> {
     private final CompressedSource<T> source;
     private int numRecordsRead;
 
+    // Set only when reading members of a splittable file. When decompression is pipelined, the
+    // stream is created by the pipeline and then read on its decompressing thread, so the field
+    // is volatile to publish it safely to this reader's thread whichever thread sets it.
+    private volatile MemberSequenceInputStream members;
+    // Set only when decompressing on background threads.
+    private PipelinedDecompressingInputStream pipeline;
+    private long currentMemberOffset = -1;
+    private boolean atMemberStart;
+    // Set when no member of a splittable file starts in the range of this reader.
+    private boolean noMemberInRange;
+
     /**
      * Create a {@code CompressedReader} from a {@code CompressedSource} and delegate reader.
      */
@@ -234,10 +498,14 @@ public class CompressedSource<T> extends FileBasedSource<T> {
     }
 
     /**
-     * Returns true only for the first record; compressed sources cannot be split.
+     * Returns true for the first record of each member of a splittable file, and otherwise only
+     * for the first record.
      */
     @Override
     protected final boolean isAtSplitPoint() {
+      if (members != null) {
+        return atMemberStart;
+      }
       // We have to return true for the first record, but not for the state before reading it,
       // and not for the state after reading any other record. Hence == rather than >= or <=.
       // This is required because FileBasedReader is intended for readers that can read a range
@@ -253,7 +521,55 @@ public class CompressedSource<T> extends FileBasedSource<T> {
      */
     @Override
     protected final void startReading(ReadableByteChannel channel) throws IOException {
-      readerDelegate.startReading(source.getChannelFactory().createDecompressingChannel(channel));
+      final DecompressingChannelFactory channelFactory = source.getChannelFactory();
+      if (!(channelFactory instanceof SplittableDecompressingChannelFactory)) {
+        if (!source.isPipelinedDecompression()) {
+          readerDelegate.startReading(channelFactory.createDecompressingChannel(channel));
+          return;
+        }
+        pipeline = new PipelinedDecompressingInputStream(Channels.newInputStream(channel),
+            new PipelinedDecompressingInputStream.Decompressor() {
+              @Override
+              public InputStream decompress(InputStream compressed) throws IOException {
+                return Channels.newInputStream(
+                    channelFactory.createDecompressingChannel(Channels.newChannel(compressed)));
+              }
+            }, null, null);
+        readerDelegate.startReading(Channels.newChannel(pipeline));
+        return;
+      }
+      final SplittableDecompressingChannelFactory splittableFactory =
+          (SplittableDecompressingChannelFactory) channelFactory;
+      long start = source.getStartOffset();
+      if (start > 0) {
+        SeekableByteChannel seekChannel = (SeekableByteChannel) channel;
+        long end = source.getEndOffset();
+        start = splittableFactory.findMemberStart(seekChannel, start, end);
+        if (start >= end) {
+          noMemberInRange = true;
+          return;
+        }
+        seekChannel.position(start);
+      }
+      if (!source.isPipelinedDecompression()) {
+        members = new MemberSequenceInputStream(
+            splittableFactory, Channels.newInputStream(channel), start);
+        readerDelegate.startReading(Channels.newChannel(members));
+        return;
+      }
+      // The members are started on the decompressing thread, which records their offsets
+      // ahead of the records read from them.
+      final long firstMemberStart = start;
+      pipeline = new PipelinedDecompressingInputStream(Channels.newInputStream(channel),
+          new PipelinedDecompressingInputStream.Decompressor() {
+            @Override
+            public InputStream decompress(InputStream compressed) {
+              members = new MemberSequenceInputStream(
+                  splittableFactory, compressed, firstMemberStart);
+              return members;
+            }
+          }, null, null);
+      readerDelegate.startReading(Channels.newChannel(pipeline));
     }
 
     /**
@@ -261,19 +577,318 @@ public class CompressedSource<T> extends FileBasedSource<T> {
      */
     @Override
     protected final boolean readNextRecord() throws IOException {
-      if (!readerDelegate.readNextRecord()) {
+      if (noMemberInRange || !readerDelegate.readNextRecord()) {
         return false;
       }
       ++numRecordsRead;
+      MemberSequenceInputStream members = this.members;
+      if (members != null) {
+        long memberOffset = members.getMemberOffset(readerDelegate.getCurrentOffset());
+        atMemberStart = memberOffset != currentMemberOffset;
+        currentMemberOffset = memberOffset;
+      }
       return true;
     }
 
     /**
-     * Returns the delegate reader's current offset in the decompressed input.
+     * Returns the offset of the member of the current record in a splittable file, and otherwise
+     * the delegate reader's current offset in the decompressed input.
      */
     @Override
     protected final long getCurrentOffset() {
+      if (members != null) {
+        return currentMemberOffset;
+      }
       return readerDelegate.getCurrentOffset();
     }
+
+    /**
+     * Stops decompressing in the background, if started, releases the decompressor of the
+     * current member of a splittable file, and closes the reader.
+     */
+    @Override
+    public void close() throws IOException {
+      try {
+        if (pipeline != null) {
+          if (LOG.isDebugEnabled()) {
+            LOG.debug("Pipelined decompression of {} blocked for {} ms reading, {} ms "
+                + "decompressing and {} ms processing", source.getFileOrPatternSpec(),
+                blockedMillis(Stage.READ), blockedMillis(Stage.DECOMPRESS),
+                blockedMillis(Stage.PROCESS));
+          }
+          // The decompressing thread closes the members it was reading once it stops.
+          pipeline.close();
+        } else if (members != null) {
+          members.close();
+        }
+      } finally {
+        super.close();
+      }
+    }
+
+    private long blockedMillis(Stage stage) {
+      return TimeUnit.NANOSECONDS.toMillis(pipeline.getBlockedNanos(stage));
+    }
+  }
+
+  /**
+   * The decompressed contents of consecutive members of a file, which keeps track of where in the
+   * decompressed contents each member starts.
+   */
+  private static class MemberSequenceInputStream extends InputStream {
+    private final SplittableDecompressingChannelFactory channelFactory;
+    private final CountingPushbackInputStream compressed;
+    // Pairs of the decompressed offset and the file offset of each member started after the
+    // member of the last record, in order.
+    // Members are added by the decompressing thread when decompression is pipelined.
+    private final Deque<long[]> memberOffsets = new ConcurrentLinkedDeque<>();
+    private long[] currentMemberOffsets;
+    private InputStream member;
+    private long position;
+
+    MemberSequenceInputStream(SplittableDecompressingChannelFactory channelFactory,
+        InputStream compressed, long offset) {
+      this.channelFactory = channelFactory;
+      this.compressed = new CountingPushbackInputStream(compressed, offset);
+    }
+
+    /**
+     * Returns the file offset of the member containing the given offset in the decompressed
+     * contents. The given offsets must not decrease between calls.
+     */
+    long getMemberOffset(long decompressedOffset) {
+      long[] next;
+      while ((next = memberOffsets.peekFirst()) != null && next[0] <= decompressedOffset) {
+        currentMemberOffsets = memberOffsets.removeFirst();
+      }
+      return currentMemberOffsets[1];
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) == 1 ? b[0] & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      while (true) {
+        if (member == null && !startNextMember()) {
+          return -1;
+        }
+        int read = member.read(b, off, len);
+        if (read > 0) {
+          position += read;
+          return read;
+        }
+        if (read < 0) {
+          member = null;
+        }
+      }
+    }
+
+    private boolean startNextMember() throws IOException {
+      int next = compressed.read();
+      if (next == -1) {
+        return false;
+      }
+      compressed.unread(next);
+      memberOffsets.addLast(new long[] {position, compressed.getCount()});
+      member = channelFactory.createMemberInputStream(compressed);
+      return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        if (member != null) {
+          member.close();
+          member = null;
+        }
+      } finally {
+        compressed.close();
+      }
+    }
+  }
+
+  /**
+   * A {@link PushbackInputStream} that counts the bytes read from it, less those pushed back.
+   */
+  private static class CountingPushbackInputStream extends PushbackInputStream {
+    private long count;
+
+    CountingPushbackInputStream(InputStream in, long initialCount) {
+      super(in, MEMBER_PUSHBACK_BYTES);
+      this.count = initialCount;
+    }
+
+    long getCount() {
+      return count;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b != -1) {
+        count++;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int read = super.read(b, off, len);
+      if (read > 0) {
+        count += read;
+      }
+      return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = super.skip(n);
+      count += skipped;
+      return skipped;
+    }
+
+    @Override
+    public void unread(int b) throws IOException {
+      super.unread(b);
+      count--;
+    }
+
+    @Override
+    public void unread(byte[] b, int off, int len) throws IOException {
+      super.unread(b, off, len);
+      count -= len;
+    }
+  }
+
+  /**
+   * The decompressed contents of a single gzip member, as specified by RFC 1952. Bytes read past
+   * the end of the member are pushed back, and the member's CRC-32 and length are checked.
+   */
+  private static class GzipMemberInputStream extends InputStream {
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private final PushbackInputStream in;
+    private final Inflater inflater = new Inflater(true);
+    private final CRC32 crc = new CRC32();
+    private final byte[] buffer = new byte[MEMBER_PUSHBACK_BYTES];
+    private int bufferLength;
+    private boolean finished;
+
+    GzipMemberInputStream(PushbackInputStream in) throws IOException {
+      this.in = in;
+      if (readByte() != 0x1f || readByte() != 0x8b || readByte() != 8) {
+        throw new ZipException("Not in GZIP format");
+      }
+      int flags = readByte();
+      skipBytes(6); // Modification time, extra flags and operating system.
+      if ((flags & FEXTRA) != 0) {
+        skipBytes(readByte() | (readByte() << 8));
+      }
+      if ((flags & FNAME) != 0) {
+        skipString();
+      }
+      if ((flags & FCOMMENT) != 0) {
+        skipString();
+      }
+      if ((flags & FHCRC) != 0) {
+        skipBytes(2);
+      }
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) == 1 ? b[0] & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (finished) {
+        return -1;
+      }
+      if (len == 0) {
+        return 0;
+      }
+      try {
+        while (true) {
+          int inflated = inflater.inflate(b, off, len);
+          if (inflated > 0) {
+            crc.update(b, off, inflated);
+            return inflated;
+          }
+          if (inflater.finished()) {
+            finish();
+            return -1;
+          }
+          if (inflater.needsDictionary()) {
+            throw new ZipException("Unexpected preset dictionary in GZIP member");
+          }
+          if (inflater.needsInput()) {
+            bufferLength = in.read(buffer);
+            if (bufferLength < 0) {
+              throw new EOFException("Unexpected end of GZIP member");
+            }
+            inflater.setInput(buffer, 0, bufferLength);
+          }
+        }
+      } catch (DataFormatException e) {
+        throw new ZipException("Corrupt GZIP member: " + e.getMessage());
+      }
+    }
+
+    private void finish() throws IOException {
+      finished = true;
+      int remaining = inflater.getRemaining();
+      if (remaining > 0) {
+        in.unread(buffer, bufferLength - remaining, remaining);
+      }
+      long expectedCrc = readInt();
+      long expectedSize = readInt();
+      long size = inflater.getBytesWritten() & 0xffffffffL;
+      if (expectedCrc != crc.getValue() || expectedSize != size) {
+        throw new ZipException("Corrupt GZIP trailer");
+      }
+      inflater.end();
+    }
+
+    @Override
+    public void close() {
+      inflater.end();
+    }
+
+    private long readInt() throws IOException {
+      return (readByte() | (readByte() << 8) | (readByte() << 16) | ((long) readByte() << 24));
+    }
+
+    private int readByte() throws IOException {
+      int b = in.read();
+      if (b == -1) {
+        throw new EOFException("Unexpected end of GZIP member");
+      }
+      return b;
+    }
+
+    private void skipBytes(int n) throws IOException {
+      for (int i = 0; i < n; i++) {
+        readByte();
+      }
+    }
+
+    private void skipString() throws IOException {
+      int b;
+      do {
+        b = readByte();
+      } while (b != 0);
+    }
   }
 }
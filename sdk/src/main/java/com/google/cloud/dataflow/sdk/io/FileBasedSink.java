@@ -20,10 +20,11 @@ import com.google.api.client.googleapis.batch.BatchRequest;
 import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
 import com.google.api.client.googleapis.json.GoogleJsonError;
 import com.google.api.client.http.HttpHeaders;
-import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.util.BackOff;
+import com.google.api.client.util.BackOffUtils;
+import com.google.api.client.util.Sleeper;
 import com.google.api.services.storage.Storage;
 import com.google.api.services.storage.StorageRequest;
-import com.google.api.services.storage.model.StorageObject;
 import com.google.cloud.dataflow.sdk.coders.Coder;
 import com.google.cloud.dataflow.sdk.coders.SerializableCoder;
 import com.google.cloud.dataflow.sdk.options.GcsOptions;
@@ -35,6 +36,8 @@ import com.google.cloud.dataflow.sdk.transforms.ParDo;
 import com.google.cloud.dataflow.sdk.transforms.windowing.DefaultTrigger;
 import com.google.cloud.dataflow.sdk.transforms.windowing.GlobalWindows;
 import com.google.cloud.dataflow.sdk.transforms.windowing.Window;
+import com.google.cloud.dataflow.sdk.util.AsyncWritableByteChannel;
+import com.google.cloud.dataflow.sdk.util.AttemptBoundedExponentialBackOff;
 import com.google.cloud.dataflow.sdk.util.FileIOChannelFactory;
 import com.google.cloud.dataflow.sdk.util.GcsIOChannelFactory;
 import com.google.cloud.dataflow.sdk.util.IOChannelFactory;
@@ -45,12 +48,18 @@ import com.google.cloud.dataflow.sdk.util.gcsfs.GcsPath;
 import com.google.cloud.dataflow.sdk.values.KV;
 import com.google.cloud.dataflow.sdk.values.PCollection;
 import com.google.cloud.hadoop.util.ApiErrorExtractor;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.Serializable;
 import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
@@ -60,10 +69,14 @@ import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
-
-import javax.annotation.concurrent.NotThreadSafe;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Abstract {@link Sink} for file-based output. An implementation of FileBasedSink writes file-based
@@ -295,11 +308,16 @@ public abstract class FileBasedSink<T> extends Sink<T> {
         LOG.debug("Temporary bundle output file {} will be copied.", result.getFilename());
         files.add(result.getFilename());
       }
+      long startTime = System.currentTimeMillis();
       copyToOutputFiles(files, options);
+      LOG.info("Copying {} output files took {} ms", files.size(),
+          System.currentTimeMillis() - startTime);
 
       // Optionally remove temporary files.
       if (temporaryFileRetention == TemporaryFileRetention.REMOVE) {
+        startTime = System.currentTimeMillis();
         removeTemporaryFiles(options);
+        LOG.info("Removing temporary files took {} ms", System.currentTimeMillis() - startTime);
       }
     }
 
@@ -437,6 +455,14 @@ public abstract class FileBasedSink<T> extends Sink<T> {
      */
     protected String mimeType = MimeTypes.TEXT;
 
+    /**
+     * The size in bytes of each of the two buffers through which output is written to the channel
+     * on a background thread, or 0 to write to the channel directly.
+     *
+     * <p>May be overridden. Default is 0. See {@link AsyncWritableByteChannel}.
+     */
+    protected int asyncWriteBufferSize = 0;
+
     /**
      * Construct a new FileBasedWriter with a base filename.
      */
@@ -474,6 +500,9 @@ public abstract class FileBasedSink<T> extends Sink<T> {
           getWriteOperation().baseTemporaryFilename, uId);
       LOG.debug("Opening {}.", filename);
       channel = IOChannelUtils.create(filename, mimeType);
+      if (asyncWriteBufferSize > 0) {
+        channel = new AsyncWritableByteChannel(channel, asyncWriteBufferSize);
+      }
       try {
         prepareWrite(channel);
         LOG.debug("Writing header to {}.", filename);
@@ -503,6 +532,13 @@ public abstract class FileBasedSink<T> extends Sink<T> {
         LOG.debug("Writing footer to {}.", filename);
         writeFooter();
       }
+      if (channel instanceof AsyncWritableByteChannel) {
+        AsyncWritableByteChannel asyncChannel = (AsyncWritableByteChannel) channel;
+        LOG.debug("Wrote {} buffers to {} in {} ms, blocking the writer for {} ms.",
+            asyncChannel.getFlushCount(), filename,
+            TimeUnit.NANOSECONDS.toMillis(asyncChannel.getFlushNanos()),
+            TimeUnit.NANOSECONDS.toMillis(asyncChannel.getBlockedNanos()));
+      }
       FileResult result = new FileResult(filename);
       LOG.debug("Result for bundle {}: {}", this.id, filename);
       return result;
@@ -582,227 +618,308 @@ public abstract class FileBasedSink<T> extends Sink<T> {
     public void remove(Collection<String> filenames) throws IOException;
   }
 
+  /**
+   * Maximum number of file operations, or batches of them, running at once.
+   */
+  private static final int MAX_CONCURRENT_OPERATIONS = 16;
+
+  // Shared by all sinks, so that finalizing does not create a pool each time. Idle threads time
+  // out, so the pool costs nothing between uses.
+  private static final ExecutorService EXECUTOR = createExecutor();
+
+  private static ExecutorService createExecutor() {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(
+        MAX_CONCURRENT_OPERATIONS, MAX_CONCURRENT_OPERATIONS, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("FileOperations-%d").build());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /**
+   * Runs the given operations on the shared executor, and rethrows the first failure once all of
+   * them have completed.
+   */
+  private static void runConcurrently(List<Callable<Void>> operations) throws IOException {
+    try {
+      IOException failure = null;
+      for (Future<Void> future : EXECUTOR.invokeAll(operations)) {
+        try {
+          future.get();
+        } catch (ExecutionException e) {
+          if (failure == null) {
+            Throwables.propagateIfPossible(e.getCause(), IOException.class);
+            failure = new IOException(e.getCause());
+          }
+        }
+      }
+      if (failure != null) {
+        throw failure;
+      }
+    } catch (InterruptedException e) {
+      // invokeAll has cancelled the operations that were still running.
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for file operations");
+    }
+  }
+
+  /**
+   * Sleeps before the next attempt of an operation, or returns false if there are no more
+   * attempts.
+   */
+  private static boolean nextAttempt(BackOff backoff) throws IOException {
+    try {
+      return BackOffUtils.next(Sleeper.DEFAULT, backoff);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while retrying file operations");
+    }
+  }
+
   /**
    * GCS file system operations.
+   *
+   * <p>Requests are sent in batches, several batches at a time. Requests that fail with a
+   * transient error, or whose batch fails as a whole, are retried with exponential backoff.
    */
-  private static class GcsOperations implements FileOperations {
+  @VisibleForTesting
+  static class GcsOperations implements FileOperations {
     private static final Logger LOG = LoggerFactory.getLogger(GcsOperations.class);
 
     /**
      * Maximum number of requests permitted in a GCS batch request.
      */
-    private static final int MAX_REQUESTS_PER_BATCH = 1000;
+    private static final int MAX_REQUESTS_PER_BATCH = 100;
+
+    private static final int MAX_ATTEMPTS = 4;
+    private static final long INITIAL_BACKOFF_MILLIS = 200;
 
     private ApiErrorExtractor errorExtractor = new ApiErrorExtractor();
-    private GcsOptions gcsOptions;
     private Storage gcs;
-    private BatchHelper batchHelper;
 
     public GcsOperations(PipelineOptions options) {
-      gcsOptions = options.as(GcsOptions.class);
-      gcs = Transport.newStorageClient(gcsOptions).build();
-      batchHelper =
-          new BatchHelper(gcs.getRequestFactory().getInitializer(), gcs, MAX_REQUESTS_PER_BATCH);
+      this(Transport.newStorageClient(options.as(GcsOptions.class)).build());
+    }
+
+    @VisibleForTesting
+    GcsOperations(Storage gcs) {
+      this.gcs = gcs;
     }
 
     @Override
     public void copy(List<String> srcFilenames, List<String> destFilenames) throws IOException {
       Preconditions.checkArgument(
           srcFilenames.size() == destFilenames.size(),
-          String.format("Number of source files {} must equal number of destination files {}",
+          String.format("Number of source files %s must equal number of destination files %s",
               srcFilenames.size(), destFilenames.size()));
+      List<GcsRequest> requests = new ArrayList<>();
       for (int i = 0; i < srcFilenames.size(); i++) {
-        final GcsPath sourcePath = GcsPath.fromUri(srcFilenames.get(i));
-        final GcsPath destPath = GcsPath.fromUri(destFilenames.get(i));
+        GcsPath sourcePath = GcsPath.fromUri(srcFilenames.get(i));
+        GcsPath destPath = GcsPath.fromUri(destFilenames.get(i));
         LOG.debug("Copying {} to {}", sourcePath, destPath);
-        Storage.Objects.Copy copyObject = gcs.objects().copy(sourcePath.getBucket(),
-            sourcePath.getObject(), destPath.getBucket(), destPath.getObject(), null);
-        batchHelper.queue(copyObject, new JsonBatchCallback<StorageObject>() {
-          @Override
-          public void onSuccess(StorageObject obj, HttpHeaders responseHeaders) {
-            LOG.debug("Successfully copied {} to {}", sourcePath, destPath);
-          }
-
-          @Override
-          public void onFailure(GoogleJsonError e, HttpHeaders responseHeaders) throws IOException {
-            // Do nothing on item not found.
-            if (!errorExtractor.itemNotFound(e)) {
-              throw new IOException(e.toString());
-            }
-            LOG.debug("{} does not exist.", sourcePath);
-          }
-        });
+        requests.add(new GcsRequest(
+            gcs.objects().copy(sourcePath.getBucket(), sourcePath.getObject(),
+                destPath.getBucket(), destPath.getObject(), null),
+            "copy " + sourcePath + " to " + destPath));
       }
-      batchHelper.flush();
+      execute(requests);
     }
 
     @Override
     public void remove(Collection<String> filenames) throws IOException {
+      List<GcsRequest> requests = new ArrayList<>();
       for (String filename : filenames) {
-        final GcsPath path = GcsPath.fromUri(filename);
+        GcsPath path = GcsPath.fromUri(filename);
         LOG.debug("Removing: " + path);
-        Storage.Objects.Delete deleteObject =
-            gcs.objects().delete(path.getBucket(), path.getObject());
-        batchHelper.queue(deleteObject, new JsonBatchCallback<Void>() {
-          @Override
-          public void onSuccess(Void obj, HttpHeaders responseHeaders) throws IOException {
-            LOG.debug("Successfully removed {}", path);
-          }
+        requests.add(new GcsRequest(
+            gcs.objects().delete(path.getBucket(), path.getObject()), "remove " + path));
+      }
+      execute(requests);
+    }
 
+    /**
+     * Executes the requests in concurrent batches.
+     */
+    private void execute(List<GcsRequest> requests) throws IOException {
+      List<Callable<Void>> batches = new ArrayList<>();
+      for (final List<GcsRequest> batch : Lists.partition(requests, MAX_REQUESTS_PER_BATCH)) {
+        batches.add(new Callable<Void>() {
           @Override
-          public void onFailure(GoogleJsonError e, HttpHeaders responseHeaders) throws IOException {
-            // Do nothing on item not found.
-            if (!errorExtractor.itemNotFound(e)) {
-              throw new IOException(e.toString());
-            }
-            LOG.debug("{} does not exist.", path);
+          public Void call() throws IOException {
+            executeBatch(batch);
+            return null;
           }
         });
       }
-      batchHelper.flush();
+      runConcurrently(batches);
+    }
+
+    /**
+     * Executes the requests in a single batch, retrying those that fail transiently. Requests for
+     * items that do not exist are considered successful, so that the operations can be retried.
+     */
+    private void executeBatch(List<GcsRequest> requests) throws IOException {
+      BackOff backoff = new AttemptBoundedExponentialBackOff(MAX_ATTEMPTS, INITIAL_BACKOFF_MILLIS);
+      List<GcsRequest> pending = requests;
+      while (true) {
+        final List<GcsRequest> retryable = new ArrayList<>();
+        final List<String> errors = new ArrayList<>();
+        BatchRequest batch = gcs.batch(gcs.getRequestFactory().getInitializer());
+        for (final GcsRequest request : pending) {
+          request.queue(batch, new JsonBatchCallback<Object>() {
+            @Override
+            public void onSuccess(Object response, HttpHeaders responseHeaders) {
+              LOG.debug("Successfully completed {}", request.description);
+            }
+
+            @Override
+            public void onFailure(GoogleJsonError e, HttpHeaders responseHeaders) {
+              if (errorExtractor.itemNotFound(e)) {
+                LOG.debug("Item to {} does not exist.", request.description);
+              } else if (e.getCode() >= 500 || e.getCode() == 429) {
+                retryable.add(request);
+              } else {
+                errors.add("Failed to " + request.description + ": " + e);
+              }
+            }
+          });
+        }
+
+        IOException batchFailure = null;
+        try {
+          batch.execute();
+        } catch (IOException e) {
+          // The outcome of each request is unknown, and all of them are idempotent.
+          batchFailure = e;
+          retryable.clear();
+          retryable.addAll(pending);
+        }
+        if (!errors.isEmpty()) {
+          throw new IOException(Joiner.on('\n').join(errors));
+        }
+        if (retryable.isEmpty()) {
+          return;
+        }
+        if (!nextAttempt(backoff)) {
+          throw new IOException("Failed to " + retryable.get(0).description + " and "
+              + (retryable.size() - 1) + " other operations after " + MAX_ATTEMPTS + " attempts",
+              batchFailure);
+        }
+        LOG.warn("Retrying {} GCS operations that failed transiently.", retryable.size());
+        pending = retryable;
+      }
+    }
+
+    /**
+     * A GCS request, and a description of it for messages.
+     */
+    private static class GcsRequest {
+      private final StorageRequest<?> request;
+      private final String description;
+
+      GcsRequest(StorageRequest<?> request, String description) {
+        this.request = request;
+        this.description = description;
+      }
+
+      @SuppressWarnings({"rawtypes", "unchecked"})
+      void queue(BatchRequest batch, JsonBatchCallback<Object> callback) throws IOException {
+        // The callbacks ignore the type of the response.
+        ((StorageRequest) request).queue(batch, (JsonBatchCallback) callback);
+      }
     }
   }
 
   /**
    * File systems supported by {@link Files}.
+   *
+   * <p>Files are copied and removed several at a time, and operations that fail are retried
+   * with exponential backoff.
    */
   private static class LocalFileOperations implements FileOperations {
     private static final Logger LOG = LoggerFactory.getLogger(LocalFileOperations.class);
 
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long INITIAL_BACKOFF_MILLIS = 100;
+
     @Override
     public void copy(List<String> srcFilenames, List<String> destFilenames) throws IOException {
       Preconditions.checkArgument(
           srcFilenames.size() == destFilenames.size(),
-          String.format("Number of source files {} must equal number of destination files {}",
+          String.format("Number of source files %s must equal number of destination files %s",
               srcFilenames.size(), destFilenames.size()));
       int numFiles = srcFilenames.size();
+      List<Callable<Void>> operations = new ArrayList<>();
       for (int i = 0; i < numFiles; i++) {
-        String src = srcFilenames.get(i);
-        String dst = destFilenames.get(i);
-        LOG.debug("Copying {} to {}", src, dst);
-        copyOne(src, dst);
+        final String src = srcFilenames.get(i);
+        final String dst = destFilenames.get(i);
+        operations.add(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            LOG.debug("Copying {} to {}", src, dst);
+            copyOne(src, dst);
+            return null;
+          }
+        });
       }
+      runConcurrently(operations);
     }
 
     private void copyOne(String source, String destination) throws IOException {
-      try {
-        // Copy the source file, replacing the existing destination.
-        Files.copy(Paths.get(source), Paths.get(destination), StandardCopyOption.REPLACE_EXISTING);
-      } catch (NoSuchFileException e) {
-        LOG.debug("{} does not exist.", source);
-        // Suppress exception if file does not exist.
+      BackOff backoff = new AttemptBoundedExponentialBackOff(MAX_ATTEMPTS, INITIAL_BACKOFF_MILLIS);
+      while (true) {
+        try {
+          // Copy the source file, replacing the existing destination.
+          Files.copy(
+              Paths.get(source), Paths.get(destination), StandardCopyOption.REPLACE_EXISTING);
+          return;
+        } catch (NoSuchFileException e) {
+          LOG.debug("{} does not exist.", source);
+          // Suppress exception if file does not exist.
+          return;
+        } catch (IOException e) {
+          if (!nextAttempt(backoff)) {
+            throw e;
+          }
+          LOG.warn("Retrying copy of {} to {}", source, destination, e);
+        }
       }
     }
 
     @Override
     public void remove(Collection<String> filenames) throws IOException {
-      for (String filename : filenames) {
-        LOG.debug("Removing file {}", filename);
-        removeOne(filename);
+      List<Callable<Void>> operations = new ArrayList<>();
+      for (final String filename : filenames) {
+        operations.add(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            LOG.debug("Removing file {}", filename);
+            removeOne(filename);
+            return null;
+          }
+        });
       }
+      runConcurrently(operations);
     }
 
     private void removeOne(String filename) throws IOException {
-      // Delete the file if it exists.
-      boolean exists = Files.deleteIfExists(Paths.get(filename));
-      if (!exists) {
-        LOG.debug("{} does not exist.", filename);
-      }
-    }
-  }
-
-  /**
-   * BatchHelper abstracts out the logic for the maximum requests per batch for GCS.
-   *
-   * <p>Copy of
-   * https://github.com/GoogleCloudPlatform/bigdata-interop/blob/master/gcs/src/main/java/com/google/cloud/hadoop/gcsio/BatchHelper.java
-   *
-   * <p>Copied to prevent Dataflow from depending on the Hadoop-related dependencies that are not
-   * used in Dataflow.  Hadoop-related dependencies will be removed from the Google Cloud Storage
-   * Connector (https://cloud.google.com/hadoop/google-cloud-storage-connector) so that this project
-   * and others may use the connector without introducing unnecessary dependencies.
-   *
-   * <p>This class is not thread-safe; create a new BatchHelper instance per single-threaded logical
-   * grouping of requests.
-   */
-  @NotThreadSafe
-  private static class BatchHelper {
-    /**
-     * Callback that causes a single StorageRequest to be added to the BatchRequest.
-     */
-    protected static interface QueueRequestCallback {
-      void enqueue() throws IOException;
-    }
-
-    private final List<QueueRequestCallback> pendingBatchEntries;
-    private final BatchRequest batch;
-
-    // Number of requests that can be queued into a single actual HTTP request
-    // before a sub-batch is sent.
-    private final long maxRequestsPerBatch;
-
-    // Flag that indicates whether there is an in-progress flush.
-    private boolean flushing = false;
-
-    /**
-     * Primary constructor, generally accessed only via the inner Factory class.
-     */
-    public BatchHelper(
-        HttpRequestInitializer requestInitializer, Storage gcs, long maxRequestsPerBatch) {
-      this.pendingBatchEntries = new LinkedList<>();
-      this.batch = gcs.batch(requestInitializer);
-      this.maxRequestsPerBatch = maxRequestsPerBatch;
-    }
-
-    /**
-     * Adds an additional request to the batch, and possibly flushes the current contents of the
-     * batch if {@code maxRequestsPerBatch} has been reached.
-     */
-    public <T> void queue(final StorageRequest<T> req, final JsonBatchCallback<T> callback)
-        throws IOException {
-      QueueRequestCallback queueCallback = new QueueRequestCallback() {
-        @Override
-        public void enqueue() throws IOException {
-          req.queue(batch, callback);
-        }
-      };
-      pendingBatchEntries.add(queueCallback);
-
-      flushIfPossibleAndRequired();
-    }
-
-    // Flush our buffer if we have more pending entries than maxRequestsPerBatch
-    private void flushIfPossibleAndRequired() throws IOException {
-      if (pendingBatchEntries.size() > maxRequestsPerBatch) {
-        flushIfPossible();
-      }
-    }
-
-    // Flush our buffer if we are not already in a flush operation and we have data to flush.
-    private void flushIfPossible() throws IOException {
-      if (!flushing && pendingBatchEntries.size() > 0) {
-        flushing = true;
+      BackOff backoff = new AttemptBoundedExponentialBackOff(MAX_ATTEMPTS, INITIAL_BACKOFF_MILLIS);
+      while (true) {
         try {
-          while (batch.size() < maxRequestsPerBatch && pendingBatchEntries.size() > 0) {
-            QueueRequestCallback head = pendingBatchEntries.remove(0);
-            head.enqueue();
+          // Delete the file if it exists.
+          boolean exists = Files.deleteIfExists(Paths.get(filename));
+          if (!exists) {
+            LOG.debug("{} does not exist.", filename);
           }
-
-          batch.execute();
-        } finally {
-          flushing = false;
+          return;
+        } catch (IOException e) {
+          if (!nextAttempt(backoff)) {
+            throw e;
+          }
+          LOG.warn("Retrying removal of {}", filename, e);
         }
       }
     }
-
-
-    /**
-     * Sends any currently remaining requests in the batch; should be called at the end of any
-     * series of batched requests to ensure everything has been sent.
-     */
-    public void flush() throws IOException {
-      flushIfPossible();
-    }
   }
 
   static class ReshardForWrite<T> extends PTransform<PCollection<T>, PCollection<T>> {
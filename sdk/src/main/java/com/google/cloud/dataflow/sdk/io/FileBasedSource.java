@@ -17,6 +17,7 @@ package com.google.cloud.dataflow.sdk.io;
 import com.google.cloud.dataflow.sdk.options.PipelineOptions;
 import com.google.cloud.dataflow.sdk.util.IOChannelFactory;
 import com.google.cloud.dataflow.sdk.util.IOChannelUtils;
+import com.google.cloud.dataflow.sdk.util.SizeAwareIOChannelFactory;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
@@ -24,6 +25,7 @@ import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import org.joda.time.Instant;
 import org.slf4j.Logger;
@@ -35,11 +37,17 @@ import java.nio.channels.SeekableByteChannel;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.concurrent.Callable;
-import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
 
 /**
  * A common base class for all file-based {@link Source}s. Extend this class to implement your own
@@ -72,9 +80,17 @@ public abstract class FileBasedSource<T> extends OffsetBasedSource<T> {
   // Package-private for testing.
   static final int THREAD_POOL_SIZE = 128;
 
+  // Shared by all sources, so that splitting many sources does not create a pool for each.
+  // Idle threads time out, so the pool costs nothing between uses.
+  private static final ListeningExecutorService EXECUTOR = createExecutor();
+
   private final String fileOrPatternSpec;
   private final Mode mode;
 
+  // The files matched by the file pattern, with their sizes if known, computed once so that
+  // estimating the size of this source and splitting it share a single listing.
+  private transient volatile Map<String, Long> matchedFiles;
+
   /**
    * A given {@code FileBasedSource} represents a file resource of one of these types.
    */
@@ -179,10 +195,17 @@ public abstract class FileBasedSource<T> extends OffsetBasedSource<T> {
 
     IOChannelFactory factory = IOChannelUtils.getFactory(fileOrPatternSpec);
     if (mode == Mode.FILEPATTERN) {
-      // TODO Implement a more efficient parallel/batch size estimation mechanism for file patterns.
       long startTime = System.currentTimeMillis();
       long totalSize = 0;
-      Collection<String> inputs = factory.match(fileOrPatternSpec);
+      Map<String, Long> matches = getMatchedFiles();
+      if (!matches.containsValue(null)) {
+        // The sizes came with the listing.
+        for (long size : matches.values()) {
+          totalSize += size;
+        }
+        return totalSize;
+      }
+      Collection<String> inputs = matches.keySet();
       if (inputs.size() <= MAX_NUMBER_OF_FILES_FOR_AN_EXACT_STAT) {
         totalSize = getExactTotalSizeOfFiles(inputs, factory);
         LOG.debug("Size estimation of all files of pattern " + fileOrPatternSpec + " took "
@@ -201,28 +224,21 @@ public abstract class FileBasedSource<T> extends OffsetBasedSource<T> {
   }
 
   // Get the exact total size of the given set of files.
-  // Invokes multiple requests for size estimation in parallel using a thread pool.
-  // TODO: replace this with bulk request API when it is available. Will require updates
-  // to IOChannelFactory interface.
+  // Invokes multiple requests for size estimation in parallel using a thread pool. Only used for
+  // IOChannelFactory implementations that do not report sizes with their matches.
   private static long getExactTotalSizeOfFiles(
       Collection<String> files, IOChannelFactory ioChannelFactory) throws Exception {
     List<ListenableFuture<Long>> futures = new ArrayList<>();
-    ListeningExecutorService service =
-        MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(THREAD_POOL_SIZE));
     long totalSize = 0;
-    try {
-      for (String file : files) {
-        futures.add(createFutureForSizeEstimation(file, ioChannelFactory, service));
-      }
-
-      for (Long val : Futures.allAsList(futures).get()) {
-        totalSize += val;
-      }
+    for (String file : files) {
+      futures.add(createFutureForSizeEstimation(file, ioChannelFactory, EXECUTOR));
+    }
 
-      return totalSize;
-    } finally {
-      service.shutdown();
+    for (Long val : Futures.allAsList(futures).get()) {
+      totalSize += val;
     }
+
+    return totalSize;
   }
 
   private static ListenableFuture<Long> createFutureForSizeEstimation(
@@ -257,14 +273,20 @@ public abstract class FileBasedSource<T> extends OffsetBasedSource<T> {
 
   private ListenableFuture<List<? extends FileBasedSource<T>>> createFutureForFileSplit(
       final String file,
+      @Nullable final Long sizeBytes,
       final long desiredBundleSizeBytes,
       final PipelineOptions options,
       ListeningExecutorService service) {
     return service.submit(new Callable<List<? extends FileBasedSource<T>>>() {
       @Override
       public List<? extends FileBasedSource<T>> call() throws Exception {
-        return createForSubrangeOfFile(file, 0, Long.MAX_VALUE)
-            .splitIntoBundles(desiredBundleSizeBytes, options);
+        FileBasedSource<T> source = createForSubrangeOfFile(file, 0, Long.MAX_VALUE);
+        // A splittable file of known size is split without looking up its size again. Other
+        // files keep an unbounded range, which cannot be split at a fraction.
+        if (sizeBytes != null && source.isSplittable()) {
+          source = createForSubrangeOfFile(file, 0, sizeBytes);
+        }
+        return source.splitIntoBundles(desiredBundleSizeBytes, options);
       }
     });
   }
@@ -281,24 +303,19 @@ public abstract class FileBasedSource<T> extends OffsetBasedSource<T> {
       long startTime = System.currentTimeMillis();
       List<ListenableFuture<List<? extends FileBasedSource<T>>>> futures = new ArrayList<>();
 
-      ListeningExecutorService service =
-          MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(THREAD_POOL_SIZE));
-      try {
-        for (final String file : FileBasedSource.expandFilePattern(fileOrPatternSpec)) {
-          futures.add(createFutureForFileSplit(file, desiredBundleSizeBytes, options, service));
-        }
-        List<? extends FileBasedSource<T>> splitResults =
-            ImmutableList.copyOf(Iterables.concat(Futures.allAsList(futures).get()));
-        LOG.debug(
-            "Splitting the source based on file pattern "
-                + fileOrPatternSpec
-                + " took "
-                + (System.currentTimeMillis() - startTime)
-                + " ms");
-        return splitResults;
-      } finally {
-        service.shutdown();
+      for (Map.Entry<String, Long> file : getMatchedFiles().entrySet()) {
+        futures.add(createFutureForFileSplit(
+            file.getKey(), file.getValue(), desiredBundleSizeBytes, options, EXECUTOR));
       }
+      List<? extends FileBasedSource<T>> splitResults =
+          ImmutableList.copyOf(Iterables.concat(Futures.allAsList(futures).get()));
+      LOG.debug(
+          "Splitting the source based on file pattern "
+              + fileOrPatternSpec
+              + " took "
+              + (System.currentTimeMillis() - startTime)
+              + " ms");
+      return splitResults;
     } else {
       if (isSplittable()) {
         List<FileBasedSource<T>> splitResults = new ArrayList<>();
@@ -336,15 +353,21 @@ public abstract class FileBasedSource<T> extends OffsetBasedSource<T> {
 
     if (mode == Mode.FILEPATTERN) {
       long startTime = System.currentTimeMillis();
-      Collection<String> files = FileBasedSource.expandFilePattern(fileOrPatternSpec);
+      // Readers list the files afresh rather than reusing a listing made at job submission.
+      Map<String, Long> files = matchFiles(fileOrPatternSpec);
       List<FileBasedReader<T>> fileReaders = new ArrayList<>();
-      for (String fileName : files) {
+      for (Map.Entry<String, Long> file : files.entrySet()) {
+        String fileName = file.getKey();
         long endOffset;
-        try {
-          endOffset = IOChannelUtils.getFactory(fileName).getSizeBytes(fileName);
-        } catch (IOException e) {
-          LOG.warn("Failed to get size of " + fileName, e);
-          endOffset = Long.MAX_VALUE;
+        if (file.getValue() != null) {
+          endOffset = file.getValue();
+        } else {
+          try {
+            endOffset = IOChannelUtils.getFactory(fileName).getSizeBytes(fileName);
+          } catch (IOException e) {
+            LOG.warn("Failed to get size of " + fileName, e);
+            endOffset = Long.MAX_VALUE;
+          }
         }
         fileReaders.add(
             createForSubrangeOfFile(fileName, 0, endOffset).createSingleFileReader(options));
@@ -413,6 +436,48 @@ public abstract class FileBasedSource<T> extends OffsetBasedSource<T> {
     return matches;
   }
 
+  /**
+   * Returns the files matched by the file pattern of this source, computing them once per
+   * source.
+   */
+  private Map<String, Long> getMatchedFiles() throws IOException {
+    Map<String, Long> matches = matchedFiles;
+    if (matches == null) {
+      matches = matchFiles(fileOrPatternSpec);
+      matchedFiles = matches;
+    }
+    return matches;
+  }
+
+  /**
+   * Returns the files matching the given pattern, in the order of the matches, mapped to their
+   * sizes in bytes if the {@link IOChannelFactory} for the pattern is a
+   * {@link SizeAwareIOChannelFactory}, and otherwise to {@code null}.
+   */
+  private static Map<String, Long> matchFiles(String fileOrPatternSpec) throws IOException {
+    IOChannelFactory factory = IOChannelUtils.getFactory(fileOrPatternSpec);
+    Map<String, Long> matches;
+    if (factory instanceof SizeAwareIOChannelFactory) {
+      matches = ((SizeAwareIOChannelFactory) factory).matchWithSizes(fileOrPatternSpec);
+    } else {
+      matches = new LinkedHashMap<>();
+      for (String file : factory.match(fileOrPatternSpec)) {
+        matches.put(file, null);
+      }
+    }
+    LOG.info("Matched {} files for pattern {}", matches.size(), fileOrPatternSpec);
+    return Collections.unmodifiableMap(matches);
+  }
+
+  private static ListeningExecutorService createExecutor() {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(
+        THREAD_POOL_SIZE, THREAD_POOL_SIZE, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("FileBasedSource-%d").build());
+    executor.allowCoreThreadTimeOut(true);
+    return MoreExecutors.listeningDecorator(executor);
+  }
+
   /**
    * A {@link Source.Reader reader} that implements code common to readers of
    * {@code FileBasedSource}s.
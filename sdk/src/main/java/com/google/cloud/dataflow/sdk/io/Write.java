@@ -21,10 +21,12 @@ import com.google.cloud.dataflow.sdk.coders.SerializableCoder;
 import com.google.cloud.dataflow.sdk.io.Sink.WriteOperation;
 import com.google.cloud.dataflow.sdk.io.Sink.Writer;
 import com.google.cloud.dataflow.sdk.options.PipelineOptions;
+import com.google.cloud.dataflow.sdk.transforms.Aggregator;
 import com.google.cloud.dataflow.sdk.transforms.Create;
 import com.google.cloud.dataflow.sdk.transforms.DoFn;
 import com.google.cloud.dataflow.sdk.transforms.PTransform;
 import com.google.cloud.dataflow.sdk.transforms.ParDo;
+import com.google.cloud.dataflow.sdk.transforms.Sum;
 import com.google.cloud.dataflow.sdk.transforms.View;
 import com.google.cloud.dataflow.sdk.transforms.windowing.GlobalWindows;
 import com.google.cloud.dataflow.sdk.transforms.windowing.Window;
@@ -50,6 +52,12 @@ import java.util.UUID;
  */
 @Experimental(Experimental.Kind.SOURCE_SINK)
 public class Write {
+  /**
+   * Name of the aggregator that sums the time in milliseconds spent in
+   * {@link WriteOperation#finalize}.
+   */
+  public static final String FINALIZE_MSECS_AGGREGATOR = "FinalizeMsecs";
+
   /**
    * Creates a Write transform that writes to the given Sink.
    */
@@ -200,11 +208,16 @@ public class Write {
       @SuppressWarnings("unused")
       final PCollection<Integer> done = operationCollection
           .apply("Finalize", ParDo.of(new DoFn<WriteOperation<T, WriteT>, Integer>() {
+            private final Aggregator<Long, Long> finalizeMsecs =
+                createAggregator(FINALIZE_MSECS_AGGREGATOR, new Sum.SumLongFn());
+
             @Override
             public void processElement(ProcessContext c) throws Exception {
               Iterable<WriteT> results = c.sideInput(resultsView);
               WriteOperation<T, WriteT> writeOperation = c.element();
+              long startTime = System.currentTimeMillis();
               writeOperation.finalize(results, c.getPipelineOptions());
+              finalizeMsecs.addValue(System.currentTimeMillis() - startTime);
             }
           }).withSideInputs(resultsView));
       return PDone.in(input.getPipeline());
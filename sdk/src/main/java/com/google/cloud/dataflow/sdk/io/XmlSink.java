@@ -21,6 +21,7 @@ import com.google.cloud.dataflow.sdk.io.FileBasedSink.FileBasedWriteOperation;
 import com.google.cloud.dataflow.sdk.io.FileBasedSink.FileBasedWriter;
 import com.google.cloud.dataflow.sdk.options.PipelineOptions;
 import com.google.cloud.dataflow.sdk.util.CoderUtils;
+import com.google.cloud.dataflow.sdk.util.JAXBUtils;
 import com.google.cloud.dataflow.sdk.values.PCollection;
 import com.google.common.base.Preconditions;
 
@@ -206,7 +207,7 @@ public class XmlSink {
       Preconditions.checkNotNull(rootElementName, "Missing a root element name.");
       Preconditions.checkNotNull(baseOutputFilename, "Missing a filename to write to.");
       try {
-        JAXBContext.newInstance(classToBind);
+        JAXBUtils.getContext(classToBind);
       } catch (JAXBException e) {
         throw new RuntimeException("Error binding classes to a JAXB Context.", e);
       }
@@ -236,7 +237,7 @@ public class XmlSink {
     public XmlWriter<T> createWriter(PipelineOptions options) throws Exception {
       JAXBContext context;
       Marshaller marshaller;
-      context = JAXBContext.newInstance(getSink().classToBind);
+      context = JAXBUtils.getContext(getSink().classToBind);
       marshaller = context.createMarshaller();
       marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
       marshaller.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
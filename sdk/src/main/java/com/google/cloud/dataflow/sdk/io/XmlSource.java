@@ -17,6 +17,7 @@ package com.google.cloud.dataflow.sdk.io;
 import com.google.cloud.dataflow.sdk.coders.Coder;
 import com.google.cloud.dataflow.sdk.coders.JAXBCoder;
 import com.google.cloud.dataflow.sdk.options.PipelineOptions;
+import com.google.cloud.dataflow.sdk.util.JAXBUtils;
 import com.google.common.base.Preconditions;
 
 import org.codehaus.stax2.XMLInputFactory2;
@@ -34,7 +35,6 @@ import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.NoSuchElementException;
 
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Unmarshaller;
@@ -91,6 +91,11 @@ import javax.xml.stream.XMLStreamReader;
  * }
  * </pre>
  *
+ * <p>Records are unmarshalled one at a time, directly from a StAX parser reading the file, so
+ * neither the file nor a record is buffered in memory as a whole. The JAXB context of the record
+ * class is created once and shared by all readers, and each thread unmarshals with its own
+ * unmarshaller.
+ *
  * <p>Currently, only XML files that use single-byte characters are supported. Using a file that
  * contains multi-byte characters may result in data loss or duplication.
  *
@@ -248,6 +253,10 @@ public class XmlSource<T> extends FileBasedSource<T> {
     // four bytes.
     private static final int MAX_CHAR_BYTES = 4;
 
+    // Shared by all readers, since looking up the factory implementation is expensive. Factories
+    // are thread-safe once configured.
+    private static XMLInputFactory2 xmlInputFactory;
+
     // In order to support reading starting in the middle of an XML file, we construct an imaginary
     // well-formed document (a header and root tag followed by the contents of the input starting at
     // the record boundary) and feed it to the parser. Because of this, the offset reported by the
@@ -272,22 +281,13 @@ public class XmlSource<T> extends FileBasedSource<T> {
 
     public XMLReader(XmlSource<T> source) {
       super(source);
+    }
 
-      // Set up a JAXB Unmarshaller that can be used to unmarshall record objects.
-      try {
-        JAXBContext jaxbContext = JAXBContext.newInstance(getCurrentSource().recordClass);
-        jaxbUnmarshaller = jaxbContext.createUnmarshaller();
-
-        // Throw errors if validation fails. JAXB by default ignores validation errors.
-        jaxbUnmarshaller.setEventHandler(new ValidationEventHandler() {
-          @Override
-          public boolean handleEvent(ValidationEvent event) {
-            throw new RuntimeException(event.getMessage(), event.getLinkedException());
-          }
-        });
-      } catch (JAXBException e) {
-        throw new RuntimeException(e);
+    private static synchronized XMLInputFactory2 getXmlInputFactory() {
+      if (xmlInputFactory == null) {
+        xmlInputFactory = (XMLInputFactory2) XMLInputFactory.newInstance();
       }
+      return xmlInputFactory;
     }
 
     @Override
@@ -313,6 +313,23 @@ public class XmlSource<T> extends FileBasedSource<T> {
       // by the contents of channel starting from <recordElement. The <rootElement> tag may be never
       // closed.
 
+      // Set up a JAXB Unmarshaller for record objects from the shared context. Each reader needs
+      // its own, since a reader may be advanced from a different thread than it was started on.
+      try {
+        jaxbUnmarshaller =
+            JAXBUtils.getContext(getCurrentSource().recordClass).createUnmarshaller();
+
+        // Throw errors if validation fails. JAXB by default ignores validation errors.
+        jaxbUnmarshaller.setEventHandler(new ValidationEventHandler() {
+          @Override
+          public boolean handleEvent(ValidationEvent event) {
+            throw new RuntimeException(event.getMessage(), event.getLinkedException());
+          }
+        });
+      } catch (JAXBException e) {
+        throw new IOException(e);
+      }
+
       // This stores any bytes that should be used prior to the remaining bytes of the channel when
       // creating an XML parser object.
       ByteArrayOutputStream preambleByteBuffer = new ByteArrayOutputStream();
@@ -469,8 +486,7 @@ public class XmlSource<T> extends FileBasedSource<T> {
         // We use Woodstox because the StAX implementation provided by OpenJDK reports
         // character locations incorrectly. Note that Woodstox still currently reports *byte*
         // locations incorrectly when parsing documents that contain multi-byte characters.
-        XMLInputFactory2 xmlInputFactory = (XMLInputFactory2) XMLInputFactory.newInstance();
-        this.parser = xmlInputFactory.createXMLStreamReader(
+        this.parser = getXmlInputFactory().createXMLStreamReader(
             new SequenceInputStream(
                 new ByteArrayInputStream(lookAhead), Channels.newInputStream(channel)),
             "UTF-8");
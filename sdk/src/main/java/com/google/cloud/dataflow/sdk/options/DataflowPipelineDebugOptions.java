@@ -208,6 +208,17 @@ public interface DataflowPipelineDebugOptions extends PipelineOptions {
   int getNumberOfWorkerHarnessThreads();
   void setNumberOfWorkerHarnessThreads(int value);
 
+  /**
+   * Fraction of output elements whose byte size the Dataflow worker measures. If left
+   * unspecified, the fraction decreases as more elements are output. If set, the worker also
+   * reports the estimated byte count of each output and the variance of that estimate.
+   */
+  @Description("Fraction of output elements whose byte size the Dataflow worker measures. If "
+      + "left unspecified, the fraction decreases as more elements are output. If set, the "
+      + "worker also reports the estimated byte count of each output and its variance.")
+  double getOutputByteSamplingFraction();
+  void setOutputByteSamplingFraction(double value);
+
   /**
    * Creates a {@link PathValidator} object using the class specified in
    * {@link #getPathValidatorClass()}.
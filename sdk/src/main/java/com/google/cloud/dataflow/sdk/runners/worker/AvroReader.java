@@ -24,6 +24,7 @@ import com.google.cloud.dataflow.sdk.coders.AvroCoder;
 import com.google.cloud.dataflow.sdk.io.AvroSource;
 import com.google.cloud.dataflow.sdk.io.BoundedSource;
 import com.google.cloud.dataflow.sdk.io.OffsetBasedSource;
+import com.google.cloud.dataflow.sdk.options.DataflowPipelineDebugOptions;
 import com.google.cloud.dataflow.sdk.options.PipelineOptions;
 import com.google.cloud.dataflow.sdk.util.WindowedValue;
 import com.google.cloud.dataflow.sdk.util.common.worker.AbstractBoundedReaderIterator;
@@ -34,6 +35,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.List;
 
 import javax.annotation.Nullable;
 
@@ -45,6 +47,9 @@ import javax.annotation.Nullable;
 public class AvroReader<T> extends NativeReader<WindowedValue<T>> {
   private static final Logger LOG = LoggerFactory.getLogger(AvroReader.class);
 
+  // The number of blocks read ahead when the "avro_block_read_ahead" experiment is enabled.
+  private static final int BLOCK_READ_AHEAD = 8;
+
   @Nullable
   final Long startPosition;
   @Nullable
@@ -72,11 +77,21 @@ public class AvroReader<T> extends NativeReader<WindowedValue<T>> {
     } else {
       source = AvroSource.from(filename).withSchema(type);
     }
-
+    if (options != null && shouldReadAhead(options)) {
+      source = source.withBlockReadAhead(BLOCK_READ_AHEAD);
+    }
 
     this.avroSource = source;
   }
 
+  /**
+   * Returns true if Avro blocks should be read and decompressed ahead on background threads.
+   */
+  private static boolean shouldReadAhead(PipelineOptions options) {
+    List<String> experiments = options.as(DataflowPipelineDebugOptions.class).getExperiments();
+    return (experiments != null) && experiments.contains("avro_block_read_ahead");
+  }
+
   @Override
   public LegacyReaderIterator<WindowedValue<T>> iterator() throws IOException {
     Long endPosition = this.endPosition;
@@ -17,12 +17,14 @@
 package com.google.cloud.dataflow.sdk.runners.worker;
 
 import com.google.cloud.dataflow.sdk.coders.AvroCoder;
+import com.google.cloud.dataflow.sdk.util.AsyncWritableByteChannel;
 import com.google.cloud.dataflow.sdk.util.CoderUtils;
 import com.google.cloud.dataflow.sdk.util.IOChannelUtils;
 import com.google.cloud.dataflow.sdk.util.MimeTypes;
 import com.google.cloud.dataflow.sdk.util.ShardingWritableByteChannel;
 import com.google.cloud.dataflow.sdk.util.WindowedValue;
 import com.google.cloud.dataflow.sdk.util.WindowedValue.ValueOnlyWindowedValueCoder;
+import com.google.cloud.dataflow.sdk.util.common.CounterSet;
 import com.google.cloud.dataflow.sdk.util.common.worker.Sink;
 
 import org.apache.avro.Schema;
@@ -35,6 +37,8 @@ import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.Random;
 
+import javax.annotation.Nullable;
+
 /**
  * A sink that writes Avro files.
  *
@@ -49,6 +53,13 @@ public class AvroSink<T> extends Sink<WindowedValue<T>> {
   final AvroCoder<T> avroCoder;
   final Schema schema;
 
+  /**
+   * The size in bytes of each of the two buffers through which output is written on a background
+   * thread, or 0 to write to the output channel directly.
+   */
+  int asyncWriteBufferSize = 0;
+  @Nullable CounterSet.AddCounterMutator addCounterMutator;
+
   public AvroSink(String filename, ValueOnlyWindowedValueCoder<T> coder) {
     this(filename, "", "", 1, coder);
   }
@@ -68,12 +79,26 @@ public class AvroSink<T> extends Sink<WindowedValue<T>> {
     this.schema = this.avroCoder.getSchema();
   }
 
+  /**
+   * Writes output through an {@link AsyncWritableByteChannel} with two buffers of
+   * {@code bufferSize} bytes, so that encoding elements overlaps with writing them out. If
+   * {@code addCounterMutator} is not null, flush and blocked times are reported to counters
+   * prefixed with {@code "avro-sink"}.
+   */
+  void setAsyncWrites(int bufferSize, @Nullable CounterSet.AddCounterMutator addCounterMutator) {
+    this.asyncWriteBufferSize = bufferSize;
+    this.addCounterMutator = addCounterMutator;
+  }
+
   public SinkWriter<WindowedValue<T>> writer(DatumWriter<T> datumWriter) throws IOException {
     WritableByteChannel writer = IOChannelUtils.create(
         filenamePrefix, shardFormat, filenameSuffix, shardCount, MimeTypes.BINARY);
 
     if (writer instanceof ShardingWritableByteChannel) {
       return new AvroShardingFileWriter(datumWriter, (ShardingWritableByteChannel) writer);
+    } else if (asyncWriteBufferSize > 0) {
+      return new AvroFileWriter(datumWriter, new AsyncWritableByteChannel(
+          writer, asyncWriteBufferSize, addCounterMutator, "avro-sink"));
     } else {
       return new AvroFileWriter(datumWriter, writer);
     }
@@ -21,6 +21,7 @@ import static com.google.cloud.dataflow.sdk.util.Structs.getString;
 import com.google.cloud.dataflow.sdk.coders.AvroCoder;
 import com.google.cloud.dataflow.sdk.coders.Coder;
 import com.google.cloud.dataflow.sdk.options.PipelineOptions;
+import com.google.cloud.dataflow.sdk.util.AsyncWritableByteChannel;
 import com.google.cloud.dataflow.sdk.util.CloudObject;
 import com.google.cloud.dataflow.sdk.util.ExecutionContext;
 import com.google.cloud.dataflow.sdk.util.PropertyNames;
@@ -36,14 +37,18 @@ public final class AvroSinkFactory {
   // Do not instantiate.
   private AvroSinkFactory() {}
 
-  @SuppressWarnings("unused")
   public static <T> Sink<T> create(PipelineOptions options,
                                    CloudObject spec,
                                    Coder<T> coder,
                                    ExecutionContext executionContext,
                                    CounterSet.AddCounterMutator addCounterMutator)
       throws Exception {
-    return create(spec, coder);
+    Sink<T> sink = create(spec, coder);
+    if (sink instanceof AvroSink && TextSinkFactory.shouldUseAsyncWrites(options)) {
+      ((AvroSink) sink).setAsyncWrites(
+          AsyncWritableByteChannel.DEFAULT_BUFFER_SIZE, addCounterMutator);
+    }
+    return sink;
   }
 
   static <T> Sink<T> create(CloudObject spec, Coder<T> coder)
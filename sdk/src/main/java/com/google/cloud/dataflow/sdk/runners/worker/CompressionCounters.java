@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.google.cloud.dataflow.sdk.runners.worker;
+
+import static com.google.cloud.dataflow.sdk.util.common.Counter.AggregationKind.SUM;
+
+import com.google.cloud.dataflow.sdk.coders.Coder;
+import com.google.cloud.dataflow.sdk.coders.CompressedCoder;
+import com.google.cloud.dataflow.sdk.coders.StandardCoder;
+import com.google.cloud.dataflow.sdk.util.common.Counter;
+import com.google.cloud.dataflow.sdk.util.common.CounterSet;
+import com.google.common.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+/**
+ * Reports the bytes encoded by the {@link CompressedCoder CompressedCoders} within a
+ * {@link Coder} as a pair of counters, one before and one after compression. Their ratio is
+ * the compression ratio achieved.
+ *
+ * <p>Each {@link CompressedCoder} counts the bytes of its own instance, so {@link #update}
+ * adds what was encoded since it was last called.
+ */
+final class CompressionCounters {
+  @VisibleForTesting
+  static final String UNCOMPRESSED_BYTES_SUFFIX = "-uncompressed-bytes";
+  @VisibleForTesting
+  static final String COMPRESSED_BYTES_SUFFIX = "-compressed-bytes";
+
+  /**
+   * Returns the {@link CompressionCounters} for the given {@link Coder}, with counters named
+   * after the given prefix, or {@code null} if it contains no {@link CompressedCoder}.
+   */
+  @Nullable
+  static CompressionCounters create(
+      Coder<?> coder, String counterPrefix, CounterSet.AddCounterMutator addCounterMutator) {
+    List<CompressedCoder<?>> coders = new ArrayList<>();
+    findCompressedCoders(coder,
+        Collections.newSetFromMap(new IdentityHashMap<Coder<?>, Boolean>()), coders);
+    if (coders.isEmpty()) {
+      return null;
+    }
+    return new CompressionCounters(coders,
+        addCounterMutator.addCounter(
+            Counter.longs(counterPrefix + UNCOMPRESSED_BYTES_SUFFIX, SUM)),
+        addCounterMutator.addCounter(
+            Counter.longs(counterPrefix + COMPRESSED_BYTES_SUFFIX, SUM)));
+  }
+
+  private static void findCompressedCoders(
+      Coder<?> coder, Set<Coder<?>> visited, List<CompressedCoder<?>> found) {
+    if (coder == null || !visited.add(coder)) {
+      return;
+    }
+    if (coder instanceof CompressedCoder) {
+      found.add((CompressedCoder<?>) coder);
+    }
+    List<? extends Coder<?>> components = coder instanceof StandardCoder
+        ? ((StandardCoder<?>) coder).getComponents()
+        : coder.getCoderArguments();
+    if (components != null) {
+      for (Coder<?> component : components) {
+        findCompressedCoders(component, visited, found);
+      }
+    }
+  }
+
+  private final List<CompressedCoder<?>> coders;
+  private final Counter<Long> uncompressedBytesCounter;
+  private final Counter<Long> compressedBytesCounter;
+  private long reportedUncompressedBytes;
+  private long reportedCompressedBytes;
+
+  private CompressionCounters(List<CompressedCoder<?>> coders,
+      Counter<Long> uncompressedBytesCounter, Counter<Long> compressedBytesCounter) {
+    this.coders = coders;
+    this.uncompressedBytesCounter = uncompressedBytesCounter;
+    this.compressedBytesCounter = compressedBytesCounter;
+  }
+
+  /**
+   * Adds the bytes encoded since the last call to the counters.
+   */
+  void update() {
+    long uncompressedBytes = 0;
+    long compressedBytes = 0;
+    for (CompressedCoder<?> coder : coders) {
+      uncompressedBytes += coder.getUncompressedBytes();
+      compressedBytes += coder.getEncodedBytes();
+    }
+    if (uncompressedBytes != reportedUncompressedBytes) {
+      uncompressedBytesCounter.addValue(uncompressedBytes - reportedUncompressedBytes);
+      compressedBytesCounter.addValue(compressedBytes - reportedCompressedBytes);
+      reportedUncompressedBytes = uncompressedBytes;
+      reportedCompressedBytes = compressedBytes;
+    }
+  }
+}
@@ -30,6 +30,9 @@ import com.google.common.annotations.VisibleForTesting;
  * A Dataflow-specific version of {@link ElementCounter}, which specifies
  * the object counter name differently as PhysicalElementCount.
  * Additionally, it counts element windows as ElementCount.
+ *
+ * <p>With a byte sampling fraction, it also counts the estimated output bytes as ByteCount, and
+ * the variance of that estimate as ByteCountVariance.
  */
 public class DataflowOutputCounter implements ElementCounter {
   /** Number of physical element and multiple-window assignments that were serialized/processed. */
@@ -37,6 +40,8 @@ public class DataflowOutputCounter implements ElementCounter {
   /** Number of logical element and single window pairs that were processed. */
   private static final String ELEMENT_COUNTER_NAME = "-ElementCount";
   private static final String MEAN_BYTE_COUNTER_NAME = "-MeanByteCount";
+  private static final String BYTE_COUNTER_NAME = "-ByteCount";
+  private static final String BYTE_COUNT_VARIANCE_COUNTER_NAME = "-ByteCountVariance";
 
   private OutputObjectAndByteCounter objectAndByteCounter;
   private Counter<Long> elementCount;
@@ -48,10 +53,27 @@ public class DataflowOutputCounter implements ElementCounter {
   public DataflowOutputCounter(
       String outputName, ElementByteSizeObservable<?> elementByteSizeObservable,
       CounterSet.AddCounterMutator addCounterMutator) {
+    this(outputName, elementByteSizeObservable, 0, addCounterMutator);
+  }
+
+  /**
+   * Creates a counter for the given output. If {@code byteSamplingFraction} is positive, the
+   * byte size of that fraction of the elements is measured, and the output bytes and their
+   * variance are counted too.
+   */
+  public DataflowOutputCounter(
+      String outputName, ElementByteSizeObservable<?> elementByteSizeObservable,
+      double byteSamplingFraction, CounterSet.AddCounterMutator addCounterMutator) {
     objectAndByteCounter =
         new OutputObjectAndByteCounter(elementByteSizeObservable, addCounterMutator);
     objectAndByteCounter.countObject(outputName + OBJECT_COUNTER_NAME);
     objectAndByteCounter.countMeanByte(outputName + MEAN_BYTE_COUNTER_NAME);
+    if (byteSamplingFraction > 0) {
+      objectAndByteCounter
+          .setSamplingFraction(byteSamplingFraction)
+          .countBytes(outputName + BYTE_COUNTER_NAME)
+          .countBytesVariance(outputName + BYTE_COUNT_VARIANCE_COUNTER_NAME);
+    }
     elementCount =
         addCounterMutator.addCounter(Counter.longs(outputName + ELEMENT_COUNTER_NAME, SUM));
   }
@@ -89,4 +111,14 @@ public class DataflowOutputCounter implements ElementCounter {
   static String getMeanByteCounterName(String prefix) {
     return prefix + MEAN_BYTE_COUNTER_NAME;
   }
+
+  @VisibleForTesting
+  static String getByteCounterName(String prefix) {
+    return prefix + BYTE_COUNTER_NAME;
+  }
+
+  @VisibleForTesting
+  static String getByteCountVarianceCounterName(String prefix) {
+    return prefix + BYTE_COUNT_VARIANCE_COUNTER_NAME;
+  }
 }
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.runners.worker;
+
+import static com.google.api.client.util.Preconditions.checkArgument;
+import static com.google.api.client.util.Preconditions.checkNotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+import javax.annotation.Nullable;
+
+/**
+ * Splits the bytes of a channel into lines.
+ *
+ * <p>A line is terminated by any one of a line feed ({@code '\n'}), a carriage return
+ * ({@code '\r'}), or a carriage return followed immediately by a line feed ({@code "\r\n"}).
+ *
+ * <p>The bytes are scanned in place in a large direct {@link ByteBuffer}, eight bytes at a
+ * time, and each line is returned as a view of that buffer rather than a copy. The buffer is
+ * either filled by reading from a {@link ReadableByteChannel}, or is a single read-only mapping
+ * of the rest of a {@link FileChannel}. A mapping is only released when it is garbage
+ * collected, so each scanner maps at most once and drops its mapping when closed.
+ */
+final class LineScanner implements Closeable {
+  private static final long ONES = 0x0101010101010101L;
+  private static final long HIGH_BITS = 0x8080808080808080L;
+  private static final long LINE_FEEDS = ONES * '\n';
+  private static final long CARRIAGE_RETURNS = ONES * '\r';
+  private static final int WORD_BYTES = 8;
+
+  /**
+   * Returns a {@link LineScanner} for the remaining bytes of the given channel, read into
+   * buffers of the given initial size.
+   */
+  static LineScanner reading(ReadableByteChannel channel, int bufferSize) {
+    checkArgument(bufferSize > 0, "bufferSize must be positive");
+    return new LineScanner(checkNotNull(channel), null, 0, bufferSize);
+  }
+
+  /**
+   * Returns a {@link LineScanner} for the bytes of the given file from the given position,
+   * which are mapped into memory all at once. The caller is responsible for bounding the size
+   * of the mapping.
+   */
+  static LineScanner mapping(FileChannel file, long position) {
+    checkArgument(position >= 0, "position must be non-negative");
+    return new LineScanner(checkNotNull(file), file, position, 0);
+  }
+
+
+  private final ReadableByteChannel channel;
+  @Nullable private final FileChannel file;
+  private final int initialSize;
+
+  /** The bytes being scanned; the valid bytes are those before the limit. */
+  private ByteBuffer buffer;
+  /** A view of {@link #buffer} that is handed out for each line. */
+  private ByteBuffer line;
+  /** When mapping, the position in the file of the start of the mapping. */
+  private final long mappingPosition;
+  /** The index in the buffer of the first byte that has not been returned. */
+  private int start;
+  private boolean endOfInput;
+  private int bytesConsumed;
+
+  private LineScanner(
+      ReadableByteChannel channel, @Nullable FileChannel file, long position, int initialSize) {
+    this.channel = channel;
+    this.file = file;
+    this.mappingPosition = position;
+    this.initialSize = initialSize;
+    setBuffer(ByteBuffer.allocateDirect(0));
+  }
+
+  /**
+   * Returns the next line, or {@code null} at the end of the input.
+   *
+   * <p>The returned buffer holds the line between its position and its limit, including the
+   * line terminator unless {@code stripTerminator} is set. It shares its contents with this
+   * scanner, and is only valid until the next call.
+   */
+  @Nullable
+  ByteBuffer next(boolean stripTerminator) throws IOException {
+    int scanned = 0;
+    while (true) {
+      int limit = buffer.limit();
+      int separator = findSeparator(start + scanned, limit);
+      if (separator >= 0) {
+        if (buffer.get(separator) == '\r' && separator + 1 == limit && !endOfInput) {
+          // The next byte decides whether the line ends with "\r" or "\r\n".
+          scanned = separator - start;
+          fill();
+          continue;
+        }
+        int end = separator + 1;
+        if (buffer.get(separator) == '\r' && end < limit && buffer.get(end) == '\n') {
+          end++;
+        }
+        return returnLine(stripTerminator ? separator : end, end);
+      }
+      if (endOfInput) {
+        return start == limit ? null : returnLine(limit, limit);
+      }
+      scanned = limit - start;
+      fill();
+    }
+  }
+
+  /**
+   * Returns the number of bytes, including the line terminator, of the line last returned by
+   * {@link #next}.
+   */
+  int getBytesConsumed() {
+    return bytesConsumed;
+  }
+
+  @Override
+  public void close() throws IOException {
+    setBuffer(ByteBuffer.allocateDirect(0));
+    endOfInput = true;
+    channel.close();
+  }
+
+  private ByteBuffer returnLine(int contentEnd, int end) {
+    line.limit(contentEnd).position(start);
+    bytesConsumed = end - start;
+    start = end;
+    return line;
+  }
+
+  /**
+   * Returns the index of the first line feed or carriage return in the given range of the
+   * buffer, or {@code -1} if there is none.
+   */
+  private int findSeparator(int from, int to) {
+    int i = from;
+    for (; i + WORD_BYTES <= to; i += WORD_BYTES) {
+      long word = buffer.getLong(i);
+      long found = zeroBytes(word ^ LINE_FEEDS) | zeroBytes(word ^ CARRIAGE_RETURNS);
+      if (found != 0) {
+        // The buffer is little-endian, so the lowest flagged byte comes first. Bytes above a
+        // zero byte may be falsely flagged, but bytes below it never are.
+        return i + (Long.numberOfTrailingZeros(found) >>> 3);
+      }
+    }
+    for (; i < to; i++) {
+      byte b = buffer.get(i);
+      if (b == '\n' || b == '\r') {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns a word with the high bit set in the lowest byte of {@code word} that is zero.
+   */
+  private static long zeroBytes(long word) {
+    return (word - ONES) & ~word & HIGH_BITS;
+  }
+
+  /**
+   * Makes more input available after the bytes from {@link #start}, which are kept, or sets
+   * {@link #endOfInput} if there is none.
+   */
+  private void fill() throws IOException {
+    if (file != null) {
+      map();
+      return;
+    }
+    int pending = buffer.limit() - start;
+    int size = buffer.capacity();
+    if (size == 0) {
+      size = initialSize;
+    } else if (pending == size) {
+      // A single line fills the buffer.
+      size = (int) Math.min(2L * size, Integer.MAX_VALUE - 8);
+      if (pending == size) {
+        throw new IOException("Line is longer than " + size + " bytes");
+      }
+    }
+    read(pending, size);
+  }
+
+  /**
+   * Maps the rest of the file the first time it is called, and ends the input after that.
+   */
+  private void map() throws IOException {
+    long remaining = file.size() - mappingPosition;
+    if (buffer.capacity() > 0 || remaining <= 0) {
+      endOfInput = true;
+      return;
+    }
+    if (remaining > Integer.MAX_VALUE) {
+      throw new IOException("Cannot map " + remaining + " bytes");
+    }
+    setBuffer(file.map(FileChannel.MapMode.READ_ONLY, mappingPosition, remaining));
+    start = 0;
+  }
+
+  private void read(int pending, int size) throws IOException {
+    if (size != buffer.capacity()) {
+      ByteBuffer larger = ByteBuffer.allocateDirect(size);
+      buffer.position(start);
+      larger.put(buffer);
+      setBuffer(larger);
+    } else {
+      buffer.position(start);
+      buffer.compact();
+    }
+    start = 0;
+    // The buffer always has room here, so a blocking channel only reads nothing at its end.
+    int read = channel.read(buffer);
+    buffer.flip();
+    if (read <= 0) {
+      endOfInput = true;
+    }
+  }
+
+  private void setBuffer(ByteBuffer newBuffer) {
+    buffer = newBuffer.order(ByteOrder.LITTLE_ENDIAN);
+    line = buffer.duplicate();
+  }
+}
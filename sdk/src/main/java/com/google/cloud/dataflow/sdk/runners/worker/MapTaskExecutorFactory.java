@@ -30,6 +30,7 @@ import com.google.api.services.dataflow.model.ReadInstruction;
 import com.google.api.services.dataflow.model.WriteInstruction;
 import com.google.cloud.dataflow.sdk.coders.Coder;
 import com.google.cloud.dataflow.sdk.coders.KvCoder;
+import com.google.cloud.dataflow.sdk.options.DataflowPipelineDebugOptions;
 import com.google.cloud.dataflow.sdk.options.PipelineOptions;
 import com.google.cloud.dataflow.sdk.transforms.Combine;
 import com.google.cloud.dataflow.sdk.transforms.Combine.KeyedCombineFn;
@@ -217,7 +218,8 @@ public class MapTaskExecutorFactory {
             read.getSource(), options, executionContext, addCounterMutator, operationName);
 
     OutputReceiver[] receivers =
-        createOutputReceivers(instruction, counterPrefix, addCounterMutator, stateSampler, 1);
+        createOutputReceivers(
+            options, instruction, counterPrefix, addCounterMutator, stateSampler, 1);
 
     return new ReadOperation(operationName, reader, receivers, counterPrefix, systemStageName,
         addCounterMutator, stateSampler);
@@ -233,7 +235,8 @@ public class MapTaskExecutorFactory {
         SinkFactory.create(options, write.getSink(), executionContext, addCounterMutator);
 
     OutputReceiver[] receivers =
-        createOutputReceivers(instruction, counterPrefix, addCounterMutator, stateSampler, 0);
+        createOutputReceivers(
+            options, instruction, counterPrefix, addCounterMutator, stateSampler, 0);
 
     WriteOperation operation = new WriteOperation(instruction.getSystemName(), sink, receivers,
         counterPrefix, addCounterMutator, stateSampler);
@@ -269,7 +272,8 @@ public class MapTaskExecutorFactory {
         stateSampler);
 
     OutputReceiver[] receivers = createOutputReceivers(
-        instruction, counterPrefix, addCounterMutator, stateSampler, parDo.getNumOutputs());
+        options, instruction, counterPrefix, addCounterMutator, stateSampler,
+        parDo.getNumOutputs());
 
     ParDoOperation operation = new ParDoOperation(
         instruction.getSystemName(), fn, receivers, counterPrefix, addCounterMutator, stateSampler);
@@ -280,7 +284,7 @@ public class MapTaskExecutorFactory {
   }
 
   static PartialGroupByKeyOperation createPartialGroupByKeyOperation(
-      @SuppressWarnings("unused") PipelineOptions options,
+      PipelineOptions options,
       ParallelInstruction instruction,
       @SuppressWarnings("unused") ExecutionContext executionContext,
       List<Operation> priorOperations, String counterPrefix,
@@ -302,7 +306,8 @@ public class MapTaskExecutorFactory {
     Coder<?> valueCoder = kvCoder.getValueCoder();
 
     OutputReceiver[] receivers =
-        createOutputReceivers(instruction, counterPrefix, addCounterMutator, stateSampler, 1);
+        createOutputReceivers(
+            options, instruction, counterPrefix, addCounterMutator, stateSampler, 1);
 
     PartialGroupByKeyOperation.Combiner<?, ?, ?, ?> valueCombiner = createValueCombiner(pgbk);
 
@@ -444,7 +449,7 @@ public class MapTaskExecutorFactory {
   }
 
   static FlattenOperation createFlattenOperation(
-      @SuppressWarnings("unused") PipelineOptions options,
+      PipelineOptions options,
       ParallelInstruction instruction,
       @SuppressWarnings("unused") ExecutionContext executionContext,
       List<Operation> priorOperations, String counterPrefix,
@@ -452,7 +457,8 @@ public class MapTaskExecutorFactory {
     FlattenInstruction flatten = instruction.getFlatten();
 
     OutputReceiver[] receivers =
-        createOutputReceivers(instruction, counterPrefix, addCounterMutator, stateSampler, 1);
+        createOutputReceivers(
+            options, instruction, counterPrefix, addCounterMutator, stateSampler, 1);
 
     FlattenOperation operation = new FlattenOperation(
         instruction.getSystemName(), receivers, counterPrefix, addCounterMutator, stateSampler);
@@ -468,7 +474,8 @@ public class MapTaskExecutorFactory {
    * Returns an array of OutputReceivers for the given
    * ParallelInstruction definition.
    */
-  static OutputReceiver[] createOutputReceivers(ParallelInstruction instruction,
+  static OutputReceiver[] createOutputReceivers(PipelineOptions options,
+      ParallelInstruction instruction,
       @SuppressWarnings("unused") String counterPrefix,
       CounterSet.AddCounterMutator addCounterMutator,
       @SuppressWarnings("unused") StateSampler stateSampler,
@@ -481,6 +488,8 @@ public class MapTaskExecutorFactory {
       throw new AssertionError("ParallelInstruction.Outputs has an unexpected length");
     }
     OutputReceiver[] receivers = new OutputReceiver[numOutputs];
+    double byteSamplingFraction =
+        options.as(DataflowPipelineDebugOptions.class).getOutputByteSamplingFraction();
     for (int i = 0; i < numOutputs; i++) {
       InstructionOutput cloudOutput = instruction.getOutputs().get(i);
       receivers[i] = new OutputReceiver();
@@ -490,6 +499,7 @@ public class MapTaskExecutorFactory {
           cloudOutput.getName(),
           new ElementByteSizeObservableCoder<>(
               Serializer.deserialize(cloudOutput.getCodec(), Coder.class)),
+          byteSamplingFraction,
           addCounterMutator);
       receivers[i].addOutputCounter(outputCounter);
     }
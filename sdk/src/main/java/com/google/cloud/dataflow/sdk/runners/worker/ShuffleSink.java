@@ -38,6 +38,8 @@ import com.google.common.base.Preconditions;
 
 import java.io.IOException;
 
+import javax.annotation.Nullable;
+
 /**
  * A sink that writes to a shuffle dataset.
  *
@@ -176,6 +178,9 @@ public class ShuffleSink<T> extends Sink<WindowedValue<T>> {
     private final Counter<Long> perWorkerPerDatasetBytesCounter;
     // How many bytes were written to a given shuffle session, across all workers.
     private final Counter<Long> perDatasetBytesCounter;
+    // How many bytes CompressedCoders within the sink's coder encoded, before and after
+    // compression, or null if there are none.
+    @Nullable private final CompressionCounters compressionCounters;
 
     ShuffleSinkWriter(
         ShuffleEntryWriter writer,
@@ -192,6 +197,8 @@ public class ShuffleSink<T> extends Sink<WindowedValue<T>> {
               SUM));
       this.perDatasetBytesCounter = addCounterMutator.addCounter(
           Counter.longs("dax-shuffle-" + datasetId + "-written-bytes", SUM));
+      this.compressionCounters = CompressionCounters.create(
+          windowedElemCoder, "dax-shuffle-" + datasetId + "-coder", addCounterMutator);
     }
 
     @Override
@@ -264,6 +271,9 @@ public class ShuffleSink<T> extends Sink<WindowedValue<T>> {
       long bytes = entry.length();
       perWorkerPerDatasetBytesCounter.addValue(bytes);
       perDatasetBytesCounter.addValue(bytes);
+      if (compressionCounters != null) {
+        compressionCounters.update();
+      }
       return bytes;
     }
 
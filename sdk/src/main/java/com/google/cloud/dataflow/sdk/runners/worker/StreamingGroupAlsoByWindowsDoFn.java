@@ -73,6 +73,8 @@ public abstract class StreamingGroupAlsoByWindowsDoFn<K, InputT, OutputT, W exte
         createAggregator(ReduceFnRunner.DROPPED_DUE_TO_CLOSED_WINDOW_COUNTER, new Sum.SumLongFn());
     private final Aggregator<Long, Long> droppedDueToLateness =
         createAggregator(ReduceFnRunner.DROPPED_DUE_TO_LATENESS_COUNTER, new Sum.SumLongFn());
+    private final Aggregator<Long, Long> watermarkHoldWritesAvoided = createAggregator(
+        ReduceFnRunner.WATERMARK_HOLD_WRITES_AVOIDED_COUNTER, new Sum.SumLongFn());
 
     private final WindowingStrategy<Object, W> windowingStrategy;
     private SystemReduceFn.Factory<K, InputT, OutputT, W> reduceFnFactory;
@@ -94,7 +96,8 @@ public abstract class StreamingGroupAlsoByWindowsDoFn<K, InputT, OutputT, W exte
       TimerInternals timerInternals = c.windowingInternals().timerInternals();
       ReduceFnRunner<K, InputT, OutputT, W> runner = new ReduceFnRunner<>(
             key, windowingStrategy, timerInternals, c.windowingInternals(),
-            droppedDueToClosedWindow, droppedDueToLateness, reduceFnFactory.create(key));
+            droppedDueToClosedWindow, droppedDueToLateness, watermarkHoldWritesAvoided,
+            reduceFnFactory.create(key));
 
       for (TimerData timer : element.timersIterable()) {
         runner.onTimer(timer);
@@ -29,6 +29,8 @@ import com.google.cloud.dataflow.sdk.io.range.OffsetRangeTracker;
 import com.google.cloud.dataflow.sdk.util.CoderUtils;
 import com.google.cloud.dataflow.sdk.util.IOChannelFactory;
 import com.google.cloud.dataflow.sdk.util.IOChannelUtils;
+import com.google.cloud.dataflow.sdk.util.PipelinedDecompressingInputStream;
+import com.google.cloud.dataflow.sdk.util.common.CounterSet;
 import com.google.cloud.dataflow.sdk.util.common.worker.AbstractBoundedReaderIterator;
 import com.google.cloud.dataflow.sdk.util.common.worker.NativeReader;
 import com.google.cloud.dataflow.sdk.util.common.worker.ProgressTracker;
@@ -38,13 +40,12 @@ import com.google.common.annotations.VisibleForTesting;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SeekableByteChannel;
 import java.util.Collection;
@@ -60,7 +61,10 @@ import javax.annotation.Nullable;
 public class TextReader<T> extends NativeReader<T> {
   private static final Logger LOG = LoggerFactory.getLogger(TextReader.class);
 
-  @VisibleForTesting static final int BUF_SIZE = 200;
+  private static final int BUF_SIZE = 64 * 1024;
+  // Local files are memory-mapped only if the rest of the file is at most this long, so that
+  // each iterator holds a single mapping of bounded size until it is garbage collected.
+  private static final long MAX_MAPPED_SIZE = 64 * 1024 * 1024;
 
   // The following fields are package-private to be visible in tests.
   @VisibleForTesting final String filepattern;
@@ -69,17 +73,41 @@ public class TextReader<T> extends NativeReader<T> {
   @VisibleForTesting final Coder<T> coder;
   @VisibleForTesting final TextIO.CompressionType compressionType;
   @VisibleForTesting final boolean stripTrailingNewlines;
+  @VisibleForTesting final boolean pipelinedDecompression;
   @VisibleForTesting @Nullable private Collection<String> expandedFilepattern;
+  @Nullable private final CounterSet.AddCounterMutator addCounterMutator;
+  @Nullable private final String operationName;
+  @VisibleForTesting int bufferSize = BUF_SIZE;
+  @VisibleForTesting long maxMappedSize = MAX_MAPPED_SIZE;
 
   public TextReader(String filepattern, boolean stripTrailingNewlines,
                     @Nullable Long startPosition, @Nullable Long endPosition, Coder<T> coder,
                     TextIO.CompressionType compressionType) {
+    this(filepattern, stripTrailingNewlines, startPosition, endPosition, coder, compressionType,
+        false, null, null);
+  }
+
+  /**
+   * Creates a {@code TextReader} that, if {@code pipelinedDecompression} is set, reads and
+   * decompresses compressed files on background threads with a
+   * {@link PipelinedDecompressingInputStream}. The time spent blocked by each stage of the
+   * pipeline is reported to counters prefixed with the operation name, if a counter mutator is
+   * given.
+   */
+  public TextReader(String filepattern, boolean stripTrailingNewlines,
+                    @Nullable Long startPosition, @Nullable Long endPosition, Coder<T> coder,
+                    TextIO.CompressionType compressionType, boolean pipelinedDecompression,
+                    @Nullable CounterSet.AddCounterMutator addCounterMutator,
+                    @Nullable String operationName) {
     this.filepattern = filepattern;
     this.startPosition = startPosition;
     this.endPosition = endPosition;
     this.coder = coder;
     this.stripTrailingNewlines = stripTrailingNewlines;
     this.compressionType = compressionType;
+    this.pipelinedDecompression = pipelinedDecompression;
+    this.addCounterMutator = addCounterMutator;
+    this.operationName = operationName;
   }
 
   @Override
@@ -164,10 +192,37 @@ public class TextReader<T> extends NativeReader<T> {
     }
 
     SeekableByteChannel seeker = (SeekableByteChannel) reader;
-
-    return new TextFileIterator(
-        new CopyableSeekableByteChannel(seeker), stripTrailingNewlines, startOffset, endOffset,
-        new FilenameBasedStreamFactory(input, compressionType));
+    final FilenameBasedStreamFactory streamFactory =
+        new FilenameBasedStreamFactory(input, compressionType);
+
+    LineScanner scanner;
+    if (streamFactory.isUncompressed() && seeker instanceof FileChannel
+        && seeker.size() - startOffset <= maxMappedSize) {
+      // Small local files are scanned straight from the page cache.
+      scanner = LineScanner.mapping((FileChannel) seeker, startOffset);
+    } else if (streamFactory.isUncompressed()) {
+      seeker.position(startOffset);
+      scanner = LineScanner.reading(seeker, bufferSize);
+    } else if (pipelinedDecompression) {
+      seeker.position(startOffset);
+      InputStream decompressed = new PipelinedDecompressingInputStream(
+          Channels.newInputStream(seeker),
+          new PipelinedDecompressingInputStream.Decompressor() {
+            @Override
+            public InputStream decompress(InputStream compressed) throws IOException {
+              return streamFactory.createInputStream(compressed);
+            }
+          },
+          operationName == null ? null : addCounterMutator,
+          operationName + "-decompression");
+      scanner = LineScanner.reading(Channels.newChannel(decompressed), bufferSize);
+    } else {
+      seeker.position(startOffset);
+      scanner = LineScanner.reading(
+          Channels.newChannel(streamFactory.createInputStream(Channels.newInputStream(seeker))),
+          bufferSize);
+    }
+    return new TextFileIterator(scanner, startOffset, endOffset);
   }
 
   private Collection<String> expandedFilepattern() throws IOException {
@@ -234,6 +289,15 @@ public class TextReader<T> extends NativeReader<T> {
       return getCompressionTypeForAuto(filename);
     }
 
+    /**
+     * Returns whether the file is read without decompression.
+     */
+    protected boolean isUncompressed() {
+      return compressionType == TextIO.CompressionType.UNCOMPRESSED
+          || (compressionType == TextIO.CompressionType.AUTO
+              && getCompressionTypeForAuto() == TextIO.CompressionType.UNCOMPRESSED);
+    }
+
     protected static TextIO.CompressionType getCompressionTypeForAuto(String filepattern) {
       for (TextIO.CompressionType type : TextIO.CompressionType.values()) {
         if (type.matches(filepattern) && type != TextIO.CompressionType.AUTO
@@ -271,23 +335,14 @@ public class TextReader<T> extends NativeReader<T> {
   }
 
   class TextFileIterator extends AbstractBoundedReaderIterator<T> {
-    private final CopyableSeekableByteChannel seeker;
-    private final PushbackInputStream stream;
+    private final LineScanner scanner;
     private final OffsetRangeTracker rangeTracker;
     private final ProgressTracker<Integer> progressTracker;
     private long offset;
-    private ByteArrayOutputStream nextElement;
-    private ScanState state;
-
-    TextFileIterator(CopyableSeekableByteChannel seeker, boolean stripTrailingNewlines,
-        long startOffset, @Nullable Long endOffset,
-        DecompressingStreamFactory compressionStreamFactory) throws IOException {
-      this.seeker = checkNotNull(seeker);
-      this.seeker.position(startOffset);
-      InputStream inputStream =
-          compressionStreamFactory.createInputStream(Channels.newInputStream(seeker));
-      BufferedInputStream bufferedStream = new BufferedInputStream(inputStream);
-      this.stream = new PushbackInputStream(bufferedStream, BUF_SIZE);
+    private ByteBuffer nextElement;
+
+    TextFileIterator(LineScanner scanner, long startOffset, @Nullable Long endOffset) {
+      this.scanner = checkNotNull(scanner);
       long stopOffset = (endOffset == null) ? OffsetRangeTracker.OFFSET_INFINITY : endOffset;
       this.rangeTracker = new OffsetRangeTracker(startOffset, stopOffset);
       this.offset = startOffset;
@@ -297,58 +352,15 @@ public class TextReader<T> extends NativeReader<T> {
               notifyElementRead(lineLength.longValue());
             }
           }.start());
-
-      this.state = new ScanState(BUF_SIZE, stripTrailingNewlines);
-    }
-
-    /**
-     * Reads a line of text. A line is considered to be terminated by any
-     * one of a line feed ({@code '\n'}), a carriage return
-     * ({@code '\r'}), or a carriage return followed immediately by a linefeed
-     * ({@code "\r\n"}).
-     *
-     * @return a {@code ByteArrayOutputStream} containing the contents of the
-     *     line, with any line-termination characters stripped if
-     *     stripTrailingNewlines==true, or {@code null} if the end of the stream has
-     *     been reached.
-     * @throws IOException if an I/O error occurs
-     */
-    protected ByteArrayOutputStream readElement() throws IOException {
-      ByteArrayOutputStream buffer = new ByteArrayOutputStream(BUF_SIZE);
-
-      int charsConsumed = 0;
-      while (true) {
-        // Attempt to read blocks of data at a time
-        // until a separator is found.
-        if (!state.readBytes(stream)) {
-          break;
-        }
-
-        int consumed = state.consumeUntilSeparator(buffer);
-        charsConsumed += consumed;
-        if (consumed > 0 && state.separatorFound()) {
-          if (state.lastByteRead() == '\r') {
-            charsConsumed += state.copyCharIfLinefeed(buffer, stream);
-          }
-          break;
-        }
-      }
-
-      if (charsConsumed == 0) {
-        // Note that charsConsumed includes the size of any separators that may
-        // have been stripped off -- so if we didn't get anything, we're at the
-        // end of the file.
-        return null;
-      }
-
-      offset += charsConsumed;
-      return buffer;
     }
 
     @Override
     protected boolean hasNextImpl() throws IOException {
       long startOffset = offset;
-      ByteArrayOutputStream element = readElement(); // As a side effect, updates "offset"
+      ByteBuffer element = scanner.next(stripTrailingNewlines);
+      if (element != null) {
+        offset += scanner.getBytesConsumed();
+      }
       if (element != null && rangeTracker.tryReturnRecordAt(true, startOffset)) {
         nextElement = element;
         progressTracker.saw((int) (offset - startOffset));
@@ -360,7 +372,7 @@ public class TextReader<T> extends NativeReader<T> {
 
     @Override
     protected T nextImpl() throws IOException {
-      return CoderUtils.decodeFromByteArray(coder, nextElement.toByteArray());
+      return CoderUtils.decodeFromByteBuffer(coder, nextElement);
     }
 
     @Override
@@ -452,131 +464,7 @@ public class TextReader<T> extends NativeReader<T> {
 
     @Override
     public void close() throws IOException {
-      stream.close();
-    }
-  }
-
-  /**
-   * ScanState encapsulates the state for the current buffer of text
-   * being scanned.
-   */
-  private static class ScanState {
-    private int start; // Valid bytes in buf start at this index
-    private int pos; // Where the separator is in the buf (if one was found)
-    private int end; // the index of the end of bytes in buf
-    private final byte[] buf;
-    private final boolean stripTrailingNewlines;
-    private byte lastByteRead;
-
-    public ScanState(int size, boolean stripTrailingNewlines) {
-      this.start = 0;
-      this.pos = 0;
-      this.end = 0;
-      this.buf = new byte[size];
-      this.stripTrailingNewlines = stripTrailingNewlines;
-    }
-
-    public boolean readBytes(PushbackInputStream stream) throws IOException {
-      if (start < end) {
-        return true;
-      }
-      assert end <= buf.length : end + " > " + buf.length;
-      int bytesRead = stream.read(buf, end, buf.length - end);
-      if (bytesRead == -1) {
-        return false;
-      }
-      end += bytesRead;
-      return true;
-    }
-
-    /**
-     * Consumes characters until a separator character is found or the
-     * end of buffer is reached.
-     *
-     * <p>Updates the state to indicate the position of the separator
-     * character. If pos==len, no separator was found.
-     *
-     * @return the number of characters consumed.
-     */
-    public int consumeUntilSeparator(ByteArrayOutputStream out) {
-      for (pos = start; pos < end; ++pos) {
-        lastByteRead = buf[pos];
-        if (separatorFound()) {
-          int charsConsumed = (pos - start + 1); // The separator is consumed
-          copyToOutputBuffer(out);
-          start = pos + 1; // skip the separator
-          return charsConsumed;
-        }
-      }
-      // No separator found
-      assert pos == end;
-      int charsConsumed = (pos - start);
-      out.write(buf, start, charsConsumed);
-      start = 0;
-      end = 0;
-      pos = 0;
-      return charsConsumed;
-    }
-
-    public boolean separatorFound() {
-      return lastByteRead == '\n' || lastByteRead == '\r';
-    }
-
-    public byte lastByteRead() {
-      return buf[pos];
-    }
-
-    /**
-     * Copies data from the input buffer to the output buffer.
-     *
-     * <p>If stripTrailing==false, line-termination characters are included in the copy.
-     */
-    private void copyToOutputBuffer(ByteArrayOutputStream out) {
-      int charsCopied = pos - start;
-      if (!stripTrailingNewlines && separatorFound()) {
-        charsCopied++;
-      }
-      out.write(buf, start, charsCopied);
-    }
-
-    /**
-     * Scans the input buffer to determine if a matched carriage return
-     * has an accompanying linefeed and process the input buffer accordingly.
-     *
-     * <p>If stripTrailingNewlines==false and a linefeed character is detected,
-     * it is included in the copy.
-     *
-     * @return the number of characters consumed
-     */
-    private int copyCharIfLinefeed(ByteArrayOutputStream out, PushbackInputStream stream)
-        throws IOException {
-      int charsConsumed = 0;
-      // Check to make sure we don't go off the end of the buffer
-      if ((pos + 1) < end) {
-        if (buf[pos + 1] == '\n') {
-          charsConsumed++;
-          pos++;
-          start++;
-          if (!stripTrailingNewlines) {
-            out.write('\n');
-          }
-        }
-      } else {
-        // We are at the end of the buffer and need one more
-        // byte. Get it the slow but safe way.
-        int b = stream.read();
-        if (b == '\n') {
-          charsConsumed++;
-          if (!stripTrailingNewlines) {
-            out.write(b);
-          }
-        } else if (b != -1) {
-          // Consider replacing unread() since it may be slow if
-          // iterators are cloned frequently.
-          stream.unread(b);
-        }
-      }
-      return charsConsumed;
+      scanner.close();
     }
   }
 }
@@ -22,6 +22,7 @@ import static com.google.cloud.dataflow.sdk.util.Structs.getString;
 
 import com.google.cloud.dataflow.sdk.coders.Coder;
 import com.google.cloud.dataflow.sdk.io.TextIO;
+import com.google.cloud.dataflow.sdk.options.DataflowPipelineDebugOptions;
 import com.google.cloud.dataflow.sdk.options.PipelineOptions;
 import com.google.cloud.dataflow.sdk.util.CloudObject;
 import com.google.cloud.dataflow.sdk.util.ExecutionContext;
@@ -29,6 +30,8 @@ import com.google.cloud.dataflow.sdk.util.PropertyNames;
 import com.google.cloud.dataflow.sdk.util.common.CounterSet;
 import com.google.cloud.dataflow.sdk.util.common.worker.NativeReader;
 
+import java.util.List;
+
 import javax.annotation.Nullable;
 
 /**
@@ -53,10 +56,18 @@ public class TextReaderFactory implements ReaderFactory {
       @Nullable CounterSet.AddCounterMutator addCounterMutator,
       @Nullable String operationName)
           throws Exception {
-    return create(spec, coder);
+    return create(spec, coder,
+        options != null && shouldUsePipelinedDecompression(options),
+        addCounterMutator, operationName);
   }
 
   public <T> TextReader<T> create(CloudObject spec, Coder<T> coder) throws Exception {
+    return create(spec, coder, false, null, null);
+  }
+
+  private <T> TextReader<T> create(CloudObject spec, Coder<T> coder,
+      boolean pipelinedDecompression, @Nullable CounterSet.AddCounterMutator addCounterMutator,
+      @Nullable String operationName) throws Exception {
     String filenameOrPattern = getString(spec, PropertyNames.FILENAME, null);
     if (filenameOrPattern == null) {
       filenameOrPattern = getString(spec, PropertyNames.FILEPATTERN, null);
@@ -66,6 +77,15 @@ public class TextReaderFactory implements ReaderFactory {
         getLong(spec, PropertyNames.START_OFFSET, null),
         getLong(spec, PropertyNames.END_OFFSET, null), coder,
         Enum.valueOf(TextIO.CompressionType.class,
-            getString(spec, PropertyNames.COMPRESSION_TYPE, "AUTO")));
+            getString(spec, PropertyNames.COMPRESSION_TYPE, "AUTO")),
+        pipelinedDecompression, addCounterMutator, operationName);
+  }
+
+  /**
+   * Returns true if compressed files should be read and decompressed on background threads.
+   */
+  private static boolean shouldUsePipelinedDecompression(PipelineOptions options) {
+    List<String> experiments = options.as(DataflowPipelineDebugOptions.class).getExperiments();
+    return (experiments != null) && experiments.contains("pipelined_decompression");
   }
 }
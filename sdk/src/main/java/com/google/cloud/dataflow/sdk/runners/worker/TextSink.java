@@ -18,12 +18,14 @@ package com.google.cloud.dataflow.sdk.runners.worker;
 
 import com.google.cloud.dataflow.sdk.coders.Coder;
 import com.google.cloud.dataflow.sdk.coders.StringUtf8Coder;
+import com.google.cloud.dataflow.sdk.util.AsyncWritableByteChannel;
 import com.google.cloud.dataflow.sdk.util.CoderUtils;
 import com.google.cloud.dataflow.sdk.util.IOChannelUtils;
 import com.google.cloud.dataflow.sdk.util.MimeTypes;
 import com.google.cloud.dataflow.sdk.util.ShardingWritableByteChannel;
 import com.google.cloud.dataflow.sdk.util.WindowedValue;
 import com.google.cloud.dataflow.sdk.util.WindowedValue.WindowedValueCoder;
+import com.google.cloud.dataflow.sdk.util.common.CounterSet;
 import com.google.cloud.dataflow.sdk.util.common.worker.Sink;
 
 import java.io.IOException;
@@ -61,6 +63,13 @@ public class TextSink<T> extends Sink<T> {
   final String footer;
   final Coder<T> coder;
 
+  /**
+   * The size in bytes of each of the two buffers through which output is written on a background
+   * thread, or 0 to write to the output channel directly.
+   */
+  int asyncWriteBufferSize = 0;
+  @Nullable CounterSet.AddCounterMutator addCounterMutator;
+
   /**
    * For testing only.
    *
@@ -153,6 +162,17 @@ public class TextSink<T> extends Sink<T> {
     this.coder = coder;
   }
 
+  /**
+   * Writes output through an {@link AsyncWritableByteChannel} with two buffers of
+   * {@code bufferSize} bytes, so that encoding elements overlaps with writing them out. If
+   * {@code addCounterMutator} is not null, flush and blocked times are reported to counters
+   * prefixed with {@code "text-sink"}.
+   */
+  void setAsyncWrites(int bufferSize, @Nullable CounterSet.AddCounterMutator addCounterMutator) {
+    this.asyncWriteBufferSize = bufferSize;
+    this.addCounterMutator = addCounterMutator;
+  }
+
   @Override
   public SinkWriter<T> writer() throws IOException {
     String mimeType;
@@ -174,6 +194,9 @@ public class TextSink<T> extends Sink<T> {
 
     if (writer instanceof ShardingWritableByteChannel) {
       return new ShardingTextFileWriter((ShardingWritableByteChannel) writer);
+    } else if (asyncWriteBufferSize > 0) {
+      return new TextFileWriter(new AsyncWritableByteChannel(
+          writer, asyncWriteBufferSize, addCounterMutator, "text-sink"));
     } else {
       return new TextFileWriter(writer);
     }
@@ -20,12 +20,18 @@ import static com.google.cloud.dataflow.sdk.util.Structs.getBoolean;
 import static com.google.cloud.dataflow.sdk.util.Structs.getString;
 
 import com.google.cloud.dataflow.sdk.coders.Coder;
+import com.google.cloud.dataflow.sdk.options.DataflowPipelineDebugOptions;
 import com.google.cloud.dataflow.sdk.options.PipelineOptions;
+import com.google.cloud.dataflow.sdk.util.AsyncWritableByteChannel;
 import com.google.cloud.dataflow.sdk.util.CloudObject;
 import com.google.cloud.dataflow.sdk.util.ExecutionContext;
 import com.google.cloud.dataflow.sdk.util.PropertyNames;
 import com.google.cloud.dataflow.sdk.util.common.CounterSet;
 
+import java.util.List;
+
+import javax.annotation.Nullable;
+
 /**
  * Creates a TextSink from a CloudObject spec.
  */
@@ -39,7 +45,11 @@ public final class TextSinkFactory {
                                        ExecutionContext executionContext,
                                        CounterSet.AddCounterMutator addCounterMutator)
       throws Exception {
-    return create(spec, coder);
+    TextSink<T> sink = create(spec, coder);
+    if (shouldUseAsyncWrites(options)) {
+      sink.setAsyncWrites(AsyncWritableByteChannel.DEFAULT_BUFFER_SIZE, addCounterMutator);
+    }
+    return sink;
   }
 
   static <T> TextSink<T> create(CloudObject spec, Coder<T> coder)
@@ -54,4 +64,15 @@ public final class TextSinkFactory {
         getString(spec, PropertyNames.FOOTER, null),
         coder);
   }
+
+  /**
+   * Returns true if output files should be written through buffers flushed on background threads.
+   */
+  static boolean shouldUseAsyncWrites(@Nullable PipelineOptions options) {
+    if (options == null) {
+      return false;
+    }
+    List<String> experiments = options.as(DataflowPipelineDebugOptions.class).getExperiments();
+    return (experiments != null) && experiments.contains("async_file_writes");
+  }
 }
@@ -63,6 +63,16 @@ public class GlobalWindow extends BoundedWindow {
       return GlobalWindow.INSTANCE;
     }
 
+    @Override
+    public boolean isRegisterByteSizeObserverCheap(GlobalWindow window, Context context) {
+      return true;
+    }
+
+    @Override
+    protected long getEncodedElementByteSize(GlobalWindow window, Context context) {
+      return 0;
+    }
+
     private Coder() {}
   }
 }
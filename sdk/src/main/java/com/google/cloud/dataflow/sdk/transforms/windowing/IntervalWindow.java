@@ -21,6 +21,7 @@ import com.google.cloud.dataflow.sdk.coders.Coder;
 import com.google.cloud.dataflow.sdk.coders.CoderException;
 import com.google.cloud.dataflow.sdk.coders.DurationCoder;
 import com.google.cloud.dataflow.sdk.coders.InstantCoder;
+import com.google.cloud.dataflow.sdk.util.common.ElementByteSizeObserver;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 
@@ -197,5 +198,19 @@ public class IntervalWindow extends BoundedWindow
       ReadableDuration duration = durationCoder.decode(inStream, context.nested());
       return new IntervalWindow(end.minus(duration), end);
     }
+
+    @Override
+    public boolean isRegisterByteSizeObserverCheap(IntervalWindow window, Context context) {
+      return true;
+    }
+
+    @Override
+    public void registerByteSizeObserver(
+        IntervalWindow window, ElementByteSizeObserver observer, Context context)
+        throws Exception {
+      instantCoder.registerByteSizeObserver(window.end, observer, context.nested());
+      durationCoder.registerByteSizeObserver(
+          new Duration(window.start, window.end), observer, context.nested());
+    }
   }
 }
@@ -18,8 +18,10 @@ package com.google.cloud.dataflow.sdk.transforms.windowing;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.NavigableSet;
 
 /**
  * A utility function for merging overlapping {@link IntervalWindow}s.
@@ -28,17 +30,76 @@ public class MergeOverlappingIntervalWindows {
 
   /**
    * Merge overlapping {@link IntervalWindow}s.
+   *
+   * <p>If the {@link WindowFn.MergeContext} tracks which windows are new since the last merge,
+   * only the new windows and the previously merged windows they overlap are considered.
    */
   public static void mergeWindows(WindowFn<?, IntervalWindow>.MergeContext c) throws Exception {
+    Collection<IntervalWindow> newWindows = c.newWindows();
+    NavigableSet<IntervalWindow> mergedWindows =
+        newWindows == null ? null : c.previouslyMergedWindows();
+    if (mergedWindows == null) {
+      mergeSortedWindows(c, sortedWindows(c.windows()));
+    } else if (!newWindows.isEmpty()) {
+      mergeSortedWindows(c, overlappingWindows(newWindows, mergedWindows));
+    }
+  }
+
+  /**
+   * Returns {@code newWindows} together with all windows of {@code mergedWindows} which they
+   * overlap, sorted.
+   *
+   * <p>Since {@code mergedWindows} are the result of previous merging they are pairwise
+   * disjoint, so ordering them by start also orders them by end. Any set of windows which must
+   * be merged together thus only contains windows from {@code mergedWindows} that directly
+   * overlap one of {@code newWindows}.
+   */
+  private static List<IntervalWindow> overlappingWindows(
+      Collection<IntervalWindow> newWindows, NavigableSet<IntervalWindow> mergedWindows) {
+    List<IntervalWindow> sortedNewWindows = sortedWindows(newWindows);
+    List<IntervalWindow> candidates = new ArrayList<>(sortedNewWindows);
+    IntervalWindow lastAdded = null;
+    for (IntervalWindow window : sortedNewWindows) {
+      // The merged window starting at or before this window is the only one starting earlier
+      // which may overlap it.
+      IntervalWindow first = mergedWindows.floor(window);
+      if (first == null || !first.intersects(window)) {
+        first = mergedWindows.higher(window);
+      }
+      if (first == null) {
+        continue;
+      }
+      for (IntervalWindow merged : mergedWindows.tailSet(first, true)) {
+        if (!merged.intersects(window)) {
+          break;
+        }
+        // Consecutive new windows visit merged windows in ascending order, so duplicates are
+        // always adjacent.
+        if (lastAdded == null || lastAdded.compareTo(merged) < 0) {
+          candidates.add(merged);
+          lastAdded = merged;
+        }
+      }
+    }
+    if (candidates.size() > sortedNewWindows.size()) {
+      Collections.sort(candidates);
+    }
+    return candidates;
+  }
+
+  private static List<IntervalWindow> sortedWindows(Collection<IntervalWindow> windows) {
+    List<IntervalWindow> sortedWindows = new ArrayList<>(windows);
+    Collections.sort(sortedWindows);
+    return sortedWindows;
+  }
+
+  private static void mergeSortedWindows(
+      WindowFn<?, IntervalWindow>.MergeContext c, List<IntervalWindow> sortedWindows)
+      throws Exception {
     // Merge any overlapping windows into a single window.
-    // Sort the list of existing windows so we only have to
+    // Since the list of windows is sorted we only have to
     // traverse the list once rather than considering all
     // O(n^2) window pairs.
-    List<IntervalWindow> sortedWindows = new ArrayList<>();
-    for (IntervalWindow window : c.windows()) {
-      sortedWindows.add(window);
-    }
-    Collections.sort(sortedWindows);
     List<MergeCandidate> merges = new ArrayList<>();
     MergeCandidate current = new MergeCandidate();
     for (IntervalWindow window : sortedWindows) {
@@ -19,6 +19,8 @@ package com.google.cloud.dataflow.sdk.transforms.windowing;
 import com.google.cloud.dataflow.sdk.coders.AtomicCoder;
 import com.google.cloud.dataflow.sdk.coders.Coder;
 import com.google.cloud.dataflow.sdk.coders.CoderException;
+import com.google.cloud.dataflow.sdk.coders.PositionalCoder;
+import com.google.cloud.dataflow.sdk.coders.PositionalOutput;
 import com.google.cloud.dataflow.sdk.transforms.DoFn;
 import com.google.cloud.dataflow.sdk.transforms.GroupByKey;
 import com.google.cloud.dataflow.sdk.util.VarInt;
@@ -26,9 +28,11 @@ import com.google.common.base.MoreObjects;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Objects;
 
 /**
@@ -303,7 +307,8 @@ public final class PaneInfo {
   /**
    * A Coder for encoding PaneInfo instances.
    */
-  public static class PaneInfoCoder extends AtomicCoder<PaneInfo> {
+  public static class PaneInfoCoder extends AtomicCoder<PaneInfo>
+      implements PositionalCoder<PaneInfo> {
     private static enum Encoding {
       FIRST,
       ONE_INDEX,
@@ -380,5 +385,53 @@ public final class PaneInfo {
       }
       return new PaneInfo(base.isFirst, base.isLast, base.timing, index, onTimeIndex);
     }
+
+    @Override
+    public void encodePositional(PaneInfo value, PositionalOutput out, Coder.Context context)
+        throws CoderException {
+      Encoding encoding = chooseEncoding(value);
+      switch (encoding) {
+        case FIRST:
+          out.write(value.encodedByte);
+          break;
+        case ONE_INDEX:
+          out.write(value.encodedByte | encoding.tag);
+          out.writeVarLong(value.index);
+          break;
+        case TWO_INDICES:
+          out.write(value.encodedByte | encoding.tag);
+          out.writeVarLong(value.index);
+          out.writeVarLong(value.nonSpeculativeIndex);
+          break;
+        default:
+          throw new CoderException("Unknown encoding " + encoding);
+      }
+    }
+
+    @Override
+    public PaneInfo decodePositional(ByteBuffer in, Coder.Context context)
+        throws CoderException, IOException {
+      if (!in.hasRemaining()) {
+        throw new CoderException(new EOFException());
+      }
+      byte keyAndTag = in.get();
+      PaneInfo base = BYTE_TO_PANE_INFO.get((byte) (keyAndTag & 0x0F));
+      long index, onTimeIndex;
+      switch (Encoding.fromTag(keyAndTag)) {
+        case FIRST:
+          return base;
+        case ONE_INDEX:
+          index = VarInt.decodeLong(in);
+          onTimeIndex = base.timing == Timing.EARLY ? -1 : index;
+          break;
+        case TWO_INDICES:
+          index = VarInt.decodeLong(in);
+          onTimeIndex = VarInt.decodeLong(in);
+          break;
+        default:
+          throw new CoderException("Unknown encoding " + (keyAndTag & 0xF0));
+      }
+      return new PaneInfo(base.isFirst, base.isLast, base.timing, index, onTimeIndex);
+    }
   }
 }
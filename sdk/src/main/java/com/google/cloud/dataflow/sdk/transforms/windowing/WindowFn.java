@@ -26,6 +26,9 @@ import org.joda.time.Instant;
 
 import java.io.Serializable;
 import java.util.Collection;
+import java.util.NavigableSet;
+
+import javax.annotation.Nullable;
 
 /**
  * The argument to the {@link Window} transform used to assign elements into
@@ -101,6 +104,34 @@ public abstract class WindowFn<T, W extends BoundedWindow>
      */
     public abstract void merge(Collection<W> toBeMerged, W mergeResult)
         throws Exception;
+
+    /**
+     * Returns the windows in {@link #windows} which have been added since the previous
+     * invocation of {@link #mergeWindows} over the same set of windows, or {@code null} if
+     * this is not tracked.
+     *
+     * <p>Together with {@link #previouslyMergedWindows} this allows a {@code WindowFn} which
+     * only merges overlapping windows to consider just the windows which may overlap the new
+     * ones, rather than all of {@link #windows}.
+     */
+    @Experimental
+    @Nullable
+    public Collection<W> newWindows() {
+      return null;
+    }
+
+    /**
+     * Returns the windows in {@link #windows} which are not in {@link #newWindows}, sorted by
+     * their natural ordering, or {@code null} if this is not tracked.
+     *
+     * <p>Each of these windows is either the result of, or survived, a previous invocation of
+     * {@link #mergeWindows}. May only be called when {@code W} has a natural ordering.
+     */
+    @Experimental
+    @Nullable
+    public NavigableSet<W> previouslyMergedWindows() {
+      return null;
+    }
   }
 
   /**
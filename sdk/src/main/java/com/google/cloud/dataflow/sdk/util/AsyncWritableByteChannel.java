@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.util;
+
+import static com.google.cloud.dataflow.sdk.util.common.Counter.AggregationKind.SUM;
+
+import com.google.cloud.dataflow.sdk.util.common.Counter;
+import com.google.cloud.dataflow.sdk.util.common.CounterSet;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+/**
+ * A {@link WritableByteChannel} that writes to another channel on a background thread.
+ *
+ * <p>Writes are copied into one of two direct buffers. Once that buffer is full, it is handed to
+ * a background thread to be written to the underlying channel, and writes continue into the
+ * other buffer. A writer is therefore only blocked on the underlying channel when it fills a
+ * buffer before the previous one has been written out.
+ *
+ * <p>Failures of the underlying channel are reported by the next call to {@link #write} or
+ * {@link #close}; the data is only known to be written once {@link #close} returns.
+ *
+ * <p>The time spent writing to the underlying channel, and the time the writer spends blocked
+ * waiting for it, are tracked, and optionally reported to counters named
+ * {@code <counterPrefix>-flush-msecs} and {@code <counterPrefix>-write-blocked-msecs}.
+ *
+ * <p>This channel must be written to and closed from a single thread.
+ */
+public class AsyncWritableByteChannel implements WritableByteChannel {
+  public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+  // Each channel has at most one flush in progress, so a cached pool holds at most one thread per
+  // open channel.
+  private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(
+      new ThreadFactoryBuilder()
+          .setDaemon(true)
+          .setNameFormat("AsyncWritableByteChannel-%d")
+          .build());
+
+  private final WritableByteChannel delegate;
+  private ByteBuffer filling;
+  private ByteBuffer flushing;
+  @Nullable private Future<?> pendingFlush;
+  @Nullable private IOException failure;
+  private boolean open = true;
+
+  private final AtomicLong flushNanos = new AtomicLong();
+  private final AtomicLong flushCount = new AtomicLong();
+  private final AtomicLong blockedNanos = new AtomicLong();
+  @Nullable private final Counter<Long> flushMsecsCounter;
+  @Nullable private final Counter<Long> blockedMsecsCounter;
+  private long reportedFlushMillis;
+  private long reportedBlockedMillis;
+
+  /**
+   * Creates a channel that writes to {@code delegate} through two buffers of
+   * {@code bufferSize} bytes, without reporting to counters.
+   */
+  public AsyncWritableByteChannel(WritableByteChannel delegate, int bufferSize) {
+    this(delegate, bufferSize, null, null);
+  }
+
+  /**
+   * Creates a channel that writes to {@code delegate} through two buffers of
+   * {@code bufferSize} bytes.
+   *
+   * <p>If {@code addCounterMutator} is not null, flush and blocked times are reported to counters
+   * prefixed with {@code counterPrefix}.
+   */
+  public AsyncWritableByteChannel(WritableByteChannel delegate, int bufferSize,
+      @Nullable CounterSet.AddCounterMutator addCounterMutator, @Nullable String counterPrefix) {
+    Preconditions.checkNotNull(delegate, "delegate");
+    Preconditions.checkArgument(bufferSize > 0, "bufferSize must be positive");
+    this.delegate = delegate;
+    this.filling = ByteBuffer.allocateDirect(bufferSize);
+    this.flushing = ByteBuffer.allocateDirect(bufferSize);
+    if (addCounterMutator != null) {
+      flushMsecsCounter = addCounterMutator.addCounter(
+          Counter.longs(counterPrefix + "-flush-msecs", SUM));
+      blockedMsecsCounter = addCounterMutator.addCounter(
+          Counter.longs(counterPrefix + "-write-blocked-msecs", SUM));
+    } else {
+      flushMsecsCounter = null;
+      blockedMsecsCounter = null;
+    }
+  }
+
+  /**
+   * Returns the total time in nanoseconds spent writing buffers to the underlying channel.
+   */
+  public long getFlushNanos() {
+    return flushNanos.get();
+  }
+
+  /**
+   * Returns the number of buffers written to the underlying channel.
+   */
+  public long getFlushCount() {
+    return flushCount.get();
+  }
+
+  /**
+   * Returns the total time in nanoseconds the writer has spent waiting for buffers to be written
+   * to the underlying channel.
+   */
+  public long getBlockedNanos() {
+    return blockedNanos.get();
+  }
+
+  @Override
+  public int write(ByteBuffer src) throws IOException {
+    checkOpen();
+    int written = src.remaining();
+    while (src.hasRemaining()) {
+      if (!filling.hasRemaining()) {
+        flush();
+      }
+      int length = Math.min(src.remaining(), filling.remaining());
+      ByteBuffer chunk = src.duplicate();
+      chunk.limit(chunk.position() + length);
+      filling.put(chunk);
+      src.position(src.position() + length);
+    }
+    return written;
+  }
+
+  @Override
+  public boolean isOpen() {
+    return open;
+  }
+
+  /**
+   * Writes any buffered data, waits for it to be written and closes the underlying channel.
+   */
+  @Override
+  public void close() throws IOException {
+    if (!open) {
+      return;
+    }
+    open = false;
+    try {
+      if (failure == null) {
+        if (filling.position() > 0) {
+          flush();
+        }
+        awaitFlush();
+      }
+    } finally {
+      delegate.close();
+    }
+    if (failure != null) {
+      throw new IOException("Failed to write to " + delegate, failure);
+    }
+  }
+
+  private void checkOpen() throws IOException {
+    if (!open) {
+      throw new ClosedChannelException();
+    }
+    if (failure != null) {
+      throw new IOException("Failed to write to " + delegate, failure);
+    }
+  }
+
+  /**
+   * Hands the filled buffer to a background thread once the previous one has been written, and
+   * continues with the other buffer.
+   */
+  private void flush() throws IOException {
+    awaitFlush();
+    filling.flip();
+    final ByteBuffer buffer = filling;
+    filling = flushing;
+    filling.clear();
+    flushing = buffer;
+    pendingFlush = EXECUTOR.submit(new Callable<Void>() {
+      @Override
+      public Void call() throws IOException {
+        long start = System.nanoTime();
+        while (buffer.hasRemaining()) {
+          delegate.write(buffer);
+        }
+        flushNanos.addAndGet(System.nanoTime() - start);
+        flushCount.incrementAndGet();
+        return null;
+      }
+    });
+  }
+
+  private void awaitFlush() throws IOException {
+    if (pendingFlush == null) {
+      return;
+    }
+    Future<?> flush = pendingFlush;
+    pendingFlush = null;
+    long start = System.nanoTime();
+    try {
+      flush.get();
+    } catch (InterruptedException e) {
+      // The underlying channel may be closed once this returns, so the write must not outlive
+      // it. Its outcome no longer matters.
+      try {
+        Uninterruptibles.getUninterruptibly(flush);
+      } catch (ExecutionException ignored) {
+        // Reported as the interruption below.
+      }
+      Thread.currentThread().interrupt();
+      failure = new InterruptedIOException("Interrupted while waiting for a write to complete");
+      throw failure;
+    } catch (ExecutionException e) {
+      failure = e.getCause() instanceof IOException
+          ? (IOException) e.getCause() : new IOException(e.getCause());
+      throw failure;
+    } finally {
+      blockedNanos.addAndGet(System.nanoTime() - start);
+      reportCounters();
+    }
+  }
+
+  /**
+   * Adds the time spent since the last report to the counters. Only called by the writer, once
+   * it has waited for a flush, so the totals it reads are up to date.
+   */
+  private void reportCounters() {
+    if (flushMsecsCounter == null) {
+      return;
+    }
+    long flushMillis = TimeUnit.NANOSECONDS.toMillis(flushNanos.get());
+    if (flushMillis > reportedFlushMillis) {
+      flushMsecsCounter.addValue(flushMillis - reportedFlushMillis);
+      reportedFlushMillis = flushMillis;
+    }
+    long blockedMillis = TimeUnit.NANOSECONDS.toMillis(blockedNanos.get());
+    if (blockedMillis > reportedBlockedMillis) {
+      blockedMsecsCounter.addValue(blockedMillis - reportedBlockedMillis);
+      reportedBlockedMillis = blockedMillis;
+    }
+  }
+}
@@ -16,6 +16,9 @@
 
 package com.google.cloud.dataflow.sdk.util;
 
+import com.google.common.base.Preconditions;
+
+import org.apache.avro.Schema;
 import org.apache.avro.file.DataFileConstants;
 import org.apache.avro.io.BinaryDecoder;
 import org.apache.avro.io.DecoderFactory;
@@ -24,7 +27,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * A set of utilities for working with Avro files.
@@ -134,4 +139,38 @@ public class AvroUtils {
     }
     return new AvroMetadata(syncMarker, codec, schemaString);
   }
+
+  /**
+   * Returns the projection of a record schema to the given top-level fields, in the given order.
+   *
+   * <p>The projection has the same full name as the record schema, so that data written with the
+   * record schema can be read with the projection, and Avro schema resolution skips the fields
+   * that are not in the projection while decoding.
+   *
+   * @throws IllegalArgumentException if the schema is not a record schema or does not have one of
+   * the fields.
+   */
+  public static Schema projectSchema(Schema schema, String... fieldNames) {
+    Preconditions.checkArgument(schema.getType() == Schema.Type.RECORD,
+        "Only record schemas can be projected, not %s", schema);
+    List<Schema.Field> fields = new ArrayList<>();
+    for (String fieldName : fieldNames) {
+      Schema.Field field = schema.getField(fieldName);
+      Preconditions.checkArgument(field != null, "Schema %s has no field named %s",
+          schema.getFullName(), fieldName);
+      Schema.Field copy = new Schema.Field(
+          field.name(), field.schema(), field.doc(), field.defaultValue(), field.order());
+      for (String alias : field.aliases()) {
+        copy.addAlias(alias);
+      }
+      fields.add(copy);
+    }
+    Schema projection = Schema.createRecord(
+        schema.getName(), schema.getDoc(), schema.getNamespace(), schema.isError());
+    projection.setFields(fields);
+    for (String alias : schema.getAliases()) {
+      projection.addAlias(alias);
+    }
+    return projection;
+  }
 }
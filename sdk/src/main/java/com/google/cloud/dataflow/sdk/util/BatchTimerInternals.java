@@ -23,26 +23,31 @@ import com.google.common.base.Preconditions;
 import org.joda.time.Instant;
 
 import java.util.HashSet;
-import java.util.PriorityQueue;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Set;
+import java.util.TreeMap;
 
 import javax.annotation.Nullable;
 
 /**
- * TimerInternals that uses priority queues to manage the timers that are ready to fire.
+ * TimerInternals that uses queues of timers bucketed by timestamp to manage the timers that are
+ * ready to fire.
  */
 public class BatchTimerInternals implements TimerInternals {
   /** Set of timers that are scheduled used for deduplicating timers. */
   private Set<TimerData> existingTimers = new HashSet<>();
 
   // Keep these queues separate so we can advance over them separately.
-  private PriorityQueue<TimerData> watermarkTimers = new PriorityQueue<>(11);
-  private PriorityQueue<TimerData> processingTimers = new PriorityQueue<>(11);
+  private TimerQueue watermarkTimers = new TimerQueue();
+  private TimerQueue processingTimers = new TimerQueue();
 
   private Instant inputWatermarkTime;
   private Instant processingTime;
 
-  private PriorityQueue<TimerData> queue(TimeDomain domain) {
+  private TimerQueue queue(TimeDomain domain) {
     return TimeDomain.EVENT_TIME.equals(domain) ? watermarkTimers : processingTimers;
   }
 
@@ -105,20 +110,64 @@ public class BatchTimerInternals implements TimerInternals {
   }
 
   private void advance(ReduceFnRunner<?, ?, ?, ?> runner, Instant newTime, TimeDomain domain) {
-    PriorityQueue<TimerData> timers = queue(domain);
-    boolean shouldFire = false;
-
-    do {
-      TimerData timer = timers.peek();
-      // Timers fire if the new time is ahead of the timer
-      shouldFire = timer != null && newTime.isAfter(timer.getTimestamp());
-      if (shouldFire) {
-        // Remove before firing, so that if the trigger adds another identical
-        // timer we don't remove it.
-        timers.remove();
-
-        runner.onTimer(timer);
+    TimerQueue timers = queue(domain);
+    // Timers fire if the new time is ahead of the timer. Timers are removed before firing, so
+    // that if the trigger adds another identical timer we don't remove it. Timers set while
+    // firing which are already due are fired in order along with the others.
+    TimerData timer;
+    while ((timer = timers.pollBefore(newTime)) != null) {
+      runner.onTimer(timer);
+    }
+  }
+
+  /**
+   * The timers for a single time domain, bucketed by timestamp.
+   *
+   * <p>Unlike a {@link java.util.PriorityQueue}, deleting a timer does not need to scan all the
+   * timers, which matters when there are many windows per key each with end-of-window and
+   * garbage collection timers which are deleted as windows are merged or cleared.
+   */
+  private static class TimerQueue {
+    private final NavigableMap<Instant, Set<TimerData>> buckets = new TreeMap<>();
+
+    public void add(TimerData timer) {
+      Set<TimerData> bucket = buckets.get(timer.getTimestamp());
+      if (bucket == null) {
+        bucket = new LinkedHashSet<>();
+        buckets.put(timer.getTimestamp(), bucket);
       }
-    } while (shouldFire);
+      bucket.add(timer);
+    }
+
+    public void remove(TimerData timer) {
+      Set<TimerData> bucket = buckets.get(timer.getTimestamp());
+      if (bucket != null && bucket.remove(timer) && bucket.isEmpty()) {
+        buckets.remove(timer.getTimestamp());
+      }
+    }
+
+    /**
+     * Remove and return the earliest timer with a timestamp before {@code time}, or {@code null}
+     * if there is no such timer.
+     */
+    @Nullable
+    public TimerData pollBefore(Instant time) {
+      Map.Entry<Instant, Set<TimerData>> earliest = buckets.firstEntry();
+      if (earliest == null || !time.isAfter(earliest.getKey())) {
+        return null;
+      }
+      Iterator<TimerData> bucket = earliest.getValue().iterator();
+      TimerData timer = bucket.next();
+      bucket.remove();
+      if (!bucket.hasNext()) {
+        buckets.remove(earliest.getKey());
+      }
+      return timer;
+    }
+
+    @Override
+    public String toString() {
+      return buckets.values().toString();
+    }
   }
 }
@@ -26,6 +26,9 @@ import com.google.cloud.dataflow.sdk.coders.KvCoder;
 import com.google.cloud.dataflow.sdk.coders.KvCoderBase;
 import com.google.cloud.dataflow.sdk.coders.MapCoder;
 import com.google.cloud.dataflow.sdk.coders.MapCoderBase;
+import com.google.cloud.dataflow.sdk.coders.PositionalCoder;
+import com.google.cloud.dataflow.sdk.coders.PositionalCoders;
+import com.google.cloud.dataflow.sdk.coders.PositionalOutput;
 import com.google.cloud.dataflow.sdk.values.TypeDescriptor;
 import com.google.common.base.Throwables;
 
@@ -48,6 +51,8 @@ import java.io.OutputStream;
 import java.lang.ref.SoftReference;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.TypeVariable;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 
 /**
  * Utilities for working with Coders.
@@ -68,6 +73,9 @@ public final class CoderUtils {
   private static ThreadLocal<SoftReference<ExposedByteArrayOutputStream>> threadLocalOutputStream
       = new ThreadLocal<>();
 
+  private static ThreadLocal<SoftReference<PositionalOutput>> threadLocalPositionalOutput
+      = new ThreadLocal<>();
+
   /**
    * If true, a call to {@code encodeToByteArray} is already on the call stack.
    */
@@ -82,6 +90,9 @@ public final class CoderUtils {
    * Encodes the given value using the specified Coder, and returns
    * the encoded bytes.
    *
+   * <p>If the {@link Coder} is a {@link PositionalCoder} the value is encoded directly into
+   * a byte array, without going through an {@link OutputStream}.
+   *
    * <p>This function is not reentrant; it should not be called from methods of the provided
    * {@link Coder}.
    */
@@ -91,6 +102,9 @@ public final class CoderUtils {
 
   public static <T> byte[] encodeToByteArray(Coder<T> coder, T value, Coder.Context context)
       throws CoderException {
+    if (PositionalCoders.encodesPositionally(coder)) {
+      return encodeToByteArray((PositionalCoder<T>) coder, value, context);
+    }
     if (threadLocalOutputStreamInUse.get()) {
       // encodeToByteArray() is called recursively and the thread local stream is in use,
       // allocating a new one.
@@ -109,6 +123,38 @@ public final class CoderUtils {
     }
   }
 
+  private static <T> byte[] encodeToByteArray(
+      PositionalCoder<T> coder, T value, Coder.Context context) throws CoderException {
+    if (threadLocalOutputStreamInUse.get()) {
+      // encodeToByteArray() is called recursively and the thread local output is in use,
+      // allocating a new one.
+      PositionalOutput output = new PositionalOutput();
+      encodeToPositionalOutput(coder, value, output, context);
+      return output.toByteArray();
+    } else {
+      threadLocalOutputStreamInUse.set(true);
+      try {
+        PositionalOutput output = getThreadLocalPositionalOutput();
+        encodeToPositionalOutput(coder, value, output, context);
+        return output.toByteArray();
+      } finally {
+        threadLocalOutputStreamInUse.set(false);
+      }
+    }
+  }
+
+  private static <T> void encodeToPositionalOutput(
+      PositionalCoder<T> coder, T value, PositionalOutput output, Coder.Context context)
+      throws CoderException {
+    try {
+      coder.encodePositional(value, output, context);
+    } catch (IOException exn) {
+      Throwables.propagateIfPossible(exn, CoderException.class);
+      throw new IllegalArgumentException(
+          "Forbidden IOException when writing to PositionalOutput", exn);
+    }
+  }
+
   /**
    * Encodes {@code value} to the given {@code stream}, which should be a stream that never throws
    * {@code IOException}, such as {@code ByteArrayOutputStream} or
@@ -136,6 +182,9 @@ public final class CoderUtils {
 
   public static <T> T decodeFromByteArray(
       Coder<T> coder, byte[] encodedValue, Coder.Context context) throws CoderException {
+    if (PositionalCoders.decodesPositionally(coder)) {
+      return decodeFromByteArray((PositionalCoder<T>) coder, encodedValue, context);
+    }
     try (ExposedByteArrayInputStream stream = new ExposedByteArrayInputStream(encodedValue)) {
       T result = decodeFromSafeStream(coder, stream, context);
       if (stream.available() != 0) {
@@ -146,6 +195,61 @@ public final class CoderUtils {
     }
   }
 
+  private static <T> T decodeFromByteArray(
+      PositionalCoder<T> coder, byte[] encodedValue, Coder.Context context)
+      throws CoderException {
+    return decodeFromByteBuffer(coder, ByteBuffer.wrap(encodedValue), context);
+  }
+
+  /**
+   * Decodes a value from the remaining bytes of the given {@link ByteBuffer} using the given
+   * {@link Coder}, in the outer context, and advances the position of the buffer to its limit.
+   *
+   * <p>If the {@link Coder} is a {@link PositionalCoder} the value is decoded in place, without
+   * copying the bytes out of the buffer first.
+   */
+  public static <T> T decodeFromByteBuffer(Coder<T> coder, ByteBuffer encodedValue)
+      throws CoderException {
+    if (PositionalCoders.decodesPositionally(coder)) {
+      return decodeFromByteBuffer((PositionalCoder<T>) coder, encodedValue, Coder.Context.OUTER);
+    }
+    if (encodedValue.hasArray()) {
+      int offset = encodedValue.arrayOffset() + encodedValue.position();
+      int length = encodedValue.remaining();
+      encodedValue.position(encodedValue.limit());
+      ByteArrayInputStream stream = new ByteArrayInputStream(encodedValue.array(), offset, length);
+      T result = decodeFromSafeStream(coder, stream, Coder.Context.OUTER);
+      if (stream.available() != 0) {
+        throw new CoderException(
+            stream.available() + " unexpected extra bytes after decoding " + result);
+      }
+      return result;
+    }
+    byte[] bytes = new byte[encodedValue.remaining()];
+    encodedValue.get(bytes);
+    return decodeFromByteArray(coder, bytes, Coder.Context.OUTER);
+  }
+
+  private static <T> T decodeFromByteBuffer(
+      PositionalCoder<T> coder, ByteBuffer buffer, Coder.Context context)
+      throws CoderException {
+    T result;
+    try {
+      result = coder.decodePositional(buffer, context);
+    } catch (BufferUnderflowException exn) {
+      throw new CoderException("Unexpected end of encoded value", exn);
+    } catch (IOException exn) {
+      Throwables.propagateIfPossible(exn, CoderException.class);
+      throw new IllegalArgumentException(
+          "Forbidden IOException when reading from ByteBuffer", exn);
+    }
+    if (buffer.hasRemaining()) {
+      throw new CoderException(
+          buffer.remaining() + " unexpected extra bytes after decoding " + result);
+    }
+    return result;
+  }
+
   /**
    * Decodes a value from the given {@code stream}, which should be a stream that never throws
    * {@code IOException}, such as {@code ByteArrayInputStream} or
@@ -173,6 +277,17 @@ public final class CoderUtils {
     return stream;
   }
 
+  private static PositionalOutput getThreadLocalPositionalOutput() {
+    SoftReference<PositionalOutput> refOutput = threadLocalPositionalOutput.get();
+    PositionalOutput output = refOutput == null ? null : refOutput.get();
+    if (output == null) {
+      output = new PositionalOutput();
+      threadLocalPositionalOutput.set(new SoftReference<>(output));
+    }
+    output.reset();
+    return output;
+  }
+
   /**
    * Clones the given value by encoding and then decoding it with the specified Coder.
    *
@@ -35,20 +35,41 @@ import java.nio.file.NoSuchFileException;
 import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Matcher;
 
 /**
  * Implements IOChannelFactory for local files.
  */
-public class FileIOChannelFactory implements IOChannelFactory {
+public class FileIOChannelFactory implements SizeAwareIOChannelFactory {
   private static final Logger LOG = LoggerFactory.getLogger(FileIOChannelFactory.class);
 
   // This implementation only allows for wildcards in the file name.
   // The directory portion must exist as-is.
   @Override
   public Collection<String> match(String spec) throws IOException {
+    List<String> result = new LinkedList<>();
+    for (File match : matchFiles(spec)) {
+      result.add(match.getPath());
+    }
+
+    return result;
+  }
+
+  @Override
+  public Map<String, Long> matchWithSizes(String spec) throws IOException {
+    Map<String, Long> result = new LinkedHashMap<>();
+    for (File match : matchFiles(spec)) {
+      result.put(match.getPath(), match.length());
+    }
+
+    return result;
+  }
+
+  private File[] matchFiles(String spec) throws IOException {
     File file = new File(spec);
 
     File parent = file.getAbsoluteFile().getParentFile();
@@ -68,19 +89,12 @@ public class FileIOChannelFactory implements IOChannelFactory {
 
     final PathMatcher matcher =
         FileSystems.getDefault().getPathMatcher("glob:" + pathToMatch);
-    File[] files = parent.listFiles(new FileFilter() {
+    return parent.listFiles(new FileFilter() {
       @Override
       public boolean accept(File pathname) {
         return matcher.matches(pathname.toPath());
       }
     });
-
-    List<String> result = new LinkedList<>();
-    for (File match : files) {
-      result.add(match.getPath());
-    }
-
-    return result;
   }
 
   @Override
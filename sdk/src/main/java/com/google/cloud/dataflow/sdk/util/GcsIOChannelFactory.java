@@ -23,13 +23,15 @@ import java.io.IOException;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Implements IOChannelFactory for GCS.
  */
-public class GcsIOChannelFactory implements IOChannelFactory {
+public class GcsIOChannelFactory implements SizeAwareIOChannelFactory {
 
   private final GcsOptions options;
 
@@ -51,6 +53,17 @@ public class GcsIOChannelFactory implements IOChannelFactory {
     return specs;
   }
 
+  @Override
+  public Map<String, Long> matchWithSizes(String spec) throws IOException {
+    GcsPath path = GcsPath.fromUri(spec);
+    GcsUtil util = options.getGcsUtil();
+    Map<String, Long> sizes = new LinkedHashMap<>();
+    for (Map.Entry<GcsPath, Long> match : util.expandWithSizes(path).entrySet()) {
+      sizes.put(match.getKey().toString(), match.getValue());
+    }
+    return sizes;
+  }
+
   @Override
   public ReadableByteChannel open(String spec) throws IOException {
     GcsPath path = GcsPath.fromUri(spec);
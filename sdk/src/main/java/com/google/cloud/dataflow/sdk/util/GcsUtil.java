@@ -45,9 +45,12 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -143,19 +146,48 @@ public class GcsUtil {
   public List<GcsPath> expand(GcsPath gcsPattern) throws IOException {
     Preconditions.checkArgument(isGcsPatternSupported(gcsPattern.getObject()));
     Matcher m = GLOB_PREFIX.matcher(gcsPattern.getObject());
-    Pattern p = null;
-    String prefix = null;
     if (!m.matches()) {
       // Not a glob.
       // Results of GCS storage list feature is only eventually consistent so we should not use that
       // feature to check the existence of single files.
       return ImmutableList.of(gcsPattern);
-    } else {
-      // Part before the first wildcard character.
-      prefix = m.group("PREFIX");
-      p = Pattern.compile(globToRegexp(gcsPattern.getObject()));
     }
 
+    List<GcsPath> results = new LinkedList<>();
+    for (StorageObject o : listMatchingObjects(gcsPattern, m.group("PREFIX"))) {
+      results.add(GcsPath.fromObject(o));
+    }
+    return results;
+  }
+
+  /**
+   * Expands a pattern into matched paths, like {@link #expand}, and returns the size in bytes of
+   * each along with it. The sizes of matches of a glob come with the listing, so no further
+   * requests are made for them. A pattern which is not a glob is looked up with
+   * {@link #fileSize}, and must exist.
+   */
+  public Map<GcsPath, Long> expandWithSizes(GcsPath gcsPattern) throws IOException {
+    Preconditions.checkArgument(isGcsPatternSupported(gcsPattern.getObject()));
+    Matcher m = GLOB_PREFIX.matcher(gcsPattern.getObject());
+    Map<GcsPath, Long> results = new LinkedHashMap<>();
+    if (!m.matches()) {
+      results.put(gcsPattern, fileSize(gcsPattern));
+      return results;
+    }
+
+    for (StorageObject o : listMatchingObjects(gcsPattern, m.group("PREFIX"))) {
+      results.put(GcsPath.fromObject(o), o.getSize().longValue());
+    }
+    return results;
+  }
+
+  /**
+   * Lists the objects matching a glob, given the part of the glob before its first wildcard.
+   */
+  private List<StorageObject> listMatchingObjects(GcsPath gcsPattern, String prefix)
+      throws IOException {
+    Pattern p = Pattern.compile(globToRegexp(gcsPattern.getObject()));
+
     LOG.debug("matching files in bucket {}, prefix {} against pattern {}", gcsPattern.getBucket(),
         prefix, p.toString());
 
@@ -165,7 +197,7 @@ public class GcsUtil {
     listObject.setPrefix(prefix);
 
     String pageToken = null;
-    List<GcsPath> results = new LinkedList<>();
+    List<StorageObject> results = new ArrayList<>();
     do {
       if (pageToken != null) {
         listObject.setPageToken(pageToken);
@@ -195,7 +227,7 @@ public class GcsUtil {
         // Skip directories, which end with a slash.
         if (p.matcher(name).matches() && !name.endsWith("/")) {
           LOG.debug("Matched object: {}", name);
-          results.add(GcsPath.fromObject(o));
+          results.add(o);
         }
       }
 
@@ -39,6 +39,8 @@ class GroupAlsoByWindowsViaOutputBufferDoFn<K, InputT, OutputT, W extends Bounde
       createAggregator(ReduceFnRunner.DROPPED_DUE_TO_CLOSED_WINDOW_COUNTER, new Sum.SumLongFn());
   private final Aggregator<Long, Long> droppedDueToLateness =
       createAggregator(ReduceFnRunner.DROPPED_DUE_TO_LATENESS_COUNTER, new Sum.SumLongFn());
+  private final Aggregator<Long, Long> watermarkHoldWritesAvoided = createAggregator(
+      ReduceFnRunner.WATERMARK_HOLD_WRITES_AVOIDED_COUNTER, new Sum.SumLongFn());
 
   private final WindowingStrategy<?, W> strategy;
   private SystemReduceFn.Factory<K, InputT, OutputT, W> reduceFnFactory;
@@ -63,7 +65,8 @@ class GroupAlsoByWindowsViaOutputBufferDoFn<K, InputT, OutputT, W extends Bounde
 
     ReduceFnRunner<K, InputT, OutputT, W> runner = new ReduceFnRunner<>(
         key, strategy, timerInternals, c.windowingInternals(),
-        droppedDueToClosedWindow, droppedDueToLateness, reduceFnFactory.create(key));
+        droppedDueToClosedWindow, droppedDueToLateness, watermarkHoldWritesAvoided,
+        reduceFnFactory.create(key));
 
     Iterable<List<WindowedValue<InputT>>> chunks =
         Iterables.partition(c.element().getValue(), 1000);
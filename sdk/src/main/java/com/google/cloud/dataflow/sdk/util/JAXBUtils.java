@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.util;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+import java.util.concurrent.ExecutionException;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+
+/**
+ * A set of utilities for binding JAXB annotated classes.
+ *
+ * <p>Creating a {@link JAXBContext} reflects over the bound classes and is expensive, so contexts
+ * are created once per class and shared. Contexts are thread-safe, but the {@link Marshaller
+ * Marshallers} and {@link Unmarshaller Unmarshallers} created from them are not, so each thread
+ * gets its own, which it reuses for every value it marshals or unmarshals.
+ */
+public class JAXBUtils {
+  // Contexts are held softly, since they strongly reference their classes.
+  private static final LoadingCache<Class<?>, BoundContext> CONTEXTS = CacheBuilder.newBuilder()
+      .weakKeys()
+      .softValues()
+      .build(new CacheLoader<Class<?>, BoundContext>() {
+        @Override
+        public BoundContext load(Class<?> clazz) throws JAXBException {
+          return new BoundContext(JAXBContext.newInstance(clazz));
+        }
+      });
+
+  private JAXBUtils() {}
+
+  /**
+   * Returns the shared {@link JAXBContext} for the given class.
+   */
+  public static JAXBContext getContext(Class<?> clazz) throws JAXBException {
+    return getBoundContext(clazz).context;
+  }
+
+  /**
+   * Returns the calling thread's {@link Marshaller} for the given class, which has the default
+   * configuration. Callers must not change its configuration; marshallers with other
+   * configurations should be created from {@link #getContext}.
+   */
+  public static Marshaller getMarshaller(Class<?> clazz) throws JAXBException {
+    BoundContext boundContext = getBoundContext(clazz);
+    Marshaller marshaller = boundContext.marshallers.get();
+    if (marshaller == null) {
+      marshaller = boundContext.context.createMarshaller();
+      boundContext.marshallers.set(marshaller);
+    }
+    return marshaller;
+  }
+
+  /**
+   * Returns the calling thread's {@link Unmarshaller} for the given class, which has the default
+   * configuration. Callers must not change its configuration, and must not keep it beyond a
+   * single call, since the thread may be using it for another caller by then. Unmarshallers with
+   * other configurations or longer lifetimes should be created from {@link #getContext}.
+   */
+  public static Unmarshaller getUnmarshaller(Class<?> clazz) throws JAXBException {
+    BoundContext boundContext = getBoundContext(clazz);
+    Unmarshaller unmarshaller = boundContext.unmarshallers.get();
+    if (unmarshaller == null) {
+      unmarshaller = boundContext.context.createUnmarshaller();
+      boundContext.unmarshallers.set(unmarshaller);
+    }
+    return unmarshaller;
+  }
+
+  private static BoundContext getBoundContext(Class<?> clazz) throws JAXBException {
+    try {
+      return CONTEXTS.get(clazz);
+    } catch (ExecutionException e) {
+      Throwables.propagateIfInstanceOf(e.getCause(), JAXBException.class);
+      throw Throwables.propagate(e.getCause());
+    }
+  }
+
+  /**
+   * A {@link JAXBContext} and the marshallers and unmarshallers that threads created from it.
+   * The thread-local values are released along with the context.
+   */
+  private static class BoundContext {
+    private final JAXBContext context;
+    private final ThreadLocal<Marshaller> marshallers = new ThreadLocal<>();
+    private final ThreadLocal<Unmarshaller> unmarshallers = new ThreadLocal<>();
+
+    BoundContext(JAXBContext context) {
+      this.context = context;
+    }
+  }
+}
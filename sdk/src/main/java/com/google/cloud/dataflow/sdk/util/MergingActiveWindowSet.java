@@ -27,13 +27,17 @@ import com.google.cloud.dataflow.sdk.util.state.ValueState;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Sets;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.NavigableSet;
 import java.util.Set;
+import java.util.TreeSet;
 
 import javax.annotation.Nullable;
 
@@ -102,6 +106,25 @@ public class MergingActiveWindowSet<W extends BoundedWindow> implements ActiveWi
   @Nullable
   private Map<W, Set<W>> originalActiveWindowToStateAddressWindows;
 
+  /**
+   * Windows which have been added by {@link #addNew} or {@link #addActive} since the last
+   * {@link #merge}, and thus have not yet been considered for merging.
+   *
+   * <p>Does not need to be persisted.
+   */
+  private final Set<W> newWindows;
+
+  /**
+   * All ACTIVE windows which are not in {@link #newWindows}, sorted by their natural ordering.
+   * Only built if the window function asks for it while merging, after which it is maintained
+   * incrementally so that windows with a natural ordering (such as sessions) can be merged
+   * without considering every ACTIVE window.
+   *
+   * <p>Does not need to be persisted.
+   */
+  @Nullable
+  private NavigableSet<W> sortedMergedWindows;
+
   /**
    * Handle representing our state in the backend.
    */
@@ -118,6 +141,7 @@ public class MergingActiveWindowSet<W extends BoundedWindow> implements ActiveWi
     // available.
     activeWindowToStateAddressWindows = emptyIfNull(valueState.get().read());
     activeWindowToEphemeralWindows = new HashMap<>();
+    newWindows = new HashSet<>();
     originalActiveWindowToStateAddressWindows = deepCopy(activeWindowToStateAddressWindows);
     windowToActiveWindow = invert(activeWindowToStateAddressWindows);
   }
@@ -172,6 +196,7 @@ public class MergingActiveWindowSet<W extends BoundedWindow> implements ActiveWi
   public void addNew(W window) {
     if (!windowToActiveWindow.containsKey(window)) {
       activeWindowToStateAddressWindows.put(window, new HashSet<W>());
+      newWindows.add(window);
     }
   }
 
@@ -182,6 +207,8 @@ public class MergingActiveWindowSet<W extends BoundedWindow> implements ActiveWi
       stateAddressWindows.add(window);
       activeWindowToStateAddressWindows.put(window, stateAddressWindows);
       windowToActiveWindow.put(window, window);
+      // The window has not yet been considered for merging.
+      newWindows.add(window);
     }
   }
 
@@ -191,6 +218,10 @@ public class MergingActiveWindowSet<W extends BoundedWindow> implements ActiveWi
       windowToActiveWindow.remove(stateAddressWindow);
     }
     activeWindowToStateAddressWindows.remove(window);
+    newWindows.remove(window);
+    if (sortedMergedWindows != null) {
+      sortedMergedWindows.remove(window);
+    }
     Set<W> ephemeralWindows = activeWindowToEphemeralWindows.get(window);
     if (ephemeralWindows != null) {
       for (W ephemeralWindow : ephemeralWindows) {
@@ -218,6 +249,24 @@ public class MergingActiveWindowSet<W extends BoundedWindow> implements ActiveWi
     public void merge(Collection<W> toBeMerged, W mergeResult) throws Exception {
       recordMerge(mergeCallback, toBeMerged, mergeResult);
     }
+
+    @Override
+    public Collection<W> newWindows() {
+      return Collections.unmodifiableSet(newWindows);
+    }
+
+    @Override
+    public NavigableSet<W> previouslyMergedWindows() {
+      if (sortedMergedWindows == null) {
+        sortedMergedWindows = new TreeSet<>();
+        for (W window : activeWindowToStateAddressWindows.keySet()) {
+          if (!newWindows.contains(window)) {
+            sortedMergedWindows.add(window);
+          }
+        }
+      }
+      return Sets.unmodifiableNavigableSet(sortedMergedWindows);
+    }
   }
 
   @Override
@@ -225,14 +274,22 @@ public class MergingActiveWindowSet<W extends BoundedWindow> implements ActiveWi
     // See what the window function does with the NEW and already ACTIVE windows.
     windowFn.mergeWindows(new MergeContextImpl(mergeCallback));
 
-    for (Map.Entry<W, Set<W>> entry : activeWindowToStateAddressWindows.entrySet()) {
-      if (entry.getValue().isEmpty()) {
+    for (W window : newWindows) {
+      Set<W> stateAddressWindows = activeWindowToStateAddressWindows.get(window);
+      if (stateAddressWindows == null) {
+        // This window was merged away.
+        continue;
+      }
+      if (stateAddressWindows.isEmpty()) {
         // This window was NEW but since it survived merging must now become ACTIVE.
-        W window = entry.getKey();
-        entry.getValue().add(window);
+        stateAddressWindows.add(window);
         windowToActiveWindow.put(window, window);
       }
+      if (sortedMergedWindows != null) {
+        sortedMergedWindows.add(window);
+      }
     }
+    newWindows.clear();
   }
 
   /**
@@ -269,6 +326,10 @@ public class MergingActiveWindowSet<W extends BoundedWindow> implements ActiveWi
         windowToActiveWindow.put(otherStateAddressWindow, mergeResult);
       }
       activeWindowToStateAddressWindows.remove(other);
+      newWindows.remove(other);
+      if (sortedMergedWindows != null) {
+        sortedMergedWindows.remove(other);
+      }
 
       Set<W> otherEphemeralWindows = activeWindowToEphemeralWindows.get(other);
       if (otherEphemeralWindows != null) {
@@ -311,6 +372,10 @@ public class MergingActiveWindowSet<W extends BoundedWindow> implements ActiveWi
     windowToActiveWindow.put(mergeResult, mergeResult);
 
     activeWindowToStateAddressWindows.put(mergeResult, newStateAddressWindows);
+    newWindows.remove(mergeResult);
+    if (sortedMergedWindows != null) {
+      sortedMergedWindows.add(mergeResult);
+    }
     if (!newEphemeralWindows.isEmpty()) {
       activeWindowToEphemeralWindows.put(mergeResult, newEphemeralWindows);
     }
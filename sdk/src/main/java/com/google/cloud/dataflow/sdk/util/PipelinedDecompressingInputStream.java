@@ -0,0 +1,441 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.util;
+
+import static com.google.cloud.dataflow.sdk.util.common.Counter.AggregationKind.SUM;
+
+import com.google.cloud.dataflow.sdk.util.common.Counter;
+import com.google.cloud.dataflow.sdk.util.common.CounterSet;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.Nullable;
+
+/**
+ * An {@link InputStream} of decompressed data that reads and decompresses its compressed input
+ * ahead of the consumer on background threads.
+ *
+ * <p>One thread reads blocks of compressed data into a bounded queue, and another decompresses
+ * them into a bounded queue of decompressed buffers, from which this stream is read. Reading,
+ * decompressing and processing the decompressed data thus overlap, and at most a few buffers of
+ * each kind are held in memory.
+ *
+ * <p>The time each stage spends blocked on its neighbours is tracked, and optionally reported
+ * to counters, to show which stage limits the throughput of the pipeline.
+ *
+ * <p>This stream must be read from a single thread, and must be closed to stop the background
+ * threads if it is not read to its end.
+ */
+public class PipelinedDecompressingInputStream extends InputStream {
+  /**
+   * Decompresses a stream of compressed data.
+   */
+  public interface Decompressor {
+    /**
+     * Returns a stream of the decompressed contents of the given compressed stream.
+     */
+    InputStream decompress(InputStream compressed) throws IOException;
+  }
+
+  /**
+   * The stages of the pipeline.
+   */
+  public enum Stage {
+    /** Reads compressed data; blocked while decompression is behind. */
+    READ("read-blocked-msecs"),
+    /** Decompresses data; blocked while waiting for compressed data or for the consumer. */
+    DECOMPRESS("decompress-blocked-msecs"),
+    /** Consumes decompressed data; blocked while waiting for decompressed data. */
+    PROCESS("process-blocked-msecs");
+
+    private final String counterSuffix;
+
+    private Stage(String counterSuffix) {
+      this.counterSuffix = counterSuffix;
+    }
+  }
+
+  public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+  public static final int DEFAULT_QUEUE_DEPTH = 4;
+
+  // Threads are blocked on the queues of their stream most of the time, so a bounded pool could
+  // starve the stages of some streams. A cached pool keeps two threads per open stream instead.
+  private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(
+      new ThreadFactoryBuilder()
+          .setDaemon(true)
+          .setNameFormat("PipelinedDecompression-%d")
+          .build());
+
+  private static final Chunk END = new Chunk(null, -1, null);
+
+  private final int bufferSize;
+  private final InputStream compressed;
+  private final BlockingQueue<Chunk> compressedQueue;
+  private final BlockingQueue<Chunk> decompressedQueue;
+  private final BlockingQueue<byte[]> freeBuffers;
+  private final QueueInputStream decompressed;
+  private final AtomicLongArray blockedNanos = new AtomicLongArray(Stage.values().length);
+  private final AtomicLongArray reportedMillis = new AtomicLongArray(Stage.values().length);
+  @Nullable private final Map<Stage, Counter<Long>> blockedMsecsCounters;
+  private final StageTask readTask;
+  @Nullable private StageTask decompressTask;
+  private volatile boolean closed;
+
+  /**
+   * Creates a stream of the contents of {@code compressed} as decompressed by
+   * {@code decompressor}. {@link Decompressor#decompress} is called on the calling thread.
+   *
+   * <p>If {@code addCounterMutator} is not null, the time each {@link Stage} is blocked is
+   * reported to a counter named {@code <counterPrefix>-<stage>-blocked-msecs}.
+   */
+  public PipelinedDecompressingInputStream(InputStream compressed, Decompressor decompressor,
+      @Nullable CounterSet.AddCounterMutator addCounterMutator, @Nullable String counterPrefix)
+      throws IOException {
+    this(compressed, decompressor, addCounterMutator, counterPrefix, DEFAULT_BUFFER_SIZE,
+        DEFAULT_QUEUE_DEPTH);
+  }
+
+  @VisibleForTesting
+  PipelinedDecompressingInputStream(InputStream compressed, Decompressor decompressor,
+      @Nullable CounterSet.AddCounterMutator addCounterMutator, @Nullable String counterPrefix,
+      int bufferSize, int queueDepth) throws IOException {
+    Preconditions.checkArgument(bufferSize > 0, "bufferSize must be positive");
+    Preconditions.checkArgument(queueDepth > 0, "queueDepth must be positive");
+    this.bufferSize = bufferSize;
+    this.compressed = compressed;
+    this.compressedQueue = new ArrayBlockingQueue<>(queueDepth);
+    this.decompressedQueue = new ArrayBlockingQueue<>(queueDepth);
+    // Enough for every buffer in flight, so buffers are rarely allocated once the queues fill up.
+    this.freeBuffers = new ArrayBlockingQueue<>(2 * queueDepth + 4);
+    this.decompressed = new QueueInputStream(decompressedQueue, Stage.PROCESS);
+    if (addCounterMutator != null) {
+      blockedMsecsCounters = new EnumMap<>(Stage.class);
+      for (Stage stage : Stage.values()) {
+        blockedMsecsCounters.put(stage, addCounterMutator.addCounter(
+            Counter.longs(counterPrefix + "-" + stage.counterSuffix, SUM)));
+      }
+    } else {
+      blockedMsecsCounters = null;
+    }
+
+    readTask = start(new Runnable() {
+      @Override
+      public void run() {
+        produce(PipelinedDecompressingInputStream.this.compressed, compressedQueue, Stage.READ);
+      }
+    });
+    final InputStream decompressing;
+    try {
+      decompressing = decompressor.decompress(new QueueInputStream(compressedQueue,
+          Stage.DECOMPRESS));
+    } catch (IOException | RuntimeException e) {
+      close();
+      throw e;
+    }
+    decompressTask = start(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          produce(decompressing, decompressedQueue, Stage.DECOMPRESS);
+        } finally {
+          try {
+            decompressing.close();
+          } catch (IOException e) {
+            // Nothing more is read from it.
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Returns the total time in nanoseconds the given stage has spent blocked.
+   */
+  public long getBlockedNanos(Stage stage) {
+    return blockedNanos.get(stage.ordinal());
+  }
+
+  @Override
+  public int read() throws IOException {
+    checkNotClosed();
+    return decompressed.read();
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    checkNotClosed();
+    return decompressed.read(b, off, len);
+  }
+
+  @Override
+  public int available() throws IOException {
+    checkNotClosed();
+    return decompressed.available();
+  }
+
+  /**
+   * Stops the background threads, waits for them to finish, and then closes the compressed
+   * stream, so that the stream is never closed while a background thread is reading it.
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      if (decompressTask != null) {
+        decompressTask.stopAndAwait();
+      }
+      readTask.stopAndAwait();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while stopping decompression");
+    } finally {
+      compressedQueue.clear();
+      decompressedQueue.clear();
+      compressed.close();
+    }
+  }
+
+  private void checkNotClosed() throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+  }
+
+  private StageTask start(Runnable body) {
+    StageTask task = new StageTask(body);
+    EXECUTOR.execute(task);
+    return task;
+  }
+
+  /**
+   * Runs a stage of the pipeline on a background thread, unless the stream is closed before the
+   * thread starts, and lets {@link #close} interrupt the stage and wait for it to finish.
+   */
+  private class StageTask implements Runnable {
+    private final Runnable body;
+    // Guarded by this.
+    @Nullable private Thread thread;
+    private boolean finished;
+
+    StageTask(Runnable body) {
+      this.body = body;
+    }
+
+    @Override
+    public void run() {
+      synchronized (this) {
+        if (closed) {
+          finish();
+          return;
+        }
+        thread = Thread.currentThread();
+      }
+      try {
+        body.run();
+      } finally {
+        synchronized (this) {
+          thread = null;
+          finish();
+        }
+      }
+    }
+
+    synchronized void stopAndAwait() throws InterruptedException {
+      if (thread != null) {
+        thread.interrupt();
+      }
+      while (!finished) {
+        wait();
+      }
+    }
+
+    // Called with the lock held.
+    private void finish() {
+      finished = true;
+      notifyAll();
+    }
+  }
+
+  /**
+   * Copies {@code in} to {@code queue} in buffers, followed by {@link #END} or the failure that
+   * ended the copy.
+   */
+  private void produce(InputStream in, BlockingQueue<Chunk> queue, Stage stage) {
+    Chunk last;
+    try {
+      int length;
+      do {
+        byte[] buffer = freeBuffers.poll();
+        if (buffer == null) {
+          buffer = new byte[bufferSize];
+        }
+        length = ByteStreams.read(in, buffer, 0, bufferSize);
+        if (length > 0) {
+          put(queue, new Chunk(buffer, length, null), stage);
+        }
+      } while (length == bufferSize && !closed);
+      last = END;
+    } catch (InterruptedException e) {
+      // Closed while blocked on the queue.
+      return;
+    } catch (IOException | RuntimeException e) {
+      last = new Chunk(null, -1, e);
+    }
+    try {
+      put(queue, last, stage);
+    } catch (InterruptedException e) {
+      // Closed while blocked on the queue.
+    }
+  }
+
+  private void put(BlockingQueue<Chunk> queue, Chunk chunk, Stage stage)
+      throws InterruptedException {
+    if (!queue.offer(chunk)) {
+      long start = System.nanoTime();
+      queue.put(chunk);
+      recordBlocked(stage, System.nanoTime() - start);
+    }
+  }
+
+  private Chunk take(BlockingQueue<Chunk> queue, Stage stage) throws InterruptedException {
+    Chunk chunk = queue.poll();
+    if (chunk == null) {
+      long start = System.nanoTime();
+      chunk = queue.take();
+      recordBlocked(stage, System.nanoTime() - start);
+    }
+    return chunk;
+  }
+
+  /**
+   * Adds to the blocked time of a stage. Each stage runs on a single thread, so the time reported
+   * to its counter is not updated concurrently.
+   */
+  private void recordBlocked(Stage stage, long nanos) {
+    long total = blockedNanos.addAndGet(stage.ordinal(), nanos);
+    if (blockedMsecsCounters != null) {
+      long millis = TimeUnit.NANOSECONDS.toMillis(total);
+      long reported = reportedMillis.getAndSet(stage.ordinal(), millis);
+      if (millis > reported) {
+        blockedMsecsCounters.get(stage).addValue(millis - reported);
+      }
+    }
+  }
+
+  /**
+   * A buffer of data, or the end of the data, or the failure that ended the data.
+   */
+  private static class Chunk {
+    @Nullable final byte[] buffer;
+    final int length;
+    @Nullable final Exception failure;
+
+    Chunk(@Nullable byte[] buffer, int length, @Nullable Exception failure) {
+      this.buffer = buffer;
+      this.length = length;
+      this.failure = failure;
+    }
+  }
+
+  /**
+   * Reads the chunks of a queue, returning their buffers for reuse once read.
+   */
+  private class QueueInputStream extends InputStream {
+    private final BlockingQueue<Chunk> queue;
+    private final Stage stage;
+    private Chunk chunk;
+    private int position;
+
+    QueueInputStream(BlockingQueue<Chunk> queue, Stage stage) {
+      this.queue = queue;
+      this.stage = stage;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (!fill()) {
+        return -1;
+      }
+      return chunk.buffer[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      Preconditions.checkPositionIndexes(off, off + len, b.length);
+      if (len == 0) {
+        return 0;
+      }
+      if (!fill()) {
+        return -1;
+      }
+      int read = Math.min(len, chunk.length - position);
+      System.arraycopy(chunk.buffer, position, b, off, read);
+      position += read;
+      return read;
+    }
+
+    @Override
+    public int available() {
+      return chunk == null || chunk.buffer == null ? 0 : chunk.length - position;
+    }
+
+    /**
+     * Makes the current chunk one with data left to read, or returns false at the end of the data.
+     */
+    private boolean fill() throws IOException {
+      if (chunk != null) {
+        if (chunk.failure != null) {
+          Throwables.propagateIfPossible(chunk.failure, IOException.class);
+          throw new IOException(chunk.failure);
+        }
+        if (chunk == END) {
+          return false;
+        }
+        if (position < chunk.length) {
+          return true;
+        }
+        freeBuffers.offer(chunk.buffer);
+      }
+      try {
+        chunk = take(queue, stage);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for data");
+      }
+      position = 0;
+      return fill();
+    }
+  }
+}
@@ -18,6 +18,7 @@ package com.google.cloud.dataflow.sdk.util;
 import com.google.cloud.dataflow.sdk.transforms.Aggregator;
 import com.google.cloud.dataflow.sdk.transforms.GroupByKey.GroupByKeyOnly;
 import com.google.cloud.dataflow.sdk.transforms.windowing.BoundedWindow;
+import com.google.cloud.dataflow.sdk.transforms.windowing.DefaultTrigger;
 import com.google.cloud.dataflow.sdk.transforms.windowing.OutputTimeFn;
 import com.google.cloud.dataflow.sdk.transforms.windowing.PaneInfo;
 import com.google.cloud.dataflow.sdk.transforms.windowing.PaneInfo.Timing;
@@ -44,6 +45,7 @@ import org.joda.time.Instant;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -75,6 +77,8 @@ import java.util.Set;
 public class ReduceFnRunner<K, InputT, OutputT, W extends BoundedWindow> {
   public static final String DROPPED_DUE_TO_CLOSED_WINDOW_COUNTER = "DroppedDueToClosedWindow";
   public static final String DROPPED_DUE_TO_LATENESS_COUNTER = "DroppedDueToLateness";
+  public static final String WATERMARK_HOLD_WRITES_AVOIDED_COUNTER =
+      "WatermarkHoldWritesAvoided";
 
   private final WindowingStrategy<Object, W> windowingStrategy;
 
@@ -174,10 +178,16 @@ public class ReduceFnRunner<K, InputT, OutputT, W extends BoundedWindow> {
    */
   private final NonEmptyPanes<W> nonEmptyPanes;
 
+  /**
+   * True if the trigger does not need to observe individual elements, in which case
+   * {@link #processElements} processes all the values for each window together.
+   */
+  private final boolean processValuesPerWindow;
+
   public ReduceFnRunner(K key, WindowingStrategy<?, W> windowingStrategy,
       TimerInternals timerInternals, WindowingInternals<?, KV<K, OutputT>> windowingInternals,
       Aggregator<Long, Long> droppedDueToClosedWindow, Aggregator<Long, Long> droppedDueToLateness,
-      ReduceFn<K, InputT, OutputT, W> reduceFn) {
+      Aggregator<Long, Long> watermarkHoldWritesAvoided, ReduceFn<K, InputT, OutputT, W> reduceFn) {
     this.key = key;
     this.timerInternals = timerInternals;
     this.paneInfoTracker = new PaneInfoTracker(timerInternals);
@@ -198,11 +208,16 @@ public class ReduceFnRunner<K, InputT, OutputT, W extends BoundedWindow> {
         new ReduceFnContextFactory<K, InputT, OutputT, W>(key, reduceFn, this.windowingStrategy,
             this.windowingInternals.stateInternals(), this.activeWindows, timerInternals);
 
-    this.watermarkHold = new WatermarkHold<>(timerInternals, windowingStrategy);
+    this.watermarkHold = new WatermarkHold<>(
+        timerInternals, windowingStrategy, watermarkHoldWritesAvoided);
     this.triggerRunner = new TriggerRunner<>(
         windowingStrategy.getTrigger(),
         new TriggerContextFactory<>(
             windowingStrategy, this.windowingInternals.stateInternals(), activeWindows));
+    // The DefaultTrigger only sets the end-of-window timer for each element, which need only
+    // be done once per window.
+    this.processValuesPerWindow =
+        windowingStrategy.getTrigger().getSpec() instanceof DefaultTrigger;
   }
 
   private ActiveWindowSet<W> createActiveWindowSet() {
@@ -213,7 +228,7 @@ public class ReduceFnRunner<K, InputT, OutputT, W extends BoundedWindow> {
 
   @VisibleForTesting
   boolean isFinished(W window) {
-    return triggerRunner.isClosed(contextFactory.base(window).state());
+    return triggerRunner.isClosed(contextFactory.base(window));
   }
 
   /**
@@ -251,8 +266,12 @@ public class ReduceFnRunner<K, InputT, OutputT, W extends BoundedWindow> {
     }
 
     // Process each element, using the updated activeWindows determined by collectAndMergeWindows.
-    for (WindowedValue<InputT> value : values) {
-      processElement(results, value);
+    if (processValuesPerWindow) {
+      processElementsPerWindow(results, values);
+    } else {
+      for (WindowedValue<InputT> value : values) {
+        processElement(results, value);
+      }
     }
 
     // Trigger output from any window that was triggered by merging or processing elements.
@@ -266,6 +285,8 @@ public class ReduceFnRunner<K, InputT, OutputT, W extends BoundedWindow> {
   }
 
   public void persist() {
+    watermarkHold.persist();
+    triggerRunner.persist();
     activeWindows.persist();
   }
 
@@ -301,7 +322,7 @@ public class ReduceFnRunner<K, InputT, OutputT, W extends BoundedWindow> {
         }
 
         ReduceFn<K, InputT, OutputT, W>.Context context = contextFactory.base(window);
-        if (triggerRunner.isClosed(context.state())) {
+        if (triggerRunner.isClosed(context)) {
           // This window has already been closed.
           // We will update the counter for this in the corresponding processElement call.
           continue;
@@ -339,7 +360,7 @@ public class ReduceFnRunner<K, InputT, OutputT, W extends BoundedWindow> {
               contextFactory.forMerge(toBeMerged, mergeResult);
 
           // Prefetch various state.
-          triggerRunner.prefetchForMerge(mergeResultContext.state());
+          triggerRunner.prefetchForMerge(mergeResultContext);
 
           // Run the reduceFn to perform any needed merging.
           try {
@@ -399,35 +420,14 @@ public class ReduceFnRunner<K, InputT, OutputT, W extends BoundedWindow> {
    * @param value the value being processed
    */
   private void processElement(Map<W, TriggerResult> results, WindowedValue<InputT> value) {
-    // Redirect element windows to the ACTIVE windows they have been merged into.
-    // It is possible two of the element's windows have been merged into the same window.
-    // In that case we'll process the same element for the same window twice.
-    @SuppressWarnings("unchecked")
-    Collection<W> windows = new ArrayList<>();
-    for (BoundedWindow untypedWindow : value.getWindows()) {
-      @SuppressWarnings("unchecked")
-      W window = (W) untypedWindow;
-      if (canDropDueToExpiredWindow(window)) {
-        // The element is too late for this window.
-        droppedDueToLateness.addValue(1L);
-        WindowTracing.debug(
-            "ReduceFnRunner.processElement: Dropping element at {} for key:{}; window:{} "
-            + "since too far behind inputWatermark:{}; outputWatermark:{}",
-            value.getTimestamp(), key, window, timerInternals.currentInputWatermarkTime(),
-            timerInternals.currentOutputWatermarkTime());
-      } else {
-        W active = activeWindows.representative(window);
-        Preconditions.checkState(active != null, "Window %s should have been added", window);
-        windows.add(active);
-      }
-    }
+    Collection<W> windows = activeWindowsForValue(value);
 
     // Prefetch in each of the windows if we're going to need to process triggers
     for (W window : windows) {
       if (!results.containsKey(window)) {
         ReduceFn<K, InputT, OutputT, W>.ProcessValueContext context =
             contextFactory.forValue(window, value.getValue(), value.getTimestamp());
-        triggerRunner.prefetchForValue(context.state());
+        triggerRunner.prefetchForValue(context);
       }
     }
 
@@ -437,7 +437,7 @@ public class ReduceFnRunner<K, InputT, OutputT, W extends BoundedWindow> {
           contextFactory.forValue(window, value.getValue(), value.getTimestamp());
 
       // Check to see if the triggerRunner thinks the window is closed. If so, drop that window.
-      if (!results.containsKey(window) && triggerRunner.isClosed(context.state())) {
+      if (!results.containsKey(window) && triggerRunner.isClosed(context)) {
         droppedDueToClosedWindow.addValue(1L);
         WindowTracing.debug(
             "ReduceFnRunner.processElement: Dropping element at {} for key:{}; window:{} "
@@ -483,6 +483,128 @@ public class ReduceFnRunner<K, InputT, OutputT, W extends BoundedWindow> {
     }
   }
 
+  /**
+   * Return the ACTIVE windows {@code value} should be processed in, dropping (and counting) any
+   * of its windows which are too late.
+   *
+   * <p>It is possible two of the element's windows have been merged into the same window.
+   * In that case the same window is returned twice, and we'll process the same element for
+   * the same window twice.
+   */
+  private Collection<W> activeWindowsForValue(WindowedValue<InputT> value) {
+    // Redirect element windows to the ACTIVE windows they have been merged into.
+    Collection<W> windows = new ArrayList<>();
+    for (BoundedWindow untypedWindow : value.getWindows()) {
+      @SuppressWarnings("unchecked")
+      W window = (W) untypedWindow;
+      if (canDropDueToExpiredWindow(window)) {
+        // The element is too late for this window.
+        droppedDueToLateness.addValue(1L);
+        WindowTracing.debug(
+            "ReduceFnRunner.processElement: Dropping element at {} for key:{}; window:{} "
+            + "since too far behind inputWatermark:{}; outputWatermark:{}",
+            value.getTimestamp(), key, window, timerInternals.currentInputWatermarkTime(),
+            timerInternals.currentOutputWatermarkTime());
+      } else {
+        W active = activeWindows.representative(window);
+        Preconditions.checkState(active != null, "Window %s should have been added", window);
+        windows.add(active);
+      }
+    }
+
+    return windows;
+  }
+
+  /**
+   * Process {@code values} grouped by the ACTIVE window they are processed in. This is only
+   * valid if the trigger does not need to observe each element, in which case the closed check,
+   * non-empty pane tracking, watermark holds and trigger are handled once per window rather
+   * than once per element.
+   *
+   * @param results a record of all of the windows that have had the trigger return FIRE or
+   *     FIRE_AND_FINISH.
+   * @param values the values being processed
+   */
+  private void processElementsPerWindow(
+      Map<W, TriggerResult> results, Iterable<WindowedValue<InputT>> values) {
+    Map<W, List<WindowedValue<InputT>>> valuesByWindow = new LinkedHashMap<>();
+    for (WindowedValue<InputT> value : values) {
+      for (W window : activeWindowsForValue(value)) {
+        List<WindowedValue<InputT>> windowValues = valuesByWindow.get(window);
+        if (windowValues == null) {
+          windowValues = new ArrayList<>();
+          valuesByWindow.put(window, windowValues);
+        }
+        windowValues.add(value);
+      }
+    }
+
+    // Prefetch in each of the windows if we're going to need to process triggers
+    for (W window : valuesByWindow.keySet()) {
+      if (!results.containsKey(window)) {
+        triggerRunner.prefetchForValue(contextFactory.base(window));
+      }
+    }
+
+    for (Map.Entry<W, List<WindowedValue<InputT>>> entry : valuesByWindow.entrySet()) {
+      W window = entry.getKey();
+      List<WindowedValue<InputT>> windowValues = entry.getValue();
+      WindowedValue<InputT> firstValue = windowValues.get(0);
+      ReduceFn<K, InputT, OutputT, W>.ProcessValueContext firstContext =
+          contextFactory.forValue(window, firstValue.getValue(), firstValue.getTimestamp());
+
+      // Check to see if the triggerRunner thinks the window is closed. If so, drop that window.
+      if (!results.containsKey(window) && triggerRunner.isClosed(firstContext)) {
+        droppedDueToClosedWindow.addValue((long) windowValues.size());
+        WindowTracing.debug(
+            "ReduceFnRunner.processElementsPerWindow: Dropping {} elements for key:{}; window:{} "
+            + "since window is no longer active at inputWatermark:{}; outputWatermark:{}",
+            windowValues.size(), key, window, timerInternals.currentInputWatermarkTime(),
+            timerInternals.currentOutputWatermarkTime());
+        continue;
+      }
+
+      nonEmptyPanes.recordContent(firstContext);
+
+      // Make sure we've scheduled the end-of-window or garbage collection timer for this window
+      // However if we have pre-merged then they will already have been scheduled.
+      if (windowingStrategy.getWindowFn().isNonMerging()) {
+        scheduleEndOfWindowOrGarbageCollectionTimer(firstContext);
+      }
+
+      // Hold back progress of the output watermark for all the elements at once.
+      List<Instant> timestamps = new ArrayList<>(windowValues.size());
+      for (WindowedValue<InputT> value : windowValues) {
+        timestamps.add(value.getTimestamp());
+      }
+      watermarkHold.addHolds(firstContext, timestamps);
+
+      // Execute the reduceFn, which will buffer the values as appropriate
+      try {
+        reduceFn.processValue(firstContext);
+        for (WindowedValue<InputT> value : windowValues.subList(1, windowValues.size())) {
+          reduceFn.processValue(
+              contextFactory.forValue(window, value.getValue(), value.getTimestamp()));
+        }
+      } catch (Exception e) {
+        throw wrapMaybeUserException(e);
+      }
+
+      // Run the trigger once for the window and handle the result as appropriate
+      if (!results.containsKey(window)) {
+        try {
+          TriggerResult result = triggerRunner.processValue(firstContext);
+          if (result.isFire()) {
+            results.put(window, result);
+          }
+        } catch (Exception e) {
+          Throwables.propagateIfPossible(e);
+          throw new RuntimeException("Failed to run trigger", e);
+        }
+      }
+    }
+  }
+
   /**
    * Called when an end-of-window, garbage collection, or trigger-specific timer fires.
    */
@@ -521,7 +643,7 @@ public class ReduceFnRunner<K, InputT, OutputT, W extends BoundedWindow> {
           key, window, timer.getTimestamp(), timerInternals.currentInputWatermarkTime(),
           timerInternals.currentOutputWatermarkTime());
 
-      if (activeWindows.isActive(window) && !triggerRunner.isClosed(context.state())) {
+      if (activeWindows.isActive(window) && !triggerRunner.isClosed(context)) {
         // We need to call onTrigger to emit the final pane if required.
         // The final pane *may* be ON_TIME if:
         // - AllowedLateness = 0 (ie the timer is at end-of-window), and;
@@ -545,7 +667,7 @@ public class ReduceFnRunner<K, InputT, OutputT, W extends BoundedWindow> {
           + "inputWatermark:{}; outputWatermark:{}",
           key, window, timer.getTimestamp(), timerInternals.currentInputWatermarkTime(),
           timerInternals.currentOutputWatermarkTime());
-      if (activeWindows.isActive(window) && !triggerRunner.isClosed(context.state())) {
+      if (activeWindows.isActive(window) && !triggerRunner.isClosed(context)) {
         TriggerResult result = runTriggersForTimer(context, timer);
         handleTriggerResult(context, isEndOfWindowTimer, result);
       }
@@ -571,7 +693,7 @@ public class ReduceFnRunner<K, InputT, OutputT, W extends BoundedWindow> {
 
   private TriggerResult runTriggersForTimer(
       ReduceFn<K, InputT, OutputT, W>.Context context, TimerData timer) {
-    triggerRunner.prefetchForTimer(context.state());
+    triggerRunner.prefetchForTimer(context);
 
     try {
       return triggerRunner.onTimer(context, timer);
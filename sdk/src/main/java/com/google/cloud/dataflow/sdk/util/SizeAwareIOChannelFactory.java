@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.google.cloud.dataflow.sdk.util;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * An {@link IOChannelFactory} that can report the sizes of the resources it matches along with
+ * the matches, typically because its listings already contain them. This is much cheaper than
+ * calling {@link #getSizeBytes} for each match of a pattern matching many resources.
+ */
+public interface SizeAwareIOChannelFactory extends IOChannelFactory {
+
+  /**
+   * Matches a specification, which may contain globs, against available resources like
+   * {@link #match}, and returns the size in bytes of each match, in the order of the matches.
+   *
+   * <p>Implementations may throw {@link java.io.FileNotFoundException} for a specification
+   * without globs that does not name an existing resource.
+   */
+  Map<String, Long> matchWithSizes(String spec) throws IOException;
+}
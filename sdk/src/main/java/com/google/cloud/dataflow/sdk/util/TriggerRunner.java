@@ -29,6 +29,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
 
 import java.util.BitSet;
+import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -52,13 +53,48 @@ public class TriggerRunner<W extends BoundedWindow> {
   private final ExecutableTrigger<W> rootTrigger;
   private final TriggerContextFactory<W> contextFactory;
 
+  /**
+   * The finished bits for each window read or written since this runner was created. Changes
+   * are only written back to state by {@link #persist}, so elements for the same window within
+   * a bundle read and write the finished bits at most once.
+   */
+  private final Map<W, CachedFinishedBits> finishedBitsCache = new HashMap<>();
+
   public TriggerRunner(ExecutableTrigger<W> rootTrigger, TriggerContextFactory<W> contextFactory) {
     Preconditions.checkState(rootTrigger.getTriggerIndex() == 0);
     this.rootTrigger = rootTrigger;
     this.contextFactory = contextFactory;
   }
 
-  private BitSet readFinishedBits(ValueState<BitSet> state) {
+  /**
+   * The finished bits for a single window, along with the state they were read from and whether
+   * they have been modified since.
+   */
+  private static class CachedFinishedBits {
+    private final ValueState<BitSet> state;
+    private BitSet bits;
+    private boolean dirty;
+
+    private CachedFinishedBits(ValueState<BitSet> state, BitSet bits) {
+      this.state = state;
+      this.bits = bits;
+    }
+  }
+
+  private CachedFinishedBits cachedFinishedBits(W window, ReduceFn.StateContext state) {
+    CachedFinishedBits cached = finishedBitsCache.get(window);
+    return cached == null ? readIntoCache(window, state.access(FINISHED_BITS_TAG)) : cached;
+  }
+
+  private CachedFinishedBits readIntoCache(W window, ValueState<BitSet> state) {
+    BitSet bitSet = state.get().read();
+    CachedFinishedBits cached = new CachedFinishedBits(state,
+        bitSet == null ? new BitSet(rootTrigger.getFirstIndexAfterSubtree()) : bitSet);
+    finishedBitsCache.put(window, cached);
+    return cached;
+  }
+
+  private BitSet readFinishedBits(W window, ReduceFn.StateContext state) {
     if (!isFinishedSetNeeded()) {
       // If no trigger in the tree will ever have finished bits, then we don't need to read them.
       // So that the code can be agnostic to that fact, we create a BitSet that is all 0 (not
@@ -66,20 +102,32 @@ public class TriggerRunner<W extends BoundedWindow> {
       return new BitSet(rootTrigger.getFirstIndexAfterSubtree());
     }
 
-    BitSet bitSet = state.get().read();
-    return bitSet == null ? new BitSet(rootTrigger.getFirstIndexAfterSubtree()) : bitSet;
+    return cachedFinishedBits(window, state).bits;
   }
 
-  /** Return true if the trigger is closed in the window corresponding to the specified state. */
-  public boolean isClosed(ReduceFn.StateContext state) {
-    return readFinishedBits(state.access(FINISHED_BITS_TAG)).get(0);
+  private BitSet readMergingFinishedBits(
+      W window, Map<BoundedWindow, ValueState<BitSet>> mergingFinishedSetState) {
+    if (!isFinishedSetNeeded()) {
+      return new BitSet(rootTrigger.getFirstIndexAfterSubtree());
+    }
+
+    CachedFinishedBits cached = finishedBitsCache.get(window);
+    if (cached == null) {
+      cached = readIntoCache(window, mergingFinishedSetState.get(window));
+    }
+    return cached.bits;
   }
 
-  public void prefetchForValue(ReduceFn.StateContext state) {
-    if (isFinishedSetNeeded()) {
-      state.access(FINISHED_BITS_TAG).get();
+  /** Return true if the trigger is closed in the window corresponding to the specified context. */
+  public boolean isClosed(ReduceFn<?, ?, ?, W>.Context c) {
+    return readFinishedBits(c.window(), c.state()).get(0);
+  }
+
+  public void prefetchForValue(ReduceFn<?, ?, ?, W>.Context c) {
+    if (isFinishedSetNeeded() && !finishedBitsCache.containsKey(c.window())) {
+      c.state().access(FINISHED_BITS_TAG).get();
     }
-    rootTrigger.getSpec().prefetchOnElement(state);
+    rootTrigger.getSpec().prefetchOnElement(c.state());
   }
 
   /**
@@ -87,22 +135,25 @@ public class TriggerRunner<W extends BoundedWindow> {
    */
   public TriggerResult processValue(ReduceFn<?, ?, ?, W>.ProcessValueContext c) throws Exception {
     // Clone so that we can detect changes and so that changes here don't pollute merging.
-    BitSet finishedSet = (BitSet) readFinishedBits(c.state().access(FINISHED_BITS_TAG)).clone();
+    BitSet finishedSet = (BitSet) readFinishedBits(c.window(), c.state()).clone();
     Trigger<W>.OnElementContext triggerContext = contextFactory.createOnElementContext(
         c.window(), c.timers(), c.timestamp(), rootTrigger, finishedSet);
     TriggerResult result = rootTrigger.invokeElement(triggerContext);
-    persistFinishedSet(c.state(), finishedSet);
+    updateFinishedSet(c, finishedSet);
     return result;
   }
 
-  public void prefetchForMerge(ReduceFn.MergingStateContext state) {
+  public void prefetchForMerge(ReduceFn<?, ?, ?, W>.OnMergeContext c) {
     if (isFinishedSetNeeded()) {
-      for (ValueState<?> value :
-          state.mergingAccessInEachMergingWindow(FINISHED_BITS_TAG).values()) {
-        value.get();
+      Map<BoundedWindow, ValueState<BitSet>> mergingFinishedSetState =
+          c.state().mergingAccessInEachMergingWindow(FINISHED_BITS_TAG);
+      for (W window : c.mergingWindows()) {
+        if (!finishedBitsCache.containsKey(window)) {
+          mergingFinishedSetState.get(window).get();
+        }
       }
     }
-    rootTrigger.getSpec().prefetchOnMerge(state);
+    rootTrigger.getSpec().prefetchOnMerge(c.state());
   }
 
   /**
@@ -110,7 +161,7 @@ public class TriggerRunner<W extends BoundedWindow> {
    */
   public TriggerResult onMerge(ReduceFn<?, ?, ?, W>.OnMergeContext c) throws Exception {
     // Clone so that we can detect changes and so that changes here don't pollute merging.
-    BitSet finishedSet = (BitSet) readFinishedBits(c.state().access(FINISHED_BITS_TAG)).clone();
+    BitSet finishedSet = (BitSet) readFinishedBits(c.window(), c.state()).clone();
 
     // And read the finished bits in each merging window.
     ImmutableMap.Builder<W, BitSet> mergingFinishedSets = ImmutableMap.builder();
@@ -118,7 +169,7 @@ public class TriggerRunner<W extends BoundedWindow> {
         c.state().mergingAccessInEachMergingWindow(FINISHED_BITS_TAG);
     for (W window : c.mergingWindows()) {
       // Don't need to clone these, since the trigger context doesn't allow modification
-      mergingFinishedSets.put(window, readFinishedBits(mergingFinishedSetState.get(window)));
+      mergingFinishedSets.put(window, readMergingFinishedBits(window, mergingFinishedSetState));
     }
 
     Trigger<W>.OnMergeContext mergeContext = contextFactory.createOnMergeContext(
@@ -131,15 +182,15 @@ public class TriggerRunner<W extends BoundedWindow> {
       throw new IllegalStateException("Root trigger returned MergeResult.ALREADY_FINISHED.");
     }
 
-    persistFinishedSet(c.state(), finishedSet);
+    updateFinishedSet(c, finishedSet);
     return result.getTriggerResult();
   }
 
-  public void prefetchForTimer(ReduceFn.StateContext state) {
-    if (isFinishedSetNeeded()) {
-      state.access(FINISHED_BITS_TAG).get();
+  public void prefetchForTimer(ReduceFn<?, ?, ?, W>.Context c) {
+    if (isFinishedSetNeeded() && !finishedBitsCache.containsKey(c.window())) {
+      c.state().access(FINISHED_BITS_TAG).get();
     }
-    rootTrigger.getSpec().prefetchOnElement(state);
+    rootTrigger.getSpec().prefetchOnElement(c.state());
   }
 
   /**
@@ -147,27 +198,28 @@ public class TriggerRunner<W extends BoundedWindow> {
    */
   public TriggerResult onTimer(ReduceFn<?, ?, ?, W>.Context c, TimerData timer) throws Exception {
     // Clone so that we can detect changes and so that changes here don't pollute merging.
-    BitSet finishedSet = (BitSet) readFinishedBits(c.state().access(FINISHED_BITS_TAG)).clone();
+    BitSet finishedSet = (BitSet) readFinishedBits(c.window(), c.state()).clone();
     Trigger<W>.OnTimerContext triggerContext = contextFactory.createOnTimerContext(
         c.window(), c.timers(), rootTrigger, finishedSet,
         timer.getTimestamp(), timer.getDomain());
     TriggerResult result = rootTrigger.invokeTimer(triggerContext);
-    persistFinishedSet(c.state(), finishedSet);
+    updateFinishedSet(c, finishedSet);
     return result;
   }
 
-  private void persistFinishedSet(ReduceFn.StateContext state, BitSet modifiedFinishedSet) {
+  /**
+   * Record {@code modifiedFinishedSet} as the finished bits for the window of {@code c}. The
+   * change is not written to state until {@link #persist}.
+   */
+  private void updateFinishedSet(ReduceFn<?, ?, ?, W>.Context c, BitSet modifiedFinishedSet) {
     if (!isFinishedSetNeeded()) {
       return;
     }
 
-    ValueState<BitSet> finishedSet = state.access(FINISHED_BITS_TAG);
-    if (!finishedSet.get().equals(modifiedFinishedSet)) {
-      if (modifiedFinishedSet.isEmpty()) {
-        finishedSet.clear();
-      } else {
-        finishedSet.set(modifiedFinishedSet);
-      }
+    CachedFinishedBits cached = cachedFinishedBits(c.window(), c.state());
+    if (!cached.bits.equals(modifiedFinishedSet)) {
+      cached.bits = modifiedFinishedSet;
+      cached.dirty = true;
     }
   }
 
@@ -177,7 +229,7 @@ public class TriggerRunner<W extends BoundedWindow> {
    */
   public void clearState(ReduceFn<?, ?, ?, W>.Context c) throws Exception {
     // Don't need to clone, because we'll be clearing the finished bits anyways.
-    BitSet finishedSet = readFinishedBits(c.state().access(FINISHED_BITS_TAG));
+    BitSet finishedSet = readFinishedBits(c.window(), c.state());
     rootTrigger.invokeClear(contextFactory.base(
         c.window(), c.timers(), rootTrigger, finishedSet));
   }
@@ -189,7 +241,27 @@ public class TriggerRunner<W extends BoundedWindow> {
   public void clearEverything(ReduceFn<?, ?, ?, W>.Context c) throws Exception {
     clearState(c);
     if (isFinishedSetNeeded()) {
-      c.state().access(FINISHED_BITS_TAG).clear();
+      // Blindly clear the finished bits, even if they were never read or were already empty.
+      CachedFinishedBits cached = new CachedFinishedBits(
+          c.state().access(FINISHED_BITS_TAG), new BitSet(rootTrigger.getFirstIndexAfterSubtree()));
+      cached.dirty = true;
+      finishedBitsCache.put(c.window(), cached);
+    }
+  }
+
+  /**
+   * Write back any finished bits which have been modified since they were read.
+   */
+  public void persist() {
+    for (CachedFinishedBits cached : finishedBitsCache.values()) {
+      if (cached.dirty) {
+        if (cached.bits.isEmpty()) {
+          cached.state.clear();
+        } else {
+          cached.state.set(cached.bits);
+        }
+        cached.dirty = false;
+      }
     }
   }
 
@@ -20,6 +20,7 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 /**
  * Variable-length encoding for integers.
@@ -94,6 +95,45 @@ public class VarInt {
     return result;
   }
 
+  /**
+   * Decodes an integer value from the given buffer, advancing its position past the encoding.
+   */
+  public static int decodeInt(ByteBuffer buffer) throws IOException {
+    long r = decodeLong(buffer);
+    if (r < 0 || r >= 1L << 32) {
+      throw new IOException("varint overflow " + r);
+    }
+    return (int) r;
+  }
+
+  /**
+   * Decodes a long value from the given buffer, advancing its position past the encoding.
+   */
+  public static long decodeLong(ByteBuffer buffer) throws IOException {
+    long result = 0;
+    int shift = 0;
+    int b;
+    do {
+      // Get 7 bits from next byte
+      if (!buffer.hasRemaining()) {
+        if (shift == 0) {
+          throw new EOFException();
+        } else {
+          throw new IOException("varint not terminated");
+        }
+      }
+      b = buffer.get();
+      long bits = b & 0x7F;
+      if (shift >= 64 || (shift == 63 && bits > 1)) {
+        // Out of range
+        throw new IOException("varint too long");
+      }
+      result |= bits << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return result;
+  }
+
   /**
    * Returns the length of the encoding of the given value (in bytes).
    */
@@ -15,6 +15,7 @@
  */
 package com.google.cloud.dataflow.sdk.util;
 
+import com.google.cloud.dataflow.sdk.transforms.Aggregator;
 import com.google.cloud.dataflow.sdk.transforms.windowing.BoundedWindow;
 import com.google.cloud.dataflow.sdk.transforms.windowing.OutputTimeFn;
 import com.google.cloud.dataflow.sdk.transforms.windowing.OutputTimeFns;
@@ -30,6 +31,8 @@ import org.joda.time.Duration;
 import org.joda.time.Instant;
 
 import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Implements the logic needed to hold the output watermark for a computation back
@@ -67,11 +70,36 @@ public class WatermarkHold<W extends BoundedWindow> implements Serializable {
   private final TimerInternals timerInternals;
   private final WindowingStrategy<?, W> windowingStrategy;
   private final StateTag<WatermarkStateInternal> elementHoldTag;
+  private final Aggregator<Long, Long> holdWritesAvoided;
 
-  public WatermarkHold(TimerInternals timerInternals, WindowingStrategy<?, W> windowingStrategy) {
+  /**
+   * Element holds which have been added since they were last written to state, keyed by window.
+   * Each is the combination under the {@link OutputTimeFn} of all the element holds added
+   * to its window, so at most one element hold per window is written to state per
+   * {@link #persist}.
+   */
+  private final Map<W, PendingHold> pendingElementHolds = new HashMap<>();
+
+  public WatermarkHold(TimerInternals timerInternals, WindowingStrategy<?, W> windowingStrategy,
+      Aggregator<Long, Long> holdWritesAvoided) {
     this.timerInternals = timerInternals;
     this.windowingStrategy = windowingStrategy;
     this.elementHoldTag = watermarkHoldTagForOutputTimeFn(windowingStrategy.getOutputTimeFn());
+    this.holdWritesAvoided = holdWritesAvoided;
+  }
+
+  /**
+   * An element hold which has not yet been written to state, together with the state it
+   * will be written to.
+   */
+  private static class PendingHold {
+    private final WatermarkStateInternal state;
+    private Instant hold;
+    private long count;
+
+    private PendingHold(WatermarkStateInternal state) {
+      this.state = state;
+    }
   }
 
   /**
@@ -182,6 +210,41 @@ public class WatermarkHold<W extends BoundedWindow> implements Serializable {
     }
   }
 
+  /**
+   * As for {@link #addHolds(ReduceFn.ProcessValueContext)}, but for all the elements with the
+   * given {@code timestamps} in the window of {@code context} at once. The element holds are
+   * combined using the {@link OutputTimeFn} before being added, so at most one element hold and
+   * one end-of-window or garbage collection hold are added to state.
+   */
+  public void addHolds(ReduceFn<?, ?, ?, W>.Context context, Iterable<Instant> timestamps) {
+    OutputTimeFn<? super W> outputTimeFn = windowingStrategy.getOutputTimeFn();
+    Instant outputWM = timerInternals.currentOutputWatermarkTime();
+    Instant combinedHold = null;
+    long count = 0;
+    boolean anyTooLate = false;
+    for (Instant timestamp : timestamps) {
+      Instant elementHold = shift(timestamp, context.window());
+      if (outputWM != null && elementHold.isBefore(outputWM)) {
+        anyTooLate = true;
+      } else {
+        combinedHold =
+            combinedHold == null ? elementHold : outputTimeFn.combine(combinedHold, elementHold);
+        count++;
+      }
+    }
+    if (combinedHold != null) {
+      addPendingElementHold(context, combinedHold, count);
+    }
+    WindowTracing.trace(
+        "WatermarkHold.addHolds: combined element hold at {} ({} too late) for "
+        + "key:{}; window:{}; inputWatermark:{}; outputWatermark:{}",
+        combinedHold, anyTooLate ? "some" : "none", context.key(), context.window(),
+        timerInternals.currentInputWatermarkTime(), outputWM);
+    if (anyTooLate) {
+      addEndOfWindowOrGarbageCollectionHolds(context, true);
+    }
+  }
+
   /**
    * Return {@code timestamp}, possibly shifted forward in time according to the window
    * strategy's output time function.
@@ -220,7 +283,7 @@ public class WatermarkHold<W extends BoundedWindow> implements Serializable {
       tooLate = true;
     } else {
       tooLate = false;
-      context.state().accessAcrossMergedWindows(elementHoldTag).add(elementHold);
+      addPendingElementHold(context, elementHold, 1);
     }
     WindowTracing.trace(
         "WatermarkHold.addHolds: element hold at {} is {} for "
@@ -231,6 +294,52 @@ public class WatermarkHold<W extends BoundedWindow> implements Serializable {
     return !tooLate;
   }
 
+  /**
+   * Combine {@code elementHold}, standing for {@code count} element holds, into the pending
+   * element hold for the window of {@code context}. The hold is written to state by
+   * {@link #persist}, or earlier if the holds for the window are needed before then.
+   */
+  private void addPendingElementHold(
+      ReduceFn<?, ?, ?, W>.Context context, Instant elementHold, long count) {
+    PendingHold pending = pendingElementHolds.get(context.window());
+    if (pending == null) {
+      pending = new PendingHold(context.state().accessAcrossMergedWindows(elementHoldTag));
+      pending.hold = elementHold;
+      pendingElementHolds.put(context.window(), pending);
+    } else {
+      pending.hold = windowingStrategy.getOutputTimeFn().combine(pending.hold, elementHold);
+    }
+    pending.count += count;
+  }
+
+  /**
+   * Write the pending element hold for {@code window}, if any, to state.
+   */
+  private void flushPendingElementHold(W window) {
+    PendingHold pending = pendingElementHolds.remove(window);
+    if (pending != null) {
+      writePendingElementHold(pending);
+    }
+  }
+
+  private void writePendingElementHold(PendingHold pending) {
+    pending.state.add(pending.hold);
+    if (pending.count > 1) {
+      holdWritesAvoided.addValue(pending.count - 1);
+    }
+  }
+
+  /**
+   * Write all pending element holds to state. Must be called before the state for
+   * this computation is committed.
+   */
+  public void persist() {
+    for (PendingHold pending : pendingElementHolds.values()) {
+      writePendingElementHold(pending);
+    }
+    pendingElementHolds.clear();
+  }
+
   /**
    * Add an end-of-window hold or, if too late for that, a garbage collection hold (if required).
    *
@@ -325,6 +434,9 @@ public class WatermarkHold<W extends BoundedWindow> implements Serializable {
     WindowTracing.debug("onMerge: for key:{}; window:{}; inputWatermark:{}; outputWatermark:{}",
         context.key(), context.window(), timerInternals.currentInputWatermarkTime(),
         timerInternals.currentOutputWatermarkTime());
+    // Pending holds were written through the state of windows which may now be merging away,
+    // so write them before the holds are combined into the merged window.
+    persist();
     // If the output hold depends only on the window, then there may not be a hold in place
     // for the new merged window, so add one.
     if (windowingStrategy.getOutputTimeFn().dependsOnlyOnWindow()) {
@@ -358,6 +470,7 @@ public class WatermarkHold<W extends BoundedWindow> implements Serializable {
         "extractAndRelease: for key:{}; window:{}; inputWatermark:{}; outputWatermark:{}",
         context.key(), context.window(), timerInternals.currentInputWatermarkTime(),
         timerInternals.currentOutputWatermarkTime());
+    flushPendingElementHold(context.window());
     final WatermarkStateInternal elementHoldState =
         context.state().accessAcrossMergedWindows(elementHoldTag);
     // Since we only extract holds when a trigger fires it is unreasonable to expect
@@ -420,9 +533,15 @@ public class WatermarkHold<W extends BoundedWindow> implements Serializable {
         context.key(), isActive ? "active" : "inactive", context.window(),
         timerInternals.currentInputWatermarkTime(), timerInternals.currentOutputWatermarkTime());
     if (isActive) {
+      // There's no need to write any pending element hold since it would be cleared anyway.
+      PendingHold pending = pendingElementHolds.remove(context.window());
+      if (pending != null) {
+        holdWritesAvoided.addValue(pending.count);
+      }
       context.state().accessAcrossMergedWindows(elementHoldTag).clear();
       context.state().accessAcrossMergedWindows(EXTRA_HOLD_TAG).clear();
     } else {
+      flushPendingElementHold(context.window());
       context.state().access(EXTRA_HOLD_TAG).clear();
     }
   }
@@ -24,6 +24,9 @@ import com.google.cloud.dataflow.sdk.coders.Coder;
 import com.google.cloud.dataflow.sdk.coders.CoderException;
 import com.google.cloud.dataflow.sdk.coders.CollectionCoder;
 import com.google.cloud.dataflow.sdk.coders.InstantCoder;
+import com.google.cloud.dataflow.sdk.coders.PositionalCoder;
+import com.google.cloud.dataflow.sdk.coders.PositionalCoders;
+import com.google.cloud.dataflow.sdk.coders.PositionalOutput;
 import com.google.cloud.dataflow.sdk.coders.StandardCoder;
 import com.google.cloud.dataflow.sdk.transforms.windowing.BoundedWindow;
 import com.google.cloud.dataflow.sdk.transforms.windowing.GlobalWindow;
@@ -32,6 +35,7 @@ import com.google.cloud.dataflow.sdk.transforms.windowing.PaneInfo.PaneInfoCoder
 import com.google.cloud.dataflow.sdk.util.common.ElementByteSizeObserver;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
@@ -41,9 +45,12 @@ import org.joda.time.Instant;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Objects;
@@ -502,6 +509,16 @@ public abstract class WindowedValue<T> {
     return FullWindowedValueCoder.of(valueCoder, windowCoder);
   }
 
+  /**
+   * Returns the {@link CompactFullWindowedValueCoder} to use for a {@code WindowedValue<T>},
+   * using the given valueCoder and windowCoder.
+   */
+  public static <T> CompactFullWindowedValueCoder<T> getCompactFullCoder(
+      Coder<T> valueCoder,
+      Coder<? extends BoundedWindow> windowCoder) {
+    return CompactFullWindowedValueCoder.of(valueCoder, windowCoder);
+  }
+
   /**
    * Returns the {@code ValueOnlyCoder} from the given valueCoder.
    */
@@ -537,7 +554,8 @@ public abstract class WindowedValue<T> {
   /**
    * Coder for {@code WindowedValue}.
    */
-  public static class FullWindowedValueCoder<T> extends WindowedValueCoder<T> {
+  public static class FullWindowedValueCoder<T> extends WindowedValueCoder<T>
+      implements PositionalCoder<WindowedValue<T>> {
     private final Coder<? extends BoundedWindow> windowCoder;
     // Precompute and cache the coder for a list of windows.
     private final Coder<Collection<? extends BoundedWindow>> windowsCoder;
@@ -612,6 +630,28 @@ public abstract class WindowedValue<T> {
       return WindowedValue.of(value, timestamp, windows, pane);
     }
 
+    @Override
+    public void encodePositional(WindowedValue<T> windowedElem, PositionalOutput out,
+        Context context) throws CoderException, IOException {
+      Context nestedContext = context.nested();
+      PositionalCoders.encode(valueCoder, windowedElem.getValue(), out, nestedContext);
+      InstantCoder.of().encodePositional(windowedElem.getTimestamp(), out, nestedContext);
+      PositionalCoders.encode(windowsCoder, windowedElem.getWindows(), out, nestedContext);
+      PositionalCoders.encode(PaneInfoCoder.INSTANCE, windowedElem.getPane(), out, context);
+    }
+
+    @Override
+    public WindowedValue<T> decodePositional(ByteBuffer in, Context context)
+        throws CoderException, IOException {
+      Context nestedContext = context.nested();
+      T value = PositionalCoders.decode(valueCoder, in, nestedContext);
+      Instant timestamp = InstantCoder.of().decodePositional(in, nestedContext);
+      Collection<? extends BoundedWindow> windows =
+          PositionalCoders.decode(windowsCoder, in, nestedContext);
+      PaneInfo pane = PositionalCoders.decode(PaneInfoCoder.INSTANCE, in, nestedContext);
+      return WindowedValue.of(value, timestamp, windows, pane);
+    }
+
     @Override
     public void verifyDeterministic() throws NonDeterministicException {
       verifyDeterministic(
@@ -631,6 +671,279 @@ public abstract class WindowedValue<T> {
       windowsCoder.registerByteSizeObserver(value.getWindows(), observer, context);
     }
 
+    @Override
+    public boolean isRegisterByteSizeObserverCheap(WindowedValue<T> value, Context context) {
+      return valueCoder.isRegisterByteSizeObserverCheap(value.getValue(), context)
+          && windowsCoder.isRegisterByteSizeObserverCheap(value.getWindows(), context);
+    }
+
+    @Override
+    public CloudObject asCloudObject() {
+      CloudObject result = super.asCloudObject();
+      addBoolean(result, PropertyNames.IS_WRAPPER, true);
+      return result;
+    }
+
+    @Override
+    public List<? extends Coder<?>> getCoderArguments() {
+      return null;
+    }
+
+    @Override
+    public List<? extends Coder<?>> getComponents() {
+      return Arrays.<Coder<?>>asList(valueCoder, windowCoder);
+    }
+  }
+
+  /**
+   * Coder for {@code WindowedValue} with a more compact encoding than
+   * {@link FullWindowedValueCoder}, for values which usually share windows with other values
+   * encoded or decoded by the same coder.
+   *
+   * <p>Each window is encoded with a length prefix, and the timestamp is encoded as a
+   * variable-length delta from the end of the first window, which is small for the typical
+   * element whose timestamp is within its window. Each value is still encoded independently of
+   * any other.
+   *
+   * <p>This coder caches the encodings of recently encoded windows, and the windows decoded
+   * from recently decoded encodings, so a window shared by consecutive values is encoded once
+   * and decoded into a single instance. Windows must therefore be immutable.
+   *
+   * <p>The encoding differs from that of {@link FullWindowedValueCoder}, so the two coders
+   * cannot be used interchangeably.
+   */
+  public static class CompactFullWindowedValueCoder<T> extends WindowedValueCoder<T>
+      implements PositionalCoder<WindowedValue<T>> {
+    /** The number of entries in each of the window caches; a power of two. */
+    private static final int WINDOW_CACHE_SIZE = 16;
+
+    private final Coder<BoundedWindow> windowCoder;
+
+    /** Recently encoded windows, indexed by the hash code of the window. */
+    private transient EncodedWindow[] encodedWindows;
+
+    /** Recently decoded windows, indexed by the hash code of the encoded window. */
+    private transient EncodedWindow[] decodedWindows;
+
+    public static <T> CompactFullWindowedValueCoder<T> of(
+        Coder<T> valueCoder,
+        Coder<? extends BoundedWindow> windowCoder) {
+      return new CompactFullWindowedValueCoder<>(valueCoder, windowCoder);
+    }
+
+    @JsonCreator
+    public static CompactFullWindowedValueCoder<?> of(
+        @JsonProperty(PropertyNames.COMPONENT_ENCODINGS)
+        List<Coder<?>> components) {
+      checkArgument(components.size() == 2,
+                    "Expecting 2 components, got " + components.size());
+      @SuppressWarnings("unchecked")
+      Coder<? extends BoundedWindow> window = (Coder<? extends BoundedWindow>) components.get(1);
+      return of(components.get(0), window);
+    }
+
+    CompactFullWindowedValueCoder(Coder<T> valueCoder,
+                                  Coder<? extends BoundedWindow> windowCoder) {
+      super(valueCoder);
+      // As for FullWindowedValueCoder, it's not possible to statically type-check correct use
+      // of the windowCoder, so cast the window type away here.
+      @SuppressWarnings("unchecked")
+      Coder<BoundedWindow> boundedWindowCoder = (Coder<BoundedWindow>) checkNotNull(windowCoder);
+      this.windowCoder = boundedWindowCoder;
+    }
+
+    public Coder<? extends BoundedWindow> getWindowCoder() {
+      return windowCoder;
+    }
+
+    @Override
+    public <NewT> WindowedValueCoder<NewT> withValueCoder(Coder<NewT> valueCoder) {
+      return new CompactFullWindowedValueCoder<>(valueCoder, windowCoder);
+    }
+
+    @Override
+    public void encode(WindowedValue<T> windowedElem, OutputStream outStream, Context context)
+        throws CoderException, IOException {
+      Context nestedContext = context.nested();
+      valueCoder.encode(windowedElem.getValue(), outStream, nestedContext);
+      Collection<? extends BoundedWindow> windows = windowedElem.getWindows();
+      VarInt.encode(windows.size(), outStream);
+      for (BoundedWindow window : windows) {
+        byte[] encodedWindow = encodeWindow(window);
+        VarInt.encode(encodedWindow.length, outStream);
+        outStream.write(encodedWindow);
+      }
+      VarInt.encode(encodeTimestamp(windowedElem.getTimestamp(), windows), outStream);
+      PaneInfoCoder.INSTANCE.encode(windowedElem.getPane(), outStream, context);
+    }
+
+    @Override
+    public WindowedValue<T> decode(InputStream inStream, Context context)
+        throws CoderException, IOException {
+      Context nestedContext = context.nested();
+      T value = valueCoder.decode(inStream, nestedContext);
+      int windowCount = VarInt.decodeInt(inStream);
+      BoundedWindow firstWindow = null;
+      List<BoundedWindow> windows = windowCount > 1 ? new ArrayList<BoundedWindow>() : null;
+      for (int i = 0; i < windowCount; i++) {
+        int length = VarInt.decodeInt(inStream);
+        if (length < 0) {
+          throw new CoderException("Invalid encoded window length: " + length);
+        }
+        byte[] encodedWindow = new byte[length];
+        ByteStreams.readFully(inStream, encodedWindow);
+        BoundedWindow window = decodeWindow(encodedWindow, 0, length);
+        if (i == 0) {
+          firstWindow = window;
+        }
+        if (windows != null) {
+          windows.add(window);
+        }
+      }
+      Instant timestamp = decodeTimestamp(VarInt.decodeLong(inStream), firstWindow);
+      PaneInfo pane = PaneInfoCoder.INSTANCE.decode(inStream, nestedContext);
+      return windowedValue(value, timestamp, windowCount, firstWindow, windows, pane);
+    }
+
+    @Override
+    public void encodePositional(WindowedValue<T> windowedElem, PositionalOutput out,
+        Context context) throws CoderException, IOException {
+      Context nestedContext = context.nested();
+      PositionalCoders.encode(valueCoder, windowedElem.getValue(), out, nestedContext);
+      Collection<? extends BoundedWindow> windows = windowedElem.getWindows();
+      out.writeVarInt(windows.size());
+      for (BoundedWindow window : windows) {
+        byte[] encodedWindow = encodeWindow(window);
+        out.writeVarInt(encodedWindow.length);
+        out.write(encodedWindow, 0, encodedWindow.length);
+      }
+      out.writeVarLong(encodeTimestamp(windowedElem.getTimestamp(), windows));
+      PaneInfoCoder.INSTANCE.encodePositional(windowedElem.getPane(), out, context);
+    }
+
+    @Override
+    public WindowedValue<T> decodePositional(ByteBuffer in, Context context)
+        throws CoderException, IOException {
+      Context nestedContext = context.nested();
+      T value = PositionalCoders.decode(valueCoder, in, nestedContext);
+      int windowCount = VarInt.decodeInt(in);
+      BoundedWindow firstWindow = null;
+      List<BoundedWindow> windows = windowCount > 1 ? new ArrayList<BoundedWindow>() : null;
+      for (int i = 0; i < windowCount; i++) {
+        int length = VarInt.decodeInt(in);
+        if (length < 0 || length > in.remaining()) {
+          throw new CoderException("Invalid encoded window length: " + length);
+        }
+        BoundedWindow window;
+        if (in.hasArray()) {
+          // Look up the window without copying its encoding out of the buffer.
+          window = decodeWindow(in.array(), in.arrayOffset() + in.position(), length);
+          in.position(in.position() + length);
+        } else {
+          byte[] encodedWindow = new byte[length];
+          in.get(encodedWindow);
+          window = decodeWindow(encodedWindow, 0, length);
+        }
+        if (i == 0) {
+          firstWindow = window;
+        }
+        if (windows != null) {
+          windows.add(window);
+        }
+      }
+      Instant timestamp = decodeTimestamp(VarInt.decodeLong(in), firstWindow);
+      PaneInfo pane = PaneInfoCoder.INSTANCE.decodePositional(in, nestedContext);
+      return windowedValue(value, timestamp, windowCount, firstWindow, windows, pane);
+    }
+
+    private static <T> WindowedValue<T> windowedValue(T value, Instant timestamp,
+        int windowCount, BoundedWindow firstWindow, List<BoundedWindow> windows, PaneInfo pane) {
+      if (windowCount == 1) {
+        return WindowedValue.of(value, timestamp, firstWindow, pane);
+      } else if (windowCount == 0) {
+        return WindowedValue.of(
+            value, timestamp, Collections.<BoundedWindow>emptyList(), pane);
+      } else {
+        return WindowedValue.of(value, timestamp, windows, pane);
+      }
+    }
+
+    /**
+     * Returns the timestamp as a zig-zag encoded delta from the end of the first window, or
+     * from the epoch if there are no windows. The delta is computed with wrapping arithmetic,
+     * which {@link #decodeTimestamp} reverses exactly.
+     */
+    private static long encodeTimestamp(
+        Instant timestamp, Collection<? extends BoundedWindow> windows) {
+      long base = 0;
+      Iterator<? extends BoundedWindow> iterator = windows.iterator();
+      if (iterator.hasNext()) {
+        base = iterator.next().maxTimestamp().getMillis();
+      }
+      long delta = base - timestamp.getMillis();
+      return (delta << 1) ^ (delta >> 63);
+    }
+
+    private static Instant decodeTimestamp(long encoded, BoundedWindow firstWindow) {
+      long base = firstWindow == null ? 0 : firstWindow.maxTimestamp().getMillis();
+      long delta = (encoded >>> 1) ^ -(encoded & 1);
+      return new Instant(base - delta);
+    }
+
+    /**
+     * Returns the encoding of {@code window} in the outer context, from the cache of
+     * recently encoded windows if possible.
+     */
+    private byte[] encodeWindow(BoundedWindow window) throws CoderException {
+      EncodedWindow[] cache = encodedWindows;
+      if (cache == null) {
+        // Racing initializations are benign; at worst some cached windows are lost.
+        cache = new EncodedWindow[WINDOW_CACHE_SIZE];
+        encodedWindows = cache;
+      }
+      int slot = window.hashCode() & (WINDOW_CACHE_SIZE - 1);
+      EncodedWindow cached = cache[slot];
+      if (cached != null && cached.window.equals(window)) {
+        return cached.bytes;
+      }
+      byte[] bytes = CoderUtils.encodeToByteArray(windowCoder, window);
+      cache[slot] = new EncodedWindow(window, bytes, 0, bytes.length);
+      return bytes;
+    }
+
+    /**
+     * Returns the window encoded in the outer context in {@code length} bytes of {@code bytes}
+     * starting at {@code offset}, from the cache of recently decoded windows if possible.
+     */
+    private BoundedWindow decodeWindow(byte[] bytes, int offset, int length)
+        throws CoderException {
+      EncodedWindow[] cache = decodedWindows;
+      if (cache == null) {
+        cache = new EncodedWindow[WINDOW_CACHE_SIZE];
+        decodedWindows = cache;
+      }
+      int hash = EncodedWindow.hash(bytes, offset, length);
+      int slot = hash & (WINDOW_CACHE_SIZE - 1);
+      EncodedWindow cached = cache[slot];
+      if (cached != null && cached.matches(hash, bytes, offset, length)) {
+        return cached.window;
+      }
+      byte[] windowBytes = Arrays.copyOfRange(bytes, offset, offset + length);
+      BoundedWindow window = CoderUtils.decodeFromByteArray(windowCoder, windowBytes);
+      cache[slot] = new EncodedWindow(window, windowBytes, 0, length);
+      return window;
+    }
+
+    @Override
+    public void verifyDeterministic() throws NonDeterministicException {
+      verifyDeterministic(
+          "CompactFullWindowedValueCoder requires a deterministic valueCoder",
+          valueCoder);
+      verifyDeterministic(
+          "CompactFullWindowedValueCoder requires a deterministic windowCoder",
+          windowCoder);
+    }
+
     @Override
     public CloudObject asCloudObject() {
       CloudObject result = super.asCloudObject();
@@ -647,6 +960,42 @@ public abstract class WindowedValue<T> {
     public List<? extends Coder<?>> getComponents() {
       return Arrays.<Coder<?>>asList(valueCoder, windowCoder);
     }
+
+    /**
+     * An immutable pairing of a window and its encoding, cached by
+     * {@link CompactFullWindowedValueCoder}.
+     */
+    private static class EncodedWindow {
+      private final BoundedWindow window;
+      private final byte[] bytes;
+      private final int hash;
+
+      private EncodedWindow(BoundedWindow window, byte[] bytes, int offset, int length) {
+        this.window = window;
+        this.bytes = bytes;
+        this.hash = hash(bytes, offset, length);
+      }
+
+      private static int hash(byte[] bytes, int offset, int length) {
+        int result = 1;
+        for (int i = offset; i < offset + length; i++) {
+          result = 31 * result + bytes[i];
+        }
+        return result;
+      }
+
+      private boolean matches(int otherHash, byte[] otherBytes, int offset, int length) {
+        if (hash != otherHash || bytes.length != length) {
+          return false;
+        }
+        for (int i = 0; i < length; i++) {
+          if (bytes[i] != otherBytes[offset + i]) {
+            return false;
+          }
+        }
+        return true;
+      }
+    }
   }
 
   /**
@@ -705,6 +1054,11 @@ public abstract class WindowedValue<T> {
       valueCoder.registerByteSizeObserver(value.getValue(), observer, context);
     }
 
+    @Override
+    public boolean isRegisterByteSizeObserverCheap(WindowedValue<T> value, Context context) {
+      return valueCoder.isRegisterByteSizeObserverCheap(value.getValue(), context);
+    }
+
     @Override
     public CloudObject asCloudObject() {
       CloudObject result = super.asCloudObject();
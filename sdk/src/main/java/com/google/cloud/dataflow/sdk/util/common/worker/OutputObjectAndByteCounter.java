@@ -23,11 +23,22 @@ import com.google.cloud.dataflow.sdk.util.common.Counter;
 import com.google.cloud.dataflow.sdk.util.common.CounterSet;
 import com.google.cloud.dataflow.sdk.util.common.ElementByteSizeObservable;
 import com.google.cloud.dataflow.sdk.util.common.ElementByteSizeObserver;
+import com.google.common.base.Preconditions;
 
+import java.util.Observable;
 import java.util.Random;
 
+import javax.annotation.Nullable;
+
 /**
  * An {@link ElementCounter} that counts output objects, bytes, and mean bytes.
+ *
+ * <p>Elements whose byte size is cheap to observe are always measured exactly. The remaining
+ * elements are measured only when sampled, and their sizes are scaled by the inverse of the
+ * sampling probability. By default the sampling probability decreases with the number of
+ * elements seen (see {@link #setSamplingPeriod}); {@link #setSamplingFraction} samples a fixed
+ * fraction instead. {@link #countBytesVariance} reports how precise the resulting byte count
+ * estimate is.
  */
 public class OutputObjectAndByteCounter implements ElementCounter {
   // Might be null, e.g., undeclared outputs will not have an
@@ -41,10 +52,15 @@ public class OutputObjectAndByteCounter implements ElementCounter {
   private static final int SAMPLING_TOKEN_UPPER_BOUND = 1000000;
   private static final int SAMPLING_CUTOFF = 10;
   private int samplingToken = 0;
+  // Zero selects the decreasing sampling schedule.
+  private double samplingFraction = 0;
+  // The inverse of the probability with which the current element was sampled.
+  private double samplingScale = 1.0;
 
   private Counter<Long> objectCount = null;
   private Counter<Long> byteCount = null;
   private Counter<Long> meanByteCount = null;
+  private Counter<Long> byteCountVariance = null;
   private ElementByteSizeObserver byteCountObserver = null;
   private ElementByteSizeObserver meanByteCountObserver = null;
   private int samplingTokenUpperBound = SAMPLING_TOKEN_UPPER_BOUND;
@@ -76,6 +92,21 @@ public class OutputObjectAndByteCounter implements ElementCounter {
     return this;
   }
 
+  /**
+   * Count the estimated variance of the output byte count, in squared bytes.
+   *
+   * <p>Each sampled element contributes an unbiased estimate of the variance its
+   * extrapolation adds to the byte count, so the counter sums across elements and workers just
+   * like the byte count does. Its square root is the standard error of the byte count.
+   */
+  public OutputObjectAndByteCounter countBytesVariance(String bytesVarianceCounterName) {
+    if (elementByteSizeObservable != null) {
+      byteCountVariance =
+          addCounterMutator.addCounter(Counter.longs(bytesVarianceCounterName, SUM));
+    }
+    return this;
+  }
+
   /**
    * Count output mean byte.
    */
@@ -95,6 +126,18 @@ public class OutputObjectAndByteCounter implements ElementCounter {
     return this;
   }
 
+  /**
+   * Sets a fixed sampling rate: after the first few elements, which are always measured, the
+   * byte size of each element whose size is not cheap to observe is measured with the given
+   * probability and scaled by its inverse.
+   */
+  public OutputObjectAndByteCounter setSamplingFraction(double fraction) {
+    Preconditions.checkArgument(fraction > 0 && fraction <= 1,
+        "Sampling fraction must be in (0, 1], but was %s", fraction);
+    this.samplingFraction = fraction;
+    return this;
+  }
+
   public Counter<Long> getObjectCount() {
     return objectCount;
   }
@@ -107,6 +150,10 @@ public class OutputObjectAndByteCounter implements ElementCounter {
     return meanByteCount;
   }
 
+  public Counter<Long> getByteCountVariance() {
+    return byteCountVariance;
+  }
+
   @Override
   public void update(Object elem) throws Exception {
     // Increment object counter.
@@ -115,18 +162,27 @@ public class OutputObjectAndByteCounter implements ElementCounter {
     }
 
     // Increment byte counter.
-    if ((byteCountObserver != null || meanByteCountObserver != null)
-        && (sampleElement() || elementByteSizeObservable.isRegisterByteSizeObserverCheap(elem))) {
+    if (byteCountObserver == null && meanByteCountObserver == null) {
+      return;
+    }
+    boolean sampled = sampleElement();
+    // Cheap elements are measured whether sampled or not, so they must not be scaled. Sampled
+    // elements that are not scaled are measured either way and need no check.
+    boolean cheap = !(sampled && samplingScale == 1.0)
+        && elementByteSizeObservable.isRegisterByteSizeObserverCheap(elem);
+    if (sampled || cheap) {
+      // Scaled elements get an observer of their own, which needs no advancing.
+      boolean scaled = !cheap && samplingScale != 1.0;
       if (byteCountObserver != null) {
-        byteCountObserver.setScalingFactor(
-            Math.max(samplingToken, SAMPLING_CUTOFF) / (double) SAMPLING_CUTOFF);
-        elementByteSizeObservable.registerByteSizeObserver(elem, byteCountObserver);
+        elementByteSizeObservable.registerByteSizeObserver(elem, scaled
+            ? new ScaledElementObserver(byteCount, byteCountVariance, samplingScale)
+            : byteCountObserver);
       }
       if (meanByteCountObserver != null) {
         elementByteSizeObservable.registerByteSizeObserver(elem, meanByteCountObserver);
       }
 
-      if (byteCountObserver != null && !byteCountObserver.getIsLazy()) {
+      if (byteCountObserver != null && !scaled && !byteCountObserver.getIsLazy()) {
         byteCountObserver.advance();
       }
       if (meanByteCountObserver != null && !meanByteCountObserver.getIsLazy()) {
@@ -143,7 +199,8 @@ public class OutputObjectAndByteCounter implements ElementCounter {
     // calling next() here, causing an update to byteCount. If user's
     // code really accesses more element's pieces later on, their byte
     // count would accrue against a future element. This is not ideal,
-    // but still approximately correct.
+    // but still approximately correct. Scaled elements have observers of
+    // their own, so their late bytes are still scaled as part of them.
     if (byteCountObserver != null && byteCountObserver.getIsLazy()) {
       byteCountObserver.advance();
     }
@@ -160,7 +217,16 @@ public class OutputObjectAndByteCounter implements ElementCounter {
     // min(1, samplingCutoff / N), with an additional lower bound of
     // samplingCutoff / samplingTokenUpperBound. This algorithm may be refined
     // later.
+    //
+    // With a fixed sampling fraction, the first samplingCutoff elements are
+    // still sampled unconditionally, and every later element with the given
+    // probability.
     samplingToken = Math.min(samplingToken + 1, samplingTokenUpperBound);
+    if (samplingFraction > 0 && samplingToken > SAMPLING_CUTOFF) {
+      samplingScale = 1 / samplingFraction;
+      return randomGenerator.nextDouble() < samplingFraction;
+    }
+    samplingScale = Math.max(samplingToken, SAMPLING_CUTOFF) / (double) SAMPLING_CUTOFF;
     return randomGenerator.nextInt(samplingToken) < SAMPLING_CUTOFF;
   }
 
@@ -168,4 +234,48 @@ public class OutputObjectAndByteCounter implements ElementCounter {
     this.randomGenerator = random;
     return this;
   }
+
+  /**
+   * An {@link ElementByteSizeObserver} for a single element whose size is scaled by the inverse
+   * of its sampling probability. Each size is added to the counters as soon as it is observed, so
+   * the bytes of a lazily observed element are scaled, and counted towards the variance, as part
+   * of that element even when they are observed after the element was advanced past. It is never
+   * advanced.
+   *
+   * <p>An element sampled with probability {@code p} and scaled by {@code s = 1 / p} adds
+   * {@code (1 - p) / p^2 * size^2 = (s^2 - s) * size^2} to the unbiased variance estimate of
+   * the byte count. That is added in increments as the observed size of the element grows.
+   */
+  private static class ScaledElementObserver extends ElementByteSizeObserver {
+    private final Counter<Long> byteCount;
+    @Nullable private final Counter<Long> varianceCounter;
+    private final double scalingFactor;
+    private long size = 0;
+
+    public ScaledElementObserver(
+        Counter<Long> byteCount, @Nullable Counter<Long> varianceCounter, double scalingFactor) {
+      super(byteCount);
+      this.byteCount = byteCount;
+      this.varianceCounter = varianceCounter;
+      this.scalingFactor = scalingFactor;
+    }
+
+    @Override
+    public void update(Observable obs, Object obj) {
+      long bytes;
+      if (obj instanceof Long || obj instanceof Integer) {
+        bytes = ((Number) obj).longValue();
+      } else {
+        throw new AssertionError("unexpected parameter object");
+      }
+      byteCount.addValue((long) (scalingFactor * bytes));
+      if (varianceCounter != null) {
+        double oldSize = size;
+        double newSize = size + bytes;
+        varianceCounter.addValue((long) ((scalingFactor * scalingFactor - scalingFactor)
+            * (newSize * newSize - oldSize * oldSize)));
+      }
+      size += bytes;
+    }
+  }
 }
@@ -32,6 +32,7 @@ import com.google.cloud.dataflow.sdk.transforms.Create;
 import com.google.cloud.dataflow.sdk.transforms.DoFn;
 import com.google.cloud.dataflow.sdk.transforms.ParDo;
 import com.google.cloud.dataflow.sdk.util.CloudObject;
+import com.google.cloud.dataflow.sdk.util.CoderUtils;
 import com.google.cloud.dataflow.sdk.util.SerializableUtils;
 import com.google.cloud.dataflow.sdk.values.PCollection;
 
@@ -47,6 +48,8 @@ import org.apache.avro.reflect.ReflectData;
 import org.apache.avro.reflect.Stringable;
 import org.apache.avro.reflect.Union;
 import org.apache.avro.specific.SpecificData;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.specific.SpecificRecordBase;
 import org.apache.avro.util.Utf8;
 import org.hamcrest.Description;
 import org.hamcrest.Matcher;
@@ -59,6 +62,7 @@ import org.junit.runners.JUnit4;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -184,6 +188,71 @@ public class AvroCoderTest {
     Assert.assertEquals(schema, coder.getSchema());
   }
 
+  @Test
+  public void testGenericRecordByteSize() throws Exception {
+    Schema nestedSchema = SchemaBuilder.record("Nested").fields()
+        .requiredString("value")
+        .endRecord();
+    Schema schema = SchemaBuilder.record("Sized").namespace("example.avro").fields()
+        .requiredString("name")
+        .optionalLong("number")
+        .name("tags").type().array().items().stringType().noDefault()
+        .name("attributes").type().map().values().intType().noDefault()
+        .name("color").type().enumeration("Color").symbols("RED", "GREEN").noDefault()
+        .name("hash").type().fixed("Hash").size(4).noDefault()
+        .requiredBytes("payload")
+        .requiredDouble("score")
+        .requiredFloat("ratio")
+        .requiredBoolean("flag")
+        .requiredInt("count")
+        .name("nested").type(nestedSchema).noDefault()
+        .endRecord();
+
+    GenericRecord nested = new GenericData.Record(nestedSchema);
+    nested.put("value", new Utf8("caf\u00e9"));
+    Map<String, Integer> attributes = new LinkedHashMap<>();
+    attributes.put("a", -1);
+    attributes.put("\ud83d\ude00", 1 << 20);
+    GenericRecord record = new GenericData.Record(schema);
+    record.put("name", "\u65e5\u672c\ud800");
+    record.put("number", Long.MIN_VALUE);
+    record.put("tags", Arrays.asList("x", "", "yz"));
+    record.put("attributes", attributes);
+    record.put("color", new GenericData.EnumSymbol(schema.getField("color").schema(), "GREEN"));
+    record.put("hash",
+        new GenericData.Fixed(schema.getField("hash").schema(), new byte[] {1, 2, 3, 4}));
+    record.put("payload", ByteBuffer.wrap(new byte[300]));
+    record.put("score", 0.5);
+    record.put("ratio", 1.5f);
+    record.put("flag", true);
+    record.put("count", 64);
+    record.put("nested", nested);
+
+    AvroCoder<GenericRecord> coder = AvroCoder.of(schema);
+    assertTrue(coder.isRegisterByteSizeObserverCheap(record, Context.OUTER));
+    Assert.assertEquals(CoderUtils.encodeToByteArray(coder, record).length,
+        coder.getEncodedElementByteSize(record, Context.OUTER));
+
+    record.put("number", null);
+    record.put("tags", new ArrayList<String>());
+    record.put("attributes", new LinkedHashMap<String, Integer>());
+    Assert.assertEquals(CoderUtils.encodeToByteArray(coder, record).length,
+        coder.getEncodedElementByteSize(record, Context.OUTER));
+  }
+
+  @Test
+  public void testSpecificRecordByteSize() throws Exception {
+    AvroCoder<SpecificPojo> coder = AvroCoder.of(SpecificPojo.class);
+    SpecificPojo value = new SpecificPojo("hello", 1234567);
+    assertTrue(coder.isRegisterByteSizeObserverCheap(value, Context.OUTER));
+    Assert.assertEquals(CoderUtils.encodeToByteArray(coder, value).length,
+        coder.getEncodedElementByteSize(value, Context.OUTER));
+
+    AvroCoder<Pojo> reflectCoder = AvroCoder.of(Pojo.class);
+    Assert.assertFalse(
+        reflectCoder.isRegisterByteSizeObserverCheap(new Pojo("a", 1), Context.OUTER));
+  }
+
   @Test
   public void testEncodingNotBuffered() throws Exception {
     // This test ensures that the coder doesn't read ahead and buffer data.
@@ -209,6 +278,67 @@ public class AvroCoderTest {
     Assert.assertEquals(new Integer(10), intAfter);
   }
 
+  /**
+   * A class in the form of Avro generated code for a record.
+   */
+  public static class SpecificPojo extends SpecificRecordBase {
+    // Avro looks up the schema of a specific record class by this name.
+    // CHECKSTYLE.OFF: ConstantName
+    public static final Schema SCHEMA$ = SchemaBuilder.record("SpecificPojo")
+        // Avro names nested classes with a namespace ending in '$'.
+        .namespace(AvroCoderTest.class.getName() + "$").fields()
+        .requiredString("text")
+        .requiredInt("count")
+        .endRecord();
+    // CHECKSTYLE.ON: ConstantName
+
+    private CharSequence text;
+    private int count;
+
+    public SpecificPojo() {}
+
+    public SpecificPojo(String text, int count) {
+      this.text = text;
+      this.count = count;
+    }
+
+    @Override
+    public Schema getSchema() {
+      return SCHEMA$;
+    }
+
+    @Override
+    public Object get(int field) {
+      return field == 0 ? text : count;
+    }
+
+    @Override
+    public void put(int field, Object value) {
+      if (field == 0) {
+        text = (CharSequence) value;
+      } else {
+        count = (Integer) value;
+      }
+    }
+  }
+
+  @Test
+  public void testSpecificRecordEncoding() throws Exception {
+    AvroCoder<SpecificPojo> coder = AvroCoder.of(SpecificPojo.class);
+    Assert.assertEquals(SpecificPojo.SCHEMA$, coder.getSchema());
+    Assert.assertThat(coder.createDatumReader(), Matchers.instanceOf(SpecificDatumReader.class));
+
+    SpecificPojo before = new SpecificPojo("Hello", 42);
+    SpecificPojo after = CoderUtils.clone(coder, before);
+    Assert.assertEquals("Hello", after.get(0).toString());
+    Assert.assertEquals(42, after.get(1));
+
+    // The encoding is the same as that of the reflection based coder.
+    Assert.assertArrayEquals(
+        CoderUtils.encodeToByteArray(AvroCoder.of(Pojo.class), new Pojo("Hello", 42)),
+        CoderUtils.encodeToByteArray(coder, before));
+  }
+
   @Test
   public void testDefaultCoder() throws Exception {
     Pipeline p = TestPipeline.create();
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.coders;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.dataflow.sdk.coders.Coder.NonDeterministicException;
+import com.google.cloud.dataflow.sdk.testing.CoderProperties;
+import com.google.cloud.dataflow.sdk.util.CloudObject;
+import com.google.cloud.dataflow.sdk.util.CoderUtils;
+import com.google.cloud.dataflow.sdk.util.Serializer;
+import com.google.cloud.dataflow.sdk.util.VarInt;
+import com.google.common.base.Strings;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests for {@link CompressedCoder}.
+ */
+@RunWith(JUnit4.class)
+public class CompressedCoderTest {
+
+  @Rule public ExpectedException thrown = ExpectedException.none();
+
+  private static final Coder<String> TEST_CODER = CompressedCoder.of(StringUtf8Coder.of(), 16);
+
+  private static final List<String> TEST_VALUES = Arrays.asList(
+      "",
+      "short",
+      Strings.repeat("a", 15),
+      Strings.repeat("a", 16),
+      Strings.repeat("compressible ", 1000),
+      randomString(5000));
+
+  private static String randomString(int length) {
+    Random random = new Random(17);
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < length; i++) {
+      builder.append((char) (' ' + random.nextInt(95)));
+    }
+    return builder.toString();
+  }
+
+  @Test
+  public void testDecodeEncodeEqual() throws Exception {
+    for (String value : TEST_VALUES) {
+      CoderProperties.coderDecodeEncodeEqual(TEST_CODER, value);
+    }
+  }
+
+  @Test
+  public void testNestedInIterable() throws Exception {
+    CoderProperties.coderDecodeEncodeEqual(IterableCoder.of(TEST_CODER), TEST_VALUES);
+  }
+
+  @Test
+  public void testCompressesLargeValues() throws Exception {
+    String value = Strings.repeat("compressible ", 1000);
+    byte[] encoded = CoderUtils.encodeToByteArray(TEST_CODER, value);
+    assertTrue(encoded.length < value.length() / 10);
+    assertEquals(1, encoded[0]);
+  }
+
+  @Test
+  public void testSmallAndIncompressibleValuesAreNotCompressed() throws Exception {
+    for (String value : Arrays.asList(Strings.repeat("a", 15), randomString(20))) {
+      byte[] encoded = CoderUtils.encodeToByteArray(TEST_CODER, value);
+      assertEquals(0, encoded[0]);
+      assertEquals(value.length() + 1, encoded.length);
+    }
+  }
+
+  @Test
+  public void testCompressionRatio() throws Exception {
+    CompressedCoder<String> coder = CompressedCoder.of(StringUtf8Coder.of());
+    assertEquals(1.0, coder.getCompressionRatio(), 0.0);
+
+    String value = Strings.repeat("compressible ", 1000);
+    byte[] encoded = CoderUtils.encodeToByteArray(coder, value);
+    assertEquals(value.length(), coder.getUncompressedBytes());
+    assertEquals(encoded.length, coder.getEncodedBytes());
+    assertEquals((double) encoded.length / value.length(), coder.getCompressionRatio(), 1e-9);
+  }
+
+  @Test
+  public void testNotDeterministic() throws Exception, NonDeterministicException {
+    thrown.expect(NonDeterministicException.class);
+    thrown.expectMessage("Deflate output");
+    TEST_CODER.verifyDeterministic();
+  }
+
+  @Test
+  public void testSerializable() throws Exception {
+    CoderProperties.coderSerializable(TEST_CODER);
+  }
+
+  @Test
+  public void testCloudObjectRoundTrip() throws Exception {
+    CloudObject encoding = TEST_CODER.asCloudObject();
+    assertEquals(TEST_CODER, Serializer.deserialize(encoding, Coder.class));
+  }
+
+  @Test
+  public void testThresholdIsPartOfEquality() {
+    assertNotEquals(CompressedCoder.of(StringUtf8Coder.of()), TEST_CODER);
+    assertEquals(CompressedCoder.of(StringUtf8Coder.of(), 16), TEST_CODER);
+  }
+
+  @Test
+  public void testStructuralValueDelegates() throws Exception {
+    Coder<byte[]> coder = CompressedCoder.of(ByteArrayCoder.of());
+    byte[] value = {1, 2, 3};
+    assertEquals(ByteArrayCoder.of().structuralValue(value), coder.structuralValue(value));
+  }
+
+  @Test
+  public void testCorruptValueThrowsCoderException() throws Exception {
+    byte[] encoded = CoderUtils.encodeToByteArray(TEST_CODER, Strings.repeat("compressible ", 100));
+    encoded[encoded.length - 1] ^= 0x55;
+    encoded[encoded.length - 2] ^= 0x55;
+    thrown.expect(CoderException.class);
+    CoderUtils.decodeFromByteArray(TEST_CODER, encoded);
+  }
+
+  @Test
+  public void testImpossibleUncompressedLengthThrowsCoderException() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(1);
+    VarInt.encode(Integer.MAX_VALUE, out);
+    out.write(new byte[] {3, 0});
+    thrown.expect(CoderException.class);
+    thrown.expectMessage("Invalid uncompressed value length");
+    CoderUtils.decodeFromByteArray(TEST_CODER, out.toByteArray());
+  }
+}
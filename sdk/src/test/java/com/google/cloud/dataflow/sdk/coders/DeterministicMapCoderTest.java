@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.google.cloud.dataflow.sdk.coders;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.google.cloud.dataflow.sdk.coders.Coder.NonDeterministicException;
+import com.google.cloud.dataflow.sdk.testing.CoderProperties;
+import com.google.cloud.dataflow.sdk.util.CoderUtils;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Test case for {@link DeterministicMapCoder}.
+ */
+@RunWith(JUnit4.class)
+public class DeterministicMapCoderTest {
+
+  private static final Coder<Map<Integer, String>> TEST_CODER =
+      DeterministicMapCoder.of(VarIntCoder.of(), StringUtf8Coder.of());
+
+  private static final List<Map<Integer, String>> TEST_VALUES =
+      Arrays.<Map<Integer, String>>asList(
+          Collections.<Integer, String>emptyMap(),
+          new TreeMap<Integer, String>(new ImmutableMap.Builder<Integer, String>()
+              .put(1, "hello").put(-1, "foo").put(300, "").build()));
+
+  @Test
+  public void testDecodeEncodeContentsEqual() throws Exception {
+    for (Map<Integer, String> value : TEST_VALUES) {
+      CoderProperties.coderDecodeEncodeEqual(TEST_CODER, value);
+    }
+  }
+
+  @Test
+  public void testEncodingIndependentOfIterationOrder() throws Exception {
+    Map<Integer, String> forward = new LinkedHashMap<>();
+    Map<Integer, String> backward = new LinkedHashMap<>();
+    for (int i = 0; i < 50; i++) {
+      forward.put(i * 7919, "value" + i);
+      backward.put((49 - i) * 7919, "value" + (49 - i));
+    }
+
+    assertArrayEquals(
+        CoderUtils.encodeToByteArray(TEST_CODER, forward),
+        CoderUtils.encodeToByteArray(TEST_CODER, backward));
+    CoderProperties.coderDeterministic(TEST_CODER, forward, backward);
+  }
+
+  @Test
+  public void testCompatibleWithMapCoder() throws Exception {
+    Map<Integer, String> value = new HashMap<>();
+    value.put(5, "five");
+    value.put(500, "five hundred");
+    byte[] encoded = CoderUtils.encodeToByteArray(TEST_CODER, value);
+    assertEquals(value, CoderUtils.decodeFromByteArray(
+        MapCoder.of(VarIntCoder.of(), StringUtf8Coder.of()), encoded));
+  }
+
+  @Test
+  public void testSerializable() throws Exception {
+    CoderProperties.coderSerializable(TEST_CODER);
+  }
+
+  @Test
+  public void testDeterministic() throws Exception, NonDeterministicException {
+    TEST_CODER.verifyDeterministic();
+  }
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @Test
+  public void testNonDeterministicValueCoder() throws Exception, NonDeterministicException {
+    thrown.expect(NonDeterministicException.class);
+    thrown.expectMessage("Value coder must be deterministic");
+    DeterministicMapCoder.of(VarIntCoder.of(), DoubleCoder.of()).verifyDeterministic();
+  }
+
+  @Test
+  public void encodeNullThrowsCoderException() throws Exception {
+    thrown.expect(CoderException.class);
+    thrown.expectMessage("cannot encode a null Map");
+
+    CoderUtils.encodeToBase64(TEST_CODER, null);
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.google.cloud.dataflow.sdk.coders;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.google.cloud.dataflow.sdk.coders.Coder.NonDeterministicException;
+import com.google.cloud.dataflow.sdk.testing.CoderProperties;
+import com.google.cloud.dataflow.sdk.util.CoderUtils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Test case for {@link DeterministicSetCoder}.
+ */
+@RunWith(JUnit4.class)
+public class DeterministicSetCoderTest {
+
+  private static final Coder<Set<String>> TEST_CODER =
+      DeterministicSetCoder.of(StringUtf8Coder.of());
+
+  private static final List<Set<String>> TEST_VALUES = Arrays.<Set<String>>asList(
+      Collections.<String>emptySet(),
+      Collections.singleton("a"),
+      new HashSet<>(Arrays.asList("b", "a", "", "ab", "\u00ff")));
+
+  @Test
+  public void testDecodeEncodeContentsEqual() throws Exception {
+    for (Set<String> value : TEST_VALUES) {
+      CoderProperties.coderDecodeEncodeContentsEqual(TEST_CODER, value);
+    }
+  }
+
+  @Test
+  public void testEncodingIndependentOfIterationOrder() throws Exception {
+    List<String> elements = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      elements.add("element" + (i * 37 % 100));
+    }
+    Set<String> forward = new LinkedHashSet<>(elements);
+    Collections.reverse(elements);
+    Set<String> backward = new LinkedHashSet<>(elements);
+
+    assertArrayEquals(
+        CoderUtils.encodeToByteArray(TEST_CODER, forward),
+        CoderUtils.encodeToByteArray(TEST_CODER, backward));
+    CoderProperties.coderDeterministic(TEST_CODER, forward, backward);
+  }
+
+  @Test
+  public void testCompatibleWithSetCoder() throws Exception {
+    Set<String> value = new TreeSet<>(Arrays.asList("x", "y", "z"));
+    byte[] encoded = CoderUtils.encodeToByteArray(TEST_CODER, value);
+    assertArrayEquals(CoderUtils.encodeToByteArray(SetCoder.of(StringUtf8Coder.of()), value),
+        encoded);
+    assertEquals(value,
+        CoderUtils.decodeFromByteArray(SetCoder.of(StringUtf8Coder.of()), encoded));
+  }
+
+  @Test
+  public void testSerializable() throws Exception {
+    CoderProperties.coderSerializable(TEST_CODER);
+  }
+
+  @Test
+  public void testDeterministic() throws Exception, NonDeterministicException {
+    TEST_CODER.verifyDeterministic();
+  }
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @Test
+  public void testNonDeterministicElementCoder() throws Exception, NonDeterministicException {
+    thrown.expect(NonDeterministicException.class);
+    thrown.expectMessage("Element coder must be deterministic");
+    DeterministicSetCoder.of(DoubleCoder.of()).verifyDeterministic();
+  }
+
+  @Test
+  public void encodeNullThrowsCoderException() throws Exception {
+    thrown.expect(CoderException.class);
+    thrown.expectMessage("cannot encode a null Set");
+
+    CoderUtils.encodeToBase64(TEST_CODER, null);
+  }
+}
@@ -17,10 +17,13 @@
 package com.google.cloud.dataflow.sdk.coders;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import com.google.cloud.dataflow.sdk.testing.CoderProperties;
 import com.google.cloud.dataflow.sdk.util.CoderUtils;
+import com.google.common.collect.FluentIterable;
 
 import org.junit.Rule;
 import org.junit.Test;
@@ -53,6 +56,32 @@ public class IterableCoderTest {
     }
   }
 
+  @Test
+  public void testObserverIsCheapForSmallCollectionsOfCheapElements() throws Exception {
+    for (Iterable<Integer> value : TEST_VALUES) {
+      assertTrue(TEST_CODER.isRegisterByteSizeObserverCheap(value, Coder.Context.OUTER));
+    }
+  }
+
+  @Test
+  public void testObserverIsNotCheapForLargeCollections() throws Exception {
+    assertFalse(TEST_CODER.isRegisterByteSizeObserverCheap(
+        Collections.nCopies(100, 1), Coder.Context.OUTER));
+  }
+
+  @Test
+  public void testObserverIsNotCheapForExpensiveElements() throws Exception {
+    Coder<Iterable<String>> coder = IterableCoder.of(StringUtf8Coder.of());
+    assertFalse(coder.isRegisterByteSizeObserverCheap(
+        Collections.singletonList("a"), Coder.Context.OUTER));
+  }
+
+  @Test
+  public void testObserverIsNotCheapForIterables() throws Exception {
+    assertFalse(TEST_CODER.isRegisterByteSizeObserverCheap(
+        FluentIterable.from(Arrays.asList(1, 2)), Coder.Context.OUTER));
+  }
+
   @Test
   public void testGetInstanceComponentsNonempty() {
     Iterable<Integer> iterable = Arrays.asList(2, 58, 99, 5);
@@ -23,6 +23,14 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import javax.xml.bind.annotation.XmlRootElement;
 
 /** Unit tests for {@link JAXBCoder}. */
@@ -85,6 +93,43 @@ public class JAXBCoderTest {
     Assert.assertEquals(new TestType("abc", 9999), CoderUtils.decodeFromByteArray(coder, encoded));
   }
 
+  @Test
+  public void testDecodeIgnoresUnknownElements() throws Exception {
+    JAXBCoder<TestType> coder = JAXBCoder.of(TestType.class);
+
+    byte[] encoded = ("<testType><testString>abc</testString><unknown>x</unknown>"
+        + "<testInt>7</testInt></testType>").getBytes(StandardCharsets.UTF_8);
+    Assert.assertEquals(new TestType("abc", 7), CoderUtils.decodeFromByteArray(coder, encoded));
+  }
+
+  @Test
+  public void testEncodeDecodeConcurrently() throws Exception {
+    final JAXBCoder<TestType> coder = JAXBCoder.of(TestType.class);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Void>> results = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        final int thread = i;
+        results.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            for (int j = 0; j < 100; j++) {
+              TestType value = new TestType("thread" + thread, j);
+              byte[] encoded = CoderUtils.encodeToByteArray(coder, value);
+              Assert.assertEquals(value, CoderUtils.decodeFromByteArray(coder, encoded));
+            }
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> result : results) {
+        result.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
   @Test
   public void testEncodable() throws Exception {
     CoderProperties.coderSerializable(JAXBCoder.of(TestType.class));
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.google.cloud.dataflow.sdk.coders;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.google.cloud.dataflow.sdk.testing.CoderProperties;
+import com.google.cloud.dataflow.sdk.util.CoderUtils;
+import com.google.cloud.dataflow.sdk.values.KV;
+import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+/** Unit tests for {@link LazyIterableCoder}. */
+@RunWith(JUnit4.class)
+public class LazyIterableCoderTest {
+
+  private static final Coder<Iterable<Integer>> TEST_CODER =
+      LazyIterableCoder.of(VarIntCoder.of());
+
+  private static final List<Iterable<Integer>> TEST_VALUES = Arrays.<Iterable<Integer>>asList(
+      Collections.<Integer>emptyList(),
+      Collections.<Integer>singletonList(13),
+      Arrays.<Integer>asList(1, 2, 3, 4),
+      new LinkedList<Integer>(Arrays.asList(7, 6, 5)),
+      FluentIterable.from(Arrays.asList(8, 9)));
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @Test
+  public void testDecodeEncodeContentsInSameOrder() throws Exception {
+    for (Iterable<Integer> value : TEST_VALUES) {
+      CoderProperties.<Integer, Iterable<Integer>>coderDecodeEncodeContentsInSameOrder(
+          TEST_CODER, value);
+    }
+  }
+
+  @Test
+  public void testCoderSerializable() throws Exception {
+    CoderProperties.coderSerializable(TEST_CODER);
+  }
+
+  @Test
+  public void testNestedStreamAndPositionalDecoding() throws Exception {
+    Coder<KV<Iterable<Integer>, String>> coder = KvCoder.of(TEST_CODER, StringUtf8Coder.of());
+    KV<Iterable<Integer>, String> value =
+        KV.<Iterable<Integer>, String>of(Arrays.asList(1, 2, 3), "after");
+
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    coder.encode(value, stream, Coder.Context.OUTER);
+    byte[] encoded = CoderUtils.encodeToByteArray(coder, value);
+    assertArrayEquals(stream.toByteArray(), encoded);
+
+    KV<Iterable<Integer>, String> fromStream =
+        coder.decode(new ByteArrayInputStream(encoded), Coder.Context.OUTER);
+    KV<Iterable<Integer>, String> fromBytes = CoderUtils.decodeFromByteArray(coder, encoded);
+    for (KV<Iterable<Integer>, String> decoded : Arrays.asList(fromStream, fromBytes)) {
+      assertEquals(Arrays.asList(1, 2, 3), ImmutableList.copyOf(decoded.getKey()));
+      assertEquals("after", decoded.getValue());
+    }
+  }
+
+  @Test
+  public void testPositionalDecodingCopiesBuffer() throws Exception {
+    LazyIterableCoder<Integer> coder = LazyIterableCoder.of(VarIntCoder.of());
+    byte[] encoded = CoderUtils.encodeToByteArray(coder, Arrays.asList(1, 2, 3));
+
+    Iterable<Integer> decoded =
+        coder.decodePositional(ByteBuffer.wrap(encoded), Coder.Context.OUTER);
+    // Callers may reuse their read buffers once a value is decoded.
+    Arrays.fill(encoded, (byte) 0);
+    assertEquals(Arrays.asList(1, 2, 3), ImmutableList.copyOf(decoded));
+  }
+
+  @Test
+  public void testDecodesElementsOnlyWhenIterated() throws Exception {
+    CountingCoder elemCoder = new CountingCoder();
+    Coder<Iterable<Integer>> coder = LazyIterableCoder.of(elemCoder);
+    Iterable<Integer> decoded = CoderUtils.decodeFromByteArray(
+        coder, CoderUtils.encodeToByteArray(coder, Arrays.asList(1, 2, 3, 4)));
+    assertEquals(0, elemCoder.decoded);
+
+    Iterator<Integer> iterator = decoded.iterator();
+    assertEquals(1, (int) iterator.next());
+    assertEquals(1, elemCoder.decoded);
+
+    // Iterating again starts from the beginning.
+    assertEquals(Arrays.asList(1, 2, 3, 4), ImmutableList.copyOf(decoded));
+    assertEquals(5, elemCoder.decoded);
+  }
+
+  @Test
+  public void testReencodeDoesNotDecode() throws Exception {
+    CountingCoder elemCoder = new CountingCoder();
+    Coder<Iterable<Integer>> coder = LazyIterableCoder.of(elemCoder);
+    byte[] encoded = CoderUtils.encodeToByteArray(coder, Arrays.asList(1, 2, 3));
+    Iterable<Integer> decoded = CoderUtils.decodeFromByteArray(coder, encoded);
+    assertArrayEquals(encoded, CoderUtils.encodeToByteArray(coder, decoded));
+    assertEquals(0, elemCoder.decoded);
+  }
+
+  @Test
+  public void testEmptyIterable() throws Exception {
+    Iterable<Integer> decoded = CoderUtils.decodeFromByteArray(
+        TEST_CODER, CoderUtils.encodeToByteArray(TEST_CODER, FluentIterable.of(new Integer[0])));
+    assertFalse(decoded.iterator().hasNext());
+  }
+
+  @Test
+  public void encodeNullThrowsCoderException() throws Exception {
+    thrown.expect(CoderException.class);
+    thrown.expectMessage("cannot encode a null Iterable");
+
+    CoderUtils.encodeToBase64(TEST_CODER, null);
+  }
+
+  /**
+   * A {@link VarIntCoder} equivalent which counts the values it decodes.
+   */
+  private static class CountingCoder extends CustomCoder<Integer> {
+    private int decoded = 0;
+
+    @Override
+    public void encode(Integer value, OutputStream outStream, Context context)
+        throws IOException {
+      VarIntCoder.of().encode(value, outStream, context);
+    }
+
+    @Override
+    public Integer decode(InputStream inStream, Context context) throws IOException {
+      decoded++;
+      return VarIntCoder.of().decode(inStream, context);
+    }
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.google.cloud.dataflow.sdk.coders;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.dataflow.sdk.coders.LazyProto2Coder.LazyMessage;
+import com.google.cloud.dataflow.sdk.coders.Proto2CoderTestMessages.MessageA;
+import com.google.cloud.dataflow.sdk.coders.Proto2CoderTestMessages.MessageB;
+import com.google.cloud.dataflow.sdk.testing.CoderProperties;
+import com.google.cloud.dataflow.sdk.util.CloudObject;
+import com.google.cloud.dataflow.sdk.util.CoderUtils;
+import com.google.cloud.dataflow.sdk.util.Serializer;
+import com.google.common.collect.ImmutableList;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.List;
+
+/**
+ * Tests for {@link LazyProto2Coder}.
+ */
+@RunWith(JUnit4.class)
+public class LazyProto2CoderTest {
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  private static final Proto2Coder<MessageA> PROTO_CODER = Proto2Coder.of(MessageA.class);
+  private static final LazyProto2Coder<MessageA> TEST_CODER = LazyProto2Coder.of(PROTO_CODER);
+
+  private static final MessageA VALUE = MessageA.newBuilder()
+      .setField1("hello")
+      .addField2(MessageB.newBuilder().setField1(true).build())
+      .build();
+
+  @Test
+  public void testDecodeEncodeEqual() throws Exception {
+    CoderProperties.coderDecodeEncodeEqual(TEST_CODER, LazyMessage.of(VALUE));
+    CoderProperties.coderDecodeEncodeEqual(
+        ListCoder.of(TEST_CODER),
+        ImmutableList.of(LazyMessage.of(VALUE), LazyMessage.of(MessageA.getDefaultInstance())));
+  }
+
+  @Test
+  public void testParsesOnAccess() throws Exception {
+    LazyMessage<MessageA> decoded = CoderUtils.clone(TEST_CODER, LazyMessage.of(VALUE));
+    assertFalse(decoded.isParsed());
+
+    // Re-encoding an unparsed message copies its bytes.
+    assertArrayEquals(
+        CoderUtils.encodeToByteArray(PROTO_CODER, VALUE),
+        CoderUtils.encodeToByteArray(TEST_CODER, decoded));
+    assertFalse(decoded.isParsed());
+
+    assertEquals(VALUE, decoded.get());
+    assertTrue(decoded.isParsed());
+  }
+
+  @Test
+  public void testCompatibleWithProto2Coder() throws Exception {
+    for (Coder.Context context : CoderProperties.ALL_CONTEXTS) {
+      byte[] bytes = CoderUtils.encodeToByteArray(PROTO_CODER, VALUE, context);
+      assertEquals(VALUE, CoderUtils.decodeFromByteArray(TEST_CODER, bytes, context).get());
+      assertArrayEquals(bytes,
+          CoderUtils.encodeToByteArray(TEST_CODER, LazyMessage.of(VALUE), context));
+    }
+  }
+
+  @Test
+  public void testEncodedSize() throws Exception {
+    LazyMessage<MessageA> value = LazyMessage.of(VALUE);
+    for (Coder.Context context : CoderProperties.ALL_CONTEXTS) {
+      assertEquals(CoderUtils.encodeToByteArray(TEST_CODER, value, context).length,
+          TEST_CODER.getEncodedElementByteSize(value, context));
+    }
+  }
+
+  @Test
+  public void testCoderSerialization() throws Exception {
+    CoderProperties.coderSerializable(TEST_CODER);
+    CloudObject encoding = TEST_CODER.asCloudObject();
+    assertEquals(TEST_CODER, Serializer.deserialize(encoding, Coder.class));
+  }
+
+  @Test
+  public void encodeNullThrowsCoderException() throws Exception {
+    thrown.expect(CoderException.class);
+    thrown.expectMessage("cannot encode a null LazyMessage");
+    CoderUtils.encodeToBase64(TEST_CODER, null);
+  }
+
+  @Test
+  public void testGetInvalidBytes() throws Exception {
+    List<LazyMessage<MessageA>> decoded = CoderUtils.decodeFromByteArray(
+        ListCoder.of(TEST_CODER), new byte[] {0, 0, 0, 1, 2, 0x0a, 0x05});
+    thrown.expect(InvalidProtocolBufferException.class);
+    decoded.get(0).get();
+  }
+}
@@ -106,11 +106,16 @@ public class NullableCoderTest {
   @Test
   public void testObserverIsNotCheap() throws Exception {
       NullableCoder<List<String>> coder = NullableCoder.of(ListCoder.of(StringUtf8Coder.of()));
-      assertFalse(coder.isRegisterByteSizeObserverCheap(null, Coder.Context.OUTER));
       assertFalse(coder.isRegisterByteSizeObserverCheap(
           ImmutableList.of("hi", "test"), Coder.Context.OUTER));
   }
 
+  @Test
+  public void testObserverIsCheapForNull() throws Exception {
+      NullableCoder<List<String>> coder = NullableCoder.of(ListCoder.of(StringUtf8Coder.of()));
+      assertTrue(coder.isRegisterByteSizeObserverCheap(null, Coder.Context.OUTER));
+  }
+
   @Test
   public void testStructuralValueConsistentWithEquals() throws Exception {
     CoderProperties.structuralValueConsistentWithEquals(TEST_CODER, null, null);
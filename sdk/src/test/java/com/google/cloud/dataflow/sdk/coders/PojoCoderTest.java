@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.google.cloud.dataflow.sdk.coders;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import com.google.cloud.dataflow.sdk.coders.Coder.NonDeterministicException;
+import com.google.cloud.dataflow.sdk.testing.CoderProperties;
+import com.google.cloud.dataflow.sdk.util.CloudObject;
+import com.google.cloud.dataflow.sdk.util.CoderUtils;
+import com.google.cloud.dataflow.sdk.util.Serializer;
+import com.google.cloud.dataflow.sdk.values.TypeDescriptor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Tests for {@link PojoCoder}.
+ */
+@RunWith(JUnit4.class)
+public class PojoCoderTest {
+
+  @Rule public ExpectedException thrown = ExpectedException.none();
+
+  static class Base {
+    long id;
+  }
+
+  @DefaultCoder(PojoCoder.class)
+  static class Record extends Base {
+    boolean flag;
+    byte b;
+    short s;
+    char c;
+    int i;
+    Integer boxed;
+    String name;
+    List<String> tags;
+    List<List<Long>> matrix;
+    Nested nested;
+    Record next;
+    transient int ignored;
+
+    private Record() {}
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Record)) {
+        return false;
+      }
+      Record that = (Record) o;
+      return id == that.id && flag == that.flag && b == that.b && s == that.s && c == that.c
+          && i == that.i && Objects.equals(boxed, that.boxed) && Objects.equals(name, that.name)
+          && Objects.equals(tags, that.tags) && Objects.equals(matrix, that.matrix)
+          && Objects.equals(nested, that.nested) && Objects.equals(next, that.next);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(id, name, i);
+    }
+  }
+
+  static class Nested {
+    String value;
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Nested && Objects.equals(value, ((Nested) o).value);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(value);
+    }
+  }
+
+  static class WithDouble {
+    double score;
+    List<Float> weights;
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof WithDouble)) {
+        return false;
+      }
+      WithDouble that = (WithDouble) o;
+      return score == that.score && Objects.equals(weights, that.weights);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(score, weights);
+    }
+  }
+
+  static class NoDefaultConstructor {
+    String value;
+
+    NoDefaultConstructor(String value) {
+      this.value = value;
+    }
+  }
+
+  static class WithUnsupportedField {
+    Object value;
+  }
+
+  static class WithBase {
+    Base base;
+  }
+
+  private static Record makeRecord(int i) {
+    Record record = new Record();
+    record.id = -i * 1000L;
+    record.flag = i % 2 == 0;
+    record.b = (byte) i;
+    record.s = (short) -i;
+    record.c = (char) ('a' + i);
+    record.i = i * 31;
+    record.boxed = i % 3 == 0 ? null : i;
+    record.name = i % 4 == 0 ? null : "name" + i;
+    record.tags = Arrays.asList("a", null, "c" + i);
+    record.matrix = new ArrayList<>();
+    record.matrix.add(Arrays.asList(1L, Long.MAX_VALUE));
+    record.matrix.add(null);
+    record.nested = new Nested();
+    record.nested.value = "nested" + i;
+    return record;
+  }
+
+  @Test
+  public void testDecodeEncodeEqual() throws Exception {
+    PojoCoder<Record> coder = PojoCoder.of(Record.class);
+    Record head = makeRecord(1);
+    head.next = makeRecord(2);
+    head.next.next = makeRecord(3);
+    for (Record record : Arrays.asList(new Record(), makeRecord(0), makeRecord(5), head)) {
+      CoderProperties.coderDecodeEncodeEqual(coder, record);
+    }
+  }
+
+  @Test
+  public void testTransientFieldsAreSkipped() throws Exception {
+    PojoCoder<Record> coder = PojoCoder.of(Record.class);
+    Record record = makeRecord(7);
+    record.ignored = 42;
+    assertEquals(0, CoderUtils.clone(coder, record).ignored);
+  }
+
+  @Test
+  public void testDeterministic() throws Exception, NonDeterministicException {
+    PojoCoder.of(Record.class).verifyDeterministic();
+  }
+
+  @Test
+  public void testFloatingPointIsNotDeterministic() throws Exception, NonDeterministicException {
+    PojoCoder<WithDouble> coder = PojoCoder.of(WithDouble.class);
+    WithDouble value = new WithDouble();
+    value.score = 0.5;
+    value.weights = Arrays.asList(1.5f, null);
+    CoderProperties.coderDecodeEncodeEqual(coder, value);
+
+    thrown.expect(NonDeterministicException.class);
+    thrown.expectMessage("WithDouble#score");
+    thrown.expectMessage("WithDouble#weights[]");
+    coder.verifyDeterministic();
+  }
+
+  @Test
+  public void testSerializable() throws Exception {
+    CoderProperties.coderSerializable(PojoCoder.of(Record.class));
+  }
+
+  @Test
+  public void testCloudObjectRoundTrip() throws Exception {
+    PojoCoder<Record> coder = PojoCoder.of(Record.class);
+    CloudObject encoding = coder.asCloudObject();
+    assertEquals(coder, Serializer.deserialize(encoding, Coder.class));
+  }
+
+  @Test
+  public void testDefaultCoderAnnotation() throws Exception {
+    CoderRegistry registry = new CoderRegistry();
+    registry.registerStandardCoders();
+    assertEquals(PojoCoder.of(Record.class), registry.getDefaultCoder(Record.class));
+  }
+
+  @Test
+  public void testProvider() throws Exception {
+    assertEquals(PojoCoder.of(Nested.class),
+        PojoCoder.PROVIDER.getCoder(TypeDescriptor.of(Nested.class)));
+  }
+
+  @Test
+  public void testProviderRejectsUnsupportedField() throws Exception {
+    thrown.expect(CannotProvideCoderException.class);
+    thrown.expectMessage("WithUnsupportedField#value");
+    PojoCoder.PROVIDER.getCoder(TypeDescriptor.of(WithUnsupportedField.class));
+  }
+
+  @Test
+  public void testRejectsMissingConstructor() throws Exception {
+    try {
+      PojoCoder.of(NoDefaultConstructor.class);
+      throw new AssertionError("expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      assertThat(e.getMessage(), containsString("zero-argument constructor"));
+    }
+  }
+
+  @Test
+  public void testEncodeNullThrowsCoderException() throws Exception {
+    thrown.expect(CoderException.class);
+    thrown.expectMessage("cannot encode a null Record");
+    CoderUtils.encodeToByteArray(PojoCoder.of(Record.class), null);
+  }
+
+  @Test
+  public void testEncodeSubclassThrowsCoderException() throws Exception {
+    thrown.expect(CoderException.class);
+    thrown.expectMessage("subclasses are not supported");
+    CoderUtils.encodeToByteArray(PojoCoder.of(Base.class), makeRecord(1));
+  }
+
+  @Test
+  public void testEncodeNestedSubclassThrowsCoderException() throws Exception {
+    WithBase value = new WithBase();
+    value.base = makeRecord(1);
+    thrown.expect(CoderException.class);
+    thrown.expectMessage("subclasses are not supported");
+    CoderUtils.encodeToByteArray(PojoCoder.of(WithBase.class), value);
+  }
+
+  @Test
+  public void testEncodeSharedReferences() throws Exception {
+    Record shared = makeRecord(2);
+    Record head = makeRecord(1);
+    head.next = makeRecord(3);
+    head.next.next = shared;
+    head.nested = shared.nested;
+    CoderProperties.coderDecodeEncodeEqual(PojoCoder.of(Record.class), head);
+  }
+
+  @Test
+  public void testEncodeCycleThrowsCoderException() throws Exception {
+    Record head = makeRecord(1);
+    head.next = makeRecord(2);
+    head.next.next = head;
+    thrown.expect(CoderException.class);
+    thrown.expectMessage("refers to itself");
+    CoderUtils.encodeToByteArray(PojoCoder.of(Record.class), head);
+  }
+}
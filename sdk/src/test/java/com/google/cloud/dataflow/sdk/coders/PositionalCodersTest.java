@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.google.cloud.dataflow.sdk.coders;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.dataflow.sdk.coders.Coder.Context;
+import com.google.cloud.dataflow.sdk.transforms.windowing.GlobalWindow;
+import com.google.cloud.dataflow.sdk.transforms.windowing.IntervalWindow;
+import com.google.cloud.dataflow.sdk.transforms.windowing.PaneInfo;
+import com.google.cloud.dataflow.sdk.transforms.windowing.PaneInfo.Timing;
+import com.google.cloud.dataflow.sdk.util.CoderUtils;
+import com.google.cloud.dataflow.sdk.util.WindowedValue;
+import com.google.cloud.dataflow.sdk.values.KV;
+import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
+
+import org.joda.time.Instant;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests for {@link PositionalCoders} and the {@link PositionalCoder} implementations of the
+ * standard coders.
+ */
+@RunWith(JUnit4.class)
+public class PositionalCodersTest {
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  private static <T> byte[] encodeWithStream(Coder<T> coder, T value, Context context)
+      throws Exception {
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    coder.encode(value, stream, context);
+    return stream.toByteArray();
+  }
+
+  private static <T> byte[] encodePositional(Coder<T> coder, T value, Context context)
+      throws Exception {
+    PositionalOutput out = new PositionalOutput(1);
+    PositionalCoders.encode(coder, value, out, context);
+    return out.toByteArray();
+  }
+
+  /**
+   * Checks that the positional encoding of each value is the same as its stream encoding,
+   * and that the values can be decoded back to back from one buffer.
+   */
+  private static <T> void checkSameAsStreams(Coder<T> coder, List<T> values) throws Exception {
+    PositionalOutput all = new PositionalOutput();
+    for (T value : values) {
+      assertArrayEquals(
+          encodeWithStream(coder, value, Context.OUTER),
+          encodePositional(coder, value, Context.OUTER));
+      assertArrayEquals(
+          encodeWithStream(coder, value, Context.NESTED),
+          encodePositional(coder, value, Context.NESTED));
+      assertEquals(value, PositionalCoders.decode(
+          coder, ByteBuffer.wrap(encodeWithStream(coder, value, Context.OUTER)), Context.OUTER));
+      PositionalCoders.encode(coder, value, all, Context.NESTED);
+    }
+    ByteBuffer in = ByteBuffer.wrap(all.toByteArray());
+    for (T value : values) {
+      assertEquals(value, PositionalCoders.decode(coder, in, Context.NESTED));
+    }
+    assertFalse(in.hasRemaining());
+  }
+
+  @Test
+  public void testVarIntCoder() throws Exception {
+    checkSameAsStreams(VarIntCoder.of(),
+        Arrays.asList(0, 1, -1, 127, 128, Integer.MAX_VALUE, Integer.MIN_VALUE));
+  }
+
+  @Test
+  public void testBigEndianLongCoder() throws Exception {
+    checkSameAsStreams(BigEndianLongCoder.of(),
+        Arrays.asList(0L, 1L, -1L, Long.MAX_VALUE, Long.MIN_VALUE));
+  }
+
+  @Test
+  public void testStringUtf8Coder() throws Exception {
+    checkSameAsStreams(StringUtf8Coder.of(),
+        Arrays.asList("", "a", "hello world", "é世😀"));
+  }
+
+  @Test
+  public void testKvCoderWithNonPositionalComponent() throws Exception {
+    checkSameAsStreams(KvCoder.of(StringUtf8Coder.of(), VarLongCoder.of()),
+        Arrays.asList(KV.of("a", 1L), KV.of("", -1L), KV.of("bcd", Long.MAX_VALUE)));
+  }
+
+  @Test
+  public void testIterableCoder() throws Exception {
+    Coder<Iterable<String>> coder = IterableCoder.of(StringUtf8Coder.of());
+    List<String> list = Arrays.asList("a", "bb", "ccc");
+    assertArrayEquals(
+        encodeWithStream(coder, list, Context.NESTED),
+        encodePositional(coder, list, Context.NESTED));
+    // An iterable which is not a collection uses the block encoding.
+    Iterable<String> iterable = FluentIterable.from(list);
+    assertArrayEquals(
+        encodeWithStream(coder, iterable, Context.NESTED),
+        encodePositional(coder, iterable, Context.NESTED));
+    assertEquals(list, ImmutableList.copyOf(PositionalCoders.decode(coder,
+        ByteBuffer.wrap(encodePositional(coder, iterable, Context.OUTER)), Context.OUTER)));
+    checkSameAsStreams(ListCoder.of(VarIntCoder.of()),
+        Arrays.<List<Integer>>asList(
+            Collections.<Integer>emptyList(), Arrays.asList(1, 2, 3)));
+  }
+
+  @Test
+  public void testFullWindowedValueCoder() throws Exception {
+    Coder<WindowedValue<String>> coder =
+        WindowedValue.getFullCoder(StringUtf8Coder.of(), IntervalWindow.getCoder());
+    IntervalWindow window = new IntervalWindow(new Instant(0), new Instant(10));
+    checkSameAsStreams(coder, Arrays.asList(
+        WindowedValue.of("a", new Instant(3), window, PaneInfo.NO_FIRING),
+        WindowedValue.of("b", new Instant(-5), window,
+            PaneInfo.createPane(false, false, Timing.LATE, 3, 2))));
+  }
+
+  @Test
+  public void testCoderUtilsDecodeExtraBytes() throws Exception {
+    byte[] encoded = CoderUtils.encodeToByteArray(VarIntCoder.of(), 1);
+    thrown.expect(CoderException.class);
+    thrown.expectMessage("1 unexpected extra bytes");
+    CoderUtils.decodeFromByteArray(VarIntCoder.of(), Arrays.copyOf(encoded, 2));
+  }
+
+  @Test
+  public void testCoderUtilsDecodeTruncated() throws Exception {
+    byte[] encoded = CoderUtils.encodeToByteArray(BigEndianLongCoder.of(), 1L);
+    thrown.expect(CoderException.class);
+    CoderUtils.decodeFromByteArray(BigEndianLongCoder.of(), Arrays.copyOf(encoded, 4));
+  }
+
+  @Test
+  public void testWriteAndOwn() throws Exception {
+    PositionalOutput out = new PositionalOutput();
+    byte[] owned = new byte[] {1, 2, 3};
+    out.writeAndOwn(owned);
+    assertSame(owned, out.toByteArray());
+    out.write(4);
+    assertArrayEquals(new byte[] {1, 2, 3, 4}, out.toByteArray());
+    assertArrayEquals(new byte[] {1, 2, 3}, owned);
+    out.reset();
+    out.writeAndOwn(owned);
+    out.reset();
+    out.write(5);
+    assertArrayEquals(new byte[] {5}, out.toByteArray());
+    assertArrayEquals(new byte[] {1, 2, 3}, owned);
+  }
+
+  @Test
+  public void testGlobalWindowFallback() throws Exception {
+    checkSameAsStreams(
+        WindowedValue.getFullCoder(VarIntCoder.of(), GlobalWindow.Coder.INSTANCE),
+        Arrays.asList(WindowedValue.valueInGlobalWindow(7)));
+  }
+
+  /**
+   * A {@link ListCoder} which overrides the stream methods but not the positional methods, and
+   * writes its own format.
+   */
+  private static class ReversedListCoder extends ListCoder<Integer> {
+    ReversedListCoder() {
+      super(VarIntCoder.of());
+    }
+
+    @Override
+    public void encode(List<Integer> value, OutputStream outStream, Context context)
+        throws CoderException, IOException {
+      List<Integer> reversed = new ArrayList<>(value);
+      Collections.reverse(reversed);
+      super.encode(reversed, outStream, context);
+    }
+
+    @Override
+    public List<Integer> decode(InputStream inStream, Context context)
+        throws CoderException, IOException {
+      List<Integer> value = new ArrayList<>(super.decode(inStream, context));
+      Collections.reverse(value);
+      return value;
+    }
+  }
+
+  @Test
+  public void testSubclassOverridingStreamMethodsUsesThem() throws Exception {
+    ReversedListCoder coder = new ReversedListCoder();
+    assertFalse(PositionalCoders.encodesPositionally(coder));
+    assertFalse(PositionalCoders.decodesPositionally(coder));
+
+    List<Integer> value = Arrays.asList(1, 2, 3);
+    byte[] encoded = CoderUtils.encodeToByteArray(coder, value);
+    assertArrayEquals(encodeWithStream(coder, value, Context.OUTER), encoded);
+    assertArrayEquals(
+        CoderUtils.encodeToByteArray(ListCoder.of(VarIntCoder.of()), Arrays.asList(3, 2, 1)),
+        encoded);
+    assertEquals(value, CoderUtils.decodeFromByteArray(coder, encoded));
+    assertEquals(value, CoderUtils.decodeFromByteBuffer(coder, ByteBuffer.wrap(encoded)));
+    checkSameAsStreams(KvCoder.of(VarIntCoder.of(), coder),
+        Arrays.asList(KV.of(1, value), KV.of(2, Collections.<Integer>emptyList())));
+  }
+
+  @Test
+  public void testCodersDeclaringBothMethodsArePositional() throws Exception {
+    assertTrue(PositionalCoders.encodesPositionally(ListCoder.of(VarIntCoder.of())));
+    assertTrue(PositionalCoders.decodesPositionally(ListCoder.of(VarIntCoder.of())));
+    // Overrides encode and encodePositional, and inherits both decode methods.
+    assertTrue(PositionalCoders.encodesPositionally(DeterministicSetCoder.of(VarIntCoder.of())));
+    assertTrue(PositionalCoders.decodesPositionally(DeterministicSetCoder.of(VarIntCoder.of())));
+  }
+}
@@ -16,6 +16,7 @@
 
 package com.google.cloud.dataflow.sdk.coders;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 import com.google.cloud.dataflow.sdk.coders.Proto2CoderTestMessages.MessageA;
@@ -32,6 +33,8 @@ import org.junit.rules.ExpectedException;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.io.ByteArrayOutputStream;
+
 /**
  * Tests for Proto2Coder.
  */
@@ -111,6 +114,23 @@ public class Proto2CoderTest {
         value);
   }
 
+  @Test
+  public void testPositionalAgreesWithStreams() throws Exception {
+    MessageC value = MessageC.newBuilder()
+        .setExtension(Proto2CoderTestMessages.field2,
+            MessageB.newBuilder().setField1(true).build())
+        .build();
+    Proto2Coder<MessageC> coder =
+        Proto2Coder.of(MessageC.class).withExtensionsFrom(Proto2CoderTestMessages.class);
+    for (Coder.Context context : CoderProperties.ALL_CONTEXTS) {
+      ByteArrayOutputStream os = new ByteArrayOutputStream();
+      coder.encode(value, os, context);
+      byte[] bytes = os.toByteArray();
+      assertArrayEquals(bytes, CoderUtils.encodeToByteArray(coder, value, context));
+      assertEquals(value, CoderUtils.decodeFromByteArray(coder, bytes, context));
+    }
+  }
+
   @Test
   public void testCoderSerialization() throws Exception {
     Proto2Coder<MessageA> coder = Proto2Coder.of(MessageA.class);
@@ -16,6 +16,8 @@
 
 package com.google.cloud.dataflow.sdk.coders;
 
+import static org.junit.Assert.assertEquals;
+
 import com.google.cloud.dataflow.sdk.testing.CoderProperties;
 import com.google.cloud.dataflow.sdk.util.CoderUtils;
 
@@ -25,6 +27,7 @@ import org.junit.rules.ExpectedException;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
 
@@ -67,6 +70,44 @@ public class StringUtf8CoderTest {
     CoderProperties.coderEncodesBase64(TEST_CODER, TEST_VALUES, TEST_ENCODINGS);
   }
 
+  @Test
+  public void testDecodeFromDirectBuffer() throws Exception {
+    for (String value : TEST_VALUES) {
+      byte[] encoded = CoderUtils.encodeToByteArray(TEST_CODER, value);
+      ByteBuffer direct = ByteBuffer.allocateDirect(encoded.length + 2);
+      direct.put((byte) 'x').put(encoded).put((byte) 'y');
+      direct.position(1).limit(1 + encoded.length);
+
+      assertEquals(value, CoderUtils.decodeFromByteBuffer(TEST_CODER, direct));
+      assertEquals(1 + encoded.length, direct.position());
+    }
+  }
+
+  @Test
+  public void testDecodeNestedFromDirectBuffer() throws Exception {
+    StringUtf8Coder coder = StringUtf8Coder.of();
+    byte[] first = CoderUtils.encodeToByteArray(coder, "スタリング", Coder.Context.NESTED);
+    byte[] second = CoderUtils.encodeToByteArray(coder, "hello", Coder.Context.NESTED);
+    ByteBuffer direct = ByteBuffer.allocateDirect(first.length + second.length);
+    direct.put(first).put(second).flip();
+
+    assertEquals("スタリング", coder.decodePositional(direct, Coder.Context.NESTED));
+    assertEquals(first.length, direct.position());
+    assertEquals("hello", coder.decodePositional(direct, Coder.Context.NESTED));
+    assertEquals(direct.limit(), direct.position());
+  }
+
+  @Test
+  public void testDecodeMalformedFromDirectBufferReplacesLikeHeapBuffer() throws Exception {
+    byte[] malformed = {'a', (byte) 0xC3, 'b', (byte) 0xFF};
+    ByteBuffer direct = ByteBuffer.allocateDirect(malformed.length);
+    direct.put(malformed).flip();
+
+    assertEquals(
+        CoderUtils.decodeFromByteBuffer(TEST_CODER, ByteBuffer.wrap(malformed)),
+        CoderUtils.decodeFromByteBuffer(TEST_CODER, direct));
+  }
+
   @Rule
   public ExpectedException thrown = ExpectedException.none();
 
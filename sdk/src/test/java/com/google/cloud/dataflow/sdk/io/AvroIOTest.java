@@ -25,14 +25,19 @@ import com.google.cloud.dataflow.sdk.coders.DefaultCoder;
 import com.google.cloud.dataflow.sdk.runners.DirectPipeline;
 import com.google.cloud.dataflow.sdk.testing.DataflowAssert;
 import com.google.cloud.dataflow.sdk.transforms.Create;
+import com.google.cloud.dataflow.sdk.transforms.DoFn;
+import com.google.cloud.dataflow.sdk.transforms.ParDo;
 import com.google.cloud.dataflow.sdk.values.PCollection;
 import com.google.common.base.MoreObjects;
 import com.google.common.collect.ImmutableList;
 
+import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericRecord;
 import org.apache.avro.reflect.Nullable;
+import org.apache.avro.reflect.ReflectData;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.ExpectedException;
 import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -49,6 +54,9 @@ public class AvroIOTest {
   @Rule
   public TemporaryFolder tmpFolder = new TemporaryFolder();
 
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
   @Test
   public void testReadWithoutValidationFlag() throws Exception {
     AvroIO.Read.Bound<GenericRecord> read = AvroIO.Read.from("gs://bucket/foo*/baz");
@@ -189,6 +197,48 @@ public class AvroIOTest {
     p.run();
   }
 
+  private static class ToStringFn extends DoFn<GenericRecord, String> {
+    @Override
+    public void processElement(ProcessContext c) {
+      c.output(c.element().toString());
+    }
+  }
+
+  @Test
+  public void testAvroIOReadWithProjection() throws Throwable {
+    DirectPipeline p = DirectPipeline.createForTest();
+    List<GenericClass> values = ImmutableList.of(new GenericClass(3, "hi"),
+        new GenericClass(5, "bar"));
+    File outputFile = tmpFolder.newFile("output.avro");
+
+    p.apply(Create.of(values))
+      .apply(AvroIO.Write.to(outputFile.getAbsolutePath())
+          .withoutSharding()
+          .withSchema(GenericClass.class));
+    p.run();
+
+    p = DirectPipeline.createForTest();
+    PCollection<String> input = p
+        .apply(AvroIO.Read.from(outputFile.getAbsolutePath())
+            .withSchema(ReflectData.get().getSchema(GenericClass.class))
+            .withProjection("stringField"))
+        .apply(ParDo.of(new ToStringFn()));
+
+    DataflowAssert.that(input).containsInAnyOrder(
+        "{\"stringField\": \"hi\"}", "{\"stringField\": \"bar\"}");
+    p.run();
+  }
+
+  @Test
+  public void testAvroIOReadWithIncompatibleProjection() {
+    Schema projection = new Schema.Parser().parse("{\"type\": \"record\", "
+        + "\"name\": \"GenericClass\", \"fields\": [{\"name\": \"missing\", "
+        + "\"type\": \"string\"}]}");
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("cannot read records");
+    AvroIO.Read.withSchema(GenericClass.class).withProjection(projection);
+  }
+
   // TODO: for Write only, test withSuffix, withNumShards,
   // withShardNameTemplate and withoutSharding.
 }
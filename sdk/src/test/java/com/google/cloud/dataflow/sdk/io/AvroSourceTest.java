@@ -18,8 +18,11 @@ package com.google.cloud.dataflow.sdk.io;
 
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.when;
 
 import com.google.cloud.dataflow.sdk.coders.AvroCoder;
 import com.google.cloud.dataflow.sdk.coders.DefaultCoder;
@@ -28,7 +31,11 @@ import com.google.cloud.dataflow.sdk.io.AvroSource.AvroReader.Seeker;
 import com.google.cloud.dataflow.sdk.options.PipelineOptions;
 import com.google.cloud.dataflow.sdk.options.PipelineOptionsFactory;
 import com.google.cloud.dataflow.sdk.testing.SourceTestUtils;
+import com.google.cloud.dataflow.sdk.util.IOChannelFactory;
+import com.google.cloud.dataflow.sdk.util.IOChannelUtils;
 import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 import org.apache.avro.Schema;
 import org.apache.avro.file.CodecFactory;
@@ -45,17 +52,30 @@ import org.junit.rules.ExpectedException;
 import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import org.mockito.Mockito;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Tests for AvroSource.
@@ -271,6 +291,170 @@ public class AvroSourceTest {
     SourceTestUtils.assertSourcesEqualReferenceSource(source, splits, options);
   }
 
+  @Test
+  public void testReadAheadWithDifferentCodecs() throws Exception {
+    String codecs[] = {DataFileConstants.NULL_CODEC, DataFileConstants.BZIP2_CODEC,
+        DataFileConstants.DEFLATE_CODEC, DataFileConstants.SNAPPY_CODEC,
+        DataFileConstants.XZ_CODEC};
+    List<Bird> expected = createRandomRecords(DEFAULT_RECORD_COUNT);
+
+    for (String codec : codecs) {
+      String filename = generateTestFile(codec, expected, SyncBehavior.SYNC_REGULAR,
+          DEFAULT_RECORD_COUNT / 50 /* records per block */, AvroCoder.of(Bird.class), codec);
+      AvroSource<Bird> source =
+          AvroSource.from(filename).withSchema(Bird.class).withBlockReadAhead(3);
+      assertEquals(expected, SourceTestUtils.readFromSource(source, null));
+    }
+  }
+
+  @Test
+  public void testReadAheadSplits() throws Exception {
+    List<Bird> expected = createRandomRecords(DEFAULT_RECORD_COUNT);
+    String filename = generateTestFile("tmp.avro", expected, SyncBehavior.SYNC_RANDOM,
+        DEFAULT_RECORD_COUNT / 20 /* max records/block */,
+        AvroCoder.of(Bird.class), DataFileConstants.DEFLATE_CODEC);
+    File file = new File(filename);
+
+    AvroSource<Bird> source = AvroSource.from(filename).withSchema(Bird.class)
+        .withMinBundleSize(100L).withBlockReadAhead(2);
+    List<? extends BoundedSource<Bird>> splits = source.splitIntoBundles(file.length() / 4, null);
+    assertTrue(splits.size() > 2);
+    for (BoundedSource<Bird> subSource : splits) {
+      assertEquals(2, ((AvroSource<Bird>) subSource).getBlockReadAhead());
+    }
+    SourceTestUtils.assertSourcesEqualReferenceSource(
+        AvroSource.from(filename).withSchema(Bird.class), splits, null);
+  }
+
+  @Test
+  public void testReadAheadSplitAtFractionExhaustive() throws Exception {
+    List<FixedRecord> expected = createFixedRecords(20);
+    String filename = generateTestFile("tmp.avro", expected, SyncBehavior.SYNC_REGULAR, 5,
+        AvroCoder.of(FixedRecord.class), DataFileConstants.NULL_CODEC);
+
+    AvroSource<FixedRecord> source =
+        AvroSource.from(filename).withSchema(FixedRecord.class).withBlockReadAhead(2);
+    SourceTestUtils.assertSplitAtFractionExhaustive(source, null);
+  }
+
+  @Test
+  public void testReadAheadCloseBeforeEnd() throws Exception {
+    List<FixedRecord> records = createFixedRecords(DEFAULT_RECORD_COUNT);
+    String filename = generateTestFile("tmp.avro", records, SyncBehavior.SYNC_REGULAR, 10,
+        AvroCoder.of(FixedRecord.class), DataFileConstants.DEFLATE_CODEC);
+
+    AvroSource<FixedRecord> source =
+        AvroSource.from(filename).withSchema(FixedRecord.class).withBlockReadAhead(1);
+    for (int i = 0; i < 10; i++) {
+      try (BoundedSource.BoundedReader<FixedRecord> reader = source.createReader(null)) {
+        assertTrue(reader.start());
+        assertEquals(records.get(0), reader.getCurrent());
+      }
+    }
+  }
+
+  @Test
+  public void testReadAheadCloseWaitsForBackgroundRead() throws Exception {
+    List<FixedRecord> records = createFixedRecords(DEFAULT_RECORD_COUNT);
+    final String filename = generateTestFile("tmp.avro", records, SyncBehavior.SYNC_REGULAR, 10,
+        AvroCoder.of(FixedRecord.class), DataFileConstants.NULL_CODEC);
+    final CountDownLatch readStarted = new CountDownLatch(1);
+    final CountDownLatch readReleased = new CountDownLatch(1);
+    final AtomicBoolean reading = new AtomicBoolean();
+    final AtomicBoolean closedWhileReading = new AtomicBoolean();
+    // Serves the first read, then blocks ignoring interrupts, like a read from a socket.
+    SeekableByteChannel blockingChannel = new SeekableByteChannel() {
+      private final FileChannel file = FileChannel.open(Paths.get(filename));
+      private boolean firstRead = true;
+
+      @Override
+      public int read(ByteBuffer dst) throws IOException {
+        if (firstRead) {
+          firstRead = false;
+          return file.read(dst);
+        }
+        reading.set(true);
+        readStarted.countDown();
+        Uninterruptibles.awaitUninterruptibly(readReleased);
+        reading.set(false);
+        return -1;
+      }
+
+      @Override
+      public int write(ByteBuffer src) {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public long position() throws IOException {
+        return file.position();
+      }
+
+      @Override
+      public SeekableByteChannel position(long newPosition) throws IOException {
+        file.position(newPosition);
+        return this;
+      }
+
+      @Override
+      public long size() throws IOException {
+        return file.size();
+      }
+
+      @Override
+      public SeekableByteChannel truncate(long size) {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public boolean isOpen() {
+        return file.isOpen();
+      }
+
+      @Override
+      public void close() throws IOException {
+        closedWhileReading.set(reading.get());
+        file.close();
+      }
+    };
+    String spec = "blocking://tmp.avro";
+    IOChannelFactory factory = Mockito.mock(IOChannelFactory.class);
+    when(factory.match(spec)).thenReturn(ImmutableList.of(spec));
+    when(factory.getSizeBytes(spec)).thenReturn(new File(filename).length());
+    when(factory.open(spec))
+        .thenReturn(FileChannel.open(Paths.get(filename)), blockingChannel);
+    IOChannelUtils.setIOFactory("blocking", factory);
+
+    // Reads ahead of the reader until it blocks, never filling the queue.
+    AvroSource<FixedRecord> source =
+        AvroSource.from(spec).withSchema(FixedRecord.class).withBlockReadAhead(10000);
+    final BoundedSource.BoundedReader<FixedRecord> reader = source.createReader(null);
+    assertTrue(reader.start());
+    readStarted.await();
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<?> closing = executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          reader.close();
+          return null;
+        }
+      });
+      try {
+        closing.get(100, TimeUnit.MILLISECONDS);
+        fail("close returned while the channel was being read");
+      } catch (TimeoutException e) {
+        // Expected.
+      }
+      readReleased.countDown();
+      closing.get(10, TimeUnit.SECONDS);
+      assertFalse(closedWhileReading.get());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
   @Test
   public void testMultipleFiles() throws Exception {
     String baseName = "tmp-";
@@ -313,6 +497,26 @@ public class AvroSourceTest {
     assertEqualsWithGeneric(expected, records);
   }
 
+  @Test
+  public void testProjection() throws Exception {
+    List<Bird> birds = createRandomRecords(100);
+    String filename = generateTestFile("tmp.avro", birds, SyncBehavior.SYNC_DEFAULT, 0,
+        AvroCoder.of(Bird.class), DataFileConstants.DEFLATE_CODEC);
+
+    AvroSource<GenericRecord> source = AvroSource.from(filename)
+        .withSchema(ReflectData.get().getSchema(Bird.class))
+        .withProjection("species", "number");
+    List<GenericRecord> records = SourceTestUtils.readFromSource(source, null);
+
+    assertEquals(birds.size(), records.size());
+    for (int i = 0; i < birds.size(); i++) {
+      GenericRecord record = records.get(i);
+      assertEquals(2, record.getSchema().getFields().size());
+      assertEquals(birds.get(i).species, record.get("species").toString());
+      assertEquals(birds.get(i).number, record.get("number"));
+    }
+  }
+
   @Test
   public void testSchemaUpdate() throws Exception {
     List<Bird> birds = createRandomRecords(100);
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.io;
+
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.dataflow.sdk.io.ColumnarFormat.ColumnChunk;
+import com.google.cloud.dataflow.sdk.io.ColumnarFormat.Encoding;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests for {@link ColumnarFormat}.
+ */
+@RunWith(JUnit4.class)
+public class ColumnarFormatTest {
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  private static final Schema SCHEMA = SchemaBuilder.record("Row").fields()
+      .requiredLong("id")
+      .optionalString("name")
+      .requiredDouble("score")
+      .endRecord();
+
+  private void assertRunLengthBitPackedRoundTrip(int[] values, int bitWidth) throws Exception {
+    byte[] encoded = ColumnarFormat.encodeRunLengthBitPacked(values, values.length, bitWidth);
+    assertArrayEquals(values,
+        ColumnarFormat.decodeRunLengthBitPacked(encoded, values.length, bitWidth));
+  }
+
+  @Test
+  public void testRunLengthBitPackedRoundTrip() throws Exception {
+    Random random = new Random(0);
+    for (int bitWidth : new int[] {1, 2, 3, 7, 8, 9, 15, 16, 17, 31}) {
+      for (int length : new int[] {0, 1, 7, 8, 9, 100, 1001}) {
+        int[] values = new int[length];
+        for (int i = 0; i < length; i++) {
+          // Mix runs of repeated values with varying values.
+          values[i] = i > 0 && random.nextInt(3) == 0
+              ? values[i - 1]
+              : random.nextInt() >>> (32 - bitWidth);
+        }
+        assertRunLengthBitPackedRoundTrip(values, bitWidth);
+      }
+    }
+  }
+
+  @Test
+  public void testRunLengthBitPackedEncodesRunsCompactly() throws Exception {
+    int[] values = new int[10000];
+    Arrays.fill(values, 5000, 10000, 1);
+    byte[] encoded = ColumnarFormat.encodeRunLengthBitPacked(values, values.length, 1);
+    assertThat(encoded.length, lessThan(10));
+    assertRunLengthBitPackedRoundTrip(values, 1);
+
+    // Runs between bit-packed values.
+    values = new int[] {1, 2, 3, 3, 3, 3, 3, 3, 3, 3, 3, 3, 4, 5, 5, 5, 5, 5, 5, 5, 5, 6};
+    assertRunLengthBitPackedRoundTrip(values, 3);
+  }
+
+  @Test
+  public void testBitWidth() {
+    assertEquals(0, ColumnarFormat.bitWidth(0));
+    assertEquals(1, ColumnarFormat.bitWidth(1));
+    assertEquals(2, ColumnarFormat.bitWidth(3));
+    assertEquals(3, ColumnarFormat.bitWidth(4));
+    assertEquals(16, ColumnarFormat.bitWidth(65535));
+  }
+
+  @Test
+  public void testEncodeColumnWithFewDistinctValuesUsesDictionary() throws Exception {
+    List<Object> values = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      values.add(i % 3 == 0 ? null : "value" + (i % 10));
+    }
+    Schema.Field field = SCHEMA.getField("name");
+    ColumnChunk chunk = ColumnarFormat.encodeColumn(values, field);
+
+    assertEquals(Encoding.DICTIONARY, chunk.encoding);
+    assertEquals(334, chunk.statistics.nullCount);
+    assertEquals("value0", chunk.statistics.min);
+    assertEquals("value9", chunk.statistics.max);
+    assertEquals(values,
+        Arrays.asList(ColumnarFormat.decodeColumn(chunk.data, chunk.encoding, field, 1000)));
+  }
+
+  @Test
+  public void testEncodeColumnWithDistinctValuesIsPlain() throws Exception {
+    List<Object> values = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      values.add(i * 1.5);
+    }
+    Schema.Field field = SCHEMA.getField("score");
+    ColumnChunk chunk = ColumnarFormat.encodeColumn(values, field);
+
+    assertEquals(Encoding.PLAIN, chunk.encoding);
+    assertEquals(0, chunk.statistics.nullCount);
+    assertEquals(0.0, chunk.statistics.min);
+    assertEquals(1498.5, chunk.statistics.max);
+    assertEquals(values,
+        Arrays.asList(ColumnarFormat.decodeColumn(chunk.data, chunk.encoding, field, 1000)));
+  }
+
+  @Test
+  public void testEncodeColumnOfNullsHasNoStatistics() throws Exception {
+    List<Object> values = Arrays.asList(null, null, null);
+    Schema.Field field = SCHEMA.getField("name");
+    ColumnChunk chunk = ColumnarFormat.encodeColumn(values, field);
+
+    assertEquals(3, chunk.statistics.nullCount);
+    assertEquals(null, chunk.statistics.min);
+    assertEquals(values,
+        Arrays.asList(ColumnarFormat.decodeColumn(chunk.data, chunk.encoding, field, 3)));
+  }
+
+  @Test
+  public void testEncodeColumnRejectsNullInRequiredField() throws Exception {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("Null value for non-nullable field id");
+    ColumnarFormat.encodeColumn(Arrays.<Object>asList(1L, null), SCHEMA.getField("id"));
+  }
+
+  @Test
+  public void testCheckSchemaRejectsNestedFields() {
+    Schema schema = SchemaBuilder.record("Nested").fields()
+        .name("tags").type().array().items().stringType().noDefault()
+        .endRecord();
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("Field tags");
+    ColumnarFormat.checkSchema(schema);
+  }
+
+  @Test
+  public void testCompareValues() {
+    assertTrue(ColumnarFormat.compareValues(1, 2L) < 0);
+    assertTrue(ColumnarFormat.compareValues(Long.MAX_VALUE, Long.MAX_VALUE - 1) > 0);
+    assertTrue(ColumnarFormat.compareValues(1.5f, 1) > 0);
+    assertEquals(0, ColumnarFormat.compareValues(2.0, 2));
+    assertTrue(ColumnarFormat.compareValues("a", new StringBuilder("b")) < 0);
+    assertTrue(ColumnarFormat.compareValues(true, false) > 0);
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.io;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.cloud.dataflow.sdk.Pipeline;
+import com.google.cloud.dataflow.sdk.coders.AvroCoder;
+import com.google.cloud.dataflow.sdk.testing.SourceTestUtils;
+import com.google.cloud.dataflow.sdk.testing.TestPipeline;
+import com.google.cloud.dataflow.sdk.transforms.Create;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.util.Utf8;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for {@link ColumnarSink}.
+ */
+@RunWith(JUnit4.class)
+public class ColumnarSinkTest {
+  @Rule
+  public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  private static final Schema SCHEMA = SchemaBuilder.record("Event").fields()
+      .requiredString("user")
+      .optionalLong("latency")
+      .endRecord();
+
+  @Test
+  public void testWriteThenRead() throws Exception {
+    List<GenericRecord> records = new ArrayList<>();
+    for (int i = 0; i < 250; i++) {
+      GenericRecord record = new GenericData.Record(SCHEMA);
+      record.put("user", new Utf8("user" + (i % 13)));
+      record.put("latency", i % 4 == 0 ? null : (long) i);
+      records.add(record);
+    }
+    String outputPrefix = new File(tmpFolder.getRoot(), "events").toString();
+
+    Pipeline p = TestPipeline.create();
+    p.apply(Create.of(records).withCoder(AvroCoder.of(SCHEMA)))
+        .apply(Write.to(ColumnarSink.to(outputPrefix, SCHEMA).withRowGroupSize(16)));
+    p.run();
+
+    List<GenericRecord> actual = SourceTestUtils.readFromSource(
+        ColumnarSource.from(outputPrefix + "*", SCHEMA), null);
+    assertEquals(records.size(), actual.size());
+    // Utf8 and String values are not equal, so compare the records by their string forms.
+    List<String> expectedStrings = new ArrayList<>();
+    for (GenericRecord record : records) {
+      expectedStrings.add(record.toString());
+    }
+    for (GenericRecord record : actual) {
+      expectedStrings.remove(record.toString());
+    }
+    assertEquals(0, expectedStrings.size());
+  }
+
+  @Test
+  public void testWithRowGroupSize() {
+    ColumnarSink sink = ColumnarSink.to("events", SCHEMA);
+    assertEquals(ColumnarSink.DEFAULT_ROW_GROUP_SIZE, sink.getRowGroupSize());
+    assertEquals(10, sink.withRowGroupSize(10).getRowGroupSize());
+  }
+
+  @Test
+  public void testRejectsUnsupportedSchema() {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("Field properties");
+    ColumnarSink.to("events", SchemaBuilder.record("Nested").fields()
+        .name("properties").type().map().values().stringType().noDefault()
+        .endRecord());
+  }
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.io;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.dataflow.sdk.io.ColumnarSink.ColumnarWriter;
+import com.google.cloud.dataflow.sdk.io.ColumnarSource.ColumnarReader;
+import com.google.cloud.dataflow.sdk.io.ColumnarSource.Predicate;
+import com.google.cloud.dataflow.sdk.options.PipelineOptions;
+import com.google.cloud.dataflow.sdk.options.PipelineOptionsFactory;
+import com.google.cloud.dataflow.sdk.testing.SourceTestUtils;
+import com.google.cloud.dataflow.sdk.util.AvroUtils;
+import com.google.cloud.dataflow.sdk.util.CoderUtils;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for {@link ColumnarSource}.
+ */
+@RunWith(JUnit4.class)
+public class ColumnarSourceTest {
+  @Rule
+  public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  private static final Schema SCHEMA = SchemaBuilder.record("Row").fields()
+      .requiredLong("id")
+      .optionalString("name")
+      .requiredDouble("score")
+      .requiredString("country")
+      .requiredBoolean("active")
+      .optionalInt("count")
+      .requiredFloat("ratio")
+      .endRecord();
+
+  private static final String[] COUNTRIES = {"de", "fr", "jp", "us"};
+
+  private static List<GenericRecord> createRecords(int count) {
+    List<GenericRecord> records = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      GenericRecord record = new GenericData.Record(SCHEMA);
+      record.put("id", (long) i);
+      record.put("name", i % 5 == 0 ? null : "name" + i);
+      record.put("score", i * 0.5);
+      record.put("country", COUNTRIES[i % COUNTRIES.length]);
+      record.put("active", i % 3 == 0);
+      record.put("count", i % 7 == 0 ? null : i % 10);
+      record.put("ratio", i / 3.0f);
+      records.add(record);
+    }
+    return records;
+  }
+
+  /**
+   * Writes the given records to a columnar file with the given row group size, and returns the
+   * name of the file.
+   */
+  private String writeFile(String name, List<GenericRecord> records, int rowGroupSize)
+      throws Exception {
+    PipelineOptions options = PipelineOptionsFactory.create();
+    ColumnarSink sink = ColumnarSink.to(new File(tmpFolder.getRoot(), name).toString(), SCHEMA)
+        .withRowGroupSize(rowGroupSize);
+    ColumnarWriter writer = sink.createWriteOperation(options).createWriter(options);
+    writer.open(name);
+    for (GenericRecord record : records) {
+      writer.write(record);
+    }
+    return writer.close().getFilename();
+  }
+
+  private static List<GenericRecord> project(List<GenericRecord> records, String... fields) {
+    Schema schema = AvroUtils.projectSchema(SCHEMA, fields);
+    List<GenericRecord> projected = new ArrayList<>();
+    for (GenericRecord record : records) {
+      GenericRecord projectedRecord = new GenericData.Record(schema);
+      for (String field : fields) {
+        projectedRecord.put(field, record.get(field));
+      }
+      projected.add(projectedRecord);
+    }
+    return projected;
+  }
+
+  @Test
+  public void testReadRecords() throws Exception {
+    List<GenericRecord> expected = createRecords(1000);
+    for (int rowGroupSize : new int[] {1, 7, 100, 5000}) {
+      String filename = writeFile("records" + rowGroupSize, expected, rowGroupSize);
+      ColumnarSource source = ColumnarSource.from(filename, SCHEMA);
+      assertEquals(expected, SourceTestUtils.readFromSource(source, null));
+    }
+  }
+
+  @Test
+  public void testReadFilePattern() throws Exception {
+    List<GenericRecord> expected = createRecords(300);
+    writeFile("pattern-a", expected.subList(0, 100), 30);
+    writeFile("pattern-b", expected.subList(100, 300), 30);
+    ColumnarSource source = ColumnarSource.from(
+        new File(tmpFolder.getRoot(), "pattern-*").toString(), SCHEMA);
+    assertThat(SourceTestUtils.readFromSource(source, null),
+        containsInAnyOrder(expected.toArray()));
+  }
+
+  @Test
+  public void testReadColumns() throws Exception {
+    List<GenericRecord> records = createRecords(500);
+    String filename = writeFile("columns", records, 64);
+    ColumnarSource source = ColumnarSource.from(filename, SCHEMA).withColumns("name", "id");
+    List<GenericRecord> actual = SourceTestUtils.readFromSource(source, null);
+
+    assertEquals(project(records, "name", "id"), actual);
+    // The records can be encoded with the source's coder.
+    CoderUtils.clone(source.getDefaultOutputCoder(), actual.get(0));
+  }
+
+  @Test
+  public void testReadColumnsMissingFromSchema() throws Exception {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("has no field named missing");
+    ColumnarSource.from("records", SCHEMA).withColumns("id", "missing");
+  }
+
+  @Test
+  public void testPredicateSkipsRowGroups() throws Exception {
+    List<GenericRecord> records = createRecords(1000);
+    String filename = writeFile("predicate", records, 100);
+    ColumnarSource source = ColumnarSource.from(filename, SCHEMA)
+        .withColumns("id", "country")
+        .withPredicate(Predicate.inRange("id", 250, 349L))
+        .createForSubrangeOfFile(filename, 0, new File(filename).length());
+
+    List<GenericRecord> actual = new ArrayList<>();
+    try (ColumnarReader reader = source.createSingleFileReader(null)) {
+      for (boolean more = reader.start(); more; more = reader.advance()) {
+        actual.add(reader.getCurrent());
+      }
+      assertEquals(2, reader.getRowGroupsRead());
+      assertEquals(8, reader.getRowGroupsSkipped());
+    }
+    assertEquals(project(records.subList(250, 350), "id", "country"), actual);
+  }
+
+  /**
+   * A {@link SeekableByteChannel} that counts the bytes read from it.
+   */
+  private static class CountingChannel implements SeekableByteChannel {
+    private final SeekableByteChannel delegate;
+    private long bytesRead = 0;
+
+    CountingChannel(SeekableByteChannel delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+      int read = delegate.read(dst);
+      bytesRead += Math.max(read, 0);
+      return read;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long position() throws IOException {
+      return delegate.position();
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+      delegate.position(newPosition);
+      return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+      return delegate.size();
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) throws IOException {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean isOpen() {
+      return delegate.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+      delegate.close();
+    }
+  }
+
+  @Test
+  public void testSkippedRowGroupsAreNotRead() throws Exception {
+    List<GenericRecord> records = createRecords(50000);
+    String filename = writeFile("seek", records, 10000);
+    long fileSize = new File(filename).length();
+    ColumnarSource source = ColumnarSource.from(filename, SCHEMA)
+        .withColumns("id")
+        .withPredicate(Predicate.inRange("id", 10000L, 10099L))
+        .createForSubrangeOfFile(filename, 0, fileSize);
+
+    List<Object> ids = new ArrayList<>();
+    try (CountingChannel channel = new CountingChannel(
+            FileChannel.open(new File(filename).toPath(), StandardOpenOption.READ));
+        ColumnarReader reader = source.createSingleFileReader(null)) {
+      reader.startReading(channel);
+      while (reader.readNextBlock()) {
+        while (reader.getCurrentBlock().readNextRecord()) {
+          ids.add(reader.getCurrentBlock().getCurrentRecord().get("id"));
+        }
+      }
+      assertEquals(1, reader.getRowGroupsRead());
+      // Only the headers, the id chunks and what the stream buffers around them are read.
+      assertTrue("Read " + channel.bytesRead + " of " + fileSize + " bytes",
+          channel.bytesRead < fileSize / 2);
+    }
+    assertEquals(100, ids.size());
+    assertEquals(10000L, ids.get(0));
+  }
+
+  @Test
+  public void testPredicateWithValueOfWrongType() throws Exception {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("cannot be compared with field id of type LONG");
+    ColumnarSource.from("records", SCHEMA).withPredicate(Predicate.or(
+        Predicate.equalTo("country", "fr"), Predicate.inRange("id", "1", null)));
+  }
+
+  @Test
+  public void testPredicates() throws Exception {
+    List<GenericRecord> records = createRecords(1000);
+    String filename = writeFile("predicates", records, 64);
+    ColumnarSource source = ColumnarSource.from(filename, SCHEMA);
+
+    List<GenericRecord> expected = new ArrayList<>();
+    for (GenericRecord record : records) {
+      if (record.get("name") == null && record.get("country").equals("fr")) {
+        expected.add(record);
+      }
+    }
+    assertEquals(expected, SourceTestUtils.readFromSource(source.withPredicate(Predicate.and(
+        Predicate.equalTo("name", null), Predicate.equalTo("country", "fr"))), null));
+
+    expected.clear();
+    for (GenericRecord record : records) {
+      Integer count = (Integer) record.get("count");
+      if ((count != null && count >= 8) || (Double) record.get("score") <= 10) {
+        expected.add(record);
+      }
+    }
+    assertEquals(expected, SourceTestUtils.readFromSource(source.withPredicate(Predicate.or(
+        Predicate.inRange("count", 8, null), Predicate.inRange("score", null, 10))), null));
+
+    assertEquals(0, SourceTestUtils.readFromSource(
+        source.withPredicate(Predicate.equalTo("country", "uk")), null).size());
+  }
+
+  @Test
+  public void testSplits() throws Exception {
+    PipelineOptions options = PipelineOptionsFactory.create();
+    String filename = writeFile("splits", createRecords(5000), 100);
+    ColumnarSource source = ColumnarSource.from(filename, SCHEMA).withMinBundleSize(1024);
+    long fileSize = new File(filename).length();
+    for (long desiredBundleSize : new long[] {fileSize, fileSize / 3, fileSize / 17, 1024}) {
+      List<? extends BoundedSource<GenericRecord>> splits =
+          source.splitIntoBundles(desiredBundleSize, options);
+      SourceTestUtils.assertSourcesEqualReferenceSource(source, splits, options);
+    }
+
+    ColumnarSource filtered = source.withPredicate(Predicate.inRange("ratio", 10, 500));
+    SourceTestUtils.assertSourcesEqualReferenceSource(
+        filtered, filtered.splitIntoBundles(fileSize / 7, options), options);
+  }
+
+  @Test
+  public void testSplitAtFractionExhaustive() throws Exception {
+    String filename = writeFile("exhaustive", createRecords(50), 4);
+    ColumnarSource source = ColumnarSource.from(filename, SCHEMA)
+        .withPredicate(Predicate.inRange("id", 5, 30));
+    SourceTestUtils.assertSplitAtFractionExhaustive(source, null);
+  }
+}
@@ -16,18 +16,26 @@
 
 package com.google.cloud.dataflow.sdk.io;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 import com.google.cloud.dataflow.sdk.Pipeline;
 import com.google.cloud.dataflow.sdk.coders.Coder;
 import com.google.cloud.dataflow.sdk.coders.SerializableCoder;
 import com.google.cloud.dataflow.sdk.io.CompressedSource.CompressionMode;
+import com.google.cloud.dataflow.sdk.io.CompressedSource.SplittableCompressionMode;
+import com.google.cloud.dataflow.sdk.io.CompressedSource.SplittableDecompressingChannelFactory;
 import com.google.cloud.dataflow.sdk.options.PipelineOptions;
+import com.google.cloud.dataflow.sdk.options.PipelineOptionsFactory;
 import com.google.cloud.dataflow.sdk.testing.DataflowAssert;
+import com.google.cloud.dataflow.sdk.testing.SourceTestUtils;
 import com.google.cloud.dataflow.sdk.testing.TestPipeline;
 import com.google.cloud.dataflow.sdk.values.PCollection;
 import com.google.common.primitives.Bytes;
 
 import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
 import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipParameters;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
@@ -37,13 +45,21 @@ import org.junit.runners.JUnit4;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PushbackInputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
 
 /**
  * Tests for CompressedSource.
@@ -74,6 +90,23 @@ public class CompressedSourceTest {
     runReadTest(input, CompressionMode.BZIP2);
   }
 
+  /**
+   * Test reading nonempty input with gzip, decompressing on background threads.
+   */
+  @Test
+  public void testReadGzipPipelined() throws Exception {
+    // Several times the size of the buffers of the pipeline.
+    byte[] input = generateInput(500000);
+    File tmpFile = tmpFolder.newFile();
+    writeFile(tmpFile, input, CompressionMode.GZIP);
+    CompressedSource<Byte> source =
+        CompressedSource.from(new ByteSource(tmpFile.toPath().toString(), 1))
+            .withDecompression(CompressionMode.GZIP)
+            .withPipelinedDecompression();
+    assertEquals(Bytes.asList(input),
+        SourceTestUtils.readFromSource(source, PipelineOptionsFactory.create()));
+  }
+
   /**
    * Test reading empty input with gzip.
    */
@@ -120,6 +153,290 @@ public class CompressedSourceTest {
     p.run();
   }
 
+  /**
+   * Test that a file of concatenated gzip members is split at member boundaries.
+   */
+  @Test
+  public void testSplittableGzip() throws Exception {
+    runSplitTest(SplittableCompressionMode.GZIP, 50);
+  }
+
+  /**
+   * Test that a file of concatenated bzip2 streams is split at stream boundaries.
+   */
+  @Test
+  public void testSplittableBzip2() throws Exception {
+    runSplitTest(SplittableCompressionMode.BZIP2, 50);
+  }
+
+  /**
+   * Test that pipelined decompression of gzip members reports the offsets of their members.
+   */
+  @Test
+  public void testSplittableGzipPipelined() throws Exception {
+    int numMembers = 50;
+    byte[] expected = new byte[0];
+    for (int i = 0; i < numMembers; i++) {
+      expected = Bytes.concat(expected, generateInput(i == 1 ? 0 : 100));
+    }
+    runSplitTest(writeMembers(SplittableCompressionMode.GZIP, numMembers, 100),
+        SplittableCompressionMode.GZIP, expected, true);
+  }
+
+  /**
+   * Test dynamic splitting of a file of concatenated gzip members.
+   */
+  @Test
+  public void testSplitAtFractionGzip() throws Exception {
+    PipelineOptions options = PipelineOptionsFactory.create();
+    File tmpFile = writeMembers(SplittableCompressionMode.GZIP, 8, 10);
+    CompressedSource<Byte> source =
+        CompressedSource.from(new ByteSource(tmpFile.toPath().toString(), 1))
+            .withDecompression(SplittableCompressionMode.GZIP);
+    SourceTestUtils.assertSplitAtFractionExhaustive(
+        source.createForSubrangeOfFile(tmpFile.toPath().toString(), 0, tmpFile.length()),
+        options);
+  }
+
+  /**
+   * Test that gzip signatures in the compressed data are not taken for the start of a member.
+   */
+  @Test
+  public void testSplittableGzipIgnoresSignatureInData() throws Exception {
+    File tmpFile = tmpFolder.newFile();
+    byte[] fakeHeader = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, 0, 1, 2, 3, 4};
+    GzipParameters stored = new GzipParameters();
+    stored.setCompressionLevel(Deflater.NO_COMPRESSION);
+    try (FileOutputStream os = new FileOutputStream(tmpFile)) {
+      for (int i = 0; i < 3; i++) {
+        // Stored blocks keep the fake header verbatim in the compressed data.
+        GzipCompressorOutputStream member = new GzipCompressorOutputStream(os, stored);
+        member.write(fakeHeader);
+        member.finish();
+      }
+    }
+    long memberSize = tmpFile.length() / 3;
+    try (SeekableByteChannel channel = Files.newByteChannel(tmpFile.toPath())) {
+      assertEquals(memberSize,
+          SplittableCompressionMode.GZIP.findMemberStart(channel, 1, Long.MAX_VALUE));
+      assertEquals(2 * memberSize, SplittableCompressionMode.GZIP.findMemberStart(
+          channel, memberSize + 1, Long.MAX_VALUE));
+      assertEquals(3 * memberSize, SplittableCompressionMode.GZIP.findMemberStart(
+          channel, 2 * memberSize + 1, 3 * memberSize));
+    }
+    runSplitTest(tmpFile, SplittableCompressionMode.GZIP, Bytes.concat(
+        fakeHeader, fakeHeader, fakeHeader));
+  }
+
+  /**
+   * Test that a reader whose range contains no member start scans no further than its range and
+   * reads nothing.
+   */
+  @Test
+  public void testSplittableRangeWithoutMemberStart() throws Exception {
+    PipelineOptions options = PipelineOptionsFactory.create();
+    File tmpFile = writeMembers(SplittableCompressionMode.GZIP, 3, 1000);
+    long firstMemberSize;
+    try (SeekableByteChannel channel = Files.newByteChannel(tmpFile.toPath())) {
+      firstMemberSize = SplittableCompressionMode.GZIP.findMemberStart(channel, 1, Long.MAX_VALUE);
+      assertEquals(firstMemberSize - 1,
+          SplittableCompressionMode.GZIP.findMemberStart(channel, 1, firstMemberSize - 1));
+    }
+    CompressedSource<Byte> source =
+        CompressedSource.from(new ByteSource(tmpFile.toPath().toString(), 1))
+            .withDecompression(SplittableCompressionMode.GZIP);
+    assertEquals(Collections.<Byte>emptyList(), SourceTestUtils.readFromSource(
+        source.createForSubrangeOfFile(tmpFile.toPath().toString(), 1, firstMemberSize),
+        options));
+  }
+
+  /**
+   * Test that the per-file bundles of a file pattern of compressed files, whose sizes come with
+   * the listing, are not split at a fraction.
+   */
+  @Test
+  public void testSplitAtFractionOfFilePatternGzip() throws Exception {
+    PipelineOptions options = PipelineOptionsFactory.create();
+    String baseName = "test_input-";
+    String filePattern = new File(tmpFolder.getRoot().toString(), baseName + "*").toString();
+    for (int i = 0; i < 2; i++) {
+      writeFile(tmpFolder.newFile(baseName + i), generateInput(100), CompressionMode.GZIP);
+    }
+    CompressedSource<Byte> source =
+        CompressedSource.from(new ByteSource(filePattern, 1))
+            .withDecompression(CompressionMode.GZIP);
+    List<? extends BoundedSource<Byte>> bundles = source.splitIntoBundles(10, options);
+    assertEquals(2, bundles.size());
+    for (BoundedSource<Byte> bundle : bundles) {
+      for (double fraction : new double[] {0.1, 0.5, 0.9}) {
+        SourceTestUtils.assertSplitAtFractionFails(bundle, 0, fraction, options);
+        SourceTestUtils.assertSplitAtFractionFails(bundle, 10, fraction, options);
+      }
+    }
+    SourceTestUtils.assertSourcesEqualReferenceSource(source, bundles, options);
+  }
+
+  /**
+   * Splittable gzip decompression that counts the members it has opened and that have neither
+   * reached their end nor been closed.
+   */
+  private static class MemberCountingGzip implements SplittableDecompressingChannelFactory {
+    private static final AtomicInteger openMembers = new AtomicInteger();
+
+    @Override
+    public ReadableByteChannel createDecompressingChannel(ReadableByteChannel channel)
+        throws IOException {
+      return SplittableCompressionMode.GZIP.createDecompressingChannel(channel);
+    }
+
+    @Override
+    public long findMemberStart(SeekableByteChannel channel, long position, long limit)
+        throws IOException {
+      return SplittableCompressionMode.GZIP.findMemberStart(channel, position, limit);
+    }
+
+    @Override
+    public InputStream createMemberInputStream(PushbackInputStream stream) throws IOException {
+      openMembers.incrementAndGet();
+      return new FilterInputStream(SplittableCompressionMode.GZIP.createMemberInputStream(stream)) {
+        private boolean released = false;
+
+        @Override
+        public int read() throws IOException {
+          return released(super.read());
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+          return released(super.read(b, off, len));
+        }
+
+        @Override
+        public void close() throws IOException {
+          released(-1);
+          super.close();
+        }
+
+        private int released(int read) {
+          if (read == -1 && !released) {
+            released = true;
+            openMembers.decrementAndGet();
+          }
+          return read;
+        }
+      };
+    }
+  }
+
+  private void runCloseReleasesMembersTest(boolean pipelined) throws Exception {
+    // The members are larger than the pipeline decompresses ahead of the reader.
+    File tmpFile = writeMembers(SplittableCompressionMode.GZIP, 3, 1 << 20);
+    CompressedSource<Byte> source =
+        CompressedSource.from(new ByteSource(tmpFile.toPath().toString(), 1))
+            .withDecompression(new MemberCountingGzip());
+    if (pipelined) {
+      source = source.withPipelinedDecompression();
+    }
+    MemberCountingGzip.openMembers.set(0);
+    try (BoundedSource.BoundedReader<Byte> reader =
+        source.createForSubrangeOfFile(tmpFile.toPath().toString(), 0, tmpFile.length())
+            .createReader(PipelineOptionsFactory.create())) {
+      assertTrue(reader.start());
+      assertTrue(reader.advance());
+    }
+    assertEquals(0, MemberCountingGzip.openMembers.get());
+  }
+
+  /**
+   * Test that closing a reader in the middle of a member releases the member's decompressor.
+   */
+  @Test
+  public void testCloseReleasesCurrentMember() throws Exception {
+    runCloseReleasesMembersTest(false);
+  }
+
+  @Test
+  public void testCloseReleasesCurrentMemberPipelined() throws Exception {
+    runCloseReleasesMembersTest(true);
+  }
+
+  /**
+   * Test that files compressed with a non-splittable mode are read as a single bundle.
+   */
+  @Test
+  public void testGzipIsNotSplit() throws Exception {
+    PipelineOptions options = PipelineOptionsFactory.create();
+    File tmpFile = tmpFolder.newFile();
+    writeFile(tmpFile, generateInput(5000), CompressionMode.GZIP);
+    CompressedSource<Byte> source =
+        CompressedSource.from(new ByteSource(tmpFile.toPath().toString(), 1))
+            .withDecompression(CompressionMode.GZIP);
+    assertEquals(1, source.splitIntoBundles(100, options).size());
+  }
+
+  /**
+   * Writes a file of {@code numMembers} members holding {@code membersSize} bytes each, except
+   * for the second member which is empty.
+   */
+  private File writeMembers(SplittableCompressionMode mode, int numMembers, int memberSize)
+      throws IOException {
+    File tmpFile = tmpFolder.newFile();
+    try (FileOutputStream os = new FileOutputStream(tmpFile)) {
+      for (int i = 0; i < numMembers; i++) {
+        byte[] member = generateInput(i == 1 ? 0 : memberSize);
+        switch (mode) {
+          case GZIP:
+            GzipCompressorOutputStream gzip = new GzipCompressorOutputStream(os);
+            gzip.write(member);
+            gzip.finish();
+            break;
+          case BZIP2:
+            BZip2CompressorOutputStream bzip2 = new BZip2CompressorOutputStream(os);
+            bzip2.write(member);
+            bzip2.finish();
+            break;
+          default:
+            throw new RuntimeException("Unexpected compression mode");
+        }
+      }
+    }
+    return tmpFile;
+  }
+
+  private void runSplitTest(SplittableCompressionMode mode, int numMembers) throws Exception {
+    int memberSize = 100;
+    byte[] expected = new byte[0];
+    for (int i = 0; i < numMembers; i++) {
+      expected = Bytes.concat(expected, generateInput(i == 1 ? 0 : memberSize));
+    }
+    runSplitTest(writeMembers(mode, numMembers, memberSize), mode, expected);
+  }
+
+  /**
+   * Splits the given file into several bundles and checks that they read the expected bytes.
+   */
+  private void runSplitTest(File file, SplittableCompressionMode mode, byte[] expected)
+      throws Exception {
+    runSplitTest(file, mode, expected, false);
+  }
+
+  private void runSplitTest(File file, SplittableCompressionMode mode, byte[] expected,
+      boolean pipelined) throws Exception {
+    PipelineOptions options = PipelineOptionsFactory.create();
+    CompressedSource<Byte> source =
+        CompressedSource.from(new ByteSource(file.toPath().toString(), 1))
+            .withDecompression(mode);
+    if (pipelined) {
+      source = source.withPipelinedDecompression();
+    }
+    assertEquals(Bytes.asList(expected), SourceTestUtils.readFromSource(source, options));
+
+    List<? extends BoundedSource<Byte>> bundles =
+        source.splitIntoBundles(file.length() / 5, options);
+    assertTrue(bundles.size() > 1);
+    SourceTestUtils.assertSourcesEqualReferenceSource(source, bundles, options);
+  }
+
   /**
    * Generate byte array of given size.
    */
@@ -208,6 +525,7 @@ public class CompressedSourceTest {
     private static class ByteReader extends FileBasedReader<Byte> {
       ByteBuffer buff = ByteBuffer.allocate(1);
       Byte current;
+      long currentOffset;
       long offset = 0;
       ReadableByteChannel channel;
 
@@ -237,13 +555,14 @@ public class CompressedSourceTest {
           return false;
         }
         current = new Byte(buff.get(0));
+        currentOffset = offset;
         offset += 1;
         return true;
       }
 
       @Override
       protected long getCurrentOffset() {
-        return offset;
+        return currentOffset;
       }
     }
   }
@@ -17,16 +17,28 @@
 package com.google.cloud.dataflow.sdk.io;
 
 import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
-
+import static org.junit.Assert.fail;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.Json;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.services.storage.Storage;
 import com.google.cloud.dataflow.sdk.io.FileBasedSink.FileBasedWriteOperation;
 import com.google.cloud.dataflow.sdk.io.FileBasedSink.FileBasedWriteOperation.TemporaryFileRetention;
 import com.google.cloud.dataflow.sdk.io.FileBasedSink.FileResult;
 import com.google.cloud.dataflow.sdk.options.PipelineOptions;
 import com.google.cloud.dataflow.sdk.options.PipelineOptionsFactory;
+import com.google.cloud.dataflow.sdk.util.Transport;
 
 import org.junit.Rule;
 import org.junit.Test;
@@ -38,13 +50,17 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FileReader;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.ByteBuffer;
 import java.nio.channels.WritableByteChannel;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Queue;
 
 /**
  * Tests for FileBasedSink.
@@ -97,6 +113,32 @@ public class FileBasedSinkTest {
     assertFileContains(expected, expectedFilename);
   }
 
+  /**
+   * A FileBasedWriter with an async write buffer smaller than its output writes the same file.
+   */
+  @Test
+  public void testWriterWithAsyncWrites() throws Exception {
+    String testUid = "testId";
+    String expectedFilename =
+        getBaseTempFilename() + FileBasedWriteOperation.TEMPORARY_FILENAME_SEPARATOR + testUid;
+    SimpleSink.SimpleWriter writer = buildWriter();
+    writer.asyncWriteBufferSize = 8;
+
+    List<String> expected = new ArrayList<>();
+    expected.add(SimpleSink.SimpleWriter.HEADER);
+    writer.open(testUid);
+    for (int i = 0; i < 100; i++) {
+      String value = "value " + i;
+      writer.write(value);
+      expected.add(value);
+    }
+    expected.add(SimpleSink.SimpleWriter.FOOTER);
+    FileResult result = writer.close();
+
+    assertEquals(expectedFilename, result.getFilename());
+    assertFileContains(expected, expectedFilename);
+  }
+
   /**
    * Assert that a file contains the lines provided, in the same order as expected.
    */
@@ -161,6 +203,15 @@ public class FileBasedSinkTest {
     runFinalize(buildWriteOperationForFinalize(retainTemporaryFiles), files, retainTemporaryFiles);
   }
 
+  /**
+   * Finalize copies and removes many files concurrently.
+   */
+  @Test
+  public void testFinalizeManyFiles() throws Exception {
+    List<File> files = generateTemporaryFilesForFinalize(200);
+    runFinalize(buildWriteOperationForFinalize(false), files, false);
+  }
+
   /**
    * Finalize can be called repeatedly.
    */
@@ -380,6 +431,156 @@ public class FileBasedSinkTest {
     assertEquals(expected, actual);
   }
 
+  /**
+   * GCS requests that fail transiently are retried in a new batch, and requests for missing
+   * objects succeed.
+   */
+  @Test
+  public void testGcsCopyRetriesTransientFailures() throws Exception {
+    FakeBatchTransport transport = new FakeBatchTransport()
+        .thenRespond(200, 503, 404)
+        .thenRespond(200);
+    gcsOperations(transport).copy(
+        Arrays.asList("gs://bucket/a", "gs://bucket/b", "gs://bucket/c"),
+        Arrays.asList("gs://bucket/x", "gs://bucket/y", "gs://bucket/z"));
+    assertEquals(Arrays.asList(3, 1), transport.batchSizes);
+  }
+
+  /**
+   * All requests of a GCS batch that fails as a whole are retried.
+   */
+  @Test
+  public void testGcsRemoveRetriesFailedBatch() throws Exception {
+    FakeBatchTransport transport = new FakeBatchTransport()
+        .thenFail(503)
+        .thenRespond(200, 200);
+    gcsOperations(transport).remove(Arrays.asList("gs://bucket/a", "gs://bucket/b"));
+    assertEquals(Arrays.asList(2, 2), transport.batchSizes);
+  }
+
+  /**
+   * GCS requests that fail permanently are reported and not retried, even if others in the same
+   * batch failed transiently.
+   */
+  @Test
+  public void testGcsRemovePartialFailure() throws Exception {
+    FakeBatchTransport transport = new FakeBatchTransport().thenRespond(200, 403, 503);
+    try {
+      gcsOperations(transport).remove(
+          Arrays.asList("gs://bucket/a", "gs://bucket/b", "gs://bucket/c"));
+      fail("Expected an IOException");
+    } catch (IOException e) {
+      assertThat(e.getMessage(), containsString("Failed to remove gs://bucket/b"));
+      assertThat(e.getMessage(), not(containsString("gs://bucket/c")));
+    }
+    assertEquals(Arrays.asList(3), transport.batchSizes);
+  }
+
+  /**
+   * GCS requests that keep failing transiently are reported once the attempts run out.
+   */
+  @Test
+  public void testGcsRemoveRetriesExhausted() throws Exception {
+    FakeBatchTransport transport = new FakeBatchTransport()
+        .thenRespond(503, 200)
+        .thenRespond(503)
+        .thenRespond(503)
+        .thenRespond(503);
+    try {
+      gcsOperations(transport).remove(Arrays.asList("gs://bucket/a", "gs://bucket/b"));
+      fail("Expected an IOException");
+    } catch (IOException e) {
+      assertThat(e.getMessage(),
+          containsString("Failed to remove gs://bucket/a and 0 other operations after 4 attempts"));
+    }
+    assertEquals(Arrays.asList(2, 1, 1, 1), transport.batchSizes);
+  }
+
+  /**
+   * GCS requests are split into batches of at most 100.
+   */
+  @Test
+  public void testGcsRemoveSplitsBatches() throws Exception {
+    FakeBatchTransport transport = new FakeBatchTransport();
+    List<String> filenames = new ArrayList<>();
+    for (int i = 0; i < 250; i++) {
+      filenames.add("gs://bucket/file" + i);
+    }
+    gcsOperations(transport).remove(filenames);
+    assertThat(transport.batchSizes, containsInAnyOrder(100, 100, 50));
+  }
+
+  private static FileBasedSink.GcsOperations gcsOperations(HttpTransport transport) {
+    return new FileBasedSink.GcsOperations(
+        new Storage.Builder(transport, Transport.getJsonFactory(), null).build());
+  }
+
+  /**
+   * A transport that answers GCS batch requests with scripted responses, in order, and records
+   * the number of requests in each batch. Once the script runs out, every request succeeds.
+   */
+  private static class FakeBatchTransport extends MockHttpTransport {
+    private static final String BOUNDARY = "batch_boundary";
+
+    /** Per-request statuses of each batch response, or a single negated whole-batch status. */
+    private final Queue<int[]> responses = new ArrayDeque<>();
+    private final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+
+    FakeBatchTransport thenRespond(int... statuses) {
+      responses.add(statuses);
+      return this;
+    }
+
+    FakeBatchTransport thenFail(int status) {
+      responses.add(new int[] {-status});
+      return this;
+    }
+
+    @Override
+    public LowLevelHttpRequest buildRequest(String method, String url) {
+      return new MockLowLevelHttpRequest() {
+        @Override
+        public LowLevelHttpResponse execute() throws IOException {
+          int batchSize = getContentAsString().split("content-id: ").length - 1;
+          batchSizes.add(batchSize);
+          int[] statuses;
+          synchronized (responses) {
+            statuses = responses.poll();
+          }
+          if (statuses != null && statuses.length == 1 && statuses[0] < 0) {
+            return new MockLowLevelHttpResponse()
+                .setStatusCode(-statuses[0])
+                .setContentType(Json.MEDIA_TYPE)
+                .setContent(errorJson(-statuses[0]));
+          }
+          StringBuilder content = new StringBuilder();
+          for (int i = 0; i < batchSize; i++) {
+            int status = statuses == null ? 200 : statuses[i];
+            String body = status == 200 ? "{}" : errorJson(status);
+            content.append("--" + BOUNDARY + "\r\n")
+                .append("Content-Type: application/http\r\n")
+                .append("Content-ID: <response-" + (i + 1) + ">\r\n\r\n")
+                .append("HTTP/1.1 " + status + " Status\r\n")
+                .append("Content-Type: application/json; charset=UTF-8\r\n")
+                .append("Content-Length: " + body.length() + "\r\n\r\n")
+                .append(body + "\r\n");
+          }
+          content.append("--" + BOUNDARY + "--\r\n");
+          return new MockLowLevelHttpResponse()
+              .setContentType("multipart/mixed; boundary=" + BOUNDARY)
+              .setContent(content.toString());
+        }
+      };
+    }
+
+    private static String errorJson(int status) {
+      String reason = status == 404 ? "notFound" : status == 403 ? "forbidden" : "backendError";
+      return "{\"error\": {\"code\": " + status + ", \"message\": \"" + reason + "\", "
+          + "\"errors\": [{\"domain\": \"global\", \"reason\": \"" + reason + "\", "
+          + "\"message\": \"" + reason + "\"}]}}";
+    }
+  }
+
   /**
    * A simple FileBasedSink that writes String values as lines with header and footer lines.
    */
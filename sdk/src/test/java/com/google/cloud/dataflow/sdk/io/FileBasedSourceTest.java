@@ -23,6 +23,10 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.google.cloud.dataflow.sdk.Pipeline;
@@ -37,6 +41,7 @@ import com.google.cloud.dataflow.sdk.testing.TestPipeline;
 import com.google.cloud.dataflow.sdk.util.CoderUtils;
 import com.google.cloud.dataflow.sdk.util.IOChannelFactory;
 import com.google.cloud.dataflow.sdk.util.IOChannelUtils;
+import com.google.cloud.dataflow.sdk.util.SizeAwareIOChannelFactory;
 import com.google.cloud.dataflow.sdk.values.PCollection;
 import com.google.common.collect.ImmutableList;
 
@@ -57,7 +62,9 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Random;
 
@@ -413,6 +420,29 @@ public class FileBasedSourceTest {
     assertEquals(numFiles, splits.size());
   }
 
+  @Test
+  public void testEstimatingAndSplittingShareListingWithSizes() throws Exception {
+    SizeAwareIOChannelFactory factory = Mockito.mock(SizeAwareIOChannelFactory.class);
+    Map<String, Long> matches = new LinkedHashMap<>();
+    matches.put("sizeaware://bucket/file1", 10L);
+    matches.put("sizeaware://bucket/file2", 20L);
+    when(factory.matchWithSizes("sizeaware://bucket/file*")).thenReturn(matches);
+    when(factory.isReadSeekEfficient(anyString())).thenReturn(true);
+    IOChannelUtils.setIOFactory("sizeaware", factory);
+
+    TestFileBasedSource source = new TestFileBasedSource("sizeaware://bucket/file*", 64, null);
+    assertEquals(30L, source.getEstimatedSizeBytes(null));
+    List<? extends FileBasedSource<String>> splits = source.splitIntoBundles(Long.MAX_VALUE, null);
+    assertEquals(2, splits.size());
+    assertEquals("sizeaware://bucket/file1", splits.get(0).getFileOrPatternSpec());
+    assertEquals(10L, splits.get(0).getEndOffset());
+    assertEquals(20L, splits.get(1).getEndOffset());
+
+    verify(factory, times(1)).matchWithSizes("sizeaware://bucket/file*");
+    verify(factory, never()).match(anyString());
+    verify(factory, never()).getSizeBytes(anyString());
+  }
+
   @Test
   public void testFractionConsumedWhenReadingFilepattern() throws IOException {
     List<String> data1 = createStringDataset(3, 1000);
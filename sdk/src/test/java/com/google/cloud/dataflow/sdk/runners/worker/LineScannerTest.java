@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.runners.worker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/** Unit tests for {@link LineScanner}. */
+@RunWith(JUnit4.class)
+public class LineScannerTest {
+  @Rule public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  /**
+   * Splits the input into lines one byte at a time, as the reference for {@link LineScanner}.
+   */
+  private static List<String> expectedLines(byte[] input, boolean stripTerminator) {
+    List<String> lines = new ArrayList<>();
+    int start = 0;
+    for (int i = 0; i < input.length; i++) {
+      if (input[i] == '\n' || input[i] == '\r') {
+        int end = i + 1;
+        if (input[i] == '\r' && end < input.length && input[end] == '\n') {
+          end++;
+        }
+        lines.add(toString(input, start, stripTerminator ? i : end));
+        start = end;
+        i = end - 1;
+      }
+    }
+    if (start < input.length) {
+      lines.add(toString(input, start, input.length));
+    }
+    return lines;
+  }
+
+  private static String toString(byte[] input, int from, int to) {
+    return new String(Arrays.copyOfRange(input, from, to), StandardCharsets.ISO_8859_1);
+  }
+
+  private static List<String> scan(LineScanner scanner, boolean stripTerminator, int[] consumed)
+      throws IOException {
+    List<String> lines = new ArrayList<>();
+    ByteBuffer line;
+    while ((line = scanner.next(stripTerminator)) != null) {
+      byte[] bytes = new byte[line.remaining()];
+      line.get(bytes);
+      lines.add(new String(bytes, StandardCharsets.ISO_8859_1));
+      consumed[0] += scanner.getBytesConsumed();
+    }
+    assertNull(scanner.next(stripTerminator));
+    scanner.close();
+    return lines;
+  }
+
+  private void checkAllBufferSizes(byte[] input) throws IOException {
+    File file = tmpFolder.newFile();
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write(input);
+    }
+    for (boolean strip : new boolean[] {true, false}) {
+      List<String> expected = expectedLines(input, strip);
+      for (int size = 1; size <= 20; size++) {
+        int[] consumed = {0};
+        assertEquals("reading with buffer size " + size, expected, scan(
+            LineScanner.reading(Channels.newChannel(new ByteArrayInputStream(input)), size),
+            strip, consumed));
+        assertEquals(input.length, consumed[0]);
+      }
+      int[] consumed = {0};
+      assertEquals("mapping", expected, scan(
+          LineScanner.mapping(new FileInputStream(file).getChannel(), 0), strip, consumed));
+      assertEquals(input.length, consumed[0]);
+    }
+  }
+
+  @Test
+  public void testEmptyInput() throws IOException {
+    checkAllBufferSizes(new byte[0]);
+  }
+
+  @Test
+  public void testTerminators() throws IOException {
+    checkAllBufferSizes(
+        "first\nsecond\rthird\r\n\n\r\r\n\n\rfourth line is longer than a buffer\r"
+        .getBytes(StandardCharsets.ISO_8859_1));
+  }
+
+  @Test
+  public void testNoTrailingTerminator() throws IOException {
+    checkAllBufferSizes("a\r\nbb\rccc".getBytes(StandardCharsets.ISO_8859_1));
+  }
+
+  @Test
+  public void testRandomBytes() throws IOException {
+    // Mostly bytes close to the terminators, so that every position in a word is tested.
+    byte[] alphabet = {'\n', '\r', 0x09, 0x0b, 0x0c, 0x0e, (byte) 0x8a, (byte) 0x8d, 0, -1, 'a'};
+    Random random = new Random(1);
+    byte[] input = new byte[300];
+    for (int i = 0; i < input.length; i++) {
+      input[i] = alphabet[random.nextInt(alphabet.length)];
+    }
+    checkAllBufferSizes(input);
+  }
+
+  @Test
+  public void testMappingFromPosition() throws IOException {
+    File file = tmpFolder.newFile();
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write("first\nsecond\nthird".getBytes(StandardCharsets.ISO_8859_1));
+    }
+    int[] consumed = {0};
+    assertEquals(Arrays.asList("ond", "third"),
+        scan(LineScanner.mapping(new FileInputStream(file).getChannel(), 9), true, consumed));
+    assertEquals(9, consumed[0]);
+  }
+}
@@ -16,6 +16,8 @@
 
 package com.google.cloud.dataflow.sdk.runners.worker;
 
+import static com.google.cloud.dataflow.sdk.runners.worker.DataflowOutputCounter.getByteCountVarianceCounterName;
+import static com.google.cloud.dataflow.sdk.runners.worker.DataflowOutputCounter.getByteCounterName;
 import static com.google.cloud.dataflow.sdk.runners.worker.DataflowOutputCounter.getElementCounterName;
 import static com.google.cloud.dataflow.sdk.runners.worker.DataflowOutputCounter.getMeanByteCounterName;
 import static com.google.cloud.dataflow.sdk.runners.worker.DataflowOutputCounter.getObjectCounterName;
@@ -26,6 +28,7 @@ import static com.google.cloud.dataflow.sdk.util.common.Counter.AggregationKind.
 import static org.hamcrest.Matchers.hasItems;
 import static org.hamcrest.Matchers.instanceOf;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
@@ -41,6 +44,7 @@ import com.google.api.services.dataflow.model.ReadInstruction;
 import com.google.api.services.dataflow.model.Source;
 import com.google.api.services.dataflow.model.WriteInstruction;
 import com.google.cloud.dataflow.sdk.coders.StringUtf8Coder;
+import com.google.cloud.dataflow.sdk.options.DataflowPipelineDebugOptions;
 import com.google.cloud.dataflow.sdk.options.PipelineOptions;
 import com.google.cloud.dataflow.sdk.options.PipelineOptionsFactory;
 import com.google.cloud.dataflow.sdk.runners.worker.ReaderFactoryTest.SingletonTestReaderFactory;
@@ -289,6 +293,31 @@ public class MapTaskExecutorFactoryTest {
         counterSet);
   }
 
+  @Test
+  public void testCreateReadOperationWithByteSampling() throws Exception {
+    CounterSet counterSet = new CounterSet();
+    String counterPrefix = "test-";
+    String systemStageName = "stageName";
+    StateSampler stateSampler = new StateSampler(counterPrefix, counterSet.getAddCounterMutator());
+    DataflowPipelineDebugOptions debugOptions =
+        PipelineOptionsFactory.as(DataflowPipelineDebugOptions.class);
+    debugOptions.setOutputByteSamplingFraction(0.1);
+    MapTaskExecutorFactory.createOperation(
+        debugOptions,
+        createReadInstruction("Read"),
+        readerFactoryRegistry,
+        BatchModeExecutionContext.fromOptions(options),
+        Collections.<Operation>emptyList(),
+        counterPrefix,
+        systemStageName,
+        counterSet.getAddCounterMutator(),
+        stateSampler);
+
+    assertNotNull(counterSet.getExistingCounter(getByteCounterName("read_output_name")));
+    assertNotNull(
+        counterSet.getExistingCounter(getByteCountVarianceCounterName("read_output_name")));
+  }
+
   static ParallelInstruction createWriteInstruction(
       int producerIndex, int producerOutputNum, String systemName) {
     InstructionInput cloudInput = new InstructionInput();
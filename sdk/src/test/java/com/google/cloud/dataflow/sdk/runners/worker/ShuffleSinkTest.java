@@ -19,6 +19,7 @@ package com.google.cloud.dataflow.sdk.runners.worker;
 import com.google.cloud.dataflow.sdk.TestUtils;
 import com.google.cloud.dataflow.sdk.coders.BigEndianIntegerCoder;
 import com.google.cloud.dataflow.sdk.coders.Coder;
+import com.google.cloud.dataflow.sdk.coders.CompressedCoder;
 import com.google.cloud.dataflow.sdk.coders.InstantCoder;
 import com.google.cloud.dataflow.sdk.coders.KvCoder;
 import com.google.cloud.dataflow.sdk.coders.StringUtf8Coder;
@@ -34,6 +35,7 @@ import com.google.cloud.dataflow.sdk.util.common.worker.ShuffleEntry;
 import com.google.cloud.dataflow.sdk.util.common.worker.Sink;
 import com.google.cloud.dataflow.sdk.util.common.worker.Sink.SinkWriter;
 import com.google.cloud.dataflow.sdk.values.KV;
+import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 
 import org.joda.time.Instant;
@@ -247,4 +249,51 @@ public class ShuffleSinkTest {
   public void testWriteNonEmptyGroupingSortingShuffleSink() throws Exception {
     runTestWriteGroupingSortingShuffleSink(SORTING_KVS);
   }
+
+  @Test
+  public void testWriteShuffleSinkReportsCompressedBytes() throws Exception {
+    CompressedCoder<String> valueCoder = CompressedCoder.of(StringUtf8Coder.of(), 0);
+    CounterSet counters = new CounterSet();
+    ShuffleSink<KV<Integer, String>> shuffleSink = new ShuffleSink<>(
+        PipelineOptionsFactory.create(),
+        null, ShuffleSink.ShuffleKind.GROUP_KEYS,
+        WindowedValue.getFullCoder(
+            KvCoder.of(BigEndianIntegerCoder.of(), valueCoder),
+            IntervalWindow.getCoder()),
+        counters.getAddCounterMutator());
+
+    String value = Strings.repeat("compressible ", 100);
+    try (SinkWriter<WindowedValue<KV<Integer, String>>> shuffleSinkWriter =
+             shuffleSink.writer(new TestShuffleWriter(), "dataset")) {
+      for (int i = 0; i < 3; i++) {
+        shuffleSinkWriter.add(WindowedValue.of(
+            KV.of(i, value), timestamp, Lists.newArrayList(window), PaneInfo.NO_FIRING));
+      }
+    }
+
+    String prefix = "dax-shuffle-dataset-coder";
+    Assert.assertEquals(3L * value.length(), counters.getExistingCounter(
+        prefix + CompressionCounters.UNCOMPRESSED_BYTES_SUFFIX).getAggregate());
+    Assert.assertEquals(valueCoder.getEncodedBytes(), counters.getExistingCounter(
+        prefix + CompressionCounters.COMPRESSED_BYTES_SUFFIX).getAggregate());
+    Assert.assertTrue(valueCoder.getEncodedBytes() < value.length());
+  }
+
+  @Test
+  public void testWriteShuffleSinkWithoutCompressedCoderHasNoCompressionCounters()
+      throws Exception {
+    CounterSet counters = new CounterSet();
+    ShuffleSink<Integer> shuffleSink = new ShuffleSink<>(
+        PipelineOptionsFactory.create(),
+        null, ShuffleSink.ShuffleKind.UNGROUPED,
+        WindowedValue.getFullCoder(BigEndianIntegerCoder.of(), new GlobalWindows().windowCoder()),
+        counters.getAddCounterMutator());
+    try (Sink.SinkWriter<WindowedValue<Integer>> shuffleSinkWriter =
+             shuffleSink.writer(new TestShuffleWriter(), "dataset")) {
+      shuffleSinkWriter.add(WindowedValue.valueInGlobalWindow(1));
+    }
+
+    Assert.assertNull(counters.getExistingCounter(
+        "dax-shuffle-dataset-coder" + CompressionCounters.UNCOMPRESSED_BYTES_SUFFIX));
+  }
 }
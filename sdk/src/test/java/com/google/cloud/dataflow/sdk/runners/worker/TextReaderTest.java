@@ -26,6 +26,7 @@ import static org.hamcrest.Matchers.greaterThan;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
@@ -43,6 +44,7 @@ import com.google.cloud.dataflow.sdk.io.TextIO.CompressionType;
 import com.google.cloud.dataflow.sdk.util.CoderUtils;
 import com.google.cloud.dataflow.sdk.util.IOChannelUtils;
 import com.google.cloud.dataflow.sdk.util.MimeTypes;
+import com.google.cloud.dataflow.sdk.util.common.CounterSet;
 import com.google.cloud.dataflow.sdk.util.common.worker.ExecutorTestUtils;
 import com.google.cloud.dataflow.sdk.util.common.worker.NativeReader;
 import com.google.cloud.dataflow.sdk.util.common.worker.NativeReader.LegacyReaderIterator;
@@ -78,6 +80,8 @@ public class TextReaderTest {
       "<First line>\n", "<Second line>\r\n", "<Third line>"
   };
   private static final long TOTAL_BYTES_COUNT;
+  // The read buffer size used by tests of lines ending at the end of a buffer.
+  private static final int BUF_SIZE = 200;
 
   static {
     long sumLen = 0L;
@@ -147,7 +151,7 @@ public class TextReaderTest {
     boolean stripNewLines = true;
     StringBuilder payload = new StringBuilder();
     payload.append('<');
-    for (int i = 0; i < TextReader.BUF_SIZE - 4; ++i) {
+    for (int i = 0; i < BUF_SIZE - 4; ++i) {
       payload.append('a');
     }
     payload.append('>');
@@ -168,7 +172,7 @@ public class TextReaderTest {
   public void testUnstrippedNewlinesAtEndOfReadBuffer() throws Exception {
     boolean stripNewLines = false;
     StringBuilder payload = new StringBuilder();
-    for (int i = 0; i < TextReader.BUF_SIZE - 2; ++i) {
+    for (int i = 0; i < BUF_SIZE - 2; ++i) {
       payload.append('a');
     }
     String[] lines = {payload.toString(), payload.toString()};
@@ -335,15 +339,20 @@ public class TextReaderTest {
       }
     }
 
-    TextReader<String> textReader = new TextReader<>(tmpFile.getPath(), stripNewlines, null, null,
-        StringUtf8Coder.of(), TextIO.CompressionType.UNCOMPRESSED);
-    List<String> actual = new ArrayList<>();
-    try (LegacyReaderIterator<String> iterator = textReader.iterator()) {
-      while (iterator.hasNext()) {
-        actual.add(iterator.next());
+    // Read the file both through a small buffer and from a memory mapping.
+    for (long maxMappedSize : new long[] {0, Long.MAX_VALUE}) {
+      TextReader<String> textReader = new TextReader<>(tmpFile.getPath(), stripNewlines, null,
+          null, StringUtf8Coder.of(), TextIO.CompressionType.UNCOMPRESSED);
+      textReader.bufferSize = BUF_SIZE;
+      textReader.maxMappedSize = maxMappedSize;
+      List<String> actual = new ArrayList<>();
+      try (LegacyReaderIterator<String> iterator = textReader.iterator()) {
+        while (iterator.hasNext()) {
+          actual.add(iterator.next());
+        }
       }
+      assertEquals(expected, actual);
     }
-    assertEquals(expected, actual);
   }
 
   @Test
@@ -691,6 +700,31 @@ public class TextReaderTest {
         contents, "test.gz", CompressionType.UNCOMPRESSED, CompressionType.UNCOMPRESSED);
   }
 
+  @Test
+  public void testPipelinedDecompression() throws IOException {
+    String[] lines = new String[10000];
+    for (int i = 0; i < lines.length; i++) {
+      lines[i] = "<line " + i + ">";
+    }
+    File tmpFile = createFileWithCompressionType(lines, "test.gz", CompressionType.GZIP);
+
+    CounterSet counters = new CounterSet();
+    TextReader<String> textReader = new TextReader<>(tmpFile.getPath(), true, null, null,
+        new WholeLineVerifyingCoder(), CompressionType.AUTO, true,
+        counters.getAddCounterMutator(), "ReadText");
+
+    List<String> actual = new ArrayList<>();
+    try (LegacyReaderIterator<String> iterator = textReader.iterator()) {
+      while (iterator.hasNext()) {
+        actual.add(iterator.next());
+      }
+    }
+    assertEquals(Arrays.asList(lines), actual);
+    assertNotNull(counters.getExistingCounter("ReadText-decompression-read-blocked-msecs"));
+    assertNotNull(counters.getExistingCounter("ReadText-decompression-decompress-blocked-msecs"));
+    assertNotNull(counters.getExistingCounter("ReadText-decompression-process-blocked-msecs"));
+  }
+
   @Test
   public void testCompressionTypeFileGlob() throws IOException {
     String[][] contents = {
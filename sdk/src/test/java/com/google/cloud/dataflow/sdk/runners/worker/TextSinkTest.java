@@ -16,7 +16,9 @@
 
 package com.google.cloud.dataflow.sdk.runners.worker;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
 
@@ -27,6 +29,7 @@ import com.google.cloud.dataflow.sdk.coders.TextualIntegerCoder;
 import com.google.cloud.dataflow.sdk.util.CoderUtils;
 import com.google.cloud.dataflow.sdk.util.ShardingWritableByteChannel;
 import com.google.cloud.dataflow.sdk.util.WindowedValue;
+import com.google.cloud.dataflow.sdk.util.common.CounterSet;
 import com.google.cloud.dataflow.sdk.util.common.worker.Sink;
 
 import org.junit.Assert;
@@ -41,6 +44,8 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -141,6 +146,28 @@ public class TextSinkTest {
     runTestWriteFile(lines, "the head", "the foot", StringUtf8Coder.of());
   }
 
+  @Test
+  public void testWriteFileWithAsyncWrites() throws Exception {
+    File tmpFile = tmpFolder.newFile("file.txt");
+    TextSink<WindowedValue<String>> textSink = TextSink.createForTest(
+        tmpFile.getPath(), true, "the head", "the foot", StringUtf8Coder.of());
+    CounterSet counters = new CounterSet();
+    textSink.setAsyncWrites(64, counters.getAddCounterMutator());
+    List<String> expected = new ArrayList<>();
+    expected.add("the head");
+    try (Sink.SinkWriter<WindowedValue<String>> writer = textSink.writer()) {
+      for (int i = 0; i < 1000; i++) {
+        writer.add(WindowedValue.valueInGlobalWindow("line " + i));
+        expected.add("line " + i);
+      }
+    }
+    expected.add("the foot");
+
+    assertEquals(expected, Files.readAllLines(tmpFile.toPath(), StandardCharsets.UTF_8));
+    assertNotNull(counters.getExistingCounter("text-sink-flush-msecs"));
+    assertNotNull(counters.getExistingCounter("text-sink-write-blocked-msecs"));
+  }
+
   @Test
   public void testWriteNonEmptyNonStringFile() throws Exception {
     runTestWriteFile(TestUtils.INTS, null, null, TextualIntegerCoder.of());
@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.util;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.cloud.dataflow.sdk.util.common.CounterSet;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests for {@link AsyncWritableByteChannel}.
+ */
+@RunWith(JUnit4.class)
+public class AsyncWritableByteChannelTest {
+  @Rule public ExpectedException thrown = ExpectedException.none();
+
+  /**
+   * A channel that writes to a byte array, fails once a limit is reached, and records whether it
+   * was closed.
+   */
+  private static class TestChannel implements WritableByteChannel {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final WritableByteChannel channel = Channels.newChannel(bytes);
+    final int failAfter;
+    boolean closed;
+
+    TestChannel(int failAfter) {
+      this.failAfter = failAfter;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+      if (bytes.size() + src.remaining() > failAfter) {
+        throw new IOException("test failure");
+      }
+      return channel.write(src);
+    }
+
+    @Override
+    public boolean isOpen() {
+      return !closed;
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+
+  @Test
+  public void testWritesAllData() throws Exception {
+    byte[] data = new byte[100000];
+    new Random(0).nextBytes(data);
+    TestChannel delegate = new TestChannel(Integer.MAX_VALUE);
+    AsyncWritableByteChannel channel = new AsyncWritableByteChannel(delegate, 1000);
+
+    int offset = 0;
+    Random random = new Random(1);
+    while (offset < data.length) {
+      // Writes smaller and larger than the buffers.
+      int length = Math.min(data.length - offset, random.nextInt(3000));
+      assertEquals(length, channel.write(ByteBuffer.wrap(data, offset, length)));
+      offset += length;
+    }
+    channel.close();
+
+    assertArrayEquals(data, delegate.bytes.toByteArray());
+    assertTrue(delegate.closed);
+    assertFalse(channel.isOpen());
+    assertEquals(100, channel.getFlushCount());
+  }
+
+  @Test
+  public void testEmptyChannel() throws Exception {
+    TestChannel delegate = new TestChannel(Integer.MAX_VALUE);
+    AsyncWritableByteChannel channel = new AsyncWritableByteChannel(delegate, 1000);
+    channel.close();
+
+    assertEquals(0, delegate.bytes.size());
+    assertTrue(delegate.closed);
+    assertEquals(0, channel.getFlushCount());
+  }
+
+  @Test
+  public void testWriterOverlapsFlush() throws Exception {
+    final CountDownLatch flushing = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final TestChannel delegate = new TestChannel(Integer.MAX_VALUE) {
+      @Override
+      public int write(ByteBuffer src) throws IOException {
+        flushing.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+        return super.write(src);
+      }
+    };
+    AsyncWritableByteChannel channel = new AsyncWritableByteChannel(delegate, 10);
+
+    // Fills the first buffer and hands it off, then fills the second while the first is stuck.
+    channel.write(ByteBuffer.wrap(new byte[11]));
+    flushing.await();
+    channel.write(ByteBuffer.wrap(new byte[9]));
+    assertEquals(0, delegate.bytes.size());
+
+    release.countDown();
+    channel.close();
+    assertEquals(20, delegate.bytes.size());
+    assertTrue(channel.getFlushNanos() > 0);
+  }
+
+  @Test
+  public void testInterruptedCloseWaitsForWrite() throws Exception {
+    final CountDownLatch flushing = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicBoolean writing = new AtomicBoolean();
+    final AtomicBoolean closedWhileWriting = new AtomicBoolean();
+    final TestChannel delegate = new TestChannel(Integer.MAX_VALUE) {
+      @Override
+      public int write(ByteBuffer src) throws IOException {
+        // A write that ignores interrupts, like a write to a socket.
+        writing.set(true);
+        flushing.countDown();
+        Uninterruptibles.awaitUninterruptibly(release);
+        writing.set(false);
+        return super.write(src);
+      }
+
+      @Override
+      public void close() {
+        closedWhileWriting.set(writing.get());
+        super.close();
+      }
+    };
+    final AsyncWritableByteChannel channel = new AsyncWritableByteChannel(delegate, 10);
+    channel.write(ByteBuffer.wrap(new byte[11]));
+    flushing.await();
+
+    final AtomicReference<Throwable> closeFailure = new AtomicReference<>();
+    final AtomicBoolean interruptRestored = new AtomicBoolean();
+    Thread closer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          channel.close();
+        } catch (Throwable t) {
+          closeFailure.set(t);
+        }
+        interruptRestored.set(Thread.currentThread().isInterrupted());
+      }
+    };
+    closer.start();
+    closer.interrupt();
+    closer.join(100);
+    assertTrue("close returned while the delegate was being written", closer.isAlive());
+
+    release.countDown();
+    closer.join(10000);
+    assertFalse(closer.isAlive());
+    assertThat(closeFailure.get(), instanceOf(InterruptedIOException.class));
+    assertTrue(interruptRestored.get());
+    assertTrue(delegate.closed);
+    assertFalse(closedWhileWriting.get());
+  }
+
+  @Test
+  public void testFailureIsReportedByLaterWrite() throws Exception {
+    TestChannel delegate = new TestChannel(10);
+    AsyncWritableByteChannel channel = new AsyncWritableByteChannel(delegate, 20);
+    channel.write(ByteBuffer.wrap(new byte[20]));
+    try {
+      // Waits for the failed flush of the first buffer before handing off this one.
+      channel.write(ByteBuffer.wrap(new byte[21]));
+      fail("expected IOException");
+    } catch (IOException e) {
+      assertThat(e.getMessage(), containsString("test failure"));
+    }
+    try {
+      channel.write(ByteBuffer.wrap(new byte[1]));
+      fail("expected IOException");
+    } catch (IOException e) {
+      assertThat(e.getCause().getMessage(), containsString("test failure"));
+    }
+
+    thrown.expect(IOException.class);
+    try {
+      channel.close();
+    } finally {
+      assertTrue(delegate.closed);
+    }
+  }
+
+  @Test
+  public void testFailureIsReportedByClose() throws Exception {
+    TestChannel delegate = new TestChannel(10);
+    AsyncWritableByteChannel channel = new AsyncWritableByteChannel(delegate, 100);
+    channel.write(ByteBuffer.wrap(new byte[50]));
+
+    thrown.expect(IOException.class);
+    thrown.expectMessage("test failure");
+    try {
+      channel.close();
+    } finally {
+      assertTrue(delegate.closed);
+    }
+  }
+
+  @Test
+  public void testWriteAfterClose() throws Exception {
+    AsyncWritableByteChannel channel =
+        new AsyncWritableByteChannel(new TestChannel(Integer.MAX_VALUE), 100);
+    channel.close();
+    thrown.expect(ClosedChannelException.class);
+    channel.write(ByteBuffer.wrap(new byte[1]));
+  }
+
+  @Test
+  public void testCounters() throws Exception {
+    CounterSet counters = new CounterSet();
+    AsyncWritableByteChannel channel = new AsyncWritableByteChannel(
+        new TestChannel(Integer.MAX_VALUE), 100, counters.getAddCounterMutator(), "test");
+    channel.write(ByteBuffer.wrap(new byte[1000]));
+    channel.close();
+
+    assertEquals(10, channel.getFlushCount());
+    assertNotNull(counters.getExistingCounter("test-flush-msecs"));
+    assertNotNull(counters.getExistingCounter("test-write-blocked-msecs"));
+  }
+}
@@ -17,6 +17,7 @@
 package com.google.cloud.dataflow.sdk.util;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 import com.google.cloud.dataflow.sdk.coders.AvroCoder;
 import com.google.cloud.dataflow.sdk.coders.DefaultCoder;
@@ -30,6 +31,7 @@ import org.apache.avro.file.DataFileWriter;
 import org.apache.avro.io.DatumWriter;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.ExpectedException;
 import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -50,6 +52,9 @@ public class AvroUtilsTest {
   @Rule
   public TemporaryFolder tmpFolder = new TemporaryFolder();
 
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
   private static final int DEFAULT_RECORD_COUNT = 10000;
 
   /**
@@ -74,6 +79,25 @@ public class AvroUtilsTest {
     return path;
   }
 
+  @Test
+  public void testProjectSchema() {
+    Schema schema = AvroCoder.of(Bird.class).getSchema();
+    Schema projection = AvroUtils.projectSchema(schema, "quality", "species");
+
+    assertEquals(schema.getFullName(), projection.getFullName());
+    assertEquals(2, projection.getFields().size());
+    assertEquals(schema.getField("quality").schema(), projection.getFields().get(0).schema());
+    assertEquals("species", projection.getFields().get(1).name());
+    assertNull(projection.getField("number"));
+  }
+
+  @Test
+  public void testProjectSchemaRejectsMissingField() {
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("has no field named missing");
+    AvroUtils.projectSchema(AvroCoder.of(Bird.class).getSchema(), "missing");
+  }
+
   @Test
   public void testReadMetadataWithCodecs() throws Exception {
     // Test reading files generated using all codecs.
@@ -35,6 +35,7 @@ import org.mockito.MockitoAnnotations;
 public class BatchTimerInternalsTest {
 
   private static final StateNamespace NS1 = new StateNamespaceForTest("NS1");
+  private static final StateNamespace NS2 = new StateNamespaceForTest("NS2");
 
   @Mock
   private ReduceFnRunner<?, ?, ?, ?> mockRunner;
@@ -113,4 +114,21 @@ public class BatchTimerInternalsTest {
     Mockito.verify(mockRunner).onTimer(watermarkTime);
     Mockito.verifyNoMoreInteractions(mockRunner);
   }
+
+  @Test
+  public void testDeleteTimer() {
+    BatchTimerInternals underTest = new BatchTimerInternals(new Instant(0));
+    TimerData watermarkTime1 = TimerData.of(NS1, new Instant(19), TimeDomain.EVENT_TIME);
+    TimerData watermarkTime2 = TimerData.of(NS2, new Instant(19), TimeDomain.EVENT_TIME);
+    TimerData watermarkTime3 = TimerData.of(NS1, new Instant(29), TimeDomain.EVENT_TIME);
+    underTest.setTimer(watermarkTime1);
+    underTest.setTimer(watermarkTime2);
+    underTest.setTimer(watermarkTime3);
+    underTest.deleteTimer(watermarkTime1);
+    underTest.deleteTimer(watermarkTime3);
+
+    underTest.advanceInputWatermark(mockRunner, new Instant(30));
+    Mockito.verify(mockRunner).onTimer(watermarkTime2);
+    Mockito.verifyNoMoreInteractions(mockRunner);
+  }
 }
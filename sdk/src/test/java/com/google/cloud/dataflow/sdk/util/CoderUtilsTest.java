@@ -29,6 +29,7 @@ import com.google.cloud.dataflow.sdk.coders.Coder.Context;
 import com.google.cloud.dataflow.sdk.coders.CoderException;
 import com.google.cloud.dataflow.sdk.coders.IterableCoder;
 import com.google.cloud.dataflow.sdk.coders.KvCoder;
+import com.google.cloud.dataflow.sdk.coders.StringDelegateCoder;
 import com.google.cloud.dataflow.sdk.coders.StringUtf8Coder;
 import com.google.cloud.dataflow.sdk.coders.VoidCoder;
 import com.google.cloud.dataflow.sdk.testing.CoderPropertiesTest.ClosingCoder;
@@ -43,6 +44,9 @@ import org.junit.runners.JUnit4;
 
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 /**
  * Tests for CoderUtils.
@@ -226,4 +230,19 @@ public class CoderUtilsTest {
     expectedException.expectMessage("Caller does not own the underlying");
     CoderUtils.encodeToByteArray(new ClosingCoder(), "test-value", Context.NESTED);
   }
+
+  @Test
+  public void testDecodeFromByteBuffer() throws Exception {
+    byte[] bytes = "xxhello, worldxx".getBytes(StandardCharsets.UTF_8);
+    ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+    direct.put(bytes);
+    for (ByteBuffer buffer : Arrays.asList(ByteBuffer.wrap(bytes), direct)) {
+      for (Coder<String> coder : Arrays.<Coder<String>>asList(
+          StringUtf8Coder.of(), StringDelegateCoder.of(String.class))) {
+        buffer.limit(bytes.length - 2).position(2);
+        Assert.assertEquals("hello, world", CoderUtils.decodeFromByteBuffer(coder, buffer));
+        Assert.assertFalse(buffer.hasRemaining());
+      }
+    }
+  }
 }
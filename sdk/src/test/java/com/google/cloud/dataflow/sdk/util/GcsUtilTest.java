@@ -54,6 +54,7 @@ import com.google.cloud.hadoop.gcsio.GoogleCloudStorageReadChannel;
 import com.google.cloud.hadoop.util.ClientRequestHelper;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 
 import org.junit.Rule;
 import org.junit.Test;
@@ -69,7 +70,9 @@ import java.net.SocketTimeoutException;
 import java.nio.channels.SeekableByteChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -243,6 +246,57 @@ public class GcsUtilTest {
     }
   }
 
+  @Test
+  public void testGlobExpansionWithSizes() throws IOException {
+    GcsOptions pipelineOptions = gcsOptionsWithTestCredential();
+    GcsUtil gcsUtil = pipelineOptions.getGcsUtil();
+
+    Storage mockStorage = Mockito.mock(Storage.class);
+    gcsUtil.setStorageClient(mockStorage);
+
+    Storage.Objects mockStorageObjects = Mockito.mock(Storage.Objects.class);
+    Storage.Objects.List mockStorageList = Mockito.mock(Storage.Objects.List.class);
+    Storage.Objects.Get mockStorageGet = Mockito.mock(Storage.Objects.Get.class);
+
+    Objects modelObjects = new Objects();
+    List<StorageObject> items = new ArrayList<>();
+    items.add(new StorageObject().setBucket("testbucket").setName("testdirectory/")
+        .setSize(BigInteger.ZERO));
+    items.add(new StorageObject().setBucket("testbucket").setName("testdirectory/file1name")
+        .setSize(BigInteger.valueOf(100)));
+    items.add(new StorageObject().setBucket("testbucket").setName("testdirectory/file2name")
+        .setSize(BigInteger.valueOf(200)));
+    items.add(new StorageObject().setBucket("testbucket").setName("testdirectory/otherfile")
+        .setSize(BigInteger.valueOf(300)));
+    modelObjects.setItems(items);
+
+    when(mockStorage.objects()).thenReturn(mockStorageObjects);
+    when(mockStorageObjects.list("testbucket")).thenReturn(mockStorageList);
+    when(mockStorageList.execute()).thenReturn(modelObjects);
+    when(mockStorageObjects.get("testbucket", "testdirectory/otherfile"))
+        .thenReturn(mockStorageGet);
+    when(mockStorageGet.execute()).thenReturn(
+        new StorageObject().setSize(BigInteger.valueOf(300)));
+
+    // Sizes of the matches of a pattern come from the listing.
+    {
+      GcsPath pattern = GcsPath.fromUri("gs://testbucket/testdirectory/file*");
+      Map<GcsPath, Long> expected = new LinkedHashMap<>();
+      expected.put(GcsPath.fromUri("gs://testbucket/testdirectory/file1name"), 100L);
+      expected.put(GcsPath.fromUri("gs://testbucket/testdirectory/file2name"), 200L);
+
+      assertEquals(expected, gcsUtil.expandWithSizes(pattern));
+      Mockito.verify(mockStorageObjects, Mockito.never()).get(
+          Mockito.anyString(), Mockito.anyString());
+    }
+
+    // A single file is looked up.
+    {
+      GcsPath pattern = GcsPath.fromUri("gs://testbucket/testdirectory/otherfile");
+      assertEquals(ImmutableMap.of(pattern, 300L), gcsUtil.expandWithSizes(pattern));
+    }
+  }
+
   // Patterns that contain recursive wildcards ('**') are not supported.
   @Test
   public void testRecursiveGlobExpansionFails() throws IOException {
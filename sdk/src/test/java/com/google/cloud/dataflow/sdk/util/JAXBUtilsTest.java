@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.StringReader;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Tests for {@link JAXBUtils}.
+ */
+@RunWith(JUnit4.class)
+public class JAXBUtilsTest {
+  @XmlRootElement
+  static class Book {
+    public String title;
+  }
+
+  @Test
+  public void testContextIsShared() throws Exception {
+    assertSame(JAXBUtils.getContext(Book.class), JAXBUtils.getContext(Book.class));
+  }
+
+  @Test
+  public void testMarshallersArePerThread() throws Exception {
+    final Marshaller marshaller = JAXBUtils.getMarshaller(Book.class);
+    final Unmarshaller unmarshaller = JAXBUtils.getUnmarshaller(Book.class);
+    assertSame(marshaller, JAXBUtils.getMarshaller(Book.class));
+    assertSame(unmarshaller, JAXBUtils.getUnmarshaller(Book.class));
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          assertNotSame(marshaller, JAXBUtils.getMarshaller(Book.class));
+          assertNotSame(unmarshaller, JAXBUtils.getUnmarshaller(Book.class));
+          return null;
+        }
+      }).get();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testUnmarshal() throws Exception {
+    Book book = (Book) JAXBUtils.getUnmarshaller(Book.class)
+        .unmarshal(new StringReader("<book><title>Dune</title></book>"));
+    assertEquals("Dune", book.title);
+  }
+
+  @Test
+  public void testUnmarshallerHasDefaultConfiguration() throws Exception {
+    // By default, JAXB ignores validation errors such as unexpected elements.
+    Book book = (Book) JAXBUtils.getUnmarshaller(Book.class)
+        .unmarshal(new StringReader("<book><author>Herbert</author><title>Dune</title></book>"));
+    assertEquals("Dune", book.title);
+  }
+}
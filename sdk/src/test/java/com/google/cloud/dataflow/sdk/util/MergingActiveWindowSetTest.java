@@ -17,6 +17,7 @@
 package com.google.cloud.dataflow.sdk.util;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 
@@ -36,7 +37,9 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 /**
  * Test NonMergingActiveWindowSet.
@@ -172,4 +175,33 @@ public class MergingActiveWindowSetTest {
 
     pruneAndPersist();
   }
+
+  @Test
+  public void testIncrementalMerge() throws Exception {
+    @SuppressWarnings("unchecked")
+    ActiveWindowSet.MergeCallback<IntervalWindow> callback =
+        mock(ActiveWindowSet.MergeCallback.class);
+
+    // Add sessions in several rounds, each only overlapping a few of the existing sessions.
+    long[][] rounds = {{0, 100, 200, 300, 400}, {50, 250}, {5, 95, 420}, {150, 305, 500}};
+    List<IntervalWindow> allWindows = new ArrayList<>();
+    for (long[] round : rounds) {
+      for (long instant : round) {
+        add(instant);
+        allWindows.add(window(instant, 10));
+      }
+      merge(callback);
+    }
+
+    // Sessions with a gap of 10 starting at the above instants.
+    assertEquals(
+        ImmutableSet.of(window(0, 15), window(50, 10), window(95, 15), window(150, 10),
+            window(200, 10), window(250, 10), window(300, 15), window(400, 10),
+            window(420, 10), window(500, 10)),
+        set.getActiveWindows());
+    for (IntervalWindow window : allWindows) {
+      IntervalWindow representative = set.representative(window);
+      assertTrue(representative.contains(window));
+    }
+  }
 }
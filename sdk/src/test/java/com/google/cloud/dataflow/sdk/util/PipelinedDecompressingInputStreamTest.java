@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.cloud.dataflow.sdk.util.PipelinedDecompressingInputStream.Decompressor;
+import com.google.cloud.dataflow.sdk.util.PipelinedDecompressingInputStream.Stage;
+import com.google.cloud.dataflow.sdk.util.common.CounterSet;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Tests for {@link PipelinedDecompressingInputStream}.
+ */
+@RunWith(JUnit4.class)
+public class PipelinedDecompressingInputStreamTest {
+  private static final Decompressor GZIP = new Decompressor() {
+    @Override
+    public InputStream decompress(InputStream compressed) throws IOException {
+      return new GZIPInputStream(compressed);
+    }
+  };
+
+  private static byte[] generateInput(int size) {
+    byte[] input = new byte[size];
+    Random random = new Random(size);
+    for (int i = 0; i < size; i++) {
+      // Compressible, but not trivially so.
+      input[i] = (byte) ('a' + random.nextInt(8));
+    }
+    return input;
+  }
+
+  private static byte[] gzip(byte[] input) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+      out.write(input);
+    }
+    return bytes.toByteArray();
+  }
+
+  @Test
+  public void testDecompress() throws Exception {
+    for (int size : new int[] {0, 1, 100, 1000, 100000}) {
+      byte[] input = generateInput(size);
+      try (InputStream in = new PipelinedDecompressingInputStream(
+          new ByteArrayInputStream(gzip(input)), GZIP, null, null, 100, 2)) {
+        assertArrayEquals(input, ByteStreams.toByteArray(in));
+        assertEquals(-1, in.read());
+      }
+    }
+  }
+
+  @Test
+  public void testSingleByteReads() throws Exception {
+    byte[] input = generateInput(1000);
+    try (InputStream in = new PipelinedDecompressingInputStream(
+        new ByteArrayInputStream(gzip(input)), GZIP, null, null, 64, 1)) {
+      for (byte b : input) {
+        assertEquals(b & 0xff, in.read());
+      }
+      assertEquals(-1, in.read());
+    }
+  }
+
+  @Test
+  public void testBlockedTimeCounters() throws Exception {
+    byte[] input = generateInput(100000);
+    CounterSet counters = new CounterSet();
+    try (PipelinedDecompressingInputStream in = new PipelinedDecompressingInputStream(
+        new ByteArrayInputStream(gzip(input)), GZIP, counters.getAddCounterMutator(), "op",
+        100, 2)) {
+      // Let the background threads fill their queues before reading.
+      Thread.sleep(100);
+      assertArrayEquals(input, ByteStreams.toByteArray(in));
+      assertTrue(in.getBlockedNanos(Stage.DECOMPRESS) > 0);
+    }
+    for (Stage stage : Stage.values()) {
+      assertNotNull(counters.getExistingCounter(
+          "op-" + stage.name().toLowerCase() + "-blocked-msecs"));
+    }
+  }
+
+  @Test
+  public void testDecompressionFailureIsPropagated() throws Exception {
+    byte[] compressed = gzip(generateInput(100000));
+    // Corrupt the end of the deflate data.
+    compressed[compressed.length - 20] ^= 0xff;
+    try (InputStream in = new PipelinedDecompressingInputStream(
+        new ByteArrayInputStream(compressed), GZIP, null, null, 100, 2)) {
+      ByteStreams.toByteArray(in);
+      fail("Expected an IOException");
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void testReadFailureIsPropagated() throws Exception {
+    final IOException failure = new IOException("read failed");
+    InputStream failing = new InputStream() {
+      @Override
+      public int read() throws IOException {
+        throw failure;
+      }
+    };
+    try (InputStream in = new PipelinedDecompressingInputStream(failing, new Decompressor() {
+      @Override
+      public InputStream decompress(InputStream compressed) {
+        return compressed;
+      }
+    }, null, null, 100, 2)) {
+      in.read();
+      fail("Expected an IOException");
+    } catch (IOException e) {
+      assertSame(failure, e);
+    }
+  }
+
+  @Test
+  public void testCloseBeforeEnd() throws Exception {
+    final AtomicBoolean closed = new AtomicBoolean();
+    InputStream compressed = new ByteArrayInputStream(gzip(generateInput(100000))) {
+      @Override
+      public void close() {
+        closed.set(true);
+      }
+    };
+    InputStream in = new PipelinedDecompressingInputStream(compressed, GZIP, null, null, 100, 1);
+    assertTrue(in.read() >= 0);
+    in.close();
+    assertTrue(closed.get());
+    try {
+      in.read();
+      fail("Expected an IOException");
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void testCloseWaitsForBackgroundRead() throws Exception {
+    final CountDownLatch readStarted = new CountDownLatch(1);
+    final CountDownLatch readReleased = new CountDownLatch(1);
+    final AtomicBoolean reading = new AtomicBoolean();
+    final AtomicBoolean closedWhileReading = new AtomicBoolean();
+    InputStream compressed = new InputStream() {
+      @Override
+      public int read() {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) {
+        // A read that ignores interrupts, like a read from a socket.
+        reading.set(true);
+        readStarted.countDown();
+        Uninterruptibles.awaitUninterruptibly(readReleased);
+        reading.set(false);
+        return -1;
+      }
+
+      @Override
+      public void close() {
+        closedWhileReading.set(reading.get());
+      }
+    };
+    Decompressor identity = new Decompressor() {
+      @Override
+      public InputStream decompress(InputStream in) {
+        return in;
+      }
+    };
+    final InputStream in =
+        new PipelinedDecompressingInputStream(compressed, identity, null, null, 100, 1);
+    readStarted.await();
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<?> closing = executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          in.close();
+          return null;
+        }
+      });
+      try {
+        closing.get(100, TimeUnit.MILLISECONDS);
+        fail("close returned while the compressed stream was being read");
+      } catch (TimeoutException e) {
+        // Expected.
+      }
+      readReleased.countDown();
+      closing.get(10, TimeUnit.SECONDS);
+      assertFalse(closedWhileReading.get());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
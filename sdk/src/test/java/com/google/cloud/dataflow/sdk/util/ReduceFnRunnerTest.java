@@ -37,6 +37,7 @@ import com.google.cloud.dataflow.sdk.transforms.windowing.AfterFirst;
 import com.google.cloud.dataflow.sdk.transforms.windowing.AfterPane;
 import com.google.cloud.dataflow.sdk.transforms.windowing.AfterProcessingTime;
 import com.google.cloud.dataflow.sdk.transforms.windowing.AfterWatermark;
+import com.google.cloud.dataflow.sdk.transforms.windowing.DefaultTrigger;
 import com.google.cloud.dataflow.sdk.transforms.windowing.FixedWindows;
 import com.google.cloud.dataflow.sdk.transforms.windowing.IntervalWindow;
 import com.google.cloud.dataflow.sdk.transforms.windowing.PaneInfo;
@@ -500,6 +501,61 @@ public class ReduceFnRunnerTest {
             WindowMatchers.valueWithPaneInfo(PaneInfo.createPane(true, true, Timing.LATE))));
   }
 
+  @Test
+  public void testDefaultTriggerProcessesValuesPerWindow() throws Exception {
+    // With the default trigger the values in a bundle are processed per window, so check the
+    // holds and panes are as if they had been processed one at a time.
+    ReduceFnTester<Integer, Iterable<Integer>, IntervalWindow> tester =
+        ReduceFnTester.nonCombining(FixedWindows.of(Duration.millis(10)),
+            DefaultTrigger.<IntervalWindow>of(), AccumulationMode.DISCARDING_FIRED_PANES,
+            Duration.millis(100));
+
+    tester.advanceInputWatermark(new Instant(0));
+    tester.injectElements(
+        TimestampedValue.of(3, new Instant(3)),
+        TimestampedValue.of(12, new Instant(12)),
+        TimestampedValue.of(1, new Instant(1)),
+        TimestampedValue.of(7, new Instant(7)));
+    assertEquals(new Instant(1), tester.getWatermarkHold());
+    assertEquals(0, tester.getOutputSize());
+
+    tester.advanceInputWatermark(new Instant(10));
+    assertThat(
+        tester.extractOutput(),
+        contains(isSingleWindowedValue(containsInAnyOrder(1, 3, 7), 1, 0, 10)));
+    assertEquals(new Instant(12), tester.getWatermarkHold());
+
+    tester.advanceInputWatermark(new Instant(20));
+    assertThat(
+        tester.extractOutput(),
+        contains(isSingleWindowedValue(containsInAnyOrder(12), 12, 10, 20)));
+    // Only one element hold was written for the three elements in the first window.
+    assertEquals(2, tester.getWatermarkHoldWritesAvoided());
+  }
+
+  @Test
+  public void testElementHoldsCombinedBeforeWriting() throws Exception {
+    ReduceFnTester<Integer, Iterable<Integer>, IntervalWindow> tester =
+        ReduceFnTester.nonCombining(FixedWindows.of(Duration.millis(10)), mockTrigger,
+            AccumulationMode.DISCARDING_FIRED_PANES, Duration.millis(100));
+
+    when(mockTrigger.onElement(Mockito.<Trigger<IntervalWindow>.OnElementContext>any()))
+        .thenReturn(TriggerResult.CONTINUE);
+    tester.injectElements(
+        TimestampedValue.of(5, new Instant(5)),
+        TimestampedValue.of(2, new Instant(2)),
+        TimestampedValue.of(8, new Instant(8)));
+    assertEquals(new Instant(2), tester.getWatermarkHold());
+    assertEquals(2, tester.getWatermarkHoldWritesAvoided());
+
+    // The pending hold for the element must be seen when the pane fires.
+    injectElement(tester, 1, TriggerResult.FIRE);
+    assertThat(
+        tester.extractOutput(),
+        contains(isSingleWindowedValue(containsInAnyOrder(1, 2, 5, 8), 1, 0, 10)));
+    assertEquals(2, tester.getWatermarkHoldWritesAvoided());
+  }
+
   @Test
   public void testMergeBeforeFinalizing() throws Exception {
     // Verify that we merge windows before producing output so users don't see undesired
@@ -102,6 +102,8 @@ public class ReduceFnTester<InputT, OutputT, W extends BoundedWindow> {
       new InMemoryLongSumAggregator(ReduceFnRunner.DROPPED_DUE_TO_CLOSED_WINDOW_COUNTER);
   private final InMemoryLongSumAggregator droppedDueToLateness =
       new InMemoryLongSumAggregator(ReduceFnRunner.DROPPED_DUE_TO_LATENESS_COUNTER);
+  private final InMemoryLongSumAggregator watermarkHoldWritesAvoided =
+      new InMemoryLongSumAggregator(ReduceFnRunner.WATERMARK_HOLD_WRITES_AVOIDED_COUNTER);
 
   public static <W extends BoundedWindow> ReduceFnTester<Integer, Iterable<Integer>, W>
       nonCombining(WindowingStrategy<?, W> windowingStrategy) throws Exception {
@@ -167,7 +169,7 @@ public class ReduceFnTester<InputT, OutputT, W extends BoundedWindow> {
 
   ReduceFnRunner<String, InputT, OutputT, W> createRunner() {
     return new ReduceFnRunner<>(KEY, objectStrategy, timerInternals, windowingInternals,
-        droppedDueToClosedWindow, droppedDueToLateness, reduceFn);
+        droppedDueToClosedWindow, droppedDueToLateness, watermarkHoldWritesAvoided, reduceFn);
   }
 
   public ExecutableTrigger<W> getTrigger() {
@@ -268,6 +270,10 @@ public class ReduceFnTester<InputT, OutputT, W extends BoundedWindow> {
     return droppedDueToLateness.getSum();
   }
 
+  public long getWatermarkHoldWritesAvoided() {
+    return watermarkHoldWritesAvoided.getSum();
+  }
+
   /**
    * How many panes do we have in the output?
    */
@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.dataflow.sdk.coders.VarIntCoder;
+import com.google.cloud.dataflow.sdk.transforms.windowing.AfterEach;
+import com.google.cloud.dataflow.sdk.transforms.windowing.AfterPane;
+import com.google.cloud.dataflow.sdk.transforms.windowing.FixedWindows;
+import com.google.cloud.dataflow.sdk.transforms.windowing.IntervalWindow;
+import com.google.cloud.dataflow.sdk.transforms.windowing.Sessions;
+import com.google.cloud.dataflow.sdk.transforms.windowing.Trigger;
+import com.google.cloud.dataflow.sdk.transforms.windowing.Trigger.TriggerResult;
+import com.google.cloud.dataflow.sdk.transforms.windowing.WindowFn;
+import com.google.cloud.dataflow.sdk.util.state.InMemoryStateInternals;
+import com.google.cloud.dataflow.sdk.util.state.State;
+import com.google.cloud.dataflow.sdk.util.state.StateContents;
+import com.google.cloud.dataflow.sdk.util.state.StateNamespace;
+import com.google.cloud.dataflow.sdk.util.state.StateNamespaces;
+import com.google.cloud.dataflow.sdk.util.state.StateTag;
+import com.google.cloud.dataflow.sdk.util.state.ValueState;
+import com.google.common.collect.ImmutableList;
+
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.BitSet;
+
+/**
+ * Tests for {@link TriggerRunner}, and in particular its caching of finished bits.
+ */
+@RunWith(JUnit4.class)
+public class TriggerRunnerTest {
+  private static final IntervalWindow WINDOW_1 =
+      new IntervalWindow(new Instant(0), new Instant(10));
+  private static final IntervalWindow WINDOW_2 =
+      new IntervalWindow(new Instant(5), new Instant(15));
+  private static final IntervalWindow MERGED_WINDOW =
+      new IntervalWindow(new Instant(0), new Instant(15));
+
+  /**
+   * In-memory state that counts the reads and writes of finished bits.
+   */
+  private static class CountingStateInternals extends InMemoryStateInternals {
+    private int finishedBitsReads = 0;
+    private int finishedBitsWrites = 0;
+
+    @Override
+    public <T extends State> T state(StateNamespace namespace, StateTag<T> address) {
+      T state = super.state(namespace, address);
+      if (!TriggerRunner.FINISHED_BITS_TAG.equals(address)) {
+        return state;
+      }
+      @SuppressWarnings("unchecked")
+      final ValueState<BitSet> bits = (ValueState<BitSet>) state;
+      @SuppressWarnings("unchecked")
+      T counting = (T) new ValueState<BitSet>() {
+        @Override
+        public StateContents<BitSet> get() {
+          finishedBitsReads++;
+          return bits.get();
+        }
+
+        @Override
+        public void set(BitSet input) {
+          finishedBitsWrites++;
+          bits.set(input);
+        }
+
+        @Override
+        public void clear() {
+          finishedBitsWrites++;
+          bits.clear();
+        }
+      };
+      return counting;
+    }
+
+    /** Reads the finished bits of a window directly from state. */
+    BitSet storedFinishedBits(WindowFn<?, IntervalWindow> windowFn, IntervalWindow window) {
+      return super.state(StateNamespaces.window(windowFn.windowCoder(), window),
+          TriggerRunner.FINISHED_BITS_TAG).get().read();
+    }
+  }
+
+  /**
+   * A {@link TriggerRunner} and the factory for the contexts passed to it, over shared state.
+   */
+  private static class Harness {
+    private final WindowFn<?, IntervalWindow> windowFn;
+    private final CountingStateInternals state;
+    private final TriggerRunner<IntervalWindow> runner;
+    private final ReduceFnContextFactory<String, Integer, Iterable<Integer>, IntervalWindow>
+        contexts;
+
+    Harness(Trigger<IntervalWindow> trigger, WindowFn<?, IntervalWindow> windowFn,
+        CountingStateInternals state) {
+      this.windowFn = windowFn;
+      this.state = state;
+      WindowingStrategy<?, IntervalWindow> strategy =
+          WindowingStrategy.of(windowFn).withTrigger(trigger);
+      @SuppressWarnings("unchecked")
+      WindowFn<Object, IntervalWindow> objectWindowFn = (WindowFn<Object, IntervalWindow>) windowFn;
+      ActiveWindowSet<IntervalWindow> activeWindows = windowFn.isNonMerging()
+          ? new NonMergingActiveWindowSet<IntervalWindow>()
+          : new MergingActiveWindowSet<IntervalWindow>(objectWindowFn, state);
+      activeWindows.addActive(WINDOW_1);
+      activeWindows.addActive(WINDOW_2);
+      activeWindows.addActive(MERGED_WINDOW);
+      this.runner = new TriggerRunner<>(strategy.getTrigger(),
+          new TriggerContextFactory<>(strategy, state, activeWindows));
+      this.contexts = new ReduceFnContextFactory<>("key",
+          SystemReduceFn.<String, Integer, IntervalWindow>buffering(VarIntCoder.of())
+              .create("key"),
+          strategy, state, activeWindows, new BatchTimerInternals(new Instant(0)));
+    }
+
+    TriggerResult processValue(IntervalWindow window, int value) throws Exception {
+      return runner.processValue(contexts.forValue(window, value, window.start()));
+    }
+
+    boolean isClosed(IntervalWindow window) {
+      return runner.isClosed(contexts.base(window));
+    }
+
+    BitSet storedFinishedBits(IntervalWindow window) {
+      return state.storedFinishedBits(windowFn, window);
+    }
+  }
+
+  @Test
+  public void testFinishedBitsAreReadOncePerWindow() throws Exception {
+    CountingStateInternals state = new CountingStateInternals();
+    Harness harness = new Harness(
+        AfterPane.<IntervalWindow>elementCountAtLeast(100),
+        FixedWindows.of(Duration.millis(10)), state);
+
+    for (int i = 0; i < 10; i++) {
+      harness.processValue(WINDOW_1, i);
+      assertFalse(harness.isClosed(WINDOW_1));
+    }
+    assertEquals(1, state.finishedBitsReads);
+    assertEquals(0, state.finishedBitsWrites);
+
+    // Nothing changed, so there is nothing to write back.
+    harness.runner.persist();
+    assertEquals(0, state.finishedBitsWrites);
+  }
+
+  @Test
+  public void testChangedFinishedBitsArePersisted() throws Exception {
+    CountingStateInternals state = new CountingStateInternals();
+    Harness harness = new Harness(
+        AfterPane.<IntervalWindow>elementCountAtLeast(2),
+        FixedWindows.of(Duration.millis(10)), state);
+
+    harness.processValue(WINDOW_1, 1);
+    assertEquals(TriggerResult.FIRE_AND_FINISH, harness.processValue(WINDOW_1, 2));
+    assertTrue(harness.isClosed(WINDOW_1));
+    // The change is only written back by persist.
+    assertNull(harness.storedFinishedBits(WINDOW_1));
+
+    harness.runner.persist();
+    assertEquals(1, state.finishedBitsWrites);
+    assertTrue(harness.storedFinishedBits(WINDOW_1).get(0));
+
+    // Already written, so persisting again writes nothing.
+    harness.runner.persist();
+    assertEquals(1, state.finishedBitsWrites);
+
+    // A new runner over the same state reads the persisted bits.
+    Harness next = new Harness(
+        AfterPane.<IntervalWindow>elementCountAtLeast(2),
+        FixedWindows.of(Duration.millis(10)), state);
+    assertTrue(next.isClosed(WINDOW_1));
+  }
+
+  @Test
+  public void testClearEverythingResetsCachedFinishedBits() throws Exception {
+    CountingStateInternals state = new CountingStateInternals();
+    Harness harness = new Harness(
+        AfterPane.<IntervalWindow>elementCountAtLeast(1),
+        FixedWindows.of(Duration.millis(10)), state);
+
+    harness.processValue(WINDOW_1, 1);
+    harness.runner.persist();
+    assertTrue(harness.isClosed(WINDOW_1));
+
+    harness.runner.clearEverything(harness.contexts.base(WINDOW_1));
+    // The cached bits are cleared right away, not only once persisted.
+    assertFalse(harness.isClosed(WINDOW_1));
+    harness.runner.persist();
+    assertNull(harness.storedFinishedBits(WINDOW_1));
+  }
+
+  @Test
+  public void testMergeSeesUnpersistedFinishedBitsOfMergingWindows() throws Exception {
+    CountingStateInternals state = new CountingStateInternals();
+    Trigger<IntervalWindow> trigger = AfterEach.<IntervalWindow>inOrder(
+        AfterPane.<IntervalWindow>elementCountAtLeast(1),
+        AfterPane.<IntervalWindow>elementCountAtLeast(100));
+    Harness harness = new Harness(trigger, Sessions.withGapDuration(Duration.millis(10)), state);
+
+    // The first subtrigger finishes in WINDOW_1, but that is not yet written to state.
+    assertEquals(TriggerResult.FIRE, harness.processValue(WINDOW_1, 1));
+    assertNull(harness.storedFinishedBits(WINDOW_1));
+
+    // Merging must use the cached bits of WINDOW_1: its first subtrigger has finished, so the
+    // merged window waits for the second one rather than firing again.
+    assertEquals(TriggerResult.CONTINUE, harness.runner.onMerge(
+        harness.contexts.forMerge(ImmutableList.of(WINDOW_1, WINDOW_2), MERGED_WINDOW)));
+    harness.runner.persist();
+    BitSet merged = harness.storedFinishedBits(MERGED_WINDOW);
+    assertTrue(merged.get(1));
+    assertFalse(merged.get(0));
+  }
+}
@@ -19,8 +19,11 @@ package com.google.cloud.dataflow.sdk.util;
 import com.google.cloud.dataflow.sdk.coders.Coder;
 import com.google.cloud.dataflow.sdk.coders.CoderException;
 import com.google.cloud.dataflow.sdk.coders.StringUtf8Coder;
+import com.google.cloud.dataflow.sdk.testing.CoderProperties;
+import com.google.cloud.dataflow.sdk.transforms.windowing.BoundedWindow;
 import com.google.cloud.dataflow.sdk.transforms.windowing.IntervalWindow;
 import com.google.cloud.dataflow.sdk.transforms.windowing.PaneInfo;
+import com.google.cloud.dataflow.sdk.transforms.windowing.PaneInfo.Timing;
 
 import org.joda.time.Instant;
 import org.junit.Assert;
@@ -28,7 +31,11 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 /** Test case for {@link WindowedValue}. */
 @RunWith(JUnit4.class)
@@ -54,4 +61,59 @@ public class WindowedValueTest {
     Assert.assertEquals(value.getTimestamp(), decodedValue.getTimestamp());
     Assert.assertArrayEquals(value.getWindows().toArray(), decodedValue.getWindows().toArray());
   }
+
+  @Test
+  public void testCompactWindowedValueCoder() throws Exception {
+    Coder<WindowedValue<String>> coder =
+        WindowedValue.getCompactFullCoder(StringUtf8Coder.of(), IntervalWindow.getCoder());
+    IntervalWindow window = new IntervalWindow(new Instant(1000), new Instant(2000));
+    List<WindowedValue<String>> values = Arrays.asList(
+        WindowedValue.of("a", new Instant(1234), window, PaneInfo.NO_FIRING),
+        WindowedValue.of("b", new Instant(5000), window,
+            PaneInfo.createPane(false, true, Timing.LATE, 2, 1)),
+        WindowedValue.of("c", new Instant(-3), Arrays.asList(
+            window, new IntervalWindow(new Instant(-10), new Instant(0))), PaneInfo.NO_FIRING),
+        WindowedValue.of("d", BoundedWindow.TIMESTAMP_MIN_VALUE,
+            Collections.<BoundedWindow>emptyList(), PaneInfo.NO_FIRING),
+        WindowedValue.of("e", new Instant(Long.MIN_VALUE), window, PaneInfo.NO_FIRING));
+    for (WindowedValue<String> value : values) {
+      for (Coder.Context context : CoderProperties.ALL_CONTEXTS) {
+        // Both the stream and the positional encodings must match and decode correctly.
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        coder.encode(value, stream, context);
+        byte[] encoded = CoderUtils.encodeToByteArray(coder, value, context);
+        Assert.assertArrayEquals(stream.toByteArray(), encoded);
+        for (WindowedValue<String> decoded : Arrays.asList(
+            CoderUtils.decodeFromByteArray(coder, encoded, context),
+            coder.decode(new ByteArrayInputStream(encoded), context))) {
+          Assert.assertEquals(value.getValue(), decoded.getValue());
+          Assert.assertEquals(value.getTimestamp(), decoded.getTimestamp());
+          Assert.assertEquals(value.getPane(), decoded.getPane());
+          Assert.assertArrayEquals(value.getWindows().toArray(), decoded.getWindows().toArray());
+        }
+      }
+    }
+    CoderProperties.coderSerializable(coder);
+  }
+
+  @Test
+  public void testCompactWindowedValueCoderSharesDecodedWindows() throws Exception {
+    Coder<WindowedValue<String>> coder =
+        WindowedValue.getCompactFullCoder(StringUtf8Coder.of(), IntervalWindow.getCoder());
+    IntervalWindow window = new IntervalWindow(new Instant(0), new Instant(10));
+    WindowedValue<String> first = CoderUtils.decodeFromByteArray(coder,
+        CoderUtils.encodeToByteArray(
+            coder, WindowedValue.of("a", new Instant(1), window, PaneInfo.NO_FIRING)));
+    WindowedValue<String> second = CoderUtils.decodeFromByteArray(coder,
+        CoderUtils.encodeToByteArray(
+            coder, WindowedValue.of("b", new Instant(2), window, PaneInfo.NO_FIRING)));
+    Assert.assertSame(
+        first.getWindows().iterator().next(), second.getWindows().iterator().next());
+
+    // The timestamp is encoded as a small delta from the end of the window.
+    Coder<WindowedValue<String>> fullCoder =
+        WindowedValue.getFullCoder(StringUtf8Coder.of(), IntervalWindow.getCoder());
+    Assert.assertTrue(CoderUtils.encodeToByteArray(coder, first).length
+        < CoderUtils.encodeToByteArray(fullCoder, first).length);
+  }
 }
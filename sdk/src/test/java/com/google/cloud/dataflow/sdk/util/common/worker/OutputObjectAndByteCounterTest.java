@@ -21,21 +21,34 @@ import static com.google.cloud.dataflow.sdk.util.common.Counter.AggregationKind.
 import static com.google.cloud.dataflow.sdk.util.common.worker.TestOutputReceiver.TestOutputCounter.getMeanByteCounterName;
 import static com.google.cloud.dataflow.sdk.util.common.worker.TestOutputReceiver.TestOutputCounter.getObjectCounterName;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
+import com.google.cloud.dataflow.sdk.coders.AtomicCoder;
 import com.google.cloud.dataflow.sdk.coders.CoderException;
 import com.google.cloud.dataflow.sdk.coders.StringUtf8Coder;
+import com.google.cloud.dataflow.sdk.coders.VarIntCoder;
 import com.google.cloud.dataflow.sdk.runners.worker.MapTaskExecutorFactory.ElementByteSizeObservableCoder;
+import com.google.cloud.dataflow.sdk.transforms.windowing.IntervalWindow;
+import com.google.cloud.dataflow.sdk.transforms.windowing.PaneInfo;
+import com.google.cloud.dataflow.sdk.util.WindowedValue;
+import com.google.cloud.dataflow.sdk.util.WindowedValue.FullWindowedValueCoder;
 import com.google.cloud.dataflow.sdk.util.common.Counter;
 import com.google.cloud.dataflow.sdk.util.common.Counter.CounterMean;
 import com.google.cloud.dataflow.sdk.util.common.CounterSet;
+import com.google.cloud.dataflow.sdk.util.common.ElementByteSizeObservable;
+import com.google.cloud.dataflow.sdk.util.common.ElementByteSizeObserver;
 import com.google.cloud.dataflow.sdk.util.common.worker.TestOutputReceiver.TestOutputCounter;
 
+import org.joda.time.Instant;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
@@ -125,4 +138,140 @@ public class OutputObjectAndByteCounterTest {
       assertEquals(expected.get(n), counter.getByteCount().getAggregate());
     }
   }
+
+  @Test
+  public void testCheapElementsAreNotScaled() throws Exception {
+    OutputObjectAndByteCounter counter = new OutputObjectAndByteCounter(
+            new ElementByteSizeObservableCoder<>(VarIntCoder.of()),
+            new CounterSet().getAddCounterMutator())
+        .setSamplingPeriod(100)
+        .setRandom(new Random(0))
+        .countBytes("byte_count")
+        .countBytesVariance("byte_count_variance");
+    for (int i = 0; i < 100000; i++) {
+      counter.update(1);
+    }
+    assertEquals(100000L, (long) counter.getByteCount().getAggregate());
+    assertEquals(0L, (long) counter.getByteCountVariance().getAggregate());
+  }
+
+  @Test
+  public void testCheapWindowedValuesAreNotEncoded() throws Exception {
+    OutputObjectAndByteCounter counter = new OutputObjectAndByteCounter(
+            new ElementByteSizeObservableCoder<>(
+                FullWindowedValueCoder.of(new UnencodableCoder(), IntervalWindow.getCoder())),
+            new CounterSet().getAddCounterMutator())
+        .setSamplingPeriod(100)
+        .setRandom(new Random(0))
+        .countBytes("byte_count");
+    WindowedValue<Long> value = WindowedValue.of(
+        5L, new Instant(500), new IntervalWindow(new Instant(0), new Instant(1000)),
+        PaneInfo.NO_FIRING);
+    // The first elements are always sampled, and unscaled.
+    for (int i = 0; i < 10; i++) {
+      counter.update(value);
+    }
+    long elementSize = counter.getByteCount().getAggregate() / 10;
+    for (int i = 10; i < 100000; i++) {
+      counter.update(value);
+    }
+    assertEquals(100000L * elementSize, (long) counter.getByteCount().getAggregate());
+  }
+
+  @Test
+  public void testLazyBytesObservedLateCountTowardsTheirElement() throws Exception {
+    LazyObservable observable = new LazyObservable();
+    OutputObjectAndByteCounter counter =
+        new OutputObjectAndByteCounter(observable, new CounterSet().getAddCounterMutator())
+            .setRandom(new Random(0) {
+              @Override
+              public double nextDouble() {
+                return 0.0;
+              }
+            })
+            .setSamplingFraction(0.5)
+            .countBytes("byte_count")
+            .countBytesVariance("byte_count_variance");
+    // The first elements are always sampled, and unscaled.
+    for (int i = 0; i < 10; i++) {
+      counter.update("warmup");
+      counter.finishLazyUpdate("warmup");
+    }
+    observable.observers.clear();
+
+    // Two elements sampled with probability 0.5, whose bytes are observed after both finished.
+    counter.update("first");
+    counter.finishLazyUpdate("first");
+    counter.update("second");
+    counter.finishLazyUpdate("second");
+    observable.observers.get(0).update(10L);
+    observable.observers.get(1).update(20L);
+    observable.observers.get(0).update(10L);
+
+    assertEquals(2 * 40L, (long) counter.getByteCount().getAggregate());
+    // Each element adds (s^2 - s) * size^2 = 2 * size^2.
+    assertEquals(2 * 20 * 20 + 2 * 20 * 20, (long) counter.getByteCountVariance().getAggregate());
+  }
+
+  /**
+   * An observable whose elements' byte sizes are all observed lazily, by the test.
+   */
+  private static class LazyObservable implements ElementByteSizeObservable<Object> {
+    private final List<ElementByteSizeObserver> observers = new ArrayList<>();
+
+    @Override
+    public boolean isRegisterByteSizeObserverCheap(Object value) {
+      return false;
+    }
+
+    @Override
+    public void registerByteSizeObserver(Object value, ElementByteSizeObserver observer) {
+      observer.setLazy();
+      observers.add(observer);
+    }
+  }
+
+  /**
+   * A coder whose byte size is cheap to observe and which fails if asked to encode.
+   */
+  private static class UnencodableCoder extends AtomicCoder<Long> {
+    @Override
+    public void encode(Long value, OutputStream outStream, Context context) {
+      throw new UnsupportedOperationException("encode");
+    }
+
+    @Override
+    public Long decode(InputStream inStream, Context context) {
+      throw new UnsupportedOperationException("decode");
+    }
+
+    @Override
+    public boolean isRegisterByteSizeObserverCheap(Long value, Context context) {
+      return true;
+    }
+
+    @Override
+    public void registerByteSizeObserver(
+        Long value, ElementByteSizeObserver observer, Context context) {
+      observer.update(8L);
+    }
+  }
+
+  @Test
+  public void testSamplingFractionByteCount() throws Exception {
+    long expected = 0;
+    OutputObjectAndByteCounter counter = makeCounter(100, 0)
+        .setSamplingFraction(0.05)
+        .countBytesVariance("byte_count_variance");
+    for (int i = 0; i < 100000; i++) {
+      String elem = i % 2 == 0 ? "foo" : "foobarbaz";
+      expected += elem.length();
+      counter.update(elem);
+    }
+    long estimate = counter.getByteCount().getAggregate();
+    double stdErr = Math.sqrt(counter.getByteCountVariance().getAggregate());
+    // The variance of the estimate is roughly n * (1 - p) / p * E[size^2].
+    assertEquals(Math.sqrt(100000 * 19 * 45.0), stdErr, stdErr * 0.1);
+    assertTrue(Math.abs(estimate - expected) < 4 * stdErr);
+  }
 }